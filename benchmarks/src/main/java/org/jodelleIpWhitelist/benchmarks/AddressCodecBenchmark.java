@@ -0,0 +1,122 @@
+package org.jodelleIpWhitelist.benchmarks;
+
+import org.jodelleIpWhitelist.Util.AddressCodec;
+import org.jodelleIpWhitelist.Util.Usernames;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Address and username validation: the hand-written codec against the regex and
+ * InetAddress based checks it replaced.
+ *
+ * The inputs mix valid and invalid text, as a bulk import or a typo-prone admin would.
+ * The "old" benchmarks reproduce the previous code exactly, including compiling the
+ * pattern on every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AddressCodecBenchmark {
+
+    private static final int SAMPLES = 1024;
+
+    private static final String IPV4_PATTERN =
+            "^((25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)$";
+    private static final Pattern COMPILED_IPV4 = Pattern.compile(IPV4_PATTERN);
+
+    private final String[] ipv4 = new String[SAMPLES];
+    private final String[] ipv6 = new String[SAMPLES];
+    private final String[] usernames = new String[SAMPLES];
+    private final Inet4Address[] addresses = new Inet4Address[SAMPLES];
+    private final long[] pair = new long[2];
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int position;
+
+        int next() {
+            position = (position + 1) & (SAMPLES - 1);
+            return position;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws UnknownHostException {
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            int a = random.nextInt(256);
+            int b = random.nextInt(256);
+            // Every fourth sample is invalid
+            boolean valid = (i & 3) != 0;
+
+            ipv4[i] = valid ? "10." + a + "." + b + "." + random.nextInt(256) : "10." + a + "." + (b + 256) + ".1";
+            ipv6[i] = valid
+                    ? (i % 8 == 1 ? "::ffff:192.168." + a + "." + b : "2001:db8:" + Integer.toHexString(a) + "::" + Integer.toHexString(b))
+                    : "2001:db8::" + Integer.toHexString(a) + "::1";
+            usernames[i] = valid ? "Player_" + random.nextInt(1_000_000) : "bad-name!" + a;
+            addresses[i] = (Inet4Address) InetAddress.getByAddress(new byte[]{10, (byte) a, (byte) b, (byte) i});
+        }
+    }
+
+    @Benchmark
+    public boolean ipv4RegexCompiledPerCall(Cursor cursor) {
+        return Pattern.compile(IPV4_PATTERN).matcher(ipv4[cursor.next()]).matches();
+    }
+
+    @Benchmark
+    public boolean ipv4RegexPrecompiled(Cursor cursor) {
+        return COMPILED_IPV4.matcher(ipv4[cursor.next()]).matches();
+    }
+
+    @Benchmark
+    public long ipv4Codec(Cursor cursor) {
+        return AddressCodec.parseIPv4(ipv4[cursor.next()]);
+    }
+
+    @Benchmark
+    public byte[] ipv6InetAddress(Cursor cursor) {
+        try {
+            return InetAddress.getByName(ipv6[cursor.next()]).getAddress();
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public long ipv6Codec(Cursor cursor) {
+        return AddressCodec.parseIPv6(ipv6[cursor.next()], pair) ? pair[1] : -1;
+    }
+
+    @Benchmark
+    public boolean usernameStringMatches(Cursor cursor) {
+        return usernames[cursor.next()].matches("^[a-zA-Z0-9_]{3,16}$");
+    }
+
+    @Benchmark
+    public boolean usernameScanner(Cursor cursor) {
+        return Usernames.isValid(usernames[cursor.next()]);
+    }
+
+    /**
+     * How the login path used to read an IPv4 address: a copy of the byte array.
+     */
+    @Benchmark
+    public int inet4GetAddress(Cursor cursor) {
+        byte[] bytes = addresses[cursor.next()].getAddress();
+        return ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+    }
+
+    @Benchmark
+    public int inet4Codec(Cursor cursor) {
+        return AddressCodec.toInt(addresses[cursor.next()]);
+    }
+}
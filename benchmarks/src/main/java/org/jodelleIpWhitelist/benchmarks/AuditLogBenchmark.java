@@ -0,0 +1,54 @@
+package org.jodelleIpWhitelist.benchmarks;
+
+import org.jodelleIpWhitelist.Config.PluginConfig;
+import org.jodelleIpWhitelist.database.DatabaseManager;
+import org.jodelleIpWhitelist.database.OverflowPolicy;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of DatabaseManager.logAttempt from several event threads at once.
+ *
+ * With BLOCK the callers are throttled to what the writer can commit, so that variant
+ * measures real insert throughput; the other policies show the cost seen by the caller.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AuditLogBenchmark {
+
+    @Param({"BLOCK", "DROP_OLDEST", "SPILL"})
+    public OverflowPolicy policy;
+
+    private Path directory;
+    private DatabaseManager database;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("jodelle-bench");
+
+        PluginConfig.Audit config = new PluginConfig.Audit();
+        config.overflowPolicy = policy;
+        database = new DatabaseManager(directory, config, LoggerFactory.getLogger("benchmark"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        database.close();
+        SyntheticWhitelist.delete(directory);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void logAttempt() {
+        database.logAttempt("player1", "10.0.0.1", "DENIED", "IP_MISMATCH");
+    }
+}
@@ -0,0 +1,183 @@
+package org.jodelleIpWhitelist.benchmarks;
+
+import com.velocitypowered.api.event.Continuation;
+import com.velocitypowered.api.event.EventTask;
+import com.velocitypowered.api.event.connection.LoginEvent;
+import com.velocitypowered.api.event.proxy.ProxyInitializeEvent;
+import com.velocitypowered.api.event.proxy.ProxyShutdownEvent;
+import com.velocitypowered.api.proxy.Player;
+import org.jodelleIpWhitelist.JodelleIpWhitelist;
+import org.jodelleIpWhitelist.Listeners.PlayerLoginListener;
+import org.jodelleIpWhitelist.WhitelistManager.DecisionCache;
+import org.jodelleIpWhitelist.WhitelistManager.LoginDecision;
+import org.jodelleIpWhitelist.WhitelistManager.WhitelistStore;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The login hot path: the raw whitelist decision, the full listener (including audit
+ * queueing), and the decision while a reload runs next to it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LoginDecisionBenchmark {
+
+    private static final int SAMPLES = 4096;
+
+    @Param({"1000", "100000", "1000000"})
+    public int users;
+
+    // JSON decides from the in-memory snapshot; SQLITE from its LRU cache, falling back to whitelist.db
+    @Param({"JSON", "SQLITE"})
+    public String store;
+
+    private Path directory;
+    private JodelleIpWhitelist plugin;
+    private WhitelistStore manager;
+    private DecisionCache decisionCache;
+    private PlayerLoginListener listener;
+
+    // Pre-built inputs so the benchmarks measure lookups, not input generation
+    private String[] usernames;
+    private InetAddress[] allowedAddresses;
+    private InetAddress[] wrongAddresses;
+    private String[] unknownUsernames;
+    private Player[] allowedPlayers;
+    private final Continuation continuation = Stubs.stub(Continuation.class, Map.of());
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int position = new SplittableRandom().nextInt(SAMPLES);
+
+        int next() {
+            position = (position + 1) & (SAMPLES - 1);
+            return position;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = SyntheticWhitelist.create(users);
+        Files.writeString(directory.resolve("config.json"), "{\"whitelist\": {\"store\": \"" + store + "\"}}");
+        Logger logger = LoggerFactory.getLogger("benchmark");
+
+        plugin = new JodelleIpWhitelist(Stubs.proxy(), directory, logger);
+        plugin.onProxyInitialization(new ProxyInitializeEvent());
+        manager = plugin.getWhitelistStore();
+        decisionCache = new DecisionCache(manager, SAMPLES * 2);
+        listener = new PlayerLoginListener(plugin, logger);
+
+        SplittableRandom random = new SplittableRandom(42);
+        usernames = new String[SAMPLES];
+        allowedAddresses = new InetAddress[SAMPLES];
+        wrongAddresses = new InetAddress[SAMPLES];
+        unknownUsernames = new String[SAMPLES];
+        allowedPlayers = new Player[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            int user = random.nextInt(users);
+            usernames[i] = SyntheticWhitelist.username(user);
+            allowedAddresses[i] = SyntheticWhitelist.address(user);
+            wrongAddresses[i] = SyntheticWhitelist.address((user + 1) % users);
+            unknownUsernames[i] = "bot" + random.nextInt(Integer.MAX_VALUE);
+            allowedPlayers[i] = Stubs.player(usernames[i], SyntheticWhitelist.socketAddress(user));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        plugin.onProxyShutdown(new ProxyShutdownEvent());
+        SyntheticWhitelist.delete(directory);
+    }
+
+    @Benchmark
+    public LoginDecision decideAllowed(Cursor cursor) {
+        int i = cursor.next();
+        return manager.decide(usernames[i], allowedAddresses[i]);
+    }
+
+    @Benchmark
+    public LoginDecision decideMismatch(Cursor cursor) {
+        int i = cursor.next();
+        return manager.decide(usernames[i], wrongAddresses[i]);
+    }
+
+    @Benchmark
+    public LoginDecision decideUnknownUser(Cursor cursor) {
+        int i = cursor.next();
+        return manager.decide(unknownUsernames[i], allowedAddresses[i]);
+    }
+
+    /**
+     * Reconnects: the same few thousand players and addresses, answered from the decision cache.
+     */
+    @Benchmark
+    public LoginDecision decideAllowedCached(Cursor cursor) {
+        int i = cursor.next();
+        return decisionCache.decide(usernames[i], allowedAddresses[i]);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public LoginDecision decideAllowedContended(Cursor cursor) {
+        int i = cursor.next();
+        return manager.decide(usernames[i], allowedAddresses[i]);
+    }
+
+    @Benchmark
+    public List<String> getIpsForUsername(Cursor cursor) {
+        return manager.getIpsForUsername(usernames[cursor.next()]);
+    }
+
+    /**
+     * The part of the listener that runs on the connection thread.
+     */
+    @Benchmark
+    @Threads(4)
+    public LoginEvent listenerDecision(Cursor cursor) {
+        LoginEvent event = new LoginEvent(allowedPlayers[cursor.next()]);
+        listener.onPlayerLogin(event);
+        return event;
+    }
+
+    /**
+     * The whole listener, including the async side effects (formatting the address and
+     * queueing the audit row), run inline here.
+     */
+    @Benchmark
+    @Threads(4)
+    public LoginEvent listenerDecisionAndSideEffects(Cursor cursor) {
+        LoginEvent event = new LoginEvent(allowedPlayers[cursor.next()]);
+        EventTask task = listener.onPlayerLogin(event);
+        task.execute(continuation);
+        return event;
+    }
+
+    @Benchmark
+    @Group("reloadUnderLoad")
+    @GroupThreads(7)
+    public LoginDecision reloadUnderLoadLogins(Cursor cursor) {
+        int i = cursor.next();
+        return manager.decide(usernames[i], allowedAddresses[i]);
+    }
+
+    @Benchmark
+    @Group("reloadUnderLoad")
+    @GroupThreads(1)
+    public void reloadUnderLoadReload() {
+        manager.loadWhitelistedIPs();
+    }
+}
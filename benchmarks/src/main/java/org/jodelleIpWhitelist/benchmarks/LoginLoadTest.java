@@ -0,0 +1,461 @@
+package org.jodelleIpWhitelist.benchmarks;
+
+import com.velocitypowered.api.command.CommandManager;
+import com.velocitypowered.api.command.CommandSource;
+import com.velocitypowered.api.command.SimpleCommand;
+import com.velocitypowered.api.event.Continuation;
+import com.velocitypowered.api.event.EventTask;
+import com.velocitypowered.api.event.connection.DisconnectEvent;
+import com.velocitypowered.api.event.connection.LoginEvent;
+import com.velocitypowered.api.event.connection.PreLoginEvent;
+import com.velocitypowered.api.event.proxy.ProxyInitializeEvent;
+import com.velocitypowered.api.event.proxy.ProxyShutdownEvent;
+import com.velocitypowered.api.proxy.InboundConnection;
+import com.velocitypowered.api.proxy.Player;
+import com.velocitypowered.api.proxy.ProxyServer;
+import org.jodelleIpWhitelist.JodelleIpWhitelist;
+import org.jodelleIpWhitelist.Listeners.PlayerLoginListener;
+import org.jodelleIpWhitelist.Metrics.LatencyHistogram;
+import org.jodelleIpWhitelist.Metrics.WhitelistMetrics;
+import org.jodelleIpWhitelist.Protection.UsernamePrefilter;
+import org.jodelleIpWhitelist.WhitelistManager.WhitelistStore;
+import org.jodelleIpWhitelist.database.DatabaseManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reproduces a reconnect storm offline: thousands of logins at once against the real plugin,
+ * with stubbed Velocity objects, while addip, removeip and reload commands run next to them.
+ *
+ * Not a JMH benchmark but a plain main class in the same jar, since it is about behaviour
+ * under load as much as about speed. Every login goes through the listener exactly as on a
+ * proxy (pre-login, login, the async side effects, then the disconnect) on its own virtual
+ * thread, or on a pool of platform threads before Java 21.
+ *
+ * Three kinds of logins are mixed: whitelisted players from their address (must be let in),
+ * whitelisted players from a foreign address and unknown names (must be refused). A set of
+ * "churn" players gets a second address added and removed the whole time; their own address
+ * must keep working throughout, and at the end memory and disk must both agree with the last
+ * command sent for each of them. Anything else is reported as a failure and makes the exit
+ * code 1.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar org.jodelleIpWhitelist.benchmarks.LoginLoadTest \
+ *     users=100000 logins=200000 concurrency=2000 mix=80/15/5 store=JSON
+ * </pre>
+ */
+public final class LoginLoadTest {
+
+    private enum Kind { ALLOWED, MISMATCH, UNKNOWN }
+
+    // Failures printed in full; the rest are only counted
+    private static final int FAILURES_SHOWN = 10;
+
+    private final int users;
+    private final int logins;
+    private final int concurrency;
+    private final int[] mix;
+    private final int churnUsers;
+    private final int mutationsPerSecond;
+    private final int reloadSeconds;
+    private final String store;
+    private final boolean throttle;
+    private final boolean virtualThreads;
+
+    private final Logger logger = LoggerFactory.getLogger("loadtest");
+    private final Continuation continuation = Stubs.stub(Continuation.class, Map.of());
+    private final AtomicReference<SimpleCommand> command = new AtomicReference<>();
+    private final CommandSource console = Stubs.stub(CommandSource.class, Map.of());
+
+    private JodelleIpWhitelist plugin;
+    private PlayerLoginListener listener;
+
+    // Sync part of the listener (what holds up the connection thread), and the whole login
+    private final LatencyHistogram connectionLatency = new LatencyHistogram();
+    private final LatencyHistogram totalLatency = new LatencyHistogram();
+
+    private final LongAdder[] sent = counters();
+    private final LongAdder[] admitted = counters();
+    private final LongAdder refusedEarly = new LongAdder();
+    private final LongAdder throttledAllowed = new LongAdder();
+    private final LongAdder addips = new LongAdder();
+    private final LongAdder removeips = new LongAdder();
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    // Whether each churn user should currently have their second address; only the mutator writes it
+    private boolean[] churnExpected;
+    private volatile boolean stormRunning = true;
+
+    private LoginLoadTest(Map<String, String> options) {
+        this.users = Integer.parseInt(options.getOrDefault("users", "100000"));
+        this.logins = Integer.parseInt(options.getOrDefault("logins", "200000"));
+        this.concurrency = Integer.parseInt(options.getOrDefault("concurrency", "1000"));
+        this.mix = parseMix(options.getOrDefault("mix", "80/15/5"));
+        this.churnUsers = Math.min(users / 2, Integer.parseInt(options.getOrDefault("churnUsers", "1000")));
+        this.mutationsPerSecond = Integer.parseInt(options.getOrDefault("mutationsPerSecond", "200"));
+        this.reloadSeconds = Integer.parseInt(options.getOrDefault("reloadSeconds", "2"));
+        this.store = options.getOrDefault("store", "JSON");
+        this.throttle = Boolean.parseBoolean(options.getOrDefault("throttle", "true"));
+        this.virtualThreads = Boolean.parseBoolean(options.getOrDefault("virtualThreads", "true"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split <= 0) {
+                System.err.println("Arguments are key=value: users, logins, concurrency, mix (allowed/mismatch/unknown), "
+                        + "churnUsers, mutationsPerSecond, reloadSeconds, store (JSON or SQLITE), throttle, virtualThreads");
+                System.exit(2);
+            }
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+
+        boolean passed = new LoginLoadTest(options).run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        Path directory = SyntheticWhitelist.create(users);
+        try {
+            Files.writeString(directory.resolve("config.json"), "{\"whitelist\": {\"store\": \"" + store
+                    + "\"}, \"protection\": {\"enabled\": " + throttle + "}}");
+            start(directory);
+
+            churnExpected = new boolean[churnUsers];
+            Thread mutator = new Thread(this::mutate, "loadtest-mutator");
+            Thread reloader = new Thread(this::reload, "loadtest-reloader");
+            mutator.start();
+            reloader.start();
+
+            long elapsed = storm();
+
+            stormRunning = false;
+            mutator.join();
+            reloader.join();
+
+            checkChurnUsers("in memory");
+            plugin.getWhitelistStore().loadWhitelistedIPs();
+            checkChurnUsers("after a reload from disk");
+
+            DatabaseManager database = plugin.getDatabaseManager();
+            for (int i = 0; i < 100 && database.getQueueDepth() > 0; i++) {
+                Thread.sleep(100);
+            }
+            plugin.onProxyShutdown(new ProxyShutdownEvent());
+
+            report(elapsed, database);
+            return failures.sum() == 0;
+        } finally {
+            SyntheticWhitelist.delete(directory);
+        }
+    }
+
+    /**
+     * Starts the plugin against a stubbed proxy and picks up the command it registers.
+     */
+    private void start(Path directory) {
+        CommandManager commands = Stubs.stub(CommandManager.class, Map.of("register", args -> {
+            for (Object arg : args) {
+                if (arg instanceof SimpleCommand simple) {
+                    command.set(simple);
+                }
+            }
+            return null;
+        }));
+        ProxyServer proxy = Stubs.stub(ProxyServer.class, Map.of("getCommandManager", args -> commands));
+
+        plugin = new JodelleIpWhitelist(proxy, directory, logger);
+        plugin.onProxyInitialization(new ProxyInitializeEvent());
+        listener = new PlayerLoginListener(plugin, logger);
+        if (command.get() == null) {
+            throw new IllegalStateException("The plugin did not register its command");
+        }
+    }
+
+    /**
+     * Fires all logins, at most {@code concurrency} at a time.
+     *
+     * @return how long the storm took, in nanoseconds.
+     */
+    private long storm() throws InterruptedException {
+        ExecutorService executor = virtualThreads ? virtualThreadExecutor() : null;
+        String threads = "virtual threads";
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(concurrency);
+            threads = concurrency + " platform threads";
+        }
+        System.out.printf("Storm: %d logins against %d users (%s store), %d at a time on %s%n",
+                logins, users, store, concurrency, threads);
+
+        Semaphore inFlight = new Semaphore(concurrency);
+        long start = System.nanoTime();
+        for (int i = 0; i < logins; i++) {
+            inFlight.acquire();
+            executor.execute(() -> {
+                try {
+                    login();
+                } catch (RuntimeException | Error e) {
+                    fail("login threw " + e, e);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.MINUTES);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * The plugin is built for Java 17, so the Java 21 method is looked up at runtime.
+     */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private void login() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Kind kind = pickKind(random.nextInt(100));
+        int user = random.nextInt(users);
+
+        String username;
+        InetSocketAddress address;
+        switch (kind) {
+            case ALLOWED -> {
+                username = SyntheticWhitelist.username(user);
+                address = SyntheticWhitelist.socketAddress(user);
+            }
+            case MISMATCH -> {
+                username = SyntheticWhitelist.username(user);
+                address = new InetSocketAddress(address(100, 64 + ((user >>> 16) & 63), user), 25565);
+            }
+            default -> {
+                username = "bot" + random.nextInt(1_000_000_000);
+                address = new InetSocketAddress(address(198, 18 + random.nextInt(2), random.nextInt()), 25565);
+            }
+        }
+        Player player = Stubs.player(username, address);
+        InboundConnection connection = Stubs.stub(InboundConnection.class, Map.of("getRemoteAddress", args -> address));
+        sent[kind.ordinal()].increment();
+
+        long start = System.nanoTime();
+        PreLoginEvent preLogin = new PreLoginEvent(connection, username);
+        EventTask preLoginTask = listener.onPreLogin(preLogin);
+        boolean passedPreLogin = preLogin.getResult().isAllowed();
+        LoginEvent event = null;
+        EventTask loginTask = null;
+        if (passedPreLogin) {
+            event = new LoginEvent(player);
+            loginTask = listener.onPlayerLogin(event);
+        }
+        connectionLatency.record(System.nanoTime() - start);
+
+        // What Velocity would hand to its async executor; a SQLITE cache miss is decided here
+        if (preLoginTask != null) {
+            preLoginTask.execute(continuation);
+        }
+        if (loginTask != null) {
+            loginTask.execute(continuation);
+        }
+        totalLatency.record(System.nanoTime() - start);
+        boolean allowed = event != null && event.getResult().isAllowed();
+
+        if (!passedPreLogin) {
+            refusedEarly.increment();
+        }
+        if (allowed) {
+            admitted[kind.ordinal()].increment();
+            DisconnectEvent.LoginStatus status = DisconnectEvent.LoginStatus.SUCCESSFUL_LOGIN;
+            listener.onPlayerLogout(new DisconnectEvent(player, status)).execute(continuation);
+        }
+
+        if (kind == Kind.ALLOWED && !allowed) {
+            // The only excuse for refusing a whitelisted player is the per-IP limiter
+            UsernamePrefilter prefilter = plugin.getUsernamePrefilter();
+            if (!passedPreLogin && (prefilter == null || prefilter.mightBeWhitelisted(username))) {
+                throttledAllowed.increment();
+            } else {
+                fail(username + " from their own address was refused", null);
+            }
+        } else if (kind != Kind.ALLOWED && allowed) {
+            fail(username + " (" + kind + ") was let in from " + address.getAddress().getHostAddress(), null);
+        }
+    }
+
+    /**
+     * Adds and removes a second address of the churn users, at the configured rate.
+     */
+    private void mutate() {
+        SimpleCommand simple = command.get();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long pauseNanos = mutationsPerSecond <= 0 ? Long.MAX_VALUE : TimeUnit.SECONDS.toNanos(1) / mutationsPerSecond;
+        while (stormRunning && churnUsers > 0 && pauseNanos != Long.MAX_VALUE) {
+            int churn = random.nextInt(churnUsers);
+            int user = users - churnUsers + churn;
+            String ip = churnAddress(user).getHostAddress();
+            boolean add = !churnExpected[churn];
+            try {
+                simple.execute(invocation(add ? "addip" : "removeip", SyntheticWhitelist.username(user), ip));
+                churnExpected[churn] = add;
+                (add ? addips : removeips).increment();
+            } catch (RuntimeException e) {
+                fail((add ? "addip" : "removeip") + " threw " + e, e);
+            }
+            sleep(pauseNanos);
+        }
+    }
+
+    private void reload() {
+        SimpleCommand simple = command.get();
+        long pauseNanos = TimeUnit.SECONDS.toNanos(Math.max(1, reloadSeconds));
+        while (stormRunning && reloadSeconds > 0) {
+            sleep(pauseNanos);
+            try {
+                simple.execute(invocation("reload"));
+                reloads.increment();
+            } catch (RuntimeException e) {
+                fail("reload threw " + e, e);
+            }
+        }
+    }
+
+    /**
+     * Every churn user keeps their own address, and has the second one exactly if the last command added it.
+     */
+    private void checkChurnUsers(String when) {
+        WhitelistStore whitelist = plugin.getWhitelistStore();
+        int wrong = 0;
+        for (int churn = 0; churn < churnUsers; churn++) {
+            int user = users - churnUsers + churn;
+            List<String> ips = whitelist.getIpsForUsername(SyntheticWhitelist.username(user));
+            boolean consistent = ips.contains(SyntheticWhitelist.ip(user))
+                    && ips.contains(churnAddress(user).getHostAddress()) == churnExpected[churn]
+                    && ips.size() == (churnExpected[churn] ? 2 : 1);
+            if (!consistent) {
+                wrong++;
+                fail(SyntheticWhitelist.username(user) + " has " + ips + " " + when, null);
+            }
+        }
+        System.out.printf("Churn users checked %s: %d of %d consistent%n", when, churnUsers - wrong, churnUsers);
+    }
+
+    private void report(long elapsedNanos, DatabaseManager database) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%nLogins: %d in %.2f s (%.0f/s)%n", logins, seconds, logins / seconds);
+        System.out.printf("  allowed %d (let in %d, throttled %d), mismatch %d, unknown %d, refused at pre-login %d%n",
+                sent[Kind.ALLOWED.ordinal()].sum(), admitted[Kind.ALLOWED.ordinal()].sum(), throttledAllowed.sum(),
+                sent[Kind.MISMATCH.ordinal()].sum(), sent[Kind.UNKNOWN.ordinal()].sum(), refusedEarly.sum());
+        System.out.println(describe("Connection thread", connectionLatency));
+        System.out.println(describe("Whole login", totalLatency));
+        System.out.printf("Commands: addip %d, removeip %d, reload %d%n", addips.sum(), removeips.sum(), reloads.sum());
+        System.out.printf("Audit: %d rows written, %d merged, %d dropped%n",
+                database.getWrittenRows(), database.getMergedRows(), database.getDroppedRows());
+        System.out.printf("Failures: %d%n", failures.sum());
+    }
+
+    private static String describe(String name, LatencyHistogram histogram) {
+        return name + ": p50 " + WhitelistMetrics.formatNanos(histogram.percentile(50))
+                + ", p90 " + WhitelistMetrics.formatNanos(histogram.percentile(90))
+                + ", p99 " + WhitelistMetrics.formatNanos(histogram.percentile(99))
+                + ", p99.9 " + WhitelistMetrics.formatNanos(histogram.percentile(99.9))
+                + ", max " + WhitelistMetrics.formatNanos(histogram.max());
+    }
+
+    private void fail(String message, Throwable error) {
+        failures.increment();
+        if (failures.sum() <= FAILURES_SHOWN) {
+            System.out.println("FAILURE: " + message);
+            if (error != null) {
+                error.printStackTrace(System.out);
+            }
+        }
+    }
+
+    private Kind pickKind(int roll) {
+        if (roll < mix[0]) {
+            return Kind.ALLOWED;
+        }
+        return roll < mix[0] + mix[1] ? Kind.MISMATCH : Kind.UNKNOWN;
+    }
+
+    /**
+     * Parses "allowed/mismatch/unknown" into percentages that add up to 100.
+     */
+    private static int[] parseMix(String text) {
+        String[] parts = text.split("/");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("mix must look like 80/15/5");
+        }
+        int[] weights = new int[3];
+        int total = 0;
+        for (int i = 0; i < 3; i++) {
+            weights[i] = Integer.parseInt(parts[i].trim());
+            total += weights[i];
+        }
+        if (total != 100) {
+            throw new IllegalArgumentException("mix must add up to 100, not " + total);
+        }
+        return weights;
+    }
+
+    private SimpleCommand.Invocation invocation(String... arguments) {
+        return Stubs.stub(SimpleCommand.Invocation.class, Map.of(
+                "source", args -> console,
+                "arguments", args -> arguments,
+                "alias", args -> "jodellewhitelist"));
+    }
+
+    /**
+     * The churn user's second address, in 172.16.0.0/12 so it never collides with the others.
+     */
+    private static InetAddress churnAddress(int user) {
+        return address(172, 16 + ((user >>> 16) & 15), user);
+    }
+
+    private static InetAddress address(int first, int second, int low) {
+        try {
+            return InetAddress.getByAddress(new byte[]{(byte) first, (byte) second, (byte) (low >>> 8), (byte) low});
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void sleep(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static LongAdder[] counters() {
+        LongAdder[] counters = new LongAdder[Kind.values().length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+        return counters;
+    }
+}
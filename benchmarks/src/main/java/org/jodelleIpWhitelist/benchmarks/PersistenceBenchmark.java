@@ -0,0 +1,76 @@
+package org.jodelleIpWhitelist.benchmarks;
+
+import org.jodelleIpWhitelist.Config.PluginConfig;
+import org.jodelleIpWhitelist.WhitelistManager.WhiteListManager;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of whitelist mutations and of writing the full whitelist.json, by whitelist size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PersistenceBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int users;
+
+    @Param({"true", "false"})
+    public boolean fsync;
+
+    private Path directory;
+    private WhiteListManager manager;
+    private int counter;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = SyntheticWhitelist.create(users);
+
+        PluginConfig.Whitelist config = new PluginConfig.Whitelist();
+        config.journalFsync = fsync;
+        manager = new WhiteListManager(LoggerFactory.getLogger("benchmark"), config, directory);
+        manager.loadWhitelistedIPs();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        manager.close();
+        SyntheticWhitelist.delete(directory);
+    }
+
+    /**
+     * One addip followed by the matching removeip, as an admin or the Discord bot would do.
+     */
+    @Benchmark
+    public boolean addThenRemoveIp() {
+        int user = counter++ % users;
+        String username = SyntheticWhitelist.username(user);
+        manager.addIP(username, "192.168.0.1");
+        return manager.removeIP(username, "192.168.0.1");
+    }
+
+    /**
+     * Writing the complete whitelist.json (what every mutation used to cost).
+     */
+    @Benchmark
+    public void saveWhitelistedIPs() {
+        manager.saveWhitelistedIPs();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 5)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void loadWhitelistedIPs() {
+        manager.loadWhitelistedIPs();
+    }
+}
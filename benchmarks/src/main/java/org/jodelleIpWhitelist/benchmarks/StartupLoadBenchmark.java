@@ -0,0 +1,66 @@
+package org.jodelleIpWhitelist.benchmarks;
+
+import org.jodelleIpWhitelist.Config.PluginConfig;
+import org.jodelleIpWhitelist.WhitelistManager.WhiteListManager;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup load of the whole whitelist, from whitelist.json or from the whitelist.bin snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class StartupLoadBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int users;
+
+    @Param({"false", "true"})
+    public boolean binarySnapshot;
+
+    private Path directory;
+    private WhiteListManager manager;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InterruptedException {
+        directory = SyntheticWhitelist.create(users);
+
+        PluginConfig.Whitelist config = new PluginConfig.Whitelist();
+        config.watchFiles = false;
+        config.binarySnapshot = binarySnapshot;
+        manager = new WhiteListManager(LoggerFactory.getLogger("benchmark"), config, directory);
+
+        if (binarySnapshot) {
+            // The first load converts whitelist.json in the background; wait for the snapshot
+            manager.loadWhitelistedIPs();
+            Path snapshot = directory.resolve("whitelist.bin");
+            for (int i = 0; i < 600 && !Files.exists(snapshot); i++) {
+                Thread.sleep(100);
+            }
+            if (!Files.exists(snapshot)) {
+                throw new IllegalStateException("whitelist.bin was not written");
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        manager.close();
+        SyntheticWhitelist.delete(directory);
+    }
+
+    @Benchmark
+    public int loadWhitelistedIPs() {
+        manager.loadWhitelistedIPs();
+        return manager.size();
+    }
+}
@@ -0,0 +1,88 @@
+package org.jodelleIpWhitelist.benchmarks;
+
+import com.velocitypowered.api.proxy.Player;
+import com.velocitypowered.api.proxy.ProxyServer;
+
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Minimal stand-ins for Velocity objects so the plugin can run without a proxy.
+ *
+ * Stubs are dynamic proxies: methods listed in the answers map return the given value,
+ * methods returning an interface return another stub, and everything else returns
+ * null, false or zero.
+ */
+final class Stubs {
+
+    private Stubs() {
+    }
+
+    static <T> T stub(Class<T> type, Map<String, Function<Object[], Object>> answers) {
+        Object instance = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Function<Object[], Object> answer = answers.get(method.getName());
+            if (answer != null) {
+                return answer.apply(args);
+            }
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Stub<" + type.getSimpleName() + ">";
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+        return type.cast(instance);
+    }
+
+    static Player player(String username, InetSocketAddress address) {
+        UUID uuid = UUID.nameUUIDFromBytes(username.getBytes());
+        return stub(Player.class, Map.of(
+                "getUsername", args -> username,
+                "getRemoteAddress", args -> address,
+                "getUniqueId", args -> uuid,
+                "isActive", args -> true
+        ));
+    }
+
+    static ProxyServer proxy() {
+        return stub(ProxyServer.class, Map.of());
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == double.class) {
+            return 0.0d;
+        }
+        if (type == float.class) {
+            return 0.0f;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        if (type.isInterface()) {
+            return stub(type, Map.of());
+        }
+        return null;
+    }
+}
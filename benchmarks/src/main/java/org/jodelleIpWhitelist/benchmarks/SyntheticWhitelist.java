@@ -0,0 +1,76 @@
+package org.jodelleIpWhitelist.benchmarks;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Generates whitelist.json files with a given number of users.
+ *
+ * User i is called "player{i}" and owns exactly one address, 10.x.y.z derived from i,
+ * so any user's expected address can be computed without keeping the data around.
+ */
+final class SyntheticWhitelist {
+
+    private SyntheticWhitelist() {
+    }
+
+    /**
+     * Creates a fresh temporary data directory holding a whitelist.json with the given number of users.
+     */
+    static Path create(int users) throws IOException {
+        Path directory = Files.createTempDirectory("jodelle-bench");
+        try (Writer out = Files.newBufferedWriter(directory.resolve("whitelist.json"), StandardCharsets.UTF_8);
+             JsonWriter json = new JsonWriter(out)) {
+            json.beginObject();
+            for (int i = 0; i < users; i++) {
+                json.name(username(i)).beginArray().value(ip(i)).endArray();
+            }
+            json.endObject();
+        }
+        return directory;
+    }
+
+    static String username(int i) {
+        return "player" + i;
+    }
+
+    static String ip(int i) {
+        return "10." + ((i >>> 16) & 0xFF) + "." + ((i >>> 8) & 0xFF) + "." + (i & 0xFF);
+    }
+
+    static InetAddress address(int i) {
+        try {
+            return InetAddress.getByAddress(new byte[]{10, (byte) (i >>> 16), (byte) (i >>> 8), (byte) i});
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static InetSocketAddress socketAddress(int i) {
+        return new InetSocketAddress(address(i), 25565);
+    }
+
+    /**
+     * Deletes a directory created by {@link #create(int)}.
+     */
+    static void delete(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
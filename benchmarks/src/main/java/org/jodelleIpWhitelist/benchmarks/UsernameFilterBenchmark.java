@@ -0,0 +1,105 @@
+package org.jodelleIpWhitelist.benchmarks;
+
+import org.jodelleIpWhitelist.Protection.UsernameBloomFilter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The pre-login username filter: lookups of whitelisted names and of bot names, and
+ * building the filter for the whole whitelist. The setup also prints the measured
+ * false-positive rate and size, so they can be compared with the configured values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UsernameFilterBenchmark {
+
+    private static final int SAMPLES = 4096;
+    private static final long MAX_BYTES = 16384 * 1024L;
+
+    @Param({"1000", "100000", "1000000"})
+    public int users;
+
+    @Param({"0.01", "0.001"})
+    public double falsePositiveRate;
+
+    private UsernameBloomFilter filter;
+
+    // Pre-built inputs so the benchmarks measure lookups, not input generation
+    private String[] knownUsernames;
+    private String[] unknownUsernames;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int position = new SplittableRandom().nextInt(SAMPLES);
+
+        int next() {
+            position = (position + 1) & (SAMPLES - 1);
+            return position;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        filter = build();
+
+        SplittableRandom random = new SplittableRandom(42);
+        knownUsernames = new String[SAMPLES];
+        unknownUsernames = new String[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            knownUsernames[i] = SyntheticWhitelist.username(random.nextInt(users));
+            unknownUsernames[i] = "bot" + random.nextInt(Integer.MAX_VALUE);
+        }
+
+        int probes = 1_000_000;
+        int passed = 0;
+        for (int i = 0; i < probes; i++) {
+            if (filter.mightContain("bot" + i)) {
+                passed++;
+            }
+        }
+        System.out.printf("%n%d users, %d KiB, %d hashes, measured false-positive rate %.5f%n",
+                users, filter.sizeInBytes() / 1024, filter.hashCount(), (double) passed / probes);
+    }
+
+    private UsernameBloomFilter build() {
+        // Sized the way UsernamePrefilter sizes it, with headroom for new users
+        UsernameBloomFilter built = UsernameBloomFilter.create(users + users / 8, falsePositiveRate, MAX_BYTES);
+        for (int i = 0; i < users; i++) {
+            built.put(SyntheticWhitelist.username(i));
+        }
+        return built;
+    }
+
+    @Benchmark
+    public boolean mightContainKnown(Cursor cursor) {
+        return filter.mightContain(knownUsernames[cursor.next()]);
+    }
+
+    @Benchmark
+    public boolean mightContainUnknown(Cursor cursor) {
+        return filter.mightContain(unknownUsernames[cursor.next()]);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean mightContainUnknownContended(Cursor cursor) {
+        return filter.mightContain(unknownUsernames[cursor.next()]);
+    }
+
+    /**
+     * A full rebuild, as done in the background after removals, reloads and imports.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 5)
+    public UsernameBloomFilter rebuild() {
+        return build();
+    }
+}
@@ -0,0 +1,304 @@
+package org.jodelleIpWhitelist.Config;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import org.jodelleIpWhitelist.Replication.TransportType;
+import org.jodelleIpWhitelist.WhitelistManager.StoreType;
+import org.jodelleIpWhitelist.database.OverflowPolicy;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Plugin settings stored in config.json inside the data directory.
+ *
+ * Every field has a default, so a missing file or a missing key simply falls back
+ * to the value declared here. The file is written back after loading so that new
+ * keys show up for admins after an update.
+ */
+public class PluginConfig {
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    public Whitelist whitelist = new Whitelist();
+    public Audit audit = new Audit();
+    public Protection protection = new Protection();
+    public Http http = new Http();
+    public Replication replication = new Replication();
+
+    /**
+     * Settings for how whitelist.json and its journal are stored.
+     */
+    public static class Whitelist {
+        // JSON keeps everything in whitelist.json and in memory; SQLITE uses whitelist.db
+        // and only caches recently used users, for very large whitelists
+        public StoreType store = StoreType.JSON;
+
+        // SQLITE only: how many users are cached, and how many connections serve lookups
+        public int sqliteCacheSize = 50000;
+        public int sqlitePoolSize = 4;
+
+        // SQLITE only: names that are not whitelisted are cached separately, in a smaller
+        // cache, so a flood of made-up names cannot evict real players
+        public int sqliteUnknownCacheSize = 4096;
+
+        // The journal is folded back into whitelist.json once it grows past this size
+        public long journalCompactThresholdBytes = 1024 * 1024;
+
+        // Force each journal record to disk before the command reports success
+        public boolean journalFsync = true;
+
+        // Apply outside edits of whitelist.json and global_ranges.txt automatically
+        public boolean watchFiles = true;
+
+        // Wait for this long without further writes before applying an outside edit
+        public long watchDebounceMillis = 500;
+
+        // Keep a compiled copy of whitelist.json in whitelist.bin, which loads much faster at startup.
+        // whitelist.json stays the file to edit; the copy is rewritten whenever it is out of date
+        public boolean binarySnapshot = false;
+
+        // Single addresses that let nobody in for this many days are removed; 0 keeps them forever.
+        // CIDR entries never expire
+        public int entryTtlDays = 0;
+
+        // Never expire a user's most recently used entry, so nobody is dropped from the whitelist entirely
+        public boolean expiryKeepsLastEntry = true;
+
+        // How often entry usage is saved to ip_usage.tsv and expired entries are removed
+        public long usageSweepIntervalMinutes = 60;
+
+        // Recent login decisions remembered per username and address, so reconnects skip the
+        // lookup; any whitelist change makes the remembered ones outdated. 0 turns it off
+        public int decisionCacheSize = 4096;
+    }
+
+    /**
+     * Settings for the asynchronous login audit writer.
+     */
+    public static class Audit {
+        // Maximum number of rows waiting to be written before the overflow policy kicks in
+        public int queueCapacity = 8192;
+
+        // How long the writer collects rows before committing them in one transaction
+        public long flushIntervalMillis = 250;
+
+        // Upper bound on rows per transaction, so a backlog is committed in slices
+        public int maxBatchSize = 512;
+
+        // What to do when the queue is full: BLOCK, DROP_OLDEST or SPILL
+        public OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+
+        // Raw rows older than this many days leave auth_logs.db; 0 keeps them forever
+        public int retentionDays = 30;
+
+        // Move expired rows into audit_archive/auth_logs-YYYY-MM.db instead of deleting them
+        public boolean archiveMonthly = true;
+
+        // Hourly per-user/per-status totals in login_hourly are kept this long; 0 keeps them forever
+        public int rollupRetentionDays = 365;
+
+        // How often the rollup and retention job runs
+        public int retentionIntervalMinutes = 60;
+
+        // Rows per retention transaction; new rows are inserted between transactions
+        public int retentionBatchSize = 2000;
+
+        // Hard limit for one history/topdenied query
+        public int queryTimeoutSeconds = 3;
+
+        // Identical rows (same user, IP, status and reason) within this many seconds of the first
+        // one are stored as that one row with a repeat count; 0 writes every row
+        public int dedupWindowSeconds = 300;
+    }
+
+    /**
+     * Settings for the per-IP connection limiter and the denial log coalescing.
+     */
+    public static class Protection {
+        // Turns the limiter off completely; every denial is then logged individually
+        public boolean enabled = true;
+
+        // Length of one counting window
+        public int windowSeconds = 10;
+
+        // Connection attempts an address may make per window before being rate limited
+        public int maxAttemptsPerWindow = 10;
+
+        // Denied logins per window before the address is temporarily banned
+        public int maxDenialsPerWindow = 5;
+
+        // Length of the first ban; every repeat ban doubles it, up to maxBanSeconds
+        public long banSeconds = 60;
+        public long maxBanSeconds = 3600;
+
+        // Number of addresses tracked at once; the least recently active ones are evicted
+        public int tableSize = 16384;
+
+        // Repeated denials from one address are summed up into one line per interval
+        public int logSummaryIntervalSeconds = 30;
+
+        // Refuse usernames that are certainly not whitelisted at pre-login, before Mojang
+        // authentication. Works on its own, even with the limiter above turned off
+        public boolean usernameFilter = true;
+
+        // Share of unknown names that still get through to the normal check, and the most
+        // memory the filter may use (a capped filter lets more names through)
+        public double usernameFilterFalsePositiveRate = 0.01;
+        public int usernameFilterMaxKilobytes = 16384;
+
+        // New users go into the filter right away; removed ones only drop out with a full
+        // rebuild, which runs at most once per this many seconds
+        public int usernameFilterRebuildSeconds = 30;
+    }
+
+    /**
+     * Settings for the embedded HTTP server (Prometheus metrics and the admin API).
+     */
+    public static class Http {
+        // Off by default; nothing listens on a port unless an admin asks for it
+        public boolean enabled = false;
+
+        // Keep this on localhost unless the port is firewalled
+        public String bindAddress = "127.0.0.1";
+        public int port = 8765;
+        public int threads = 2;
+
+        // Path of the Prometheus text endpoint
+        public String metricsPath = "/metrics";
+
+        // Serve each request on its own virtual thread when running on Java 21 or newer;
+        // otherwise the threads setting above is used
+        public boolean virtualThreads = true;
+
+        // Admin API for bots and scripts; off while the token is empty. Clients send it as
+        // "Authorization: Bearer <token>"
+        public String adminToken = "";
+        public String adminPath = "/api/whitelist";
+
+        // Largest request body, and most operations in one batch request
+        public int adminMaxBodyBytes = 1024 * 1024;
+        public int adminMaxBatchSize = 5000;
+    }
+
+    /**
+     * Settings for keeping the whitelists of several proxies in sync.
+     */
+    public static class Replication {
+        // Off by default; a single proxy has nothing to sync with
+        public boolean enabled = false;
+
+        // Unique per proxy; generated on the first start when left empty
+        public String nodeId = "";
+
+        // TCP connects the proxies directly; SQLITE goes through sharedDatabase
+        public TransportType transport = TransportType.TCP;
+
+        // TCP: the same secret on every proxy, at least 16 characters
+        public String secret = "";
+
+        // TCP: where this proxy listens, and the host:port of the other proxies
+        public String bindAddress = "0.0.0.0";
+        public int port = 8766;
+        public List<String> peers = new ArrayList<>();
+
+        // SQLITE: a file every proxy can open, and how often to look for new changes
+        public String sharedDatabase = "";
+        public long pollIntervalMillis = 500;
+
+        // SQLITE: changes older than this are deleted from the shared file
+        public int logRetentionHours = 168;
+
+        // How often the proxies compare their whole whitelist and repair differences
+        public int antiEntropySeconds = 60;
+
+        // How long removed entries are remembered; a proxy offline for longer may bring them back
+        public int tombstoneDays = 7;
+
+        // Own changes kept in memory for peers that reconnect; older gaps need a full state
+        public int recentDeltas = 10000;
+    }
+
+    /**
+     * Loads config.json from the data directory, creating it with defaults if needed.
+     *
+     * @param dataDirectory the plugin's data directory.
+     * @param logger        logger used to report malformed files.
+     * @return the loaded configuration, or the defaults if the file could not be read.
+     */
+    public static PluginConfig load(Path dataDirectory, Logger logger) {
+        Path file = dataDirectory.resolve("config.json");
+        PluginConfig config = null;
+
+        try {
+            if (Files.exists(file)) {
+                config = GSON.fromJson(Files.readString(file), PluginConfig.class);
+            }
+        } catch (IOException | JsonParseException e) {
+            logger.error("Failed to read config.json, falling back to defaults", e);
+            return new PluginConfig();
+        }
+
+        if (config == null) {
+            config = new PluginConfig();
+        }
+        config.fillDefaults();
+
+        try {
+            Files.createDirectories(dataDirectory);
+            Files.writeString(file, GSON.toJson(config));
+        } catch (IOException e) {
+            logger.warn("Could not write config.json", e);
+        }
+
+        return config;
+    }
+
+    /**
+     * Gson leaves a section null when its key is explicitly set to null in the file.
+     */
+    private void fillDefaults() {
+        if (whitelist == null) {
+            whitelist = new Whitelist();
+        }
+        if (audit == null) {
+            audit = new Audit();
+        }
+        if (protection == null) {
+            protection = new Protection();
+        }
+        if (http == null) {
+            http = new Http();
+        }
+        if (replication == null) {
+            replication = new Replication();
+        }
+        if (replication.nodeId == null || replication.nodeId.isBlank()) {
+            replication.nodeId = UUID.randomUUID().toString();
+        }
+        if (replication.transport == null) {
+            replication.transport = TransportType.TCP;
+        }
+        if (http.adminToken == null) {
+            http.adminToken = "";
+        }
+        if (http.adminPath == null || http.adminPath.isBlank()) {
+            http.adminPath = "/api/whitelist";
+        }
+        if (replication.peers == null) {
+            replication.peers = new ArrayList<>();
+        }
+        if (whitelist.store == null) {
+            whitelist.store = StoreType.JSON;
+        }
+        if (audit.overflowPolicy == null) {
+            audit.overflowPolicy = OverflowPolicy.DROP_OLDEST;
+        }
+    }
+}
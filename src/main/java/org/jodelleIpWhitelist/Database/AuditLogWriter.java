@@ -0,0 +1,553 @@
+package org.jodelleIpWhitelist.database;
+
+import org.jodelleIpWhitelist.Config.PluginConfig;
+import org.jodelleIpWhitelist.Metrics.LatencyHistogram;
+import org.slf4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes login audit rows on a dedicated thread so the event threads never wait on SQLite.
+ *
+ * Callers drop rows into a bounded queue. The writer thread collects whatever arrives
+ * within one flush interval and commits it as a single transaction through one cached
+ * PreparedStatement, so a reconnect storm costs one fsync per interval instead of one per login.
+ * When the queue is full the configured {@link OverflowPolicy} decides what happens.
+ *
+ * Players reconnecting over and over would otherwise write the same row again and again.
+ * Within the dedup window, a row identical to an earlier one (same user, IP, status and
+ * reason) is not inserted; the earlier row's repeat_count goes up instead, in the same
+ * transaction as the batch that saw the repeat.
+ *
+ * Finished player sessions ride along with the audit rows: each batch also stores the
+ * sessions that ended since the last one and adds them to the per-player totals.
+ */
+public class AuditLogWriter {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO login_attempts(timestamp, username, ip, status, reason) VALUES(datetime(?, 'unixepoch'),?,?,?,?)";
+    // By row id, so rows that happen to look the same as the open one are never touched
+    private static final String REPEAT_SQL = "UPDATE login_attempts SET repeat_count = ? WHERE id = ?";
+
+    private static final String SESSION_SQL = """
+            INSERT INTO player_sessions(uuid, username, ip, started, ended, duration_seconds)
+            VALUES(?, ?, ?, datetime(?, 'unixepoch'), datetime(?, 'unixepoch'), ?)
+            """;
+    private static final String PLAYTIME_SQL = """
+            INSERT INTO player_playtime(uuid, username, sessions, total_seconds, longest_seconds, first_seen, last_seen)
+            VALUES(?, ?, 1, ?, ?, datetime(?, 'unixepoch'), datetime(?, 'unixepoch'))
+            ON CONFLICT(uuid) DO UPDATE SET
+                username = excluded.username,
+                sessions = sessions + 1,
+                total_seconds = total_seconds + excluded.total_seconds,
+                longest_seconds = MAX(longest_seconds, excluded.longest_seconds),
+                last_seen = MAX(last_seen, excluded.last_seen)
+            """;
+
+    // Upper bound on rows that can still take repeats; the oldest ones are closed early beyond that
+    private static final int MAX_OPEN_ROWS = 65536;
+
+    /**
+     * What makes two rows identical.
+     */
+    private record RowKey(String username, String ip, String status, String reason) {
+    }
+
+    /**
+     * A row written within the dedup window, which later identical rows are merged into.
+     */
+    private static final class OpenRow {
+        final long id;
+        final long epochSecond;
+        int repeats = 1;
+        boolean changed;
+
+        OpenRow(long id, long epochSecond) {
+            this.id = id;
+            this.epochSecond = epochSecond;
+        }
+    }
+
+    private final Connection connection;
+    private final Logger logger;
+    private final BlockingQueue<LoginAttempt> queue;
+    // Unbounded, but it only grows by one per disconnect
+    private final Queue<PlayerSession> sessions = new ConcurrentLinkedQueue<>();
+    private final OverflowPolicy overflowPolicy;
+    private final long flushIntervalNanos;
+    private final int maxBatchSize;
+    private final long dedupWindowSeconds;
+    private final Path spillFile;
+    private final Path replayFile;
+    private final Thread thread;
+
+    // Rows thrown away by DROP_OLDEST (or by BLOCK when the caller was interrupted)
+    private final AtomicLong droppedRows = new AtomicLong();
+    private long reportedDrops;
+
+    private final LongAdder writtenRows = new LongAdder();
+    private final LongAdder mergedRows = new LongAdder();
+    private final LatencyHistogram commitLatency = new LatencyHistogram();
+
+    private final Object spillLock = new Object();
+    private BufferedWriter spillWriter;
+    private volatile boolean spillPending;
+
+    private volatile boolean running = true;
+    private PreparedStatement insertStatement;
+    private PreparedStatement repeatStatement;
+    private PreparedStatement sessionStatement;
+    private PreparedStatement playtimeStatement;
+
+    // Only touched by the writer thread; in insertion order, so the oldest rows are closed first
+    private final LinkedHashMap<RowKey, OpenRow> openRows = new LinkedHashMap<>();
+    private final List<OpenRow> repeated = new ArrayList<>();
+
+    // Rolls up, archives and prunes old rows between batches; null if it could not be set up
+    private AuditRetention retention;
+
+    public AuditLogWriter(Connection connection, Path dataDirectory, PluginConfig.Audit config, Logger logger) {
+        this.connection = connection;
+        this.logger = logger;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, config.queueCapacity));
+        this.overflowPolicy = config.overflowPolicy;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, config.flushIntervalMillis));
+        this.maxBatchSize = Math.max(1, config.maxBatchSize);
+        this.dedupWindowSeconds = Math.max(0, config.dedupWindowSeconds);
+        this.spillFile = dataDirectory.resolve("audit_spill.log");
+        this.replayFile = dataDirectory.resolve("audit_spill.replaying");
+
+        // A spill file left behind by a crash still holds rows we owe the database
+        this.spillPending = Files.exists(spillFile) || Files.exists(replayFile);
+
+        try {
+            this.retention = new AuditRetention(connection, dataDirectory, config, logger);
+        } catch (SQLException e) {
+            logger.error("Could not set up audit log retention, old rows will be kept", e);
+        }
+
+        this.thread = new Thread(this::run, "JodelleIpWhitelist-AuditWriter");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Queues a row for writing. Never touches the database on the calling thread.
+     */
+    public void submit(LoginAttempt attempt) {
+        if (!running) {
+            return;
+        }
+
+        switch (overflowPolicy) {
+            case BLOCK -> {
+                try {
+                    queue.put(attempt);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    droppedRows.incrementAndGet();
+                }
+            }
+            case DROP_OLDEST -> {
+                while (!queue.offer(attempt)) {
+                    if (queue.poll() != null) {
+                        droppedRows.incrementAndGet();
+                    }
+                }
+            }
+            case SPILL -> {
+                if (!queue.offer(attempt)) {
+                    spill(attempt);
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues a finished session; it is written with the next batch.
+     */
+    public void submitSession(PlayerSession session) {
+        if (running) {
+            sessions.add(session);
+        }
+    }
+
+    /**
+     * Stops accepting rows, writes out everything still queued and waits for the writer to finish.
+     */
+    public void close() {
+        running = false;
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            logger.warn("Audit writer did not finish within 10 seconds, {} rows still queued", queue.size());
+        }
+    }
+
+    private void run() {
+        List<LoginAttempt> batch = new ArrayList<>(maxBatchSize);
+        try {
+            insertStatement = connection.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS);
+            repeatStatement = connection.prepareStatement(REPEAT_SQL);
+            sessionStatement = connection.prepareStatement(SESSION_SQL);
+            playtimeStatement = connection.prepareStatement(PLAYTIME_SQL);
+
+            while (running || !queue.isEmpty() || !sessions.isEmpty()) {
+                collectBatch(batch);
+                if (!batch.isEmpty() || !sessions.isEmpty()) {
+                    writeBatch(batch);
+                    batch.clear();
+                }
+
+                if (queue.isEmpty() && spillPending) {
+                    replaySpill();
+                }
+                flushSpill();
+                reportDrops();
+
+                // Retention only gets the connection while the queue is short, so inserts come first
+                if (retention != null && running && queue.size() < maxBatchSize) {
+                    retention.runSlice();
+                }
+            }
+
+            // Shutting down: make sure nothing spilled is left only on disk for the next start
+            if (spillPending) {
+                replaySpill();
+            }
+        } catch (SQLException e) {
+            logger.error("Audit writer could not prepare its statement, audit logging is disabled", e);
+            running = false;
+        } finally {
+            if (retention != null) {
+                retention.close();
+            }
+            try {
+                if (insertStatement != null) {
+                    insertStatement.close();
+                }
+                if (repeatStatement != null) {
+                    repeatStatement.close();
+                }
+                if (sessionStatement != null) {
+                    sessionStatement.close();
+                }
+                if (playtimeStatement != null) {
+                    playtimeStatement.close();
+                }
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Waits for the first row, then keeps collecting until the flush interval
+     * has passed or the batch is full.
+     */
+    private void collectBatch(List<LoginAttempt> batch) {
+        try {
+            LoginAttempt first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+            if (first == null) {
+                return;
+            }
+            batch.add(first);
+
+            long deadline = System.nanoTime() + flushIntervalNanos;
+            while (batch.size() < maxBatchSize && running) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                LoginAttempt next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+            }
+            // Whatever is already waiting goes into the same transaction
+            queue.drainTo(batch, maxBatchSize - batch.size());
+        } catch (InterruptedException e) {
+            running = false;
+        }
+    }
+
+    /**
+     * Commits the batch as one transaction. Failed batches are logged and dropped so a
+     * broken database file cannot make the queue grow forever.
+     */
+    private void writeBatch(List<LoginAttempt> batch) {
+        long start = System.nanoTime();
+        List<PlayerSession> ended = new ArrayList<>();
+        try {
+            connection.setAutoCommit(false);
+            int inserted = 0;
+            for (LoginAttempt attempt : batch) {
+                RowKey key = dedupWindowSeconds == 0 ? null
+                        : new RowKey(attempt.username(), attempt.ip(), attempt.status(), attempt.reason());
+                if (key != null && mergeRepeat(key, attempt.epochSecond())) {
+                    continue;
+                }
+                insertStatement.setLong(1, attempt.epochSecond());
+                insertStatement.setString(2, attempt.username());
+                insertStatement.setString(3, attempt.ip());
+                insertStatement.setString(4, attempt.status());
+                insertStatement.setString(5, attempt.reason());
+                // One at a time, since each open row needs the id of its insert
+                insertStatement.executeUpdate();
+                inserted++;
+                if (key != null) {
+                    openRow(key, attempt.epochSecond());
+                }
+            }
+
+            // After the inserts, since a row may have been opened and repeated in this same batch
+            for (OpenRow row : repeated) {
+                repeatStatement.setInt(1, row.repeats);
+                repeatStatement.setLong(2, row.id);
+                repeatStatement.addBatch();
+                row.changed = false;
+            }
+            repeatStatement.executeBatch();
+
+            PlayerSession session;
+            while ((session = sessions.poll()) != null) {
+                ended.add(session);
+                addSession(session);
+            }
+            if (!ended.isEmpty()) {
+                sessionStatement.executeBatch();
+                playtimeStatement.executeBatch();
+            }
+
+            connection.commit();
+            writtenRows.add(inserted);
+            mergedRows.add(batch.size() - inserted);
+            commitLatency.record(System.nanoTime() - start);
+        } catch (SQLException e) {
+            logger.error("Failed to write {} audit rows and {} sessions", batch.size(), ended.size(), e);
+            droppedRows.addAndGet(batch.size() + ended.size());
+            // The open rows may point at inserts that were just rolled back
+            openRows.clear();
+            try {
+                repeatStatement.clearBatch();
+                sessionStatement.clearBatch();
+                playtimeStatement.clearBatch();
+                connection.rollback();
+            } catch (SQLException ignored) {
+            }
+        } finally {
+            repeated.clear();
+            closeOpenRows();
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    public long getWrittenRows() {
+        return writtenRows.sum();
+    }
+
+    private void addSession(PlayerSession session) throws SQLException {
+        String uuid = session.uuid().toString();
+
+        sessionStatement.setString(1, uuid);
+        sessionStatement.setString(2, session.username());
+        sessionStatement.setString(3, session.ip());
+        sessionStatement.setLong(4, session.startEpochSecond());
+        sessionStatement.setLong(5, session.endEpochSecond());
+        sessionStatement.setLong(6, session.durationSeconds());
+        sessionStatement.addBatch();
+
+        playtimeStatement.setString(1, uuid);
+        playtimeStatement.setString(2, session.username());
+        playtimeStatement.setLong(3, session.durationSeconds());
+        playtimeStatement.setLong(4, session.durationSeconds());
+        playtimeStatement.setLong(5, session.startEpochSecond());
+        playtimeStatement.setLong(6, session.endEpochSecond());
+        playtimeStatement.addBatch();
+    }
+
+    /**
+     * Counts the attempt as a repeat of an identical row that is still open.
+     *
+     * @return true if it was merged, false if it needs a row of its own.
+     */
+    private boolean mergeRepeat(RowKey key, long epochSecond) {
+        OpenRow row = openRows.get(key);
+        long age = row == null ? -1 : epochSecond - row.epochSecond;
+        if (age >= 0 && age < dedupWindowSeconds) {
+            row.repeats++;
+            if (!row.changed) {
+                row.changed = true;
+                repeated.add(row);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Opens the row just inserted for repeats, in place of any older row with the same key.
+     */
+    private void openRow(RowKey key, long epochSecond) throws SQLException {
+        try (ResultSet keys = insertStatement.getGeneratedKeys()) {
+            if (!keys.next()) {
+                return;
+            }
+            // Re-inserted rather than replaced, so the map stays ordered by age
+            openRows.remove(key);
+            openRows.put(key, new OpenRow(keys.getLong(1), epochSecond));
+        }
+    }
+
+    /**
+     * Forgets rows whose dedup window has passed, oldest first.
+     */
+    private void closeOpenRows() {
+        long now = System.currentTimeMillis() / 1000L;
+        Iterator<OpenRow> rows = openRows.values().iterator();
+        while (rows.hasNext()) {
+            OpenRow row = rows.next();
+            if (now - row.epochSecond < dedupWindowSeconds && openRows.size() <= MAX_OPEN_ROWS) {
+                break;
+            }
+            rows.remove();
+        }
+    }
+
+    public long getMergedRows() {
+        return mergedRows.sum();
+    }
+
+    public long getDroppedRows() {
+        return droppedRows.get();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public LatencyHistogram getCommitLatency() {
+        return commitLatency;
+    }
+
+    private void spill(LoginAttempt attempt) {
+        synchronized (spillLock) {
+            try {
+                if (spillWriter == null) {
+                    spillWriter = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8,
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                }
+                spillWriter.write(attempt.toSpillLine());
+                spillWriter.newLine();
+                spillPending = true;
+            } catch (IOException e) {
+                droppedRows.incrementAndGet();
+            }
+        }
+    }
+
+    private void flushSpill() {
+        synchronized (spillLock) {
+            if (spillWriter != null) {
+                try {
+                    spillWriter.flush();
+                } catch (IOException e) {
+                    logger.warn("Could not flush the audit spill file", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the spill file aside and feeds its rows back into the database in normal sized batches.
+     * New overflow during the replay goes into a fresh spill file.
+     */
+    private void replaySpill() {
+        synchronized (spillLock) {
+            try {
+                if (spillWriter != null) {
+                    spillWriter.close();
+                    spillWriter = null;
+                }
+                // A previous replay may have been interrupted; finish that one first
+                if (!Files.exists(replayFile) && Files.exists(spillFile)) {
+                    Files.move(spillFile, replayFile, StandardCopyOption.ATOMIC_MOVE);
+                }
+                spillPending = Files.exists(spillFile);
+            } catch (IOException e) {
+                logger.error("Could not rotate the audit spill file", e);
+                return;
+            }
+        }
+
+        if (!Files.exists(replayFile)) {
+            return;
+        }
+
+        List<LoginAttempt> batch = new ArrayList<>(maxBatchSize);
+        int replayed = 0;
+        try (BufferedReader reader = Files.newBufferedReader(replayFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                LoginAttempt attempt = LoginAttempt.fromSpillLine(line);
+                if (attempt == null) {
+                    continue;
+                }
+                batch.add(attempt);
+                if (batch.size() == maxBatchSize) {
+                    writeBatch(batch);
+                    replayed += batch.size();
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+                replayed += batch.size();
+            }
+            Files.delete(replayFile);
+            logger.info("Replayed {} spilled audit rows", replayed);
+        } catch (IOException e) {
+            logger.error("Failed to replay the audit spill file", e);
+        }
+    }
+
+    private void reportDrops() {
+        long dropped = droppedRows.get();
+        if (dropped != reportedDrops) {
+            logger.warn("Audit queue overflowed, {} rows dropped so far", dropped);
+            reportedDrops = dropped;
+        }
+    }
+}
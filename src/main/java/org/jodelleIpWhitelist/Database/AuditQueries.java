@@ -0,0 +1,226 @@
+package org.jodelleIpWhitelist.database;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-only lookups in the audit log for the history, topdenied and playtime commands.
+ *
+ * Queries run on their own thread and their own connection. Thanks to WAL mode they
+ * neither wait for nor block the audit writer, and an admin typing a command never
+ * blocks a proxy thread. Every statement has a hard timeout, and only a few queries
+ * may wait at once; anything beyond that is turned away instead of piling up.
+ *
+ * History pages are fetched by keyset: each page starts strictly below the
+ * (timestamp, id) of the last row shown, which the covering indexes can seek to
+ * directly. Unlike OFFSET, page 500 costs the same as page 1.
+ */
+public final class AuditQueries {
+
+    /**
+     * One row of the audit log as shown to an admin.
+     *
+     * @param repeats how often the same attempt was made within the dedup window starting at timestamp.
+     */
+    public record Entry(long id, String timestamp, String username, String ip, String status, String reason, int repeats) {
+    }
+
+    /**
+     * Where the next history page starts. {@link #FIRST} starts at the newest row.
+     */
+    public record Cursor(String timestamp, long id) {
+        public static final Cursor FIRST = new Cursor("9999-12-31 23:59:59", Long.MAX_VALUE);
+    }
+
+    /**
+     * Denials from one address within the window.
+     */
+    public record DeniedAddress(String ip, long denials, long usernames, String lastSeen) {
+    }
+
+    /**
+     * A player's running playtime totals, kept up to date as their sessions end.
+     */
+    public record Playtime(String uuid, String username, long sessions, long totalSeconds, long longestSeconds,
+                           String firstSeen, String lastSeen) {
+    }
+
+    // Both queries walk only the index, and read the table just for the rows on the page
+    // (see DatabaseManager.createIndexes)
+    private static final String HISTORY_BY_USER = """
+            SELECT id, timestamp, username, ip, status, reason, repeat_count FROM login_attempts
+            WHERE username = ? AND timestamp >= ? AND (timestamp, id) < (?, ?)
+            ORDER BY timestamp DESC, id DESC LIMIT ?
+            """;
+    private static final String HISTORY_BY_IP = """
+            SELECT id, timestamp, username, ip, status, reason, repeat_count FROM login_attempts
+            WHERE ip = ? AND timestamp >= ? AND (timestamp, id) < (?, ?)
+            ORDER BY timestamp DESC, id DESC LIMIT ?
+            """;
+    private static final String TOP_DENIED = """
+            SELECT ip, SUM(repeat_count), COUNT(DISTINCT username), MAX(timestamp) FROM login_attempts
+            WHERE status = 'DENIED' AND timestamp >= ?
+            GROUP BY ip ORDER BY 2 DESC LIMIT ?
+            """;
+
+    // A name can move to another account; the one that played most recently wins
+    private static final String PLAYTIME = """
+            SELECT uuid, username, sessions, total_seconds, longest_seconds, first_seen, last_seen FROM player_playtime
+            WHERE username = ? COLLATE NOCASE ORDER BY last_seen DESC LIMIT 1
+            """;
+
+    private static final DateTimeFormatter SQL_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final Connection connection;
+    private final int timeoutSeconds;
+    private final ThreadPoolExecutor executor;
+
+    AuditQueries(Path databaseFile, int timeoutSeconds) throws SQLException {
+        this.connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile);
+        this.timeoutSeconds = Math.max(1, timeoutSeconds);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA query_only=1");
+        }
+
+        // One thread, so the connection is never shared; a short queue, so spamming
+        // a command cannot build up a backlog of scans
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(4), runnable -> {
+            Thread thread = new Thread(runnable, "JodelleIpWhitelist-AuditQuery");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Fetches one page of a player's or an address's login history, newest first.
+     *
+     * @param key          the username or IP address.
+     * @param byIp         true if key is an IP address.
+     * @param sinceEpoch   only rows at or after this time (seconds since the epoch, UTC).
+     * @param after        where the page starts; {@link Cursor#FIRST} for the newest rows.
+     * @param limit        maximum rows on the page.
+     * @return the rows; fails with RejectedExecutionException if too many queries are waiting.
+     */
+    public CompletableFuture<List<Entry>> history(String key, boolean byIp, long sinceEpoch, Cursor after, int limit) {
+        return submit(() -> {
+            try (PreparedStatement stmt = connection.prepareStatement(byIp ? HISTORY_BY_IP : HISTORY_BY_USER)) {
+                stmt.setQueryTimeout(timeoutSeconds);
+                stmt.setString(1, key);
+                stmt.setString(2, sqlTime(sinceEpoch));
+                stmt.setString(3, after.timestamp());
+                stmt.setLong(4, after.id());
+                stmt.setInt(5, limit);
+
+                List<Entry> rows = new ArrayList<>(limit);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        rows.add(new Entry(rs.getLong(1), rs.getString(2), rs.getString(3),
+                                rs.getString(4), rs.getString(5), rs.getString(6), rs.getInt(7)));
+                    }
+                }
+                return rows;
+            }
+        });
+    }
+
+    /**
+     * Finds the addresses with the most denied logins since the given time.
+     */
+    public CompletableFuture<List<DeniedAddress>> topDenied(long sinceEpoch, int limit) {
+        return submit(() -> {
+            try (PreparedStatement stmt = connection.prepareStatement(TOP_DENIED)) {
+                stmt.setQueryTimeout(timeoutSeconds);
+                stmt.setString(1, sqlTime(sinceEpoch));
+                stmt.setInt(2, limit);
+
+                List<DeniedAddress> rows = new ArrayList<>(limit);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        rows.add(new DeniedAddress(rs.getString(1), rs.getLong(2), rs.getLong(3), rs.getString(4)));
+                    }
+                }
+                return rows;
+            }
+        });
+    }
+
+    /**
+     * Reads a player's playtime totals: one row, whatever the size of the audit log.
+     *
+     * @return the totals, or null if the player never finished a session.
+     */
+    public CompletableFuture<Playtime> playtime(String username) {
+        return submit(() -> {
+            try (PreparedStatement stmt = connection.prepareStatement(PLAYTIME)) {
+                stmt.setQueryTimeout(timeoutSeconds);
+                stmt.setString(1, username);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return null;
+                    }
+                    return new Playtime(rs.getString(1), rs.getString(2), rs.getLong(3), rs.getLong(4),
+                            rs.getLong(5), rs.getString(6), rs.getString(7));
+                }
+            }
+        });
+    }
+
+    private interface Query<T> {
+        T run() throws SQLException;
+    }
+
+    private <T> CompletableFuture<T> submit(Query<T> query) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(query.run());
+                } catch (SQLException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Formats a time the way SQLite's datetime() stores it, so it compares as text.
+     */
+    private static String sqlTime(long epochSecond) {
+        return LocalDateTime.ofEpochSecond(Math.max(0, epochSecond), 0, ZoneOffset.UTC).format(SQL_TIME);
+    }
+
+    /**
+     * Stops accepting queries and closes the connection. A query still running is cut off
+     * by its timeout at the latest.
+     */
+    void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(timeoutSeconds + 1L, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package org.jodelleIpWhitelist.database;
+
+import org.jodelleIpWhitelist.Config.PluginConfig;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps login_attempts from growing forever.
+ *
+ * Once per interval it works through four steps:
+ * 1. Rolls raw rows up into login_hourly (attempts per hour, user and status).
+ *    A watermark remembers the last rolled up id, so every row is counted exactly once.
+ *    Rows still inside the audit writer's dedup window may get more repeats, so they
+ *    wait for the next cycle.
+ * 2. Moves raw rows older than the retention period out of the hot database. With
+ *    archiving on they are copied into one file per month under audit_archive/ (through
+ *    ATTACH, so no row passes through Java), otherwise they are just deleted. Only rows
+ *    that are already rolled up are touched, so the hourly totals stay complete.
+ * 3. Deletes hourly rollups older than their own retention period.
+ * 4. Deletes finished sessions older than the raw retention period. The per-player
+ *    playtime totals they were added to are kept.
+ *
+ * All of this runs on the audit writer thread, because SQLite only has one writer anyway.
+ * Every call to {@link #runSlice()} does at most one small transaction, and the writer
+ * goes back to inserting new rows in between, so a big backlog is worked off gradually
+ * instead of locking the database for minutes.
+ */
+final class AuditRetention {
+
+    private static final DateTimeFormatter SQL_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private enum Phase { IDLE, ROLLUP, ARCHIVE, PRUNE_ROLLUPS, PRUNE_SESSIONS }
+
+    private final Connection connection;
+    private final Path archiveDirectory;
+    private final Logger logger;
+    private final int rawDays;
+    private final int rollupDays;
+    private final boolean archiveMonthly;
+    private final int batchSize;
+    private final long intervalNanos;
+    private final int dedupWindowSeconds;
+
+    private Phase phase = Phase.IDLE;
+    private long nextRun;
+
+    // Rows up to this id are rolled up; persisted in audit_state
+    private long rolledUpTo;
+    // Highest id the current cycle rolls up: just below the oldest row still open for repeats
+    private long cycleTarget;
+    // Month whose archive file is attached right now, or null
+    private String attachedMonth;
+
+    // Totals of the current cycle, for the log line at its end
+    private long rolledUp;
+    private long archived;
+    private long pruned;
+
+    AuditRetention(Connection connection, Path dataDirectory, PluginConfig.Audit config, Logger logger) throws SQLException {
+        this.connection = connection;
+        this.archiveDirectory = dataDirectory.resolve("audit_archive");
+        this.logger = logger;
+        this.rawDays = config.retentionDays;
+        this.rollupDays = config.rollupRetentionDays;
+        this.archiveMonthly = config.archiveMonthly;
+        this.batchSize = Math.max(1, config.retentionBatchSize);
+        this.intervalNanos = TimeUnit.MINUTES.toNanos(Math.max(1, config.retentionIntervalMinutes));
+        this.dedupWindowSeconds = Math.max(0, config.dedupWindowSeconds);
+        // Give the proxy a minute to start before the first cycle
+        this.nextRun = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS login_hourly (
+                    hour TEXT NOT NULL,
+                    username TEXT NOT NULL,
+                    status TEXT NOT NULL,
+                    attempts INTEGER NOT NULL,
+                    PRIMARY KEY (hour, username, status)
+                ) WITHOUT ROWID
+                """);
+            stmt.execute("CREATE TABLE IF NOT EXISTS audit_state (name TEXT PRIMARY KEY, value INTEGER NOT NULL)");
+            stmt.execute("CREATE TEMP TABLE IF NOT EXISTS retention_slice (id INTEGER PRIMARY KEY)");
+            try (ResultSet rs = stmt.executeQuery("SELECT value FROM audit_state WHERE name = 'rolled_up_to'")) {
+                rolledUpTo = rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * Does one slice of work if a cycle is due or in progress.
+     *
+     * @return true if something was done, false if there was nothing to do yet.
+     */
+    boolean runSlice() {
+        if (phase == Phase.IDLE) {
+            if (System.nanoTime() - nextRun < 0) {
+                return false;
+            }
+            try {
+                startCycle();
+            } catch (SQLException e) {
+                fail(e);
+                return false;
+            }
+        }
+
+        try {
+            switch (phase) {
+                case ROLLUP -> {
+                    if (!rollupSlice()) {
+                        phase = Phase.ARCHIVE;
+                    }
+                }
+                case ARCHIVE -> {
+                    if (rawDays <= 0 || !archiveSlice()) {
+                        detachArchive();
+                        phase = Phase.PRUNE_ROLLUPS;
+                    }
+                }
+                case PRUNE_ROLLUPS -> {
+                    if (rollupDays <= 0 || !pruneRollupSlice()) {
+                        phase = Phase.PRUNE_SESSIONS;
+                    }
+                }
+                case PRUNE_SESSIONS -> {
+                    if (rawDays <= 0 || !pruneSessionSlice()) {
+                        finishCycle();
+                    }
+                }
+                default -> {
+                }
+            }
+        } catch (SQLException | IOException e) {
+            fail(e);
+        }
+        return true;
+    }
+
+    private void startCycle() throws SQLException {
+        // Stops just below the oldest row still inside the dedup window (with a minute to spare
+        // for rows that sat in the queue). Ids do not follow timestamps, since spilled rows are
+        // inserted late with their original time, so "the newest settled row" would not do:
+        // a row before it could still be getting repeats. The timestamp index keeps this to
+        // the rows of the last few minutes.
+        String settled = LocalDateTime.now(ZoneOffset.UTC).minusSeconds(dedupWindowSeconds + 60L).format(SQL_TIME);
+        try (PreparedStatement open = connection.prepareStatement(
+                "SELECT MIN(id) FROM login_attempts WHERE timestamp >= ?");
+             PreparedStatement newest = connection.prepareStatement("SELECT MAX(id) FROM login_attempts")) {
+            open.setString(1, settled);
+            long firstOpen;
+            try (ResultSet rs = open.executeQuery()) {
+                // MIN of no rows is NULL, read as 0; ids start at 1
+                firstOpen = rs.next() ? rs.getLong(1) : 0;
+            }
+            long target;
+            if (firstOpen > 0) {
+                target = firstOpen - 1;
+            } else {
+                // Every row has settled
+                try (ResultSet rs = newest.executeQuery()) {
+                    target = rs.next() ? rs.getLong(1) : 0;
+                }
+            }
+            cycleTarget = Math.max(rolledUpTo, target);
+        }
+        rolledUp = 0;
+        archived = 0;
+        pruned = 0;
+        phase = Phase.ROLLUP;
+    }
+
+    /**
+     * Adds the next batch of raw rows to the hourly counts and moves the watermark,
+     * in one transaction so a crash can neither lose nor double count rows.
+     */
+    private boolean rollupSlice() throws SQLException {
+        if (rolledUpTo >= cycleTarget) {
+            return false;
+        }
+        long upTo = Math.min(cycleTarget, rolledUpTo + batchSize);
+
+        inTransaction(() -> {
+            try (PreparedStatement stmt = connection.prepareStatement("""
+                    INSERT INTO login_hourly(hour, username, status, attempts)
+                    SELECT strftime('%Y-%m-%d %H:00:00', timestamp), COALESCE(username, ''), COALESCE(status, ''), SUM(repeat_count)
+                    FROM login_attempts WHERE id > ? AND id <= ?
+                    GROUP BY 1, 2, 3
+                    ON CONFLICT(hour, username, status) DO UPDATE SET attempts = attempts + excluded.attempts
+                    """)) {
+                stmt.setLong(1, rolledUpTo);
+                stmt.setLong(2, upTo);
+                stmt.executeUpdate();
+            }
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "INSERT INTO audit_state(name, value) VALUES('rolled_up_to', ?) ON CONFLICT(name) DO UPDATE SET value = excluded.value")) {
+                stmt.setLong(1, upTo);
+                stmt.executeUpdate();
+            }
+        });
+
+        rolledUp += upTo - rolledUpTo;
+        rolledUpTo = upTo;
+        return rolledUpTo < cycleTarget;
+    }
+
+    /**
+     * Moves (or deletes) the oldest batch of expired raw rows. A batch never spans two
+     * months, so each one goes into exactly one archive file.
+     */
+    private boolean archiveSlice() throws SQLException, IOException {
+        String cutoff = LocalDateTime.now(ZoneOffset.UTC).minusDays(rawDays).format(SQL_TIME);
+
+        String oldest;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MIN(timestamp) FROM login_attempts")) {
+            oldest = rs.next() ? rs.getString(1) : null;
+        }
+        if (oldest == null || oldest.compareTo(cutoff) >= 0) {
+            return false;
+        }
+
+        YearMonth month = YearMonth.parse(oldest.substring(0, 7));
+        String monthEnd = month.plusMonths(1).atDay(1).atStartOfDay().format(SQL_TIME);
+        String sliceEnd = monthEnd.compareTo(cutoff) < 0 ? monthEnd : cutoff;
+
+        if (archiveMonthly) {
+            attachArchive(month.toString());
+        }
+
+        int[] moved = new int[1];
+        inTransaction(() -> {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("DELETE FROM temp.retention_slice");
+            }
+            try (PreparedStatement stmt = connection.prepareStatement("""
+                    INSERT INTO temp.retention_slice(id)
+                    SELECT id FROM login_attempts WHERE timestamp < ? AND id <= ?
+                    ORDER BY timestamp LIMIT ?
+                    """)) {
+                stmt.setString(1, sliceEnd);
+                stmt.setLong(2, rolledUpTo);
+                stmt.setInt(3, batchSize);
+                moved[0] = stmt.executeUpdate();
+            }
+            try (Statement stmt = connection.createStatement()) {
+                if (archiveMonthly) {
+                    stmt.executeUpdate("""
+                        INSERT OR IGNORE INTO archive.login_attempts(id, timestamp, username, ip, status, reason, repeat_count)
+                        SELECT id, timestamp, username, ip, status, reason, repeat_count FROM main.login_attempts
+                        WHERE id IN (SELECT id FROM temp.retention_slice)
+                        """);
+                }
+                stmt.executeUpdate("DELETE FROM main.login_attempts WHERE id IN (SELECT id FROM temp.retention_slice)");
+            }
+        });
+
+        if (archiveMonthly) {
+            archived += moved[0];
+        } else {
+            pruned += moved[0];
+        }
+        // Nothing movable left: the old rows are newer than the rollup watermark
+        return moved[0] > 0;
+    }
+
+    private void attachArchive(String month) throws SQLException, IOException {
+        if (month.equals(attachedMonth)) {
+            return;
+        }
+        detachArchive();
+
+        Files.createDirectories(archiveDirectory);
+        Path file = archiveDirectory.resolve("auth_logs-" + month + ".db");
+        try (PreparedStatement attach = connection.prepareStatement("ATTACH DATABASE ? AS archive")) {
+            attach.setString(1, file.toString());
+            attach.execute();
+        }
+        attachedMonth = month;
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS archive.login_attempts (
+                    id INTEGER PRIMARY KEY,
+                    timestamp DATETIME,
+                    username TEXT,
+                    ip TEXT,
+                    status TEXT,
+                    reason TEXT,
+                    repeat_count INTEGER NOT NULL DEFAULT 1
+                )
+                """);
+            stmt.execute("CREATE INDEX IF NOT EXISTS archive.idx_archive_username ON login_attempts(username)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS archive.idx_archive_ip ON login_attempts(ip)");
+        }
+        DatabaseManager.addRepeatCountColumn(connection, "archive");
+    }
+
+    private void detachArchive() {
+        if (attachedMonth == null) {
+            return;
+        }
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DETACH DATABASE archive");
+        } catch (SQLException e) {
+            logger.warn("Could not detach the audit archive for {}", attachedMonth, e);
+        }
+        attachedMonth = null;
+    }
+
+    private boolean pruneRollupSlice() throws SQLException {
+        String cutoff = LocalDateTime.now(ZoneOffset.UTC).minusDays(rollupDays).format(SQL_TIME);
+        try (PreparedStatement stmt = connection.prepareStatement("""
+                DELETE FROM login_hourly WHERE (hour, username, status) IN (
+                    SELECT hour, username, status FROM login_hourly WHERE hour < ? LIMIT ?)
+                """)) {
+            stmt.setString(1, cutoff);
+            stmt.setInt(2, batchSize);
+            int deleted = stmt.executeUpdate();
+            return deleted == batchSize;
+        }
+    }
+
+    private boolean pruneSessionSlice() throws SQLException {
+        String cutoff = LocalDateTime.now(ZoneOffset.UTC).minusDays(rawDays).format(SQL_TIME);
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "DELETE FROM player_sessions WHERE id IN (SELECT id FROM player_sessions WHERE ended < ? LIMIT ?)")) {
+            stmt.setString(1, cutoff);
+            stmt.setInt(2, batchSize);
+            int deleted = stmt.executeUpdate();
+            return deleted == batchSize;
+        }
+    }
+
+    private void finishCycle() {
+        phase = Phase.IDLE;
+        nextRun = System.nanoTime() + intervalNanos;
+
+        // Hands pages freed by the deletes back to the file system (only databases created
+        // with auto_vacuum=INCREMENTAL; for others this does nothing)
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA incremental_vacuum");
+        } catch (SQLException e) {
+            logger.warn("Incremental vacuum of the audit log failed", e);
+        }
+
+        if (archived > 0 || pruned > 0) {
+            logger.info("Audit retention: rolled up {} rows, archived {}, deleted {}", rolledUp, archived, pruned);
+        }
+    }
+
+    private void fail(Exception e) {
+        logger.error("Audit retention failed, retrying in the next interval", e);
+        detachArchive();
+        phase = Phase.IDLE;
+        nextRun = System.nanoTime() + intervalNanos;
+    }
+
+    /**
+     * Stops a cycle in progress. Everything committed so far stays; the next start picks up
+     * from the stored watermark.
+     */
+    void close() {
+        detachArchive();
+        phase = Phase.IDLE;
+    }
+
+    private interface SqlWork {
+        void run() throws SQLException;
+    }
+
+    private void inTransaction(SqlWork work) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            work.run();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package org.jodelleIpWhitelist.database;
 
+import org.jodelleIpWhitelist.Config.PluginConfig;
+import org.jodelleIpWhitelist.Metrics.LatencyHistogram;
+import org.slf4j.Logger;
+
 import java.nio.file.Path;
 import java.sql.*;
 
@@ -12,7 +16,19 @@ public class DatabaseManager {
 
     private Connection connection;
 
-    public DatabaseManager(Path dataDirectory) {
+    // Does the actual INSERTs on its own thread so logins never wait on the disk
+    private AuditLogWriter auditWriter;
+
+    // Read-only lookups for the history/topdenied commands, on their own connection
+    private AuditQueries auditQueries;
+
+    // How long logAttempt holds up its caller (only long with the BLOCK overflow policy)
+    private final LatencyHistogram submitLatency = new LatencyHistogram();
+
+    // Stands in for the writer's histogram when the database never opened
+    private final LatencyHistogram noCommits = new LatencyHistogram();
+
+    public DatabaseManager(Path dataDirectory, PluginConfig.Audit auditConfig, Logger logger) {
         try {
             // First, we need to make sure the SQLite driver is actually loaded.
             // Without this, the JDBC bridge won't know how to talk to the .db file.
@@ -27,7 +43,13 @@ public class DatabaseManager {
             connection = DriverManager.getConnection(url);
 
             // Run the initial setup to make sure our table exists.
-            setupTable();
+            setupTable(logger);
+
+            // From here on the writer thread owns the connection.
+            auditWriter = new AuditLogWriter(connection, dataDirectory, auditConfig, logger);
+            auditWriter.start();
+
+            auditQueries = new AuditQueries(dataDirectory.resolve("auth_logs.db"), auditConfig.queryTimeoutSeconds);
 
         } catch (Exception e) {
             // If the database fails, we definitely need to know why in the console.
@@ -40,7 +62,7 @@ public class DatabaseManager {
      * I added an 'id' column so every entry is unique, and 'timestamp'
      * defaults to the current time so we don't have to pass it manually in Java.
      */
-    private void setupTable() throws SQLException {
+    private void setupTable(Logger logger) throws SQLException {
         String sql = """
             CREATE TABLE IF NOT EXISTS login_attempts (
                 id INTEGER PRIMARY KEY AUTOINCREMENT,
@@ -48,41 +70,191 @@ public class DatabaseManager {
                 username TEXT,
                 ip TEXT,
                 status TEXT,
-                reason TEXT
+                reason TEXT,
+                repeat_count INTEGER NOT NULL DEFAULT 1
             );
             """;
 
         // Using a try-with-resources here for the Statement to avoid memory leaks.
         try (Statement stmt = connection.createStatement()) {
+            // Lets retention give freed pages back to the disk. This only takes effect on new
+            // database files; an existing one needs a single manual VACUUM to switch over.
+            stmt.execute("PRAGMA auto_vacuum=INCREMENTAL");
+            // WAL lets a commit append to the log instead of rewriting pages, and NORMAL
+            // only syncs at checkpoints. That keeps the per-batch cost low.
+            stmt.execute("PRAGMA journal_mode=WAL");
+            stmt.execute("PRAGMA synchronous=NORMAL");
             stmt.execute(sql);
+
+            // One row per finished session, and per-player totals that are kept up to date
+            // as sessions end, so playtime is a single row lookup (see SessionRegistry)
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS player_sessions (
+                    id INTEGER PRIMARY KEY AUTOINCREMENT,
+                    uuid TEXT NOT NULL,
+                    username TEXT NOT NULL,
+                    ip TEXT,
+                    started DATETIME NOT NULL,
+                    ended DATETIME NOT NULL,
+                    duration_seconds INTEGER NOT NULL
+                )
+                """);
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_player_sessions_ended ON player_sessions(ended)");
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS player_playtime (
+                    uuid TEXT PRIMARY KEY,
+                    username TEXT NOT NULL,
+                    sessions INTEGER NOT NULL,
+                    total_seconds INTEGER NOT NULL,
+                    longest_seconds INTEGER NOT NULL,
+                    first_seen DATETIME NOT NULL,
+                    last_seen DATETIME NOT NULL
+                )
+                """);
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_player_playtime_username ON player_playtime(username COLLATE NOCASE)");
+        }
+
+        addRepeatCountColumn(connection, "main");
+        createIndexes(logger);
+    }
+
+    /**
+     * Tables created before identical rows were merged have no repeat_count column yet.
+     * Adding a column with a constant default does not rewrite the table, so this is quick
+     * even on a big file. Also used for the monthly archive files.
+     *
+     * @param schema "main", or the name an archive file is attached as.
+     */
+    static void addRepeatCountColumn(Connection connection, String schema) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("PRAGMA " + schema + ".table_info(login_attempts)")) {
+                while (rs.next()) {
+                    if ("repeat_count".equalsIgnoreCase(rs.getString("name"))) {
+                        return;
+                    }
+                }
+            }
+            stmt.execute("ALTER TABLE " + schema + ".login_attempts ADD COLUMN repeat_count INTEGER NOT NULL DEFAULT 1");
+        }
+    }
+
+    /**
+     * Indexes for retention (timestamp) and for looking up a player or address.
+     * Building them on an existing multi-GB table takes a while, but only once.
+     */
+    private void createIndexes(Logger logger) throws SQLException {
+        // The history indexes find and order a page without touching the table; only the repeat
+        // count of the rows on the page is read from it. The id right after timestamp keeps keyset
+        // paging in index order. The topdenied index holds every column that query reads.
+        String[][] indexes = {
+                {"idx_login_attempts_timestamp", "login_attempts(timestamp)"},
+                {"idx_login_attempts_user_history", "login_attempts(username, timestamp, id, ip, status, reason)"},
+                {"idx_login_attempts_ip_history", "login_attempts(ip, timestamp, id, username, status, reason)"},
+                {"idx_login_attempts_denied_repeats", "login_attempts(status, timestamp, ip, username, repeat_count)"},
+        };
+
+        try (Statement stmt = connection.createStatement()) {
+            // Superseded by the covering indexes above
+            stmt.execute("DROP INDEX IF EXISTS idx_login_attempts_username");
+            stmt.execute("DROP INDEX IF EXISTS idx_login_attempts_ip");
+            stmt.execute("DROP INDEX IF EXISTS idx_login_attempts_denied");
+
+            for (String[] index : indexes) {
+                boolean exists;
+                try (ResultSet rs = stmt.executeQuery(
+                        "SELECT 1 FROM sqlite_master WHERE type = 'index' AND name = '" + index[0] + "'")) {
+                    exists = rs.next();
+                }
+                if (!exists) {
+                    logger.info("Building audit log index {}, this can take a while on a large database", index[0]);
+                    stmt.execute("CREATE INDEX IF NOT EXISTS " + index[0] + " ON " + index[1]);
+                }
+            }
         }
     }
 
     /**
      * Logs a login attempt (success or fail) to the database.
-     * * @param user The name they tried to join with
+     * The row is only queued here; the audit writer commits it in the background,
+     * so this is safe to call from the event threads.
+     *
+     * @param user The name they tried to join with
      * @param ip Their IP address
      * @param status Usually 'ALLOWED' or 'DENIED'
      * @param reason Why they were denied (or "Success")
      */
     public void logAttempt(String user, String ip, String status, String reason) {
-        // We use '?' placeholders and a PreparedStatement.
-        // This is crucial to prevent SQL Injection—never trust user input in a raw query!
-        String sql = "INSERT INTO login_attempts(username, ip, status, reason) VALUES(?,?,?,?)";
+        // If the database never opened there is nothing to write to.
+        if (auditWriter == null) {
+            return;
+        }
 
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            // Mapping our variables to those '?' placeholders.
-            pstmt.setString(1, user);
-            pstmt.setString(2, ip);
-            pstmt.setString(3, status);
-            pstmt.setString(4, reason);
+        long start = System.nanoTime();
+        auditWriter.submit(new LoginAttempt(System.currentTimeMillis() / 1000L, user, ip, status, reason));
+        submitLatency.record(System.nanoTime() - start);
+    }
 
-            // Send it to the database.
-            pstmt.executeUpdate();
+    /**
+     * Queues a finished session; written with the next batch of audit rows.
+     */
+    public void logSession(PlayerSession session) {
+        if (auditWriter != null) {
+            auditWriter.submitSession(session);
+        }
+    }
+
+    public LatencyHistogram getSubmitLatency() {
+        return submitLatency;
+    }
+
+    public LatencyHistogram getCommitLatency() {
+        return auditWriter == null ? noCommits : auditWriter.getCommitLatency();
+    }
+
+    public long getWrittenRows() {
+        return auditWriter == null ? 0 : auditWriter.getWrittenRows();
+    }
+
+    /**
+     * @return rows that were folded into an identical earlier row instead of being inserted.
+     */
+    public long getMergedRows() {
+        return auditWriter == null ? 0 : auditWriter.getMergedRows();
+    }
+
+    public long getDroppedRows() {
+        return auditWriter == null ? 0 : auditWriter.getDroppedRows();
+    }
+
+    /**
+     * @return the audit log lookups, or null if the database never opened.
+     */
+    public AuditQueries getAuditQueries() {
+        return auditQueries;
+    }
+
+    public int getQueueDepth() {
+        return auditWriter == null ? 0 : auditWriter.getQueueDepth();
+    }
 
+    /**
+     * Flushes whatever is still queued and closes the database.
+     * Called when the proxy shuts down.
+     */
+    public void close() {
+        if (auditQueries != null) {
+            auditQueries.close();
+        }
+        if (auditWriter != null) {
+            auditWriter.close();
+        }
+
+        try {
+            if (connection != null) {
+                connection.close();
+            }
         } catch (SQLException e) {
-            // Log the error if the write fails (e.g., if the file is locked).
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,43 @@
+package org.jodelleIpWhitelist.database;
+
+/**
+ * One row of the login audit log, captured at the moment the event happened.
+ * The timestamp is taken when the row is queued, not when the writer gets to it,
+ * so batching does not shift the recorded times.
+ *
+ * @param epochSecond when the attempt happened (seconds since the epoch, UTC)
+ * @param username    the name they tried to join with
+ * @param ip          their IP address
+ * @param status      usually 'ALLOWED', 'DENIED' or 'LOGOUT'
+ * @param reason      why they were denied (or a short success note)
+ */
+public record LoginAttempt(long epochSecond, String username, String ip, String status, String reason) {
+
+    /**
+     * Encodes the row as a single tab separated line for the spill file.
+     */
+    String toSpillLine() {
+        return epochSecond + "\t" + clean(username) + "\t" + clean(ip) + "\t" + clean(status) + "\t" + clean(reason);
+    }
+
+    /**
+     * Parses a line written by {@link #toSpillLine()}.
+     *
+     * @return the row, or null if the line is damaged (e.g. cut off by a crash).
+     */
+    static LoginAttempt fromSpillLine(String line) {
+        String[] parts = line.split("\t", -1);
+        if (parts.length != 5) {
+            return null;
+        }
+        try {
+            return new LoginAttempt(Long.parseLong(parts[0]), parts[1], parts[2], parts[3], parts[4]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String clean(String value) {
+        return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+}
@@ -0,0 +1,13 @@
+package org.jodelleIpWhitelist.database;
+
+/**
+ * Decides what the audit writer does when its queue is full.
+ */
+public enum OverflowPolicy {
+    /** The caller waits until the writer has made room. Never loses rows, but can stall the caller. */
+    BLOCK,
+    /** The oldest queued row is discarded to make room for the new one. */
+    DROP_OLDEST,
+    /** The row is appended to a spill file on disk and replayed once the queue drains. */
+    SPILL
+}
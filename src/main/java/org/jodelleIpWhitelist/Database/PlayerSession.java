@@ -0,0 +1,19 @@
+package org.jodelleIpWhitelist.database;
+
+import java.util.UUID;
+
+/**
+ * One finished stay on the proxy, from the allowed login to the disconnect.
+ *
+ * @param uuid             the player's UUID, which survives name changes
+ * @param username         the name they joined with
+ * @param ip               the address they joined from
+ * @param startEpochSecond when the login was allowed (seconds since the epoch, UTC)
+ * @param endEpochSecond   when they disconnected
+ */
+public record PlayerSession(UUID uuid, String username, String ip, long startEpochSecond, long endEpochSecond) {
+
+    public long durationSeconds() {
+        return Math.max(0, endEpochSecond - startEpochSecond);
+    }
+}
@@ -0,0 +1,93 @@
+package org.jodelleIpWhitelist.database;
+
+import com.velocitypowered.api.proxy.Player;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The players who are on the proxy right now, with when and from where they joined.
+ *
+ * Sessions are keyed by the Player object, which is new for every connection, rather than
+ * by UUID. A second login with the same UUID (a duplicate join that the proxy then refuses,
+ * or one that replaces the old connection) gets its own session, and its disconnect can
+ * only ever close that one.
+ *
+ * A session opens when the whitelist allows a login and closes on the disconnect. The
+ * closed session goes to the audit writer as one {@link PlayerSession}, which stores it in
+ * player_sessions and adds it to the player's running totals in player_playtime in the
+ * same transaction. Playtime questions are then answered by reading one row instead of
+ * pairing up ALLOWED and LOGOUT rows across the whole audit log.
+ *
+ * Sessions still open when the proxy stops are closed at shutdown. After a crash they
+ * are lost, since nothing here is on disk until the disconnect.
+ */
+public final class SessionRegistry {
+
+    private record Open(UUID uuid, String username, InetAddress address, long startEpochSecond) {
+    }
+
+    private final DatabaseManager databaseManager;
+
+    // Connection -> its session; players are compared by identity
+    private final Map<Player, Open> online = new ConcurrentHashMap<>();
+
+    public SessionRegistry(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+    }
+
+    /**
+     * Opens a session for a login the whitelist just allowed. Cheap enough for the connection
+     * thread: the address is only formatted when the session is written.
+     */
+    public void open(Player player, InetAddress address) {
+        online.putIfAbsent(player, new Open(player.getUniqueId(), player.getUsername(), address,
+                System.currentTimeMillis() / 1000L));
+    }
+
+    /**
+     * Closes the session of the player's connection, if one is open.
+     *
+     * @param completed  false if the login never finished (cancelled by another plugin, by
+     *                   the player, or refused as a duplicate), in which case nothing is recorded.
+     */
+    public void close(Player player, boolean completed) {
+        Open open = online.remove(player);
+        if (open != null && completed) {
+            record(open, System.currentTimeMillis() / 1000L);
+        }
+    }
+
+    /**
+     * @return when the player's current session started (seconds since the epoch), or -1 if they are not online.
+     */
+    public long onlineSince(String username) {
+        for (Open open : online.values()) {
+            if (open.username().equalsIgnoreCase(username)) {
+                return open.startEpochSecond();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Records every session that is still open, ending now. Called at shutdown, before the
+     * audit writer is closed.
+     */
+    public void closeAll() {
+        long now = System.currentTimeMillis() / 1000L;
+        for (Player player : online.keySet()) {
+            Open open = online.remove(player);
+            if (open != null) {
+                record(open, now);
+            }
+        }
+    }
+
+    private void record(Open open, long endEpochSecond) {
+        databaseManager.logSession(new PlayerSession(open.uuid(), open.username(), open.address().getHostAddress(),
+                open.startEpochSecond(), endEpochSecond));
+    }
+}
@@ -0,0 +1,407 @@
+package org.jodelleIpWhitelist.Http;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.jodelleIpWhitelist.Config.PluginConfig;
+import org.jodelleIpWhitelist.Util.AddressCodec;
+import org.jodelleIpWhitelist.Util.Cidr;
+import org.jodelleIpWhitelist.Util.Usernames;
+import org.jodelleIpWhitelist.WhitelistManager.WhitelistStore;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A small REST API for bots and scripts that manage the whitelist, served under http.adminPath.
+ *
+ * Every request needs "Authorization: Bearer &lt;http.adminToken&gt;". Requests change the
+ * live whitelist through the same store calls as the commands, so an update is one journal
+ * record (or one row) plus one replaced in-memory entry; nothing rewrites whitelist.json or
+ * reloads it.
+ *
+ * <pre>
+ * GET    /api/whitelist                          users and ranges counted
+ * GET    /api/whitelist/users/{username}         a user's IP entries
+ * PUT    /api/whitelist/users/{username}/ips/{ip}
+ * DELETE /api/whitelist/users/{username}/ips/{ip}
+ * GET    /api/whitelist/ranges                   the global ranges
+ * POST   /api/whitelist/batch                    many operations in one call, see {@link Operation}
+ * </pre>
+ *
+ * CIDR entries in a path need their slash encoded as %2F. Responses are JSON.
+ */
+public final class AdminApi implements HttpHandler {
+
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+    private static final String JSON = "application/json; charset=utf-8";
+    private static final String BEARER = "Bearer ";
+
+    /**
+     * One entry of a batch request.
+     *
+     * op is "add" or "remove" (username and ip), "replace" (username and ips: the user ends up
+     * with exactly these entries, or is removed when the list is empty), or "addRange" and
+     * "removeRange" (range).
+     */
+    private static final class Operation {
+        String op;
+        String username;
+        String ip;
+        List<String> ips;
+        String range;
+    }
+
+    private static final class Batch {
+        List<Operation> operations;
+    }
+
+    private final WhitelistStore store;
+    private final String basePath;
+    private final byte[] token;
+    private final int maxBodyBytes;
+    private final int maxBatchSize;
+    private final Logger logger;
+
+    public AdminApi(WhitelistStore store, PluginConfig.Http config, Logger logger) {
+        this.store = store;
+        this.basePath = config.adminPath.endsWith("/")
+                ? config.adminPath.substring(0, config.adminPath.length() - 1) : config.adminPath;
+        this.token = config.adminToken.getBytes(StandardCharsets.UTF_8);
+        this.maxBodyBytes = Math.max(1024, config.adminMaxBodyBytes);
+        this.maxBatchSize = Math.max(1, config.adminMaxBatchSize);
+        this.logger = logger;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!authorized(exchange)) {
+            exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+            error(exchange, 401, "missing or wrong bearer token");
+            return;
+        }
+
+        List<String> path = pathSegments(exchange);
+        if (path == null) {
+            error(exchange, 404, "not found");
+            return;
+        }
+        String method = exchange.getRequestMethod();
+
+        if (path.isEmpty()) {
+            if (requireMethod(exchange, method, "GET")) {
+                json(exchange, 200, Map.of("users", store.size(), "ranges", store.getGlobalRanges().size()));
+            }
+        } else if (path.get(0).equals("users") && path.size() == 2) {
+            if (requireMethod(exchange, method, "GET")) {
+                getUser(exchange, path.get(1));
+            }
+        } else if (path.get(0).equals("users") && path.size() == 4 && path.get(2).equals("ips")) {
+            changeIp(exchange, method, path.get(1), path.get(3));
+        } else if (path.equals(List.of("ranges"))) {
+            if (requireMethod(exchange, method, "GET")) {
+                json(exchange, 200, Map.of("ranges", store.getGlobalRanges()));
+            }
+        } else if (path.equals(List.of("batch"))) {
+            if (requireMethod(exchange, method, "POST")) {
+                batch(exchange);
+            }
+        } else {
+            error(exchange, 404, "not found");
+        }
+    }
+
+    /**
+     * Compares the token in constant time, so its length is all a timing attack could learn.
+     */
+    private boolean authorized(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.startsWith(BEARER)) {
+            return false;
+        }
+        return MessageDigest.isEqual(token, header.substring(BEARER.length()).trim().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the decoded path segments after the base path, or null if the path is outside it.
+     */
+    private List<String> pathSegments(HttpExchange exchange) {
+        String raw = exchange.getRequestURI().getRawPath();
+        if (!raw.equals(basePath) && !raw.startsWith(basePath + "/")) {
+            return null;
+        }
+
+        List<String> segments = new ArrayList<>();
+        for (String segment : raw.substring(basePath.length()).split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(URLDecoder.decode(segment, StandardCharsets.UTF_8));
+            }
+        }
+        return segments;
+    }
+
+    private boolean requireMethod(HttpExchange exchange, String method, String allowed) throws IOException {
+        if (method.equals(allowed)) {
+            return true;
+        }
+        exchange.getResponseHeaders().set("Allow", allowed);
+        error(exchange, 405, "use " + allowed);
+        return false;
+    }
+
+    private void getUser(HttpExchange exchange, String username) throws IOException {
+        List<String> ips = store.getIpsForUsername(username);
+        if (ips.isEmpty()) {
+            error(exchange, 404, "not whitelisted");
+            return;
+        }
+        json(exchange, 200, Map.of("username", username, "ips", ips));
+    }
+
+    private void changeIp(HttpExchange exchange, String method, String username, String ip) throws IOException {
+        if (!method.equals("PUT") && !method.equals("DELETE")) {
+            exchange.getResponseHeaders().set("Allow", "PUT, DELETE");
+            error(exchange, 405, "use PUT or DELETE");
+            return;
+        }
+
+        String problem = validate(username, ip);
+        if (problem != null) {
+            error(exchange, 400, problem);
+            return;
+        }
+
+        String status = method.equals("PUT") ? add(username, ip) : remove(username, ip);
+        int code = switch (status) {
+            case "added" -> 201;
+            case "missing" -> 404;
+            case "failed" -> 500;
+            default -> 200;
+        };
+        json(exchange, code, Map.of("status", status));
+    }
+
+    /**
+     * @return "added", "exists" or "failed".
+     */
+    private String add(String username, String ip) {
+        if (store.addIP(username, ip)) {
+            return "added";
+        }
+        // addIP does not say whether the entry existed or could not be saved
+        return store.getIpsForUsername(username).contains(ip) ? "exists" : "failed";
+    }
+
+    /**
+     * @return "removed", "missing" or "failed".
+     */
+    private String remove(String username, String ip) {
+        if (store.removeIP(username, ip)) {
+            return "removed";
+        }
+        return store.getIpsForUsername(username).contains(ip) ? "failed" : "missing";
+    }
+
+    /**
+     * Runs the operations in order and answers with one status per operation. Runs of
+     * consecutive adds are stored as one batch with a single write.
+     */
+    private void batch(HttpExchange exchange) throws IOException {
+        byte[] body = exchange.getRequestBody().readNBytes(maxBodyBytes + 1);
+        if (body.length > maxBodyBytes) {
+            error(exchange, 413, "request body is larger than " + maxBodyBytes + " bytes");
+            return;
+        }
+
+        Batch batch;
+        try {
+            batch = GSON.fromJson(new String(body, StandardCharsets.UTF_8), Batch.class);
+        } catch (JsonParseException e) {
+            error(exchange, 400, "malformed JSON: " + e.getMessage());
+            return;
+        }
+        if (batch == null || batch.operations == null) {
+            error(exchange, 400, "expected {\"operations\": [...]}");
+            return;
+        }
+        if (batch.operations.size() > maxBatchSize) {
+            error(exchange, 413, "at most " + maxBatchSize + " operations per batch");
+            return;
+        }
+
+        List<String> results = new ArrayList<>(batch.operations.size());
+        PendingAdds pending = new PendingAdds();
+        for (Operation operation : batch.operations) {
+            String op = operation == null || operation.op == null ? "" : operation.op;
+            if (!op.equals("add")) {
+                pending.flush(results);
+            }
+
+            switch (op) {
+                case "add" -> {
+                    String problem = validate(operation.username, operation.ip);
+                    if (problem != null) {
+                        pending.flush(results);
+                        results.add("invalid: " + problem);
+                    } else {
+                        pending.add(operation.username, operation.ip);
+                    }
+                }
+                case "remove" -> {
+                    String problem = validate(operation.username, operation.ip);
+                    results.add(problem != null ? "invalid: " + problem : remove(operation.username, operation.ip));
+                }
+                case "replace" -> results.add(replace(operation.username, operation.ips));
+                case "addRange" -> results.add(!isValidRange(operation.range) ? "invalid: bad range"
+                        : store.addGlobalRange(operation.range) ? "added" : "exists");
+                case "removeRange" -> results.add(!isValidRange(operation.range) ? "invalid: bad range"
+                        : store.removeGlobalRange(operation.range) ? "removed" : "missing");
+                default -> results.add("invalid: unknown op '" + op + "'");
+            }
+        }
+        pending.flush(results);
+
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (String result : results) {
+            String key = result.startsWith("invalid") ? "invalid" : result;
+            counts.merge(key, 1, Integer::sum);
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("counts", counts);
+        response.put("results", results);
+        json(exchange, 200, response);
+    }
+
+    /**
+     * Gives a user exactly the given entries.
+     *
+     * @return "updated", "unchanged", "failed" or why the operation is invalid.
+     */
+    private String replace(String username, List<String> ips) {
+        if (ips == null) {
+            return "invalid: missing ips";
+        }
+        for (String ip : ips) {
+            String problem = validate(username, ip);
+            if (problem != null) {
+                return "invalid: " + problem;
+            }
+        }
+
+        Set<String> wanted = new HashSet<>(ips);
+        List<String> current = store.getIpsForUsername(username);
+        boolean changed = false;
+        boolean failed = false;
+
+        // Add first, so a user being moved to a new address is never briefly locked out
+        List<String> missing = new ArrayList<>();
+        for (String ip : wanted) {
+            if (!current.contains(ip)) {
+                missing.add(ip);
+            }
+        }
+        if (!missing.isEmpty()) {
+            try {
+                store.addBatch(Map.of(username, missing));
+                changed = true;
+            } catch (IOException e) {
+                logger.error("Admin API could not store the entries of {}", username, e);
+                return "failed";
+            }
+        }
+        for (String ip : current) {
+            if (!wanted.contains(ip)) {
+                if (store.removeIP(username, ip)) {
+                    changed = true;
+                } else {
+                    failed = true;
+                }
+            }
+        }
+
+        return failed ? "failed" : changed ? "updated" : "unchanged";
+    }
+
+    /**
+     * Consecutive adds of a batch, stored together with {@link WhitelistStore#addBatch}.
+     */
+    private final class PendingAdds {
+        private final Map<String, List<String>> entries = new LinkedHashMap<>();
+        private final List<String[]> order = new ArrayList<>();
+
+        void add(String username, String ip) {
+            order.add(new String[]{username, ip});
+        }
+
+        /**
+         * Stores the collected adds and appends their results in request order.
+         */
+        void flush(List<String> results) {
+            if (order.isEmpty()) {
+                return;
+            }
+
+            List<String> statuses = new ArrayList<>(order.size());
+            Map<String, List<String>> existing = new LinkedHashMap<>();
+            for (String[] add : order) {
+                List<String> known = existing.computeIfAbsent(add[0], name -> new ArrayList<>(store.getIpsForUsername(name)));
+                if (known.contains(add[1])) {
+                    statuses.add("exists");
+                } else {
+                    known.add(add[1]);
+                    entries.computeIfAbsent(add[0], name -> new ArrayList<>()).add(add[1]);
+                    statuses.add("added");
+                }
+            }
+
+            if (!entries.isEmpty()) {
+                try {
+                    store.addBatch(entries);
+                } catch (IOException e) {
+                    logger.error("Admin API could not store {} new entries", order.size(), e);
+                    statuses.replaceAll(status -> status.equals("added") ? "failed" : status);
+                }
+            }
+
+            results.addAll(statuses);
+            entries.clear();
+            order.clear();
+        }
+    }
+
+    /**
+     * @return why the entry is invalid, or null if it is fine.
+     */
+    private static String validate(String username, String ip) {
+        if (!Usernames.isValid(username)) {
+            return "bad username";
+        }
+        if (ip == null || !(Cidr.isCidr(ip) ? Cidr.parse(ip) != null : AddressCodec.isValidAddress(ip))) {
+            return "bad ip";
+        }
+        return null;
+    }
+
+    private static boolean isValidRange(String range) {
+        return range != null && Cidr.parse(range) != null;
+    }
+
+    private static void json(HttpExchange exchange, int status, Object body) throws IOException {
+        PluginHttpServer.respond(exchange, status, JSON, GSON.toJson(body) + "\n");
+    }
+
+    private static void error(HttpExchange exchange, int status, String message) throws IOException {
+        json(exchange, status, Map.of("error", message));
+    }
+}
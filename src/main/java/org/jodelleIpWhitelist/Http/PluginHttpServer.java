@@ -0,0 +1,99 @@
+package org.jodelleIpWhitelist.Http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.jodelleIpWhitelist.Config.PluginConfig;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The plugin's embedded HTTP server, built on the JDK's {@link HttpServer}.
+ *
+ * It binds to localhost by default and only serves what other components register on it.
+ */
+public class PluginHttpServer {
+
+    private final Logger logger;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public PluginHttpServer(PluginConfig.Http config, Logger logger) throws IOException {
+        this.logger = logger;
+        this.server = HttpServer.create(new InetSocketAddress(config.bindAddress, config.port), 0);
+
+        ExecutorService virtual = config.virtualThreads ? virtualThreadExecutor() : null;
+        if (virtual != null) {
+            this.executor = virtual;
+        } else {
+            AtomicInteger threadIds = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(Math.max(1, config.threads), runnable -> {
+                Thread thread = new Thread(runnable, "JodelleIpWhitelist-Http-" + threadIds.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        this.server.setExecutor(executor);
+    }
+
+    /**
+     * One virtual thread per request, so a slow client or a large batch never holds up the
+     * others. The plugin is built for Java 17, so the Java 21 method is looked up at runtime.
+     *
+     * @return the executor, or null on a Java version without virtual threads.
+     */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Serves the handler under the given path.
+     */
+    public void register(String path, HttpHandler handler) {
+        server.createContext(path, exchange -> {
+            try {
+                handler.handle(exchange);
+            } catch (RuntimeException e) {
+                logger.error("HTTP handler for {} failed", path, e);
+                respond(exchange, 500, "text/plain; charset=utf-8", "Internal error\n");
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+        logger.info("HTTP endpoint listening on {}", server.getAddress());
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Sends a complete response with the given body.
+     */
+    public static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
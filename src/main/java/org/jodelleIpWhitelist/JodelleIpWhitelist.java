@@ -1,29 +1,41 @@
 package org.jodelleIpWhitelist;
 
 import com.google.inject.Inject;
-import com.sun.net.httpserver.HttpContext;
-import com.sun.net.httpserver.HttpServer;
 import com.velocitypowered.api.event.Subscribe;
 import com.velocitypowered.api.event.proxy.ProxyInitializeEvent;
+import com.velocitypowered.api.event.proxy.ProxyShutdownEvent;
 import com.velocitypowered.api.plugin.Plugin;
 import com.velocitypowered.api.plugin.annotation.DataDirectory;
 import com.velocitypowered.api.proxy.ProxyServer;
+import org.jodelleIpWhitelist.Config.PluginConfig;
 import org.jodelleIpWhitelist.Listeners.CommandListener;
 import org.jodelleIpWhitelist.Listeners.PlayerLoginListener;
+import org.jodelleIpWhitelist.Http.AdminApi;
+import org.jodelleIpWhitelist.Http.PluginHttpServer;
+import org.jodelleIpWhitelist.Metrics.WhitelistMetrics;
+import org.jodelleIpWhitelist.Protection.ConnectionThrottle;
+import org.jodelleIpWhitelist.Protection.DenialLogCoalescer;
+import org.jodelleIpWhitelist.Protection.UsernamePrefilter;
+import org.jodelleIpWhitelist.Replication.ReplicatedWhitelistStore;
+import org.jodelleIpWhitelist.Replication.ReplicationTransport;
+import org.jodelleIpWhitelist.Replication.SqliteReplicationTransport;
+import org.jodelleIpWhitelist.Replication.TcpReplicationTransport;
+import org.jodelleIpWhitelist.Replication.TransportType;
+import org.jodelleIpWhitelist.Replication.WhitelistDelta;
+import org.jodelleIpWhitelist.WhitelistManager.DecisionCache;
+import org.jodelleIpWhitelist.WhitelistManager.SqliteWhitelistStore;
+import org.jodelleIpWhitelist.WhitelistManager.StoreType;
+import org.jodelleIpWhitelist.WhitelistManager.UsageTracker;
 import org.jodelleIpWhitelist.WhitelistManager.WhiteListManager;
+import org.jodelleIpWhitelist.WhitelistManager.WhitelistStore;
+import org.jodelleIpWhitelist.WhitelistManager.WhitelistTransfer;
 import org.slf4j.Logger;
 
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.InetSocketAddress;
-import java.net.URI;
-import java.net.URLDecoder;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.List;
 import org.jodelleIpWhitelist.database.DatabaseManager;
+import org.jodelleIpWhitelist.database.SessionRegistry;
 
 
 /**
@@ -33,17 +45,44 @@ import org.jodelleIpWhitelist.database.DatabaseManager;
 @Plugin(id = "jodelleipwhitelist", name = "JodelleIpWhitelist", version = "26")
 public class JodelleIpWhitelist {
 
+    // Shorter admin tokens are refused; they would be guessable
+    private static final int MIN_ADMIN_TOKEN_LENGTH = 24;
+
     @Inject
     private Logger logger; // Logger for debugging and informational messages
 
     private List<String> allowedIPs; // List of whitelisted IPs
     private final Path whiteListFile; // Path to the whitelist.txt file
     private final ProxyServer proxy; // Reference to the ProxyServer instance
-    private final WhiteListManager whiteListManager; //reference to the WhiteListManager instance
+    private final WhitelistStore whitelistStore; // whitelist.json or whitelist.db, see whitelist.store; replicated if enabled
 
+    private final PluginConfig config;
     private DatabaseManager databaseManager;
+
+    // Players online right now; their sessions are written to the audit database on disconnect
+    private SessionRegistry sessionRegistry;
     private Path dataDirectory;
 
+    // Per-IP flood protection; both stay null when protection is disabled
+    private ConnectionThrottle connectionThrottle;
+    private DenialLogCoalescer denialLog;
+
+    // Recent login decisions per username and address; null when whitelist.decisionCacheSize is 0
+    private DecisionCache decisionCache;
+
+    // Refuses certainly unknown usernames at pre-login; null when protection.usernameFilter is off
+    private UsernamePrefilter usernamePrefilter;
+
+    // Login counters and latency histograms, shown by /jodellewhitelist stats and on /metrics
+    private WhitelistMetrics metrics;
+    private PluginHttpServer httpServer;
+
+    // Runs the import/export commands
+    private WhitelistTransfer transfer;
+
+    // Per-entry added/last seen/hits, and expiry of entries nobody uses anymore
+    private UsageTracker usageTracker;
+
     /**
      * Constructor initializes the plugin and sets up the whitelist file path.
      *
@@ -59,7 +98,28 @@ public class JodelleIpWhitelist {
         // Specify the file that will contain the whitelisted IPs
         this.whiteListFile = dataDirectory.resolve("whitelist.txt");
 
-        this.whiteListManager = new WhiteListManager(logger);
+        this.config = PluginConfig.load(dataDirectory, logger);
+        WhitelistStore localStore = config.whitelist.store == StoreType.SQLITE
+                ? new SqliteWhitelistStore(logger, config.whitelist, dataDirectory)
+                : new WhiteListManager(logger, config.whitelist, dataDirectory);
+        this.whitelistStore = config.replication.enabled ? replicate(localStore) : localStore;
+    }
+
+    /**
+     * Wraps the local store so its changes are shared with the other proxies of the fleet.
+     * A bad node id keeps the proxy running on its own whitelist.
+     */
+    private WhitelistStore replicate(WhitelistStore localStore) {
+        if (!WhitelistDelta.isValidNodeId(config.replication.nodeId)) {
+            logger.error("replication.nodeId '{}' may only use letters, digits, '_', '-' and '.'; replication is off",
+                    config.replication.nodeId);
+            return localStore;
+        }
+
+        ReplicationTransport transport = config.replication.transport == TransportType.SQLITE
+                ? new SqliteReplicationTransport(config.replication, logger)
+                : new TcpReplicationTransport(config.replication, logger);
+        return new ReplicatedWhitelistStore(localStore, transport, config.replication, dataDirectory, logger);
     }
 
     /**
@@ -70,21 +130,121 @@ public class JodelleIpWhitelist {
      */
     @Subscribe
     public void onProxyInitialization(ProxyInitializeEvent event) {
-        databaseManager = new DatabaseManager(dataDirectory);
+        databaseManager = new DatabaseManager(dataDirectory, config.audit, logger);
+        sessionRegistry = new SessionRegistry(databaseManager);
+
+        whitelistStore.loadWhitelistedIPs(); // Load the whitelisted IPs from file
+        WhitelistStore localStore = whitelistStore instanceof ReplicatedWhitelistStore replicated
+                ? replicated.getDelegate() : whitelistStore;
+        if (config.whitelist.watchFiles && localStore instanceof WhiteListManager json) {
+            json.startWatching(config.whitelist.watchDebounceMillis);
+        }
+        if (whitelistStore instanceof ReplicatedWhitelistStore replicated) {
+            replicated.start();
+        }
+
+        if (config.whitelist.decisionCacheSize > 0) {
+            decisionCache = new DecisionCache(whitelistStore, config.whitelist.decisionCacheSize);
+        }
+        metrics = new WhitelistMetrics(whitelistStore, databaseManager, decisionCache);
 
-        whiteListManager.loadWhitelistedIPs(); // Load the whitelisted IPs from file
+        if (config.protection.enabled) {
+            connectionThrottle = new ConnectionThrottle(config.protection);
+            denialLog = new DenialLogCoalescer(logger, databaseManager,
+                    config.protection.logSummaryIntervalSeconds, config.protection.tableSize);
+            denialLog.start();
+        }
+        if (config.protection.usernameFilter) {
+            usernamePrefilter = new UsernamePrefilter(whitelistStore, config.protection, logger);
+            usernamePrefilter.start();
+        }
 
 
+        transfer = new WhitelistTransfer(whitelistStore, dataDirectory, logger);
+
+        usageTracker = new UsageTracker(logger, config.whitelist, dataDirectory);
+        if (config.whitelist.entryTtlDays > 0 && whitelistStore instanceof ReplicatedWhitelistStore) {
+            // Each proxy only sees its own logins, so an entry used only elsewhere looks idle here,
+            // and removing it would remove it from every proxy
+            logger.warn("whitelist.entryTtlDays is ignored while replication is enabled; unused entries are not removed");
+            usageTracker.disableExpiry();
+        }
+        usageTracker.start(whitelistStore);
+
         // Register the login event listener
         proxy.getEventManager().register(this, new PlayerLoginListener(this, logger));
 
         // Register the command listener
-        proxy.getCommandManager().register("jodellewhitelist", new CommandListener(whiteListManager));
+        proxy.getCommandManager().register("jodellewhitelist", new CommandListener(whitelistStore, metrics, databaseManager.getAuditQueries(), transfer, usageTracker, sessionRegistry));
+
+        startHttpServer();
 
         logger.info("Plugin Loaded");
 
     }
 
+    /**
+     * Starts the embedded HTTP server if it is enabled in config.json.
+     * A port that is already taken only disables the endpoint, not the plugin.
+     */
+    private void startHttpServer() {
+        if (!config.http.enabled) {
+            return;
+        }
+
+        try {
+            httpServer = new PluginHttpServer(config.http, logger);
+            httpServer.register(config.http.metricsPath, exchange ->
+                    PluginHttpServer.respond(exchange, 200, "text/plain; version=0.0.4; charset=utf-8", metrics.toPrometheus()));
+            if (config.http.adminToken.length() >= MIN_ADMIN_TOKEN_LENGTH) {
+                httpServer.register(config.http.adminPath, new AdminApi(whitelistStore, config.http, logger));
+                logger.info("Admin API enabled under {}", config.http.adminPath);
+            } else if (!config.http.adminToken.isEmpty()) {
+                logger.error("http.adminToken must be at least {} characters long; the admin API is off", MIN_ADMIN_TOKEN_LENGTH);
+            }
+            httpServer.start();
+        } catch (IOException e) {
+            logger.error("Could not start the HTTP endpoint on {}:{}", config.http.bindAddress, config.http.port, e);
+            httpServer = null;
+        }
+    }
+
+    /**
+     * Called when the proxy shuts down.
+     * Flushes the queued audit rows so the last logins before a restart are not lost,
+     * and closes the whitelist journal.
+     *
+     * @param event The ProxyShutdownEvent
+     */
+    @Subscribe
+    public void onProxyShutdown(ProxyShutdownEvent event) {
+        if (httpServer != null) {
+            httpServer.stop();
+        }
+        if (usernamePrefilter != null) {
+            usernamePrefilter.close();
+        }
+
+        // The last denial summary and the sessions of players still online go into the
+        // audit log, so these come first
+        if (denialLog != null) {
+            denialLog.close();
+        }
+        if (sessionRegistry != null) {
+            sessionRegistry.closeAll();
+        }
+        if (databaseManager != null) {
+            databaseManager.close();
+        }
+        if (transfer != null) {
+            transfer.close();
+        }
+        if (usageTracker != null) {
+            usageTracker.close();
+        }
+        whitelistStore.close();
+    }
+
 
     /**
      * Gets the list of allowed IPs.
@@ -95,11 +255,43 @@ public class JodelleIpWhitelist {
         return allowedIPs;
     }
 
-    public WhiteListManager getWhiteListManager() {
-        return whiteListManager;
+    public WhitelistStore getWhitelistStore() {
+        return whitelistStore;
     }
 
     public DatabaseManager getDatabaseManager() {
         return databaseManager;
     }
+
+    public WhitelistMetrics getMetrics() {
+        return metrics;
+    }
+
+    public UsageTracker getUsageTracker() {
+        return usageTracker;
+    }
+
+    public ConnectionThrottle getConnectionThrottle() {
+        return connectionThrottle;
+    }
+
+    public SessionRegistry getSessionRegistry() {
+        return sessionRegistry;
+    }
+
+    public DecisionCache getDecisionCache() {
+        return decisionCache;
+    }
+
+    public UsernamePrefilter getUsernamePrefilter() {
+        return usernamePrefilter;
+    }
+
+    public DenialLogCoalescer getDenialLog() {
+        return denialLog;
+    }
+
+    public PluginConfig getConfig() {
+        return config;
+    }
 }
@@ -5,16 +5,70 @@ import com.velocitypowered.api.command.SimpleCommand;
 import com.velocitypowered.api.proxy.Player;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
-import org.jodelleIpWhitelist.WhitelistManager.WhiteListManager;
+import org.jodelleIpWhitelist.Metrics.WhitelistMetrics;
+import org.jodelleIpWhitelist.Util.AddressCodec;
+import org.jodelleIpWhitelist.Util.Cidr;
+import org.jodelleIpWhitelist.Util.Usernames;
+import org.jodelleIpWhitelist.WhitelistManager.UsageTracker;
+import org.jodelleIpWhitelist.WhitelistManager.WhitelistBrowser;
+import org.jodelleIpWhitelist.WhitelistManager.WhitelistStore;
+import org.jodelleIpWhitelist.WhitelistManager.WhitelistTransfer;
+import org.jodelleIpWhitelist.database.AuditQueries;
+import org.jodelleIpWhitelist.database.SessionRegistry;
 
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.RejectedExecutionException;
 
 public class CommandListener implements SimpleCommand {
-    private final WhiteListManager whitelistManager;
+    private final WhitelistStore whitelistManager;
+    private final WhitelistMetrics metrics;
 
-    public CommandListener(WhiteListManager whitelistManager) {
+    // Null when the audit database could not be opened
+    private final AuditQueries auditQueries;
+
+    private final WhitelistTransfer transfer;
+    private final UsageTracker usage;
+
+    // Who is online right now, for the current session in playtime
+    private final SessionRegistry sessions;
+
+    // Sorted, filterable view of the whitelist behind showips
+    private final WhitelistBrowser browser;
+
+    // Dates in ipinfo, in UTC like the audit history
+    private static final DateTimeFormatter USAGE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneOffset.UTC);
+
+    // Rows per history and showips page, and entries in the topdenied list
+    private static final int PAGE_SIZE = 10;
+
+    /**
+     * What "history more" continues from, per command source.
+     */
+    private record HistoryPage(String key, boolean byIp, long since, AuditQueries.Cursor next) {
+    }
+
+    // Weak keys, so a player who logs out does not keep their page in memory
+    private final Map<CommandSource, HistoryPage> historyPages = Collections.synchronizedMap(new WeakHashMap<>());
+
+    public CommandListener(WhitelistStore whitelistManager, WhitelistMetrics metrics, AuditQueries auditQueries,
+                           WhitelistTransfer transfer, UsageTracker usage, SessionRegistry sessions) {
         this.whitelistManager = whitelistManager;
+        this.metrics = metrics;
+        this.auditQueries = auditQueries;
+        this.transfer = transfer;
+        this.usage = usage;
+        this.sessions = sessions;
+        this.browser = new WhitelistBrowser(whitelistManager, PAGE_SIZE);
     }
 
     @Override
@@ -23,7 +77,7 @@ public class CommandListener implements SimpleCommand {
         CommandSource source = invocation.source();
 
         if (args.length == 0) {
-            source.sendMessage(Component.text("Usage: /jodellewhitelist <reload|addip|removeip|reloadips|showips> [IP]"));
+            source.sendMessage(Component.text("Usage: /jodellewhitelist <reload|addip|removeip|reloadips|showips|ipinfo|addrange|removerange|showranges|stats|history|topdenied|playtime|import|export> [IP]"));
             return;
         }
 
@@ -74,10 +128,98 @@ public class CommandListener implements SimpleCommand {
                     source.sendMessage(Component.text("You do not have permission to use this command.").color(NamedTextColor.RED));
                     return;
                 }
-                showWhitelistedIPs(source);
+                showWhitelistedIPs(source, args);
+                break;
+            case "ipinfo":
+                if (!hasPermission(source, "jodellewhitelist.showips")) {
+                    source.sendMessage(Component.text("You do not have permission to use this command.").color(NamedTextColor.RED));
+                    return;
+                }
+                if (args.length < 2) {
+                    source.sendMessage(Component.text("Usage: /jodellewhitelist ipinfo <username>"));
+                    return;
+                }
+                showIpInfo(source, args[1]);
+                break;
+            case "addrange":
+                if (!hasPermission(source, "jodellewhitelist.ranges")) {
+                    source.sendMessage(Component.text("You do not have permission to use this command.").color(NamedTextColor.RED));
+                    return;
+                }
+                if (args.length < 2) {
+                    source.sendMessage(Component.text("Usage: /jodellewhitelist addrange <CIDR>"));
+                    return;
+                }
+                addGlobalRange(source, args[1]);
+                break;
+            case "removerange":
+                if (!hasPermission(source, "jodellewhitelist.ranges")) {
+                    source.sendMessage(Component.text("You do not have permission to use this command.").color(NamedTextColor.RED));
+                    return;
+                }
+                if (args.length < 2) {
+                    source.sendMessage(Component.text("Usage: /jodellewhitelist removerange <CIDR>"));
+                    return;
+                }
+                removeGlobalRange(source, args[1]);
+                break;
+            case "showranges":
+                if (!hasPermission(source, "jodellewhitelist.ranges")) {
+                    source.sendMessage(Component.text("You do not have permission to use this command.").color(NamedTextColor.RED));
+                    return;
+                }
+                showGlobalRanges(source);
+                break;
+            case "stats":
+                if (!hasPermission(source, "jodellewhitelist.stats")) {
+                    source.sendMessage(Component.text("You do not have permission to use this command.").color(NamedTextColor.RED));
+                    return;
+                }
+                showStats(source);
+                break;
+            case "history":
+                if (!hasPermission(source, "jodellewhitelist.history")) {
+                    source.sendMessage(Component.text("You do not have permission to use this command.").color(NamedTextColor.RED));
+                    return;
+                }
+                if (args.length < 2) {
+                    source.sendMessage(Component.text("Usage: /jodellewhitelist history <username|IP|more> [since, e.g. 12h, 7d or 2024-05-01]"));
+                    return;
+                }
+                showHistory(source, args[1], args.length > 2 ? args[2] : null);
+                break;
+            case "topdenied":
+                if (!hasPermission(source, "jodellewhitelist.history")) {
+                    source.sendMessage(Component.text("You do not have permission to use this command.").color(NamedTextColor.RED));
+                    return;
+                }
+                showTopDenied(source, args.length > 1 ? args[1] : "1h");
+                break;
+            case "playtime":
+                if (!hasPermission(source, "jodellewhitelist.history")) {
+                    source.sendMessage(Component.text("You do not have permission to use this command.").color(NamedTextColor.RED));
+                    return;
+                }
+                if (args.length < 2) {
+                    source.sendMessage(Component.text("Usage: /jodellewhitelist playtime <username>"));
+                    return;
+                }
+                showPlaytime(source, args[1]);
+                break;
+            case "import":
+            case "export":
+                if (!hasPermission(source, "jodellewhitelist.transfer")) {
+                    source.sendMessage(Component.text("You do not have permission to use this command.").color(NamedTextColor.RED));
+                    return;
+                }
+                if (args.length < 2) {
+                    source.sendMessage(Component.text("Usage: /jodellewhitelist " + args[0].toLowerCase() + " <file.csv|file.jsonl>"));
+                    return;
+                }
+                transferWhitelist(source, args[0].equalsIgnoreCase("import"), args[1]);
                 break;
             default:
-                source.sendMessage(Component.text("Unknown command. Usage: /jodellewhitelist <reload|addip|removeip|reloadips|showips> [IP]"));
+                source.sendMessage(Component.text("Unknown command. Usage: /jodellewhitelist <reload|addip|removeip|reloadips|showips|ipinfo|addrange|removerange|showranges|stats|history|topdenied|playtime|import|export> [IP]"));
                 break;
         }
     }
@@ -87,17 +229,24 @@ public class CommandListener implements SimpleCommand {
     }
 
     private void reloadWhitelist(CommandSource source) {
-        whitelistManager.loadWhitelistedIPs();
-        source.sendMessage(Component.text("Whitelist reloaded!"));
+        source.sendMessage(Component.text("Reloading whitelist..."));
+        whitelistManager.reloadAsync().whenComplete((users, error) -> {
+            if (error != null) {
+                source.sendMessage(Component.text("Whitelist reload failed, check the console.").color(NamedTextColor.RED));
+            } else {
+                source.sendMessage(Component.text("Whitelist reloaded! (" + users + " users)"));
+            }
+        });
     }
 
     private void addIP(CommandSource source, String ip, String username) {
-        if (!isValidIPv4(ip)) {
-            source.sendMessage(Component.text("Invalid IP format. Please provide a valid IPv4 address (e.g., 192.168.1.23)."));
+        if (!isValidEntry(ip)) {
+            source.sendMessage(Component.text("Invalid IP format. Please provide a valid IP address (e.g., 192.168.1.23) or CIDR range (e.g., 10.0.0.0/8)."));
             return;
         }
 
-        if(!isValidUsername(username)){
+        if (!Usernames.isValid(username)) {
+            source.sendMessage(Component.text("Invalid username. Use 3 to 16 letters, digits or underscores."));
             return;
         }
 
@@ -108,13 +257,11 @@ public class CommandListener implements SimpleCommand {
         }
     }
 
-    private boolean isValidUsername(String username) {
-        return username != null && username.matches("^[a-zA-Z0-9_]{3,16}$");
-    }
-
-    private boolean isValidIPv4(String ip) {
-        String ipv4Pattern = "^((25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)$";
-        return Pattern.compile(ipv4Pattern).matcher(ip).matches();
+    private boolean isValidEntry(String entry) {
+        if (Cidr.isCidr(entry)) {
+            return Cidr.parse(entry) != null;
+        }
+        return AddressCodec.isValidAddress(entry);
     }
 
     private void removeIP(CommandSource source, String username, String ip) {
@@ -126,16 +273,335 @@ public class CommandListener implements SimpleCommand {
     }
 
     private void reloadIPs(CommandSource source) {
-        whitelistManager.reloadIPs();
-        source.sendMessage(Component.text("IPs reloaded!"));
+        whitelistManager.reloadAsync().whenComplete((users, error) -> {
+            if (error != null) {
+                source.sendMessage(Component.text("IP reload failed, check the console.").color(NamedTextColor.RED));
+            } else {
+                source.sendMessage(Component.text("IPs reloaded!"));
+            }
+        });
+    }
+
+    private void addGlobalRange(CommandSource source, String range) {
+        if (Cidr.parse(range) == null) {
+            source.sendMessage(Component.text("Invalid range. Please provide CIDR notation (e.g., 10.0.0.0/8 or 2001:db8::/32)."));
+            return;
+        }
+
+        if (whitelistManager.addGlobalRange(range)) {
+            source.sendMessage(Component.text("Added global range: " + range));
+        } else {
+            source.sendMessage(Component.text("Range is already whitelisted: " + range));
+        }
+    }
+
+    private void removeGlobalRange(CommandSource source, String range) {
+        if (whitelistManager.removeGlobalRange(range)) {
+            source.sendMessage(Component.text("Removed global range: " + range));
+        } else {
+            source.sendMessage(Component.text("Range was not found: " + range));
+        }
     }
 
-    private void showWhitelistedIPs(CommandSource source) {
-        List<String> allowedIPs = whitelistManager.getAllowedIPs();
-        if (allowedIPs.isEmpty()) {
-            source.sendMessage(Component.text("No IPs are currently whitelisted."));
+    private void showGlobalRanges(CommandSource source) {
+        List<String> ranges = whitelistManager.getGlobalRanges();
+        if (ranges.isEmpty()) {
+            source.sendMessage(Component.text("No global ranges are configured."));
         } else {
-            source.sendMessage(Component.text("Whitelisted IPs: " + String.join(", ", allowedIPs)));
+            // Range lists can be huge (ASN or country blocks), so only show the start
+            List<String> shown = ranges.subList(0, Math.min(ranges.size(), 50));
+            String more = ranges.size() > shown.size() ? " ... and " + (ranges.size() - shown.size()) + " more" : "";
+            source.sendMessage(Component.text("Global ranges (" + ranges.size() + "): " + String.join(", ", shown) + more));
+        }
+    }
+
+    private void showStats(CommandSource source) {
+        for (String line : metrics.summaryLines()) {
+            source.sendMessage(Component.text(line));
+        }
+    }
+
+    /**
+     * Shows one page of "showips [page] [filter]". The page number may be left out, so
+     * "showips Steve" and "showips 2 10.0." both work.
+     */
+    private void showWhitelistedIPs(CommandSource source, String[] args) {
+        int page = 1;
+        String filter = null;
+        int next = 1;
+        if (args.length > next && isPageNumber(args[next])) {
+            page = Integer.parseInt(args[next]);
+            next++;
+        }
+        if (args.length > next) {
+            filter = args[next];
+        }
+
+        WhitelistBrowser.Page result = browser.page(page, filter);
+        if (result.matches() == 0) {
+            source.sendMessage(Component.text(filter == null
+                    ? "No IPs are currently whitelisted."
+                    : "No users or IPs start with " + filter + "."));
+            return;
+        }
+
+        source.sendMessage(Component.text("Whitelisted users" + (filter == null ? "" : " matching " + filter)
+                + " (page " + result.page() + "/" + result.pages() + ", " + result.matches() + " users):"));
+        for (String row : result.rows()) {
+            source.sendMessage(Component.text(row));
+        }
+        if (result.page() < result.pages()) {
+            source.sendMessage(Component.text("Type /jodellewhitelist showips " + (result.page() + 1)
+                    + (filter == null ? "" : " " + filter) + " for the next page."));
+        }
+    }
+
+    private static boolean isPageNumber(String text) {
+        if (text.isEmpty() || text.length() > 6) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lists a user's entries, most recently used first, with when each was added and last let them in.
+     */
+    private void showIpInfo(CommandSource source, String username) {
+        List<String> ips = whitelistManager.getIpsForUsername(username);
+        if (ips.isEmpty()) {
+            source.sendMessage(Component.text(username + " is not whitelisted."));
+            return;
+        }
+
+        source.sendMessage(Component.text("Entries of " + username + " (UTC, most recently used first):"));
+        for (String ip : usage.mostRecentFirst(username, ips)) {
+            UsageTracker.EntryUsage entry = usage.get(username, ip);
+            if (entry == null) {
+                source.sendMessage(Component.text(ip + ": no usage recorded yet"));
+                continue;
+            }
+            String lastSeen = entry.lastSeen() == 0 ? "never" : USAGE_TIME.format(Instant.ofEpochMilli(entry.lastSeen()));
+            source.sendMessage(Component.text(ip + ": added " + USAGE_TIME.format(Instant.ofEpochMilli(entry.addedAt()))
+                    + ", last seen " + lastSeen + ", " + entry.hits() + " logins"));
+        }
+    }
+
+    private void showHistory(CommandSource source, String target, String since) {
+        if (auditQueries == null) {
+            source.sendMessage(Component.text("The audit database is not available.").color(NamedTextColor.RED));
+            return;
+        }
+
+        HistoryPage page;
+        if (target.equalsIgnoreCase("more")) {
+            page = historyPages.get(source);
+            if (page == null) {
+                source.sendMessage(Component.text("Run /jodellewhitelist history <username|IP> first."));
+                return;
+            }
+        } else {
+            long sinceEpoch = since == null ? 0 : parseSince(since);
+            if (sinceEpoch < 0) {
+                source.sendMessage(Component.text("Invalid time. Use a duration like 30m, 12h, 7d or 2w, or a date like 2024-05-01."));
+                return;
+            }
+            page = new HistoryPage(target, AddressCodec.isValidAddress(target), sinceEpoch, AuditQueries.Cursor.FIRST);
+        }
+
+        HistoryPage requested = page;
+        auditQueries.history(page.key(), page.byIp(), page.since(), page.next(), PAGE_SIZE).whenComplete((rows, error) -> {
+            if (error != null) {
+                reportQueryError(source, error);
+                return;
+            }
+            if (rows.isEmpty()) {
+                historyPages.remove(source);
+                source.sendMessage(Component.text(requested.next() == AuditQueries.Cursor.FIRST
+                        ? "No audit entries for " + requested.key() + "."
+                        : "No older entries for " + requested.key() + "."));
+                return;
+            }
+
+            source.sendMessage(Component.text("Login history for " + requested.key() + " (UTC, newest first):"));
+            for (AuditQueries.Entry row : rows) {
+                String who = requested.byIp() ? String.valueOf(row.username()) : row.ip();
+                source.sendMessage(Component.text(row.timestamp() + " " + row.status() + " " + who
+                        + (row.reason() == null ? "" : " - " + row.reason())
+                        + (row.repeats() > 1 ? " (x" + row.repeats() + ")" : "")));
+            }
+
+            if (rows.size() == PAGE_SIZE) {
+                AuditQueries.Entry last = rows.get(rows.size() - 1);
+                historyPages.put(source, new HistoryPage(requested.key(), requested.byIp(), requested.since(),
+                        new AuditQueries.Cursor(last.timestamp(), last.id())));
+                source.sendMessage(Component.text("Type /jodellewhitelist history more for older entries."));
+            } else {
+                historyPages.remove(source);
+            }
+        });
+    }
+
+    private void showTopDenied(CommandSource source, String window) {
+        if (auditQueries == null) {
+            source.sendMessage(Component.text("The audit database is not available.").color(NamedTextColor.RED));
+            return;
+        }
+
+        long sinceEpoch = parseSince(window);
+        if (sinceEpoch < 0) {
+            source.sendMessage(Component.text("Invalid window. Use a duration like 30m, 12h, 7d or 2w."));
+            return;
+        }
+
+        auditQueries.topDenied(sinceEpoch, PAGE_SIZE).whenComplete((rows, error) -> {
+            if (error != null) {
+                reportQueryError(source, error);
+                return;
+            }
+            if (rows.isEmpty()) {
+                source.sendMessage(Component.text("No denied logins in the last " + window + "."));
+                return;
+            }
+
+            source.sendMessage(Component.text("Most denied addresses in the last " + window + ":"));
+            for (AuditQueries.DeniedAddress row : rows) {
+                source.sendMessage(Component.text(row.ip() + ": " + row.denials() + " denials, "
+                        + row.usernames() + " usernames, last at " + row.lastSeen()));
+            }
+        });
+    }
+
+    private void showPlaytime(CommandSource source, String username) {
+        if (auditQueries == null) {
+            source.sendMessage(Component.text("The audit database is not available.").color(NamedTextColor.RED));
+            return;
+        }
+
+        long onlineSince = sessions.onlineSince(username);
+        auditQueries.playtime(username).whenComplete((playtime, error) -> {
+            if (error != null) {
+                reportQueryError(source, error);
+                return;
+            }
+            long current = onlineSince < 0 ? 0 : Math.max(0, System.currentTimeMillis() / 1000L - onlineSince);
+            if (playtime == null) {
+                source.sendMessage(Component.text(onlineSince < 0
+                        ? "No finished sessions for " + username + "."
+                        : username + " is in their first recorded session, online for " + formatDuration(current) + "."));
+                return;
+            }
+
+            source.sendMessage(Component.text("Playtime of " + playtime.username() + ": "
+                    + formatDuration(playtime.totalSeconds() + current) + " over " + playtime.sessions() + " sessions"
+                    + (onlineSince < 0 ? "" : " (plus the current one)")
+                    + ", longest " + formatDuration(playtime.longestSeconds())));
+            source.sendMessage(Component.text("First seen " + playtime.firstSeen() + ", last left " + playtime.lastSeen() + " (UTC)"
+                    + (onlineSince < 0 ? "" : ", online now for " + formatDuration(current))));
+        });
+    }
+
+    /**
+     * Formats a duration with its two largest units, e.g. "3d 4h", "2h 15m" or "40s".
+     */
+    private static String formatDuration(long seconds) {
+        long days = seconds / 86400;
+        long hours = seconds % 86400 / 3600;
+        long minutes = seconds % 3600 / 60;
+        if (days > 0) {
+            return days + "d " + hours + "h";
+        }
+        if (hours > 0) {
+            return hours + "h " + minutes + "m";
+        }
+        return minutes > 0 ? minutes + "m " + seconds % 60 + "s" : seconds + "s";
+    }
+
+    private void transferWhitelist(CommandSource source, boolean importing, String name) {
+        Path file = transfer.resolve(name);
+        if (file == null) {
+            source.sendMessage(Component.text("The file must be a .csv or .jsonl file inside the plugin folder.").color(NamedTextColor.RED));
+            return;
+        }
+
+        if (importing) {
+            source.sendMessage(Component.text("Importing " + name + "..."));
+            transfer.importFile(file, line -> source.sendMessage(Component.text(line))).whenComplete((result, error) -> {
+                if (error != null) {
+                    reportTransferError(source, "Import", error);
+                    return;
+                }
+                source.sendMessage(Component.text("Imported " + result.added() + " new entries for " + result.users()
+                        + " users from " + result.rows() + " rows (" + result.duplicates() + " duplicates, "
+                        + result.invalid() + " invalid skipped) in " + result.millis() + " ms."));
+            });
+        } else {
+            source.sendMessage(Component.text("Exporting to " + name + "..."));
+            transfer.exportFile(file, line -> source.sendMessage(Component.text(line))).whenComplete((result, error) -> {
+                if (error != null) {
+                    reportTransferError(source, "Export", error);
+                    return;
+                }
+                source.sendMessage(Component.text("Exported " + result.users() + " users (" + result.entries()
+                        + " entries) in " + result.millis() + " ms."));
+            });
+        }
+    }
+
+    private void reportTransferError(CommandSource source, String what, Throwable error) {
+        Throwable cause = error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof UncheckedIOException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        source.sendMessage(Component.text(what + " failed: " + cause.getMessage()).color(NamedTextColor.RED));
+    }
+
+    private void reportQueryError(CommandSource source, Throwable error) {
+        Throwable cause = error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof RejectedExecutionException) {
+            source.sendMessage(Component.text("Too many audit lookups are running, try again in a moment.").color(NamedTextColor.RED));
+        } else {
+            source.sendMessage(Component.text("Audit lookup failed or took too long: " + cause.getMessage()).color(NamedTextColor.RED));
+        }
+    }
+
+    /**
+     * Parses "how far back": a duration such as 30m, 12h, 7d or 2w, or a date (yyyy-MM-dd, UTC).
+     *
+     * @return the start time in seconds since the epoch, or -1 if the text is not understood.
+     */
+    private long parseSince(String text) {
+        if (text.isEmpty()) {
+            return -1;
+        }
+        long now = System.currentTimeMillis() / 1000L;
+        char unit = Character.toLowerCase(text.charAt(text.length() - 1));
+        long seconds = switch (unit) {
+            case 's' -> 1;
+            case 'm' -> 60;
+            case 'h' -> 3600;
+            case 'd' -> 86400;
+            case 'w' -> 604800;
+            default -> 0;
+        };
+
+        if (seconds > 0) {
+            try {
+                long amount = Long.parseLong(text.substring(0, text.length() - 1));
+                return amount < 0 ? -1 : Math.max(0, now - Math.multiplyExact(amount, seconds));
+            } catch (NumberFormatException | ArithmeticException e) {
+                return -1;
+            }
+        }
+
+        try {
+            return LocalDate.parse(text).atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+        } catch (DateTimeParseException e) {
+            return -1;
         }
     }
 }
@@ -1,18 +1,39 @@
 package org.jodelleIpWhitelist.Listeners;
 
+import com.velocitypowered.api.event.EventTask;
 import com.velocitypowered.api.event.ResultedEvent;
 import com.velocitypowered.api.event.Subscribe;
 import com.velocitypowered.api.event.connection.DisconnectEvent;
 import com.velocitypowered.api.event.connection.LoginEvent;
+import com.velocitypowered.api.event.connection.PreLoginEvent;
+import com.velocitypowered.api.proxy.Player;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
 import org.jodelleIpWhitelist.JodelleIpWhitelist;
+import org.jodelleIpWhitelist.Protection.ConnectionThrottle;
+import org.jodelleIpWhitelist.Protection.DenialLogCoalescer;
+import org.jodelleIpWhitelist.Protection.UsernamePrefilter;
+import org.jodelleIpWhitelist.WhitelistManager.DecisionCache;
+import org.jodelleIpWhitelist.WhitelistManager.LoginDecision;
+import org.jodelleIpWhitelist.WhitelistManager.UsageTracker;
 import org.slf4j.Logger;
 
-import java.util.List;
+import java.net.InetAddress;
 
 public class PlayerLoginListener {
 
+    // Kick messages are built once; a flood of denials should not allocate a new Component each time
+    private static final ResultedEvent.ComponentResult DENIED_UNKNOWN_USER = ResultedEvent.ComponentResult.denied(
+            Component.text("Your username is not Whitelisted!", NamedTextColor.RED));
+    private static final ResultedEvent.ComponentResult DENIED_WRONG_IP = ResultedEvent.ComponentResult.denied(
+            Component.text("Your IP is not Whitelisted! Head over to discord and !updateip", NamedTextColor.RED));
+    private static final PreLoginEvent.PreLoginComponentResult DENIED_RATE_LIMITED = PreLoginEvent.PreLoginComponentResult.denied(
+            Component.text("Too many connection attempts, please wait a moment.", NamedTextColor.RED));
+    private static final PreLoginEvent.PreLoginComponentResult DENIED_BANNED = PreLoginEvent.PreLoginComponentResult.denied(
+            Component.text("Too many failed logins from your address, try again later.", NamedTextColor.RED));
+    private static final PreLoginEvent.PreLoginComponentResult DENIED_UNKNOWN_USER_EARLY = PreLoginEvent.PreLoginComponentResult.denied(
+            Component.text("Your username is not Whitelisted!", NamedTextColor.RED));
+
     private final JodelleIpWhitelist plugin;
     private final Logger logger;
 
@@ -21,71 +42,196 @@ public class PlayerLoginListener {
         this.logger = logger;
     }
 
-    @Subscribe
-    public void onPlayerLogin(LoginEvent event) {
-        String playerIP = event.getPlayer().getRemoteAddress().getAddress().getHostAddress();
-        String playerUsername = event.getPlayer().getUsername();
+    /**
+     * First line of defence against connection floods.
+     *
+     * Runs before the player is authenticated. Addresses that connect too often, or that
+     * are banned after repeated denials, are turned away here without touching the whitelist,
+     * the console or the database; they only show up in the periodic summary lines. Then
+     * usernames that are certainly not whitelisted are refused, which spares the Mojang
+     * authentication round trip for most join bots.
+     */
+    @Subscribe(async = false)
+    public EventTask onPreLogin(PreLoginEvent event) {
+        InetAddress address = event.getConnection().getRemoteAddress().getAddress();
+        ConnectionThrottle throttle = plugin.getConnectionThrottle();
+        if (throttle != null && refuseThrottled(event, throttle, address)) {
+            return null;
+        }
 
-        // 1. Check if the user is even in the system
-        if (!plugin.getWhiteListManager().containsUser(playerUsername)) {
-            deny(event, playerUsername, playerIP, "USER_NOT_FOUND", "Your username is not Whitelisted!");
-            return;
+        UsernamePrefilter prefilter = plugin.getUsernamePrefilter();
+        String username = event.getUsername();
+        if (prefilter == null || prefilter.mightBeWhitelisted(username)) {
+            return null;
         }
 
-        List<String> ipsForUsername = plugin.getWhiteListManager().getIpsForUsername(playerUsername);
+        event.setResult(DENIED_UNKNOWN_USER_EARLY);
+        plugin.getMetrics().recordPrefiltered();
+        if (throttle != null) {
+            throttle.recordDenial(address);
+        }
+        // Logged and audited like the same denial at login would be
+        return EventTask.async(() -> recordLogin(username, address, LoginDecision.USER_NOT_FOUND));
+    }
 
-        // 2. Check if they have any IPs assigned at all
-        if (ipsForUsername.isEmpty()) {
-            deny(event, playerUsername, playerIP, "NO_IP_ASSIGNED", "Your IP is not Whitelisted! Head over to discord and !updateip");
-            return;
+    /**
+     * @return true if the connection was refused by the per-IP limiter.
+     */
+    private boolean refuseThrottled(PreLoginEvent event, ConnectionThrottle throttle, InetAddress address) {
+        ConnectionThrottle.Verdict verdict = throttle.tryAcquire(address);
+        if (verdict == ConnectionThrottle.Verdict.ALLOWED) {
+            return false;
         }
 
-        // 3. Check if their current IP matches their whitelisted ones
-        if (!ipsForUsername.contains(playerIP)) {
-            deny(event, playerUsername, playerIP, "IP_MISMATCH", "Your IP is not Whitelisted! Head over to discord and !updateip");
-            return;
+        event.setResult(verdict == ConnectionThrottle.Verdict.BANNED ? DENIED_BANNED : DENIED_RATE_LIMITED);
+        plugin.getMetrics().recordThrottled(verdict);
+        if (verdict == ConnectionThrottle.Verdict.RATE_LIMITED) {
+            // Hammering past the limit counts towards a ban as well
+            throttle.recordDenial(address);
+        }
+
+        if (plugin.getDenialLog().record(address, verdict.name())) {
+            logger.warn("Connection from {} refused: {}", address.getHostAddress(), verdict.name());
+        }
+        return true;
+    }
+
+    /**
+     * Decides whether the player may join.
+     *
+     * Most logins are decided right on the connection thread ({@code async = false}) from
+     * memory: the decision cache, the in-memory whitelist snapshot, or the SQLITE store's
+     * user caches. Only a name the SQLITE store has to look up in its database is decided
+     * inside the returned {@link EventTask}, on Velocity's async executor, so no query ever
+     * runs on Netty or event executor threads. Everything slow after the decision (console
+     * logging, the audit row) goes to the async executor as well.
+     */
+    @Subscribe(async = false)
+    public EventTask onPlayerLogin(LoginEvent event) {
+        long start = System.nanoTime();
+
+        Player player = event.getPlayer();
+        InetAddress address = player.getRemoteAddress().getAddress();
+        String playerUsername = player.getUsername();
+
+        // One lookup covers all three checks: is the user known, do they have any IPs, and
+        // does their current IP match one of them. A player reconnecting from the same
+        // address is usually answered by the decision cache.
+        DecisionCache cache = plugin.getDecisionCache();
+        LoginDecision decision = cache != null
+                ? cache.decideIfCached(playerUsername, address)
+                : plugin.getWhitelistStore().decideIfCached(playerUsername, address);
+        if (decision == null) {
+            return EventTask.async(() -> {
+                LoginDecision loaded = cache != null
+                        ? cache.decide(playerUsername, address)
+                        : plugin.getWhitelistStore().decide(playerUsername, address);
+                apply(event, player, address, loaded, start);
+                // The player may have gone while the database was asked
+                if (loaded.isAllowed() && !player.isActive()) {
+                    plugin.getSessionRegistry().close(player, false);
+                }
+                recordLogin(playerUsername, address, loaded);
+            });
         }
 
-        // 4. If we got here, they are good to go!
-        // We log the success to the DB.
-        plugin.getDatabaseManager().logAttempt(playerUsername, playerIP, "ALLOWED", "Successful login");
-        logger.info("Player {} logged in successfully from {}", playerUsername, playerIP);
+        apply(event, player, address, decision, start);
+        return EventTask.async(() -> recordLogin(playerUsername, address, decision));
+    }
+
+    /**
+     * Sets the result of the login and does the bookkeeping that has to happen before the
+     * next event for this player: the metrics, the session and the denial count.
+     */
+    private void apply(LoginEvent event, Player player, InetAddress address, LoginDecision decision, long start) {
+        switch (decision) {
+            case USER_NOT_FOUND -> event.setResult(DENIED_UNKNOWN_USER);
+            case NO_IP_ASSIGNED, IP_MISMATCH -> event.setResult(DENIED_WRONG_IP);
+            default -> {
+            }
+        }
+
+        plugin.getMetrics().recordDecision(decision, System.nanoTime() - start);
+
+        // Opened before the event completes, so a quick disconnect cannot close it first
+        if (decision.isAllowed()) {
+            plugin.getSessionRegistry().open(player, address);
+        }
+
+        // Count the denial right away so a ban applies to the very next attempt
+        ConnectionThrottle throttle = plugin.getConnectionThrottle();
+        if (!decision.isAllowed() && throttle != null) {
+            throttle.recordDenial(address);
+        }
     }
 
     /**
      * This fires whenever a player leaves the proxy.
      * Whether they quit, get kicked, or the server crashes, this catches it.
+     * Only the session of this connection is closed right here (a map removal, so neither a
+     * rejoin right after nor a duplicate login can be mixed up with this one); the logging
+     * runs on the async executor.
      */
-    @Subscribe
-    public void onPlayerLogout(DisconnectEvent event) {
-        String playerUsername = event.getPlayer().getUsername();
-        String playerIP = event.getPlayer().getRemoteAddress().getAddress().getHostAddress();
-
-        // Log to console
-        logger.info("Player {} has disconnected from {}", playerUsername, playerIP);
-
-        // Save to our SQLite database
-        // We use "LOGOUT" as the status and "User left" as the reason
-        plugin.getDatabaseManager().logAttempt(
-                playerUsername,
-                playerIP,
-                "LOGOUT",
-                "User disconnected"
-        );
+    @Subscribe(async = false)
+    public EventTask onPlayerLogout(DisconnectEvent event) {
+        Player player = event.getPlayer();
+
+        // A login cancelled after our check (by another plugin or the player) was never a session
+        DisconnectEvent.LoginStatus status = event.getLoginStatus();
+        boolean completed = status == null || status == DisconnectEvent.LoginStatus.SUCCESSFUL_LOGIN
+                || status == DisconnectEvent.LoginStatus.PRE_SERVER_JOIN;
+        plugin.getSessionRegistry().close(player, completed);
+
+        return EventTask.async(() -> {
+            String playerUsername = player.getUsername();
+            String playerIP = player.getRemoteAddress().getAddress().getHostAddress();
+
+            // Log to console
+            logger.info("Player {} has disconnected from {}", playerUsername, playerIP);
+
+            // Save to our SQLite database
+            // We use "LOGOUT" as the status and "User left" as the reason
+            plugin.getDatabaseManager().logAttempt(
+                    playerUsername,
+                    playerIP,
+                    "LOGOUT",
+                    "User disconnected"
+            );
+        });
     }
 
     /**
-     * Just a handy helper to handle the 'Access Denied' logic in one place.
-     * It sends the message to the player, logs it to the console, and saves it to SQLite.
+     * The side effects of a login decision: console output, the audit row and entry usage.
+     * Runs on the async executor, after the result has already been set on the event.
      */
-    private void deny(LoginEvent event, String username, String ip, String status, String message) {
-        // Kick them with a red message so it looks official
-        event.setResult(ResultedEvent.ComponentResult.denied(Component.text(message, NamedTextColor.RED)));
+    private void recordLogin(String username, InetAddress address, LoginDecision decision) {
+        if (decision.isAllowed()) {
+            String ip = address.getHostAddress();
+
+            // We log the success to the DB.
+            plugin.getDatabaseManager().logAttempt(username, ip, "ALLOWED", "Successful login");
+            logger.info("Player {} logged in successfully from {}", username, ip);
+
+            UsageTracker usage = plugin.getUsageTracker();
+            if (usage != null) {
+                usage.recordLogin(plugin.getWhitelistStore(), username, address);
+            }
+            return;
+        }
+
+        // During a flood only the first denial per address is written out;
+        // the rest end up in one summary line
+        DenialLogCoalescer denialLog = plugin.getDenialLog();
+        if (denialLog != null && !denialLog.record(address, decision.name())) {
+            return;
+        }
+
+        String ip = address.getHostAddress();
 
         // Log to console for the admins
-        logger.warn("Access Denied for {} ({}): {}", username, ip, status);
+        logger.warn("Access Denied for {} ({}): {}", username, ip, decision.name());
 
-        // Save the attempt to our new database
-        plugin.getDatabaseManager().logAttempt(username, ip, "DENIED", status);
+        // Save the attempt to our database
+        plugin.getDatabaseManager().logAttempt(username, ip, "DENIED", decision.name());
     }
-}
\ No newline at end of file
+}
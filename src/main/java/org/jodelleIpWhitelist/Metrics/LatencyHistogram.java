@@ -0,0 +1,157 @@
+package org.jodelleIpWhitelist.Metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with log-linear buckets, in the spirit of HdrHistogram.
+ *
+ * Values below 16 ns get their own bucket. Above that, every power of two is split into
+ * 16 equal sub-buckets, so any recorded value is reported within about 6% of its true value.
+ * Recording is a single atomic increment, cheap enough for the login hot path.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    // Striped, so many threads can add to it without fighting over one cache line
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Records one measurement.
+     *
+     * @param nanos the measured duration in nanoseconds; negative values count as zero.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketIndex(value));
+        sum.add(value);
+    }
+
+    /**
+     * @return the sum of all recorded values, in nanoseconds.
+     */
+    public long sum() {
+        return sum.sum();
+    }
+
+    /**
+     * Counts the measurements that are at most the given value.
+     * Buckets straddling the value are counted when their lower bound is not above it.
+     *
+     * @param nanos the upper limit in nanoseconds.
+     */
+    public long countAtOrBelow(long nanos) {
+        int last = bucketIndex(Math.max(0, nanos));
+        long total = 0;
+        for (int i = 0; i <= last; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * @return the total number of recorded measurements.
+     */
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Estimates a percentile from the recorded values.
+     *
+     * @param percentile between 0 and 100, e.g. 99.0.
+     * @return the upper bound of the bucket holding the percentile, in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long percentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(total * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= Math.max(1, rank)) {
+                return bucketUpperBound(i);
+            }
+        }
+        return bucketUpperBound(BUCKETS - 1);
+    }
+
+    /**
+     * @return the upper bound of the highest non-empty bucket, in nanoseconds.
+     */
+    public long max() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) != 0) {
+                return bucketUpperBound(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Clears all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        sum.reset();
+    }
+
+    /**
+     * Calls the consumer once per non-empty bucket, in ascending order, with the bucket's
+     * upper bound and the cumulative count up to and including that bucket.
+     */
+    public void forEachBucket(BucketConsumer consumer) {
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = counts.get(i);
+            if (count != 0) {
+                cumulative += count;
+                consumer.accept(bucketUpperBound(i), cumulative);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface BucketConsumer {
+        void accept(long upperBoundNanos, long cumulativeCount);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int offset = index - SUB_BUCKETS;
+        int exponent = offset / SUB_BUCKETS + SUB_BUCKET_BITS;
+        long subBucket = offset % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + subBucket * width + width - 1;
+    }
+}
@@ -0,0 +1,219 @@
+package org.jodelleIpWhitelist.Metrics;
+
+import org.jodelleIpWhitelist.Protection.ConnectionThrottle;
+import org.jodelleIpWhitelist.Replication.ReplicatedWhitelistStore;
+import org.jodelleIpWhitelist.WhitelistManager.DecisionCache;
+import org.jodelleIpWhitelist.WhitelistManager.LoginDecision;
+import org.jodelleIpWhitelist.WhitelistManager.WhitelistStore;
+import org.jodelleIpWhitelist.database.DatabaseManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for the plugin, plus their two renderings:
+ * Prometheus text for the HTTP endpoint and short lines for the stats command.
+ *
+ * Login counters are striped {@link LongAdder}s, so recording a decision never makes
+ * event threads contend. Histograms owned by other components (reload time, audit
+ * write time) are read from those components when rendering.
+ */
+public final class WhitelistMetrics {
+
+    // Upper bounds of the exported Prometheus buckets, in nanoseconds
+    private static final long[] EXPORT_BUCKETS = {
+            1_000L, 5_000L, 10_000L, 50_000L, 100_000L, 500_000L,
+            1_000_000L, 5_000_000L, 10_000_000L, 50_000_000L, 100_000_000L, 500_000_000L,
+            1_000_000_000L, 5_000_000_000L, 30_000_000_000L
+    };
+
+    private final WhitelistStore whitelistStore;
+    private final DatabaseManager databaseManager;
+    private final DecisionCache decisionCache;
+
+    private final LatencyHistogram decisionLatency = new LatencyHistogram();
+    private final LongAdder[] decisions = new LongAdder[LoginDecision.values().length];
+    private final LongAdder[] throttled = new LongAdder[ConnectionThrottle.Verdict.values().length];
+    private final LongAdder prefiltered = new LongAdder();
+
+    /**
+     * @param decisionCache the login decision cache, or null if it is turned off.
+     */
+    public WhitelistMetrics(WhitelistStore whitelistStore, DatabaseManager databaseManager, DecisionCache decisionCache) {
+        this.whitelistStore = whitelistStore;
+        this.databaseManager = databaseManager;
+        this.decisionCache = decisionCache;
+        for (int i = 0; i < decisions.length; i++) {
+            decisions[i] = new LongAdder();
+        }
+        for (int i = 0; i < throttled.length; i++) {
+            throttled[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records one login decision and how long it took.
+     */
+    public void recordDecision(LoginDecision decision, long nanos) {
+        decisions[decision.ordinal()].increment();
+        decisionLatency.record(nanos);
+    }
+
+    /**
+     * Records a connection refused by the limiter.
+     */
+    public void recordThrottled(ConnectionThrottle.Verdict verdict) {
+        throttled[verdict.ordinal()].increment();
+    }
+
+    /**
+     * Records a connection refused at pre-login because its username is certainly not whitelisted.
+     */
+    public void recordPrefiltered() {
+        prefiltered.increment();
+    }
+
+    public LatencyHistogram getDecisionLatency() {
+        return decisionLatency;
+    }
+
+    public long getDecisionCount(LoginDecision decision) {
+        return decisions[decision.ordinal()].sum();
+    }
+
+    /**
+     * Renders all metrics in the Prometheus text exposition format (version 0.0.4).
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+
+        header(out, "jodelle_login_decisions_total", "counter", "Login decisions by result.");
+        for (LoginDecision decision : LoginDecision.values()) {
+            out.append("jodelle_login_decisions_total{result=\"").append(decision.name()).append("\"} ")
+                    .append(decisions[decision.ordinal()].sum()).append('\n');
+        }
+
+        header(out, "jodelle_connections_throttled_total", "counter", "Connections refused by the per-IP limiter.");
+        for (ConnectionThrottle.Verdict verdict : ConnectionThrottle.Verdict.values()) {
+            if (verdict != ConnectionThrottle.Verdict.ALLOWED) {
+                out.append("jodelle_connections_throttled_total{verdict=\"").append(verdict.name()).append("\"} ")
+                        .append(throttled[verdict.ordinal()].sum()).append('\n');
+            }
+        }
+
+        header(out, "jodelle_unknown_usernames_prefiltered_total", "counter", "Connections refused at pre-login by the username filter.");
+        out.append("jodelle_unknown_usernames_prefiltered_total ").append(prefiltered.sum()).append('\n');
+
+        if (decisionCache != null) {
+            header(out, "jodelle_decision_cache_lookups_total", "counter", "Login decisions answered from the decision cache (hit) or the store (miss).");
+            out.append("jodelle_decision_cache_lookups_total{result=\"hit\"} ").append(decisionCache.getHits()).append('\n');
+            out.append("jodelle_decision_cache_lookups_total{result=\"miss\"} ").append(decisionCache.getMisses()).append('\n');
+        }
+
+        header(out, "jodelle_whitelist_users", "gauge", "Usernames in the current whitelist snapshot.");
+        out.append("jodelle_whitelist_users ").append(whitelistStore.size()).append('\n');
+
+        if (whitelistStore instanceof ReplicatedWhitelistStore replicated) {
+            header(out, "jodelle_replication_deltas_published_total", "counter", "Whitelist changes sent to the other proxies.");
+            out.append("jodelle_replication_deltas_published_total ").append(replicated.getPublishedCount()).append('\n');
+            header(out, "jodelle_replication_deltas_applied_total", "counter", "Whitelist changes from other proxies applied here.");
+            out.append("jodelle_replication_deltas_applied_total ").append(replicated.getAppliedCount()).append('\n');
+            header(out, "jodelle_replication_deltas_outdated_total", "counter", "Changes from other proxies skipped because the entry changed again since.");
+            out.append("jodelle_replication_deltas_outdated_total ").append(replicated.getStaleCount()).append('\n');
+            header(out, "jodelle_replication_resyncs_total", "counter", "Full states merged from other proxies.");
+            out.append("jodelle_replication_resyncs_total ").append(replicated.getMergeCount()).append('\n');
+        }
+
+        histogram(out, "jodelle_login_decision_seconds", "Time spent deciding a login (in-memory lookup only).", decisionLatency);
+        histogram(out, "jodelle_whitelist_reload_seconds", "Time taken by loadWhitelistedIPs.", whitelistStore.getReloadLatency());
+
+        if (databaseManager != null) {
+            histogram(out, "jodelle_audit_submit_seconds", "Time logAttempt blocks its caller.", databaseManager.getSubmitLatency());
+            histogram(out, "jodelle_audit_commit_seconds", "Time to commit one batch of audit rows.", databaseManager.getCommitLatency());
+
+            header(out, "jodelle_audit_rows_written_total", "counter", "Audit rows committed to SQLite.");
+            out.append("jodelle_audit_rows_written_total ").append(databaseManager.getWrittenRows()).append('\n');
+            header(out, "jodelle_audit_rows_merged_total", "counter", "Audit rows folded into an identical earlier row as a repeat.");
+            out.append("jodelle_audit_rows_merged_total ").append(databaseManager.getMergedRows()).append('\n');
+            header(out, "jodelle_audit_rows_dropped_total", "counter", "Audit rows lost to queue overflow or write errors.");
+            out.append("jodelle_audit_rows_dropped_total ").append(databaseManager.getDroppedRows()).append('\n');
+            header(out, "jodelle_audit_queue_depth", "gauge", "Audit rows waiting for the writer.");
+            out.append("jodelle_audit_queue_depth ").append(databaseManager.getQueueDepth()).append('\n');
+        }
+
+        return out.toString();
+    }
+
+    /**
+     * @return a few human readable lines for the stats command.
+     */
+    public List<String> summaryLines() {
+        List<String> lines = new ArrayList<>();
+
+        StringBuilder counts = new StringBuilder("Logins:");
+        for (LoginDecision decision : LoginDecision.values()) {
+            counts.append(' ').append(decision.name()).append('=').append(decisions[decision.ordinal()].sum());
+        }
+        counts.append(" | throttled: RATE_LIMITED=").append(throttled[ConnectionThrottle.Verdict.RATE_LIMITED.ordinal()].sum())
+                .append(" BANNED=").append(throttled[ConnectionThrottle.Verdict.BANNED.ordinal()].sum())
+                .append(" | prefiltered: ").append(prefiltered.sum());
+        lines.add(counts.toString());
+
+        String decision = describe("Decision", decisionLatency);
+        if (decisionCache != null) {
+            decision += " | cache hits " + decisionCache.getHits() + ", misses " + decisionCache.getMisses();
+        }
+        lines.add(decision);
+        lines.add(describe("Reload", whitelistStore.getReloadLatency()));
+        if (whitelistStore instanceof ReplicatedWhitelistStore replicated) {
+            lines.add(replicated.describe());
+        }
+        if (databaseManager != null) {
+            lines.add(describe("Audit submit", databaseManager.getSubmitLatency()));
+            lines.add(describe("Audit commit", databaseManager.getCommitLatency())
+                    + " | rows written " + databaseManager.getWrittenRows()
+                    + ", merged " + databaseManager.getMergedRows()
+                    + ", dropped " + databaseManager.getDroppedRows()
+                    + ", queued " + databaseManager.getQueueDepth());
+        }
+        return lines;
+    }
+
+    private static String describe(String name, LatencyHistogram histogram) {
+        return name + ": n=" + histogram.count()
+                + " p50 " + formatNanos(histogram.percentile(50))
+                + " p99 " + formatNanos(histogram.percentile(99))
+                + " max " + formatNanos(histogram.max());
+    }
+
+    public static String formatNanos(long nanos) {
+        if (nanos < 1_000) {
+            return nanos + " ns";
+        }
+        if (nanos < 1_000_000) {
+            return String.format("%.1f µs", nanos / 1_000.0);
+        }
+        if (nanos < 1_000_000_000) {
+            return String.format("%.2f ms", nanos / 1_000_000.0);
+        }
+        return String.format("%.2f s", nanos / 1_000_000_000.0);
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void histogram(StringBuilder out, String name, String help, LatencyHistogram histogram) {
+        header(out, name, "histogram", help);
+        for (long bound : EXPORT_BUCKETS) {
+            out.append(name).append("_bucket{le=\"").append(bound / 1e9).append("\"} ")
+                    .append(histogram.countAtOrBelow(bound)).append('\n');
+        }
+        long count = histogram.count();
+        out.append(name).append("_bucket{le=\"+Inf\"} ").append(count).append('\n');
+        out.append(name).append("_sum ").append(histogram.sum() / 1e9).append('\n');
+        out.append(name).append("_count ").append(count).append('\n');
+    }
+}
@@ -0,0 +1,267 @@
+package org.jodelleIpWhitelist.Protection;
+
+import org.jodelleIpWhitelist.Config.PluginConfig;
+import org.jodelleIpWhitelist.Util.AddressCodec;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-IP connection limiter with temporary bans for repeat offenders.
+ *
+ * State lives in a fixed-size open-addressing table of primitive longs, so memory stays
+ * bounded no matter how many addresses a flood uses. Each slot holds one packed word:
+ * window start, attempts and denials in the current window, and a strike count that makes
+ * each ban longer than the previous one. Updates are CAS loops, so nothing here locks.
+ *
+ * IPv4 addresses are tracked individually; IPv6 addresses are tracked per /64, since that is
+ * what a single customer usually gets.
+ */
+public final class ConnectionThrottle {
+
+    /**
+     * What to do with a connection attempt.
+     */
+    public enum Verdict {
+        ALLOWED,
+        RATE_LIMITED,
+        BANNED
+    }
+
+    // How many neighbouring slots are probed before an existing entry is evicted
+    private static final int PROBE_LIMIT = 8;
+
+    // How many times the probe is repeated when another address wins the slot we picked
+    private static final int CLAIM_RETRIES = 2;
+    private static final int NO_SLOT = -1;
+
+    // Packed state layout: [window start: 32][attempts: 12][denials: 12][strikes: 8]
+    private static final int COUNT_MASK = 0xFFF;
+    private static final int STRIKE_MASK = 0xFF;
+
+    private final int mask;
+    private final AtomicLongArray keys;
+    private final AtomicLongArray states;
+    private final AtomicLongArray bannedUntil;
+
+    private final int windowSeconds;
+    private final int maxAttempts;
+    private final int maxDenials;
+    private final long banSeconds;
+    private final long maxBanSeconds;
+    private final long startNanos = System.nanoTime();
+
+    public ConnectionThrottle(PluginConfig.Protection config) {
+        int size = Integer.highestOneBit(Math.max(PROBE_LIMIT, config.tableSize - 1)) << 1;
+        this.mask = size - 1;
+        this.keys = new AtomicLongArray(size);
+        this.states = new AtomicLongArray(size);
+        this.bannedUntil = new AtomicLongArray(size);
+        this.windowSeconds = Math.max(1, config.windowSeconds);
+        this.maxAttempts = Math.min(COUNT_MASK - 1, Math.max(1, config.maxAttemptsPerWindow));
+        this.maxDenials = Math.min(COUNT_MASK - 1, Math.max(1, config.maxDenialsPerWindow));
+        this.banSeconds = Math.max(1, config.banSeconds);
+        this.maxBanSeconds = Math.max(banSeconds, config.maxBanSeconds);
+    }
+
+    /**
+     * Counts a connection attempt and decides whether it may continue.
+     */
+    public Verdict tryAcquire(InetAddress address) {
+        return tryAcquire(keyOf(address), now());
+    }
+
+    Verdict tryAcquire(long key, long now) {
+        int slot = slotFor(key, now);
+        if (slot == NO_SLOT) {
+            // Lost every race for a slot: let the attempt through rather than count it against someone else
+            return Verdict.ALLOWED;
+        }
+        if (bannedUntil.get(slot) > now) {
+            return Verdict.BANNED;
+        }
+
+        while (true) {
+            long state = states.get(slot);
+            long updated = roll(state, now);
+            int attempts = attempts(updated);
+            if (attempts <= maxAttempts) {
+                updated = withAttempts(updated, attempts + 1);
+            }
+            if (states.compareAndSet(slot, state, updated)) {
+                return attempts < maxAttempts ? Verdict.ALLOWED : Verdict.RATE_LIMITED;
+            }
+        }
+    }
+
+    /**
+     * Records a denied login from this address. Too many denials within one window
+     * lead to a temporary ban that doubles for every repeat offence.
+     *
+     * @return true if this denial triggered a ban.
+     */
+    public boolean recordDenial(InetAddress address) {
+        return recordDenial(keyOf(address), now());
+    }
+
+    boolean recordDenial(long key, long now) {
+        int slot = slotFor(key, now);
+        if (slot == NO_SLOT) {
+            return false;
+        }
+
+        while (true) {
+            long state = states.get(slot);
+            long updated = roll(state, now);
+            int denials = denials(updated) + 1;
+            boolean ban = denials > maxDenials;
+            int strikes = strikes(updated);
+            if (ban) {
+                strikes = Math.min(STRIKE_MASK, strikes + 1);
+                denials = 0;
+            }
+            updated = pack(windowStart(updated), attempts(updated), denials, strikes);
+
+            if (states.compareAndSet(slot, state, updated)) {
+                if (ban) {
+                    long duration = Math.min(maxBanSeconds, banSeconds << Math.min(20, strikes - 1));
+                    bannedUntil.set(slot, now + duration);
+                }
+                return ban;
+            }
+        }
+    }
+
+    /**
+     * @return true if the address is currently banned.
+     */
+    public boolean isBanned(InetAddress address) {
+        long key = keyOf(address);
+        long now = now();
+        int home = hash(key) & mask;
+        for (int i = 0; i < PROBE_LIMIT; i++) {
+            int slot = (home + i) & mask;
+            if (keys.get(slot) == key) {
+                return bannedUntil.get(slot) > now;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the slot owned by the key, claiming an empty one or evicting the least
+     * recently active entry in the probe range when needed.
+     *
+     * @return the slot, or {@link #NO_SLOT} if other addresses kept taking the slots we
+     * picked. The caller must then leave the table alone, since any slot it touched would
+     * belong to somebody else.
+     */
+    private int slotFor(long key, long now) {
+        for (int attempt = 0; attempt <= CLAIM_RETRIES; attempt++) {
+            int slot = probe(key, now);
+            if (slot != NO_SLOT) {
+                return slot;
+            }
+        }
+        return NO_SLOT;
+    }
+
+    private int probe(long key, long now) {
+        int home = hash(key) & mask;
+        int victim = home;
+        long victimKey = keys.get(home);
+        long victimScore = Long.MAX_VALUE;
+
+        for (int i = 0; i < PROBE_LIMIT; i++) {
+            int slot = (home + i) & mask;
+            long current = keys.get(slot);
+            if (current == key) {
+                return slot;
+            }
+            if (current == 0 && keys.compareAndSet(slot, 0, key)) {
+                states.set(slot, pack(now, 0, 0, 0));
+                bannedUntil.set(slot, 0);
+                return slot;
+            }
+
+            // Active bans are the last thing we want to forget
+            long score = bannedUntil.get(slot) > now ? Long.MAX_VALUE - 1 : windowStart(states.get(slot));
+            if (score < victimScore) {
+                victimScore = score;
+                victim = slot;
+                victimKey = current;
+            }
+        }
+
+        // Only evict the entry that was scored; if it changed hands since, probe again
+        if (keys.compareAndSet(victim, victimKey, key)) {
+            states.set(victim, pack(now, 0, 0, 0));
+            bannedUntil.set(victim, 0);
+            return victim;
+        }
+        return NO_SLOT;
+    }
+
+    /**
+     * Starts a new window when the current one has expired. Strikes are forgotten after
+     * a long quiet period, so an address is not punished forever for one bad evening.
+     */
+    private long roll(long state, long now) {
+        long start = windowStart(state);
+        if (now - start < windowSeconds) {
+            return state;
+        }
+        int strikes = now - start > maxBanSeconds * 2 ? 0 : strikes(state);
+        return pack(now, 0, 0, strikes);
+    }
+
+    private long now() {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos) + 1;
+    }
+
+    /**
+     * Encodes an address as a non-zero long key. IPv4 keys have the top bit clear,
+     * IPv6 /64 keys have it set, so the two families never collide.
+     */
+    static long keyOf(InetAddress address) {
+        if (address instanceof Inet4Address) {
+            return (1L << 32) | (AddressCodec.toInt((Inet4Address) address) & 0xFFFFFFFFL);
+        }
+        if (address instanceof Inet6Address) {
+            return AddressCodec.readLong(address.getAddress(), 0) | Long.MIN_VALUE;
+        }
+        return 1L;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static long pack(long windowStart, int attempts, int denials, int strikes) {
+        return (windowStart << 32) | ((long) (attempts & COUNT_MASK) << 20) | ((long) (denials & COUNT_MASK) << 8) | (strikes & STRIKE_MASK);
+    }
+
+    private static long windowStart(long state) {
+        return state >>> 32;
+    }
+
+    private static int attempts(long state) {
+        return (int) (state >>> 20) & COUNT_MASK;
+    }
+
+    private static int denials(long state) {
+        return (int) (state >>> 8) & COUNT_MASK;
+    }
+
+    private static int strikes(long state) {
+        return (int) state & STRIKE_MASK;
+    }
+
+    private static long withAttempts(long state, int attempts) {
+        return pack(windowStart(state), attempts, denials(state), strikes(state));
+    }
+}
@@ -0,0 +1,124 @@
+package org.jodelleIpWhitelist.Protection;
+
+import org.jodelleIpWhitelist.database.DatabaseManager;
+import org.slf4j.Logger;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Turns a stream of denials into one console line (and one audit row) per address and interval.
+ *
+ * The first denial from an address in an interval is reported as usual. Every further one
+ * is only counted, and at the end of the interval a single
+ * "N more denials from X in the last T seconds" line is written instead.
+ * The number of tracked addresses is capped; anything beyond that is summed into one line.
+ */
+public final class DenialLogCoalescer {
+
+    private static final class Entry {
+        final InetAddress address;
+        final LongAdder suppressed = new LongAdder();
+        volatile String lastReason;
+
+        Entry(InetAddress address, String reason) {
+            this.address = address;
+            this.lastReason = reason;
+        }
+    }
+
+    private final Logger logger;
+    private final DatabaseManager database;
+    private final int intervalSeconds;
+    private final int maxTracked;
+
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder untracked = new LongAdder();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "JodelleIpWhitelist-DenialLog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public DenialLogCoalescer(Logger logger, DatabaseManager database, int intervalSeconds, int maxTracked) {
+        this.logger = logger;
+        this.database = database;
+        this.intervalSeconds = Math.max(1, intervalSeconds);
+        this.maxTracked = Math.max(1, maxTracked);
+    }
+
+    public void start() {
+        flusher.scheduleAtFixedRate(this::flush, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Records a denial.
+     *
+     * @return true if the caller should report this denial itself (first one from the address
+     * in this interval), false if it has been counted for the summary line.
+     */
+    public boolean record(InetAddress address, String reason) {
+        long key = ConnectionThrottle.keyOf(address);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            if (entries.size() >= maxTracked) {
+                untracked.increment();
+                return false;
+            }
+            Entry created = new Entry(address, reason);
+            entry = entries.putIfAbsent(key, created);
+            if (entry == null) {
+                return true;
+            }
+        }
+        entry.suppressed.increment();
+        entry.lastReason = reason;
+        return false;
+    }
+
+    /**
+     * Writes the summary lines for the interval that just ended and starts a new one.
+     */
+    void flush() {
+        try {
+            Iterator<Map.Entry<Long, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next().getValue();
+                iterator.remove();
+
+                long suppressed = entry.suppressed.sum();
+                if (suppressed == 0) {
+                    continue;
+                }
+                String ip = entry.address.getHostAddress();
+                logger.warn("{} more denials from {} in the last {} seconds (last reason: {})",
+                        suppressed, ip, intervalSeconds, entry.lastReason);
+                if (database != null) {
+                    database.logAttempt(null, ip, "THROTTLED", suppressed + " denials coalesced, last: " + entry.lastReason);
+                }
+            }
+
+            long others = untracked.sumThenReset();
+            if (others > 0) {
+                logger.warn("{} denials from other addresses in the last {} seconds", others, intervalSeconds);
+            }
+        } catch (RuntimeException e) {
+            // Never let one bad flush kill the scheduled task
+            logger.error("Failed to write denial summary", e);
+        }
+    }
+
+    /**
+     * Writes the final summary and stops the flush thread.
+     */
+    public void close() {
+        flusher.shutdown();
+        flush();
+    }
+}
@@ -0,0 +1,111 @@
+package org.jodelleIpWhitelist.Protection;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter over usernames, compared case-insensitively.
+ *
+ * {@link #mightContain} never says no for a name that was added, and says yes for a
+ * name that was not added with roughly the configured false-positive rate. Names are
+ * hashed char by char with ASCII case folded, so a check allocates nothing.
+ *
+ * The bits are set atomically, so names can be added from several threads while others
+ * check: a check that starts after a {@link #put} returned always sees that name.
+ */
+public final class UsernameBloomFilter {
+
+    private final AtomicLongArray words;
+    private final long bits;
+    private final int hashes;
+
+    private UsernameBloomFilter(long bits, int hashes) {
+        this.words = new AtomicLongArray((int) ((bits + 63) >>> 6));
+        this.bits = bits;
+        this.hashes = hashes;
+    }
+
+    /**
+     * Sizes a filter for the expected number of names.
+     *
+     * @param expected          how many names will be added.
+     * @param falsePositiveRate the wanted false-positive rate, e.g. 0.01.
+     * @param maxBytes          upper bound for the bit array; a filter that would be larger
+     *                          is capped and simply gets a higher false-positive rate.
+     */
+    public static UsernameBloomFilter create(int expected, double falsePositiveRate, long maxBytes) {
+        int n = Math.max(1, expected);
+        double p = Math.min(0.5, Math.max(1e-9, falsePositiveRate));
+        long wanted = (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+        long cap = Math.max(64, Math.min(maxBytes, Integer.MAX_VALUE / 8L) * 8);
+        long bits = Math.max(64, Math.min(wanted, cap));
+        int hashes = (int) Math.max(1, Math.min(16, Math.round((double) bits / n * Math.log(2))));
+        return new UsernameBloomFilter(bits, hashes);
+    }
+
+    public void put(CharSequence username) {
+        long hash = hash(username);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            long bit = index(h1 + i * h2);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long old = words.get(word);
+            while ((old & mask) == 0 && !words.compareAndSet(word, old, old | mask)) {
+                old = words.get(word);
+            }
+        }
+    }
+
+    public boolean mightContain(CharSequence username) {
+        long hash = hash(username);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            long bit = index(h1 + i * h2);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the size of the bit array in bytes.
+     */
+    public long sizeInBytes() {
+        return words.length() * 8L;
+    }
+
+    public int hashCount() {
+        return hashes;
+    }
+
+    /**
+     * Maps a 32-bit hash onto [0, bits) with a multiply instead of a division.
+     */
+    private long index(int hash) {
+        return ((hash & 0xFFFFFFFFL) * bits) >>> 32;
+    }
+
+    /**
+     * 64-bit FNV-1a over the lower-cased chars, finished with the murmur3 mixer so both
+     * halves are usable as independent hashes.
+     */
+    private static long hash(CharSequence username) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < username.length(); i++) {
+            char c = username.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            hash = (hash ^ c) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,194 @@
+package org.jodelleIpWhitelist.Protection;
+
+import org.jodelleIpWhitelist.Config.PluginConfig;
+import org.jodelleIpWhitelist.WhitelistManager.WhitelistStore;
+import org.slf4j.Logger;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Refuses usernames that are certainly not whitelisted at pre-login, before Velocity asks
+ * Mojang to authenticate them. Join bots mostly use random names, so this turns most of a
+ * flood away for the price of a few bit lookups.
+ *
+ * The answer comes from a {@link UsernameBloomFilter} over the whole whitelist, kept up to
+ * date through the store's {@link WhitelistStore.UserListener}:
+ * - A user who gets their first entry is put into the live filter right away, before the
+ *   command or API call that added them returns. Adds cost nothing more than that.
+ * - A removed user stays in the filter, which only lets that name through to the normal
+ *   login check. Removed names are dropped by a full rebuild in the background, at most
+ *   once per usernameFilterRebuildSeconds. A filter that has taken in more new users than
+ *   it was sized for is rebuilt the same way, before its false-positive rate climbs.
+ * - After a load, reload or bulk import the filter no longer knows who is whitelisted
+ *   until it is rebuilt. Meanwhile a name it rejects is refused only if the store can tell
+ *   from memory that it is unknown, and let through to the normal login check otherwise.
+ *
+ * A whitelisted player is therefore never refused by the filter, and pre-login never waits
+ * for a database query.
+ */
+public final class UsernamePrefilter implements WhitelistStore.UserListener {
+
+    /**
+     * @param generation the value of {@link #generation} the filter was built for.
+     * @param spare      how many new users fit in before the filter should be rebuilt.
+     */
+    private record Built(long generation, UsernameBloomFilter filter, int spare) {
+    }
+
+    private final WhitelistStore store;
+    private final PluginConfig.Protection config;
+    private final Logger logger;
+
+    // Makes adding a name and swapping in a rebuilt filter one step each, so no add is lost in between
+    private final Object lock = new Object();
+
+    private volatile Built current;
+
+    // Bumped by every bulk change of the whitelist; a filter built for an older one is incomplete
+    private volatile long generation;
+
+    // The filter a rebuild is filling, which has to get new users too; guarded by lock
+    private UsernameBloomFilter building;
+
+    // New users put into the current filter since it was built; guarded by lock
+    private int addedSinceBuild;
+
+    // Set while a rebuild is queued but has not started, so requests in between share it
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+
+    // Earliest System.nanoTime() at which the next rebuild may start
+    private volatile long nextRebuildNanos = System.nanoTime();
+
+    private final ScheduledExecutorService builder = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "JodelleIpWhitelist-UsernameFilter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public UsernamePrefilter(WhitelistStore store, PluginConfig.Protection config, Logger logger) {
+        this.store = store;
+        this.config = config;
+        this.logger = logger;
+    }
+
+    /**
+     * Starts following the store and builds the first filter in the background; names
+     * pass until it is ready.
+     */
+    public void start() {
+        store.setUserListener(this);
+        scheduleRebuild();
+    }
+
+    /**
+     * @return false only if the username is certainly not whitelisted.
+     */
+    public boolean mightBeWhitelisted(String username) {
+        Built built = current;
+        if (built == null) {
+            return true;
+        }
+        if (built.filter().mightContain(username)) {
+            return true;
+        }
+        if (built.generation() == generation) {
+            return false;
+        }
+        // The whitelist was replaced since the filter was built, and the rebuild is on its way
+        Boolean known = store.containsUserIfCached(username);
+        return known == null || known;
+    }
+
+    @Override
+    public void onUserAdded(String username) {
+        boolean full;
+        synchronized (lock) {
+            Built built = current;
+            if (built != null) {
+                built.filter().put(username);
+            }
+            if (building != null) {
+                building.put(username);
+            }
+            full = built != null && ++addedSinceBuild > built.spare();
+        }
+        if (full) {
+            scheduleRebuild();
+        }
+    }
+
+    @Override
+    public void onUserRemoved(String username) {
+        scheduleRebuild();
+    }
+
+    @Override
+    public void onUsersReplaced() {
+        synchronized (lock) {
+            generation++;
+        }
+        scheduleRebuild();
+    }
+
+    private void scheduleRebuild() {
+        if (!rebuildScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        long delay = Math.max(0, nextRebuildNanos - System.nanoTime());
+        try {
+            builder.schedule(() -> {
+                // Cleared first, so a change made while this rebuild runs queues the next one
+                rebuildScheduled.set(false);
+                try {
+                    rebuild();
+                } catch (RuntimeException e) {
+                    logger.error("Could not build the username filter", e);
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            rebuildScheduled.set(false);
+        }
+    }
+
+    private void rebuild() {
+        long start = System.nanoTime();
+        nextRebuildNanos = start + TimeUnit.SECONDS.toNanos(Math.max(1, config.usernameFilterRebuildSeconds));
+        int expected = store.size();
+        int spare = Math.max(64, expected / 8);
+
+        UsernameBloomFilter filter = UsernameBloomFilter.create(expected + spare,
+                config.usernameFilterFalsePositiveRate, config.usernameFilterMaxKilobytes * 1024L);
+        long builtFor;
+        synchronized (lock) {
+            // From here on new users go into this filter as well, so none is missed while it fills
+            building = filter;
+            builtFor = generation;
+        }
+
+        boolean filled = false;
+        try {
+            store.forEachUser((username, ips) -> filter.put(username));
+            filled = true;
+        } finally {
+            synchronized (lock) {
+                building = null;
+                if (filled) {
+                    current = new Built(builtFor, filter, spare);
+                    addedSinceBuild = 0;
+                }
+            }
+        }
+
+        logger.debug("Username filter rebuilt for {} users: {} KiB, {} hashes, {} ms", expected,
+                filter.sizeInBytes() / 1024, filter.hashCount(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    public void close() {
+        store.setUserListener(null);
+        builder.shutdownNow();
+    }
+}
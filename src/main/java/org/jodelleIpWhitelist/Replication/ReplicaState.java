@@ -0,0 +1,154 @@
+package org.jodelleIpWhitelist.Replication;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A full copy of one proxy's replicated state, exchanged when proxies have drifted apart
+ * (anti-entropy) and written to replication_state.txt between restarts.
+ *
+ * It holds every entry with the stamp of the change that last touched it, removed entries
+ * (tombstones) that are still remembered, and how far the proxy has applied each origin's
+ * changes. The text form is one line per item and ends with a line holding a single dot:
+ *
+ * <pre>
+ * S  origin  sequence                     applied changes of an origin
+ * +  time  origin  username  value        an entry that exists
+ * -  time  origin  username  value        an entry that was removed
+ * .
+ * </pre>
+ *
+ * Fields are separated by tabs. Global ranges have an empty username. Entries whose
+ * history is unknown (they predate replication or came from an outside file edit) have
+ * time 0 and an empty origin.
+ */
+public final class ReplicaState {
+
+    /**
+     * The last change to one entry.
+     *
+     * @param present false for a tombstone.
+     */
+    public record Change(long time, String origin, boolean present) {
+
+        /**
+         * Later changes win; equal times are decided by the origin, so every proxy picks
+         * the same winner.
+         */
+        boolean newerThan(Change other) {
+            return other == null || time > other.time || (time == other.time && origin.compareTo(other.origin) > 0);
+        }
+    }
+
+    /**
+     * Where {@link #read} takes its lines from; BufferedReader::readLine fits.
+     */
+    interface LineSource {
+        String readLine() throws IOException;
+    }
+
+    private final Map<String, Change> entries;
+    private final Map<String, Long> sequences;
+
+    ReplicaState(Map<String, Change> entries, Map<String, Long> sequences) {
+        this.entries = entries;
+        this.sequences = sequences;
+    }
+
+    /**
+     * @return entry key to its last change, including tombstones.
+     */
+    Map<String, Change> entries() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * @return origin to the last of its changes included in this state.
+     */
+    Map<String, Long> sequences() {
+        return Collections.unmodifiableMap(sequences);
+    }
+
+    static String key(String username, String value) {
+        return username + '\t' + value;
+    }
+
+    static String username(String key) {
+        return key.substring(0, key.indexOf('\t'));
+    }
+
+    static String value(String key) {
+        return key.substring(key.indexOf('\t') + 1);
+    }
+
+    /**
+     * A well mixed 64 bit hash of an entry key. Digests add these up, so the order in
+     * which a store lists its entries does not matter.
+     */
+    static long hash(String key) {
+        // FNV-1a, then the murmur3 finalizer so that similar keys spread over all bits
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    void write(Writer out) throws IOException {
+        for (Map.Entry<String, Long> sequence : sequences.entrySet()) {
+            out.write("S\t" + sequence.getKey() + '\t' + sequence.getValue() + '\n');
+        }
+        for (Map.Entry<String, Change> entry : entries.entrySet()) {
+            Change change = entry.getValue();
+            out.write((change.present() ? "+\t" : "-\t") + change.time() + '\t' + change.origin() + '\t' + entry.getKey() + '\n');
+        }
+        out.write(".\n");
+    }
+
+    /**
+     * Reads a state written by {@link #write}, up to and including the closing dot.
+     *
+     * @throws IOException              if the source fails or ends early.
+     * @throws IllegalArgumentException if a line is malformed.
+     */
+    static ReplicaState read(LineSource in) throws IOException {
+        Map<String, Change> entries = new HashMap<>();
+        Map<String, Long> sequences = new HashMap<>();
+
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.equals(".")) {
+                return new ReplicaState(entries, sequences);
+            }
+
+            String[] fields = line.split("\t", -1);
+            if (fields[0].equals("S") && fields.length == 3) {
+                if (!WhitelistDelta.isValidNodeId(fields[1])) {
+                    throw new IllegalArgumentException("Invalid node id: " + fields[1]);
+                }
+                sequences.put(fields[1], Long.parseLong(fields[2]));
+            } else if ((fields[0].equals("+") || fields[0].equals("-")) && fields.length == 5) {
+                long time = Long.parseLong(fields[1]);
+                String origin = fields[2];
+                boolean known = time > 0 && WhitelistDelta.isValidNodeId(origin);
+                boolean unknown = time == 0 && origin.isEmpty();
+                if ((!known && !unknown) || !WhitelistDelta.isValidEntry(fields[3].isEmpty(), fields[3], fields[4])) {
+                    throw new IllegalArgumentException("Invalid entry: " + line);
+                }
+                entries.put(key(fields[3], fields[4]), new Change(time, origin, fields[0].equals("+")));
+            } else {
+                throw new IllegalArgumentException("Unexpected line: " + line);
+            }
+        }
+        throw new IOException("State ended without its closing line");
+    }
+}
@@ -0,0 +1,806 @@
+package org.jodelleIpWhitelist.Replication;
+
+import org.jodelleIpWhitelist.Config.PluginConfig;
+import org.jodelleIpWhitelist.Metrics.LatencyHistogram;
+import org.jodelleIpWhitelist.Util.StripedLock;
+import org.jodelleIpWhitelist.WhitelistManager.LoginDecision;
+import org.jodelleIpWhitelist.WhitelistManager.WhitelistStore;
+import org.slf4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Keeps the whitelists of several proxies in sync by wrapping the local store.
+ *
+ * Every change made on this proxy (addip, removeip, ranges, imports) is applied to the local
+ * store first and then published as a numbered {@link WhitelistDelta}. Changes from other
+ * proxies are applied to the local store in their origin's order, without being published
+ * again. Nothing is ever re-read from a file to pick up another proxy's change.
+ *
+ * Conflicts are settled per entry by the last writer: every entry remembers the time and
+ * origin of the change that last touched it, removed entries included (as tombstones, kept
+ * for replication.tombstoneDays). Because of that, changes can be applied in any order across
+ * origins and proxies still end up with the same whitelist.
+ *
+ * Entries that change because the files were reloaded or edited by hand are stamped and
+ * published like any other local change. An edit made while the proxy was down shows up as
+ * a stamp that no longer matches the local store; such entries are stamped again at startup
+ * and before every merge, so the local change wins instead of being undone by the others.
+ *
+ * Changes to different users run in parallel: each holds the read side of a structure lock
+ * and the lock stripe of its user. Merging a full state, batch imports and snapshots take
+ * the write side. Only numbering and publishing this proxy's own changes is serialized.
+ *
+ * Lost changes (a proxy that was down, a dropped connection, a pruned log) are caught in
+ * two ways: a gap in an origin's numbers makes the transport fetch what is missing, and every
+ * replication.antiEntropySeconds the proxies compare digests of their whole whitelist and
+ * merge full states when they differ.
+ *
+ * The stamps, the change numbers and the tombstones survive restarts in replication_state.txt.
+ */
+public final class ReplicatedWhitelistStore implements WhitelistStore {
+
+    private final WhitelistStore delegate;
+    private final ReplicationTransport transport;
+    private final PluginConfig.Replication config;
+    private final Logger logger;
+    private final String nodeId;
+    private final Path stateFile;
+
+    // Read side: changes to single entries. Write side: work on the whole whitelist
+    private final ReentrantReadWriteLock structureLock = new ReentrantReadWriteLock();
+
+    // One lock per group of users, so two changes to the same user never interleave. Keyed by
+    // the exact username, which is how the stores and ReplicaState tell users apart
+    private final StripedLock userLocks = new StripedLock(64);
+
+    // Origin -> lock that keeps that origin's changes applied in order
+    private final Map<String, Object> originLocks = new ConcurrentHashMap<>();
+
+    // Numbers this proxy's changes and publishes them, so publish() sees them in sequence order
+    private final Object sequenceLock = new Object();
+
+    // This proxy's last change number; guarded by sequenceLock
+    private long sequence;
+
+    // This proxy's latest changes, for peers that reconnect; guarded by sequenceLock
+    private final ArrayDeque<WhitelistDelta> recent = new ArrayDeque<>();
+
+    // Origin -> last change number applied here
+    private final Map<String, Long> applied = new ConcurrentHashMap<>();
+
+    // Entry key -> last change, see ReplicaState
+    private final Map<String, ReplicaState.Change> changes = new ConcurrentHashMap<>();
+
+    private final LongAdder publishedCount = new LongAdder();
+    private final LongAdder appliedCount = new LongAdder();
+    private final LongAdder staleCount = new LongAdder();
+    private final LongAdder mergeCount = new LongAdder();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "JodelleIpWhitelist-Replication");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ReplicatedWhitelistStore(WhitelistStore delegate, ReplicationTransport transport,
+                                    PluginConfig.Replication config, Path directory, Logger logger) {
+        this.delegate = delegate;
+        this.transport = transport;
+        this.config = config;
+        this.logger = logger;
+        this.nodeId = config.nodeId;
+        this.stateFile = directory.resolve("replication_state.txt");
+        loadState();
+    }
+
+    /**
+     * @return the wrapped local store.
+     */
+    public WhitelistStore getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Starts the transport and the periodic anti-entropy. Call after the local whitelist is loaded.
+     * If the transport cannot start, the proxy keeps working on its own whitelist.
+     */
+    public void start() {
+        // Edits made while the proxy was down, then every later reload or outside edit
+        reconcile();
+        delegate.setReloadListener(this::onLocalReload);
+
+        try {
+            transport.start(new Inbound());
+        } catch (IOException e) {
+            logger.error("Could not start whitelist replication, this proxy will not sync with the others", e);
+            return;
+        }
+
+        long interval = Math.max(5, config.antiEntropySeconds);
+        scheduler.scheduleWithFixedDelay(this::maintain, interval, interval, TimeUnit.SECONDS);
+        logger.info("Whitelist replication started as node {} ({})", nodeId, config.transport);
+    }
+
+    private void maintain() {
+        try {
+            transport.antiEntropy();
+            pruneTombstones();
+            saveState();
+        } catch (RuntimeException e) {
+            logger.error("Whitelist replication maintenance failed", e);
+        }
+    }
+
+    // --- Reads go straight to the local store ---
+
+    @Override
+    public void loadWhitelistedIPs() {
+        delegate.loadWhitelistedIPs();
+    }
+
+    @Override
+    public CompletableFuture<Integer> reloadAsync() {
+        return delegate.reloadAsync();
+    }
+
+    @Override
+    public LoginDecision decide(String username, InetAddress address) {
+        return delegate.decide(username, address);
+    }
+
+    @Override
+    public LoginDecision decideIfCached(String username, InetAddress address) {
+        return delegate.decideIfCached(username, address);
+    }
+
+    /**
+     * Goes straight to the local store, which also reports the changes that came from peers.
+     */
+    @Override
+    public void setUserListener(UserListener listener) {
+        delegate.setUserListener(listener);
+    }
+
+    @Override
+    public Boolean containsUserIfCached(String username) {
+        return delegate.containsUserIfCached(username);
+    }
+
+    @Override
+    public List<String> getIpsForUsername(String username) {
+        return delegate.getIpsForUsername(username);
+    }
+
+    @Override
+    public String findMatchingEntry(String username, InetAddress address) {
+        return delegate.findMatchingEntry(username, address);
+    }
+
+    @Override
+    public boolean containsUser(String username) {
+        return delegate.containsUser(username);
+    }
+
+    @Override
+    public void forEachUser(BiConsumer<String, List<String>> action) {
+        delegate.forEachUser(action);
+    }
+
+    @Override
+    public boolean keepsUsersInMemory() {
+        return delegate.keepsUsersInMemory();
+    }
+
+    @Override
+    public Map<String, List<String>> readUsersAfter(String after, String filter, int limit) {
+        return delegate.readUsersAfter(after, filter, limit);
+    }
+
+    @Override
+    public int countUsers(String filter) {
+        return delegate.countUsers(filter);
+    }
+
+    @Override
+    public List<String> getGlobalRanges() {
+        return delegate.getGlobalRanges();
+    }
+
+    @Override
+    public List<String> getAllowedIPs() {
+        return delegate.getAllowedIPs();
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public long version() {
+        return delegate.version();
+    }
+
+    @Override
+    public LatencyHistogram getReloadLatency() {
+        return delegate.getReloadLatency();
+    }
+
+    // --- Local changes are applied, then published ---
+
+    @Override
+    public boolean addIP(String username, String ip) {
+        return changeLocally(WhitelistDelta.Op.ADD_IP, username, ip, () -> delegate.addIP(username, ip));
+    }
+
+    @Override
+    public boolean removeIP(String username, String ip) {
+        return changeLocally(WhitelistDelta.Op.REMOVE_IP, username, ip, () -> delegate.removeIP(username, ip));
+    }
+
+    @Override
+    public boolean addGlobalRange(String range) {
+        return changeLocally(WhitelistDelta.Op.ADD_RANGE, "", range, () -> delegate.addGlobalRange(range));
+    }
+
+    @Override
+    public boolean removeGlobalRange(String range) {
+        return changeLocally(WhitelistDelta.Op.REMOVE_RANGE, "", range, () -> delegate.removeGlobalRange(range));
+    }
+
+    private boolean changeLocally(WhitelistDelta.Op op, String username, String value, BooleanSupplier change) {
+        structureLock.readLock().lock();
+        try {
+            userLocks.lock(username);
+            try {
+                if (!change.getAsBoolean()) {
+                    return false;
+                }
+                recordAndPublish(List.of(new PendingChange(op, username, value)));
+            } finally {
+                userLocks.unlock(username);
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Stores the batch locally and publishes every entry of it, including the ones that
+     * already existed here; they may still be missing on other proxies.
+     */
+    @Override
+    public int addAll(Map<String, ? extends Collection<String>> entries) throws IOException {
+        structureLock.writeLock().lock();
+        try {
+            int added = delegate.addAll(entries);
+            recordAndPublish(additions(entries));
+            return added;
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stores a small batch like {@link #addAll}, but only holds the stripes of the users in
+     * it, so logins and other changes go on meanwhile.
+     */
+    @Override
+    public int addBatch(Map<String, ? extends Collection<String>> entries) throws IOException {
+        structureLock.readLock().lock();
+        int[] locked = userLocks.lockAll(entries.keySet());
+        try {
+            int added = delegate.addBatch(entries);
+            recordAndPublish(additions(entries));
+            return added;
+        } finally {
+            userLocks.unlockAll(locked);
+            structureLock.readLock().unlock();
+        }
+    }
+
+    private static List<PendingChange> additions(Map<String, ? extends Collection<String>> entries) {
+        List<PendingChange> batch = new ArrayList<>();
+        for (Map.Entry<String, ? extends Collection<String>> entry : entries.entrySet()) {
+            for (String ip : entry.getValue()) {
+                batch.add(new PendingChange(WhitelistDelta.Op.ADD_IP, entry.getKey(), ip));
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Stamps and publishes what a reload or an outside edit of the local files changed.
+     */
+    private void onLocalReload(Map<String, List<String>> added, Map<String, List<String>> removed) {
+        List<PendingChange> batch = new ArrayList<>();
+        collectChanges(batch, added, true);
+        collectChanges(batch, removed, false);
+
+        structureLock.writeLock().lock();
+        try {
+            recordAndPublish(batch);
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+        logger.info("Whitelist replication published {} entries changed by a reload", batch.size());
+    }
+
+    private static void collectChanges(List<PendingChange> into, Map<String, List<String>> entries, boolean adds) {
+        for (Map.Entry<String, List<String>> entry : entries.entrySet()) {
+            boolean range = entry.getKey().isEmpty();
+            WhitelistDelta.Op op = range
+                    ? (adds ? WhitelistDelta.Op.ADD_RANGE : WhitelistDelta.Op.REMOVE_RANGE)
+                    : (adds ? WhitelistDelta.Op.ADD_IP : WhitelistDelta.Op.REMOVE_IP);
+            for (String value : entry.getValue()) {
+                into.add(new PendingChange(op, entry.getKey(), value));
+            }
+        }
+    }
+
+    /**
+     * Stamps every entry whose stamp says something else than the local store, as a change
+     * made here and now, and publishes them. Those are entries added or removed while the
+     * stamps were not watching: by hand while the proxy was down, for example. Entries that
+     * never had a stamp are left alone; they predate replication.
+     */
+    private void reconcile() {
+        structureLock.writeLock().lock();
+        try {
+            Set<String> local = localKeys();
+            List<PendingChange> batch = new ArrayList<>();
+            for (Map.Entry<String, ReplicaState.Change> entry : changes.entrySet()) {
+                boolean present = local.contains(entry.getKey());
+                if (entry.getValue().present() == present) {
+                    continue;
+                }
+                String username = ReplicaState.username(entry.getKey());
+                String value = ReplicaState.value(entry.getKey());
+                WhitelistDelta.Op op = username.isEmpty()
+                        ? (present ? WhitelistDelta.Op.ADD_RANGE : WhitelistDelta.Op.REMOVE_RANGE)
+                        : (present ? WhitelistDelta.Op.ADD_IP : WhitelistDelta.Op.REMOVE_IP);
+                batch.add(new PendingChange(op, username, value));
+            }
+            if (!batch.isEmpty()) {
+                recordAndPublish(batch);
+                logger.info("Whitelist replication stamped {} entries that were changed outside of it", batch.size());
+            }
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * A local change waiting for its number and stamp.
+     */
+    private record PendingChange(WhitelistDelta.Op op, String username, String value) {
+    }
+
+    /**
+     * Numbers, stamps and publishes changes made on this proxy. The caller holds the
+     * stripes of the users involved, or the write side of structureLock.
+     */
+    private void recordAndPublish(List<PendingChange> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        synchronized (sequenceLock) {
+            List<WhitelistDelta> deltas = new ArrayList<>(batch.size());
+            for (PendingChange change : batch) {
+                deltas.add(record(change.op(), change.username(), change.value()));
+            }
+            publish(deltas);
+        }
+    }
+
+    /**
+     * Numbers and stamps a change made on this proxy. Caller holds sequenceLock.
+     */
+    private WhitelistDelta record(WhitelistDelta.Op op, String username, String value) {
+        String key = ReplicaState.key(username, value);
+
+        // Never stamp earlier than the change being replaced, even if another proxy's clock is
+        // ahead of ours; otherwise the other proxies would discard this change as outdated
+        long time = System.currentTimeMillis();
+        ReplicaState.Change previous = changes.get(key);
+        if (previous != null && previous.time() >= time) {
+            time = previous.time() + 1;
+        }
+
+        WhitelistDelta delta = new WhitelistDelta(nodeId, ++sequence, time, op, username, value);
+        changes.put(key, new ReplicaState.Change(time, nodeId, op.adds()));
+
+        recent.addLast(delta);
+        while (recent.size() > Math.max(1, config.recentDeltas)) {
+            recent.removeFirst();
+        }
+        return delta;
+    }
+
+    private void publish(List<WhitelistDelta> deltas) {
+        publishedCount.add(deltas.size());
+        try {
+            transport.publish(deltas);
+        } catch (RuntimeException e) {
+            // The change is stored locally; anti-entropy carries it over later
+            logger.error("Could not publish {} whitelist changes", deltas.size(), e);
+        }
+    }
+
+    /**
+     * Brings an entry into the wanted state in the local store.
+     *
+     * @return true if the entry is now in that state, whether or not it had to change.
+     */
+    private boolean setPresent(String username, String value, boolean present) {
+        if (username.isEmpty()) {
+            boolean changed = present ? delegate.addGlobalRange(value) : delegate.removeGlobalRange(value);
+            return changed || delegate.getGlobalRanges().contains(value) == present;
+        }
+        boolean changed = present ? delegate.addIP(username, value) : delegate.removeIP(username, value);
+        return changed || delegate.getIpsForUsername(username).contains(value) == present;
+    }
+
+    private Set<String> localKeys() {
+        Set<String> keys = new HashSet<>();
+        delegate.forEachUser((username, ips) -> {
+            for (String ip : ips) {
+                keys.add(ReplicaState.key(username, ip));
+            }
+        });
+        for (String range : delegate.getGlobalRanges()) {
+            keys.add(ReplicaState.key("", range));
+        }
+        return keys;
+    }
+
+    /**
+     * The transport's view of this store.
+     */
+    private final class Inbound implements ReplicationTransport.Receiver {
+
+        @Override
+        public String nodeId() {
+            return nodeId;
+        }
+
+        @Override
+        public int onDeltas(List<WhitelistDelta> deltas) {
+            structureLock.readLock().lock();
+            try {
+                int firstGap = deltas.size();
+                Set<String> gapped = null;
+
+                for (int i = 0; i < deltas.size(); i++) {
+                    WhitelistDelta delta = deltas.get(i);
+                    String origin = delta.origin();
+                    if (origin.equals(nodeId) || (gapped != null && gapped.contains(origin))) {
+                        continue;
+                    }
+
+                    // Deltas of one origin may arrive over several connections at once
+                    synchronized (originLocks.computeIfAbsent(origin, name -> new Object())) {
+                        long last = applied.getOrDefault(origin, 0L);
+                        if (delta.sequence() <= last) {
+                            continue;
+                        }
+                        if (delta.sequence() != last + 1) {
+                            // Later changes of this origin wait until the missing ones are in
+                            if (gapped == null) {
+                                gapped = new HashSet<>();
+                                firstGap = i;
+                            }
+                            gapped.add(origin);
+                            continue;
+                        }
+
+                        userLocks.lock(delta.username());
+                        try {
+                            applyRemote(delta);
+                        } finally {
+                            userLocks.unlock(delta.username());
+                        }
+                        applied.put(origin, delta.sequence());
+                    }
+                }
+                return firstGap;
+            } finally {
+                structureLock.readLock().unlock();
+            }
+        }
+
+        private void applyRemote(WhitelistDelta delta) {
+            String key = delta.key();
+            ReplicaState.Change change = new ReplicaState.Change(delta.time(), delta.origin(), delta.op().adds());
+            if (!change.newerThan(changes.get(key))) {
+                // This entry was changed again after the delta was made
+                staleCount.increment();
+                return;
+            }
+
+            if (setPresent(delta.username(), delta.value(), change.present())) {
+                changes.put(key, change);
+                appliedCount.increment();
+            } else {
+                // Left without a stamp, so the next anti-entropy round tries again
+                logger.warn("Could not apply replicated whitelist change {} {} {}", delta.op(), delta.username(), delta.value());
+            }
+        }
+
+        @Override
+        public List<WhitelistDelta> deltasSince(long since) {
+            synchronized (sequenceLock) {
+                if (since >= sequence) {
+                    return List.of();
+                }
+                WhitelistDelta first = recent.peekFirst();
+                if (first == null || first.sequence() > since + 1) {
+                    return null;
+                }
+
+                List<WhitelistDelta> result = new ArrayList<>();
+                for (WhitelistDelta delta : recent) {
+                    if (delta.sequence() > since) {
+                        result.add(delta);
+                    }
+                }
+                return result;
+            }
+        }
+
+        @Override
+        public long appliedSequence(String origin) {
+            if (origin.equals(nodeId)) {
+                synchronized (sequenceLock) {
+                    return sequence;
+                }
+            }
+            return applied.getOrDefault(origin, 0L);
+        }
+
+        @Override
+        public long digest() {
+            long[] sum = new long[1];
+            delegate.forEachUser((username, ips) -> {
+                for (String ip : ips) {
+                    sum[0] += ReplicaState.hash(ReplicaState.key(username, ip));
+                }
+            });
+            for (String range : delegate.getGlobalRanges()) {
+                sum[0] += ReplicaState.hash(ReplicaState.key("", range));
+            }
+            return sum[0];
+        }
+
+        @Override
+        public ReplicaState snapshot() {
+            structureLock.writeLock().lock();
+            try {
+                Map<String, ReplicaState.Change> entries = new HashMap<>();
+                ReplicaState.Change unknown = new ReplicaState.Change(0, "", true);
+                for (String key : localKeys()) {
+                    ReplicaState.Change change = changes.get(key);
+                    entries.put(key, change != null && change.present() ? change : unknown);
+                }
+                for (Map.Entry<String, ReplicaState.Change> change : changes.entrySet()) {
+                    if (!change.getValue().present()) {
+                        entries.putIfAbsent(change.getKey(), change.getValue());
+                    }
+                }
+
+                Map<String, Long> sequences = new HashMap<>(applied);
+                synchronized (sequenceLock) {
+                    sequences.put(nodeId, sequence);
+                }
+                return new ReplicaState(entries, sequences);
+            } finally {
+                structureLock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public void onState(ReplicaState state) {
+            // Local edits the stamps do not know about yet win over the other proxy's view
+            reconcile();
+
+            structureLock.writeLock().lock();
+            try {
+                Set<String> local = localKeys();
+                Map<String, List<String>> additions = new HashMap<>();
+                Map<String, ReplicaState.Change> additionStamps = new HashMap<>();
+                int changed = 0;
+
+                for (Map.Entry<String, ReplicaState.Change> entry : state.entries().entrySet()) {
+                    String key = entry.getKey();
+                    ReplicaState.Change remote = entry.getValue();
+                    ReplicaState.Change mine = changes.get(key);
+
+                    // Without a stamp here the other proxy knows more about this entry
+                    if (mine != null && !remote.newerThan(mine)) {
+                        continue;
+                    }
+
+                    String username = ReplicaState.username(key);
+                    String value = ReplicaState.value(key);
+                    if (remote.present() != local.contains(key)) {
+                        if (remote.present() && !username.isEmpty()) {
+                            // Added in one batch below
+                            additions.computeIfAbsent(username, name -> new ArrayList<>()).add(value);
+                            if (remote.time() > 0) {
+                                additionStamps.put(key, remote);
+                            }
+                            changed++;
+                            continue;
+                        }
+                        if (!setPresent(username, value, remote.present())) {
+                            continue;
+                        }
+                        changed++;
+                    }
+                    if (remote.time() > 0) {
+                        changes.put(key, remote);
+                    }
+                }
+
+                if (!additions.isEmpty()) {
+                    try {
+                        delegate.addAll(additions);
+                        changes.putAll(additionStamps);
+                    } catch (IOException e) {
+                        logger.error("Could not store {} replicated whitelist users", additions.size(), e);
+                    }
+                }
+
+                // Everything the other proxy had applied is reflected here now
+                for (Map.Entry<String, Long> origin : state.sequences().entrySet()) {
+                    if (origin.getKey().equals(nodeId)) {
+                        synchronized (sequenceLock) {
+                            sequence = Math.max(sequence, origin.getValue());
+                        }
+                    } else {
+                        applied.merge(origin.getKey(), origin.getValue(), Math::max);
+                    }
+                }
+
+                mergeCount.increment();
+                if (changed > 0) {
+                    logger.info("Whitelist replication resync changed {} entries", changed);
+                }
+            } finally {
+                structureLock.writeLock().unlock();
+            }
+        }
+    }
+
+    // --- Persistence ---
+
+    private void loadState() {
+        if (!Files.exists(stateFile)) {
+            // Other proxies may remember numbers from an earlier life of this node id; starting
+            // from the clock keeps new numbers above those, and the jump makes peers resync
+            sequence = System.currentTimeMillis() * 1000;
+            return;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+            ReplicaState state = ReplicaState.read(reader::readLine);
+            changes.putAll(state.entries());
+            for (Map.Entry<String, Long> origin : state.sequences().entrySet()) {
+                if (origin.getKey().equals(nodeId)) {
+                    sequence = origin.getValue();
+                } else {
+                    applied.put(origin.getKey(), origin.getValue());
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            logger.error("Could not read {}, this proxy will resync with the others", stateFile, e);
+            changes.clear();
+            applied.clear();
+            sequence = System.currentTimeMillis() * 1000;
+        }
+    }
+
+    /**
+     * Writes the stamps and change numbers to replication_state.txt, replacing it atomically.
+     */
+    private void saveState() {
+        ReplicaState state;
+        structureLock.writeLock().lock();
+        try {
+            Map<String, Long> sequences = new HashMap<>(applied);
+            synchronized (sequenceLock) {
+                sequences.put(nodeId, sequence);
+            }
+            state = new ReplicaState(new HashMap<>(changes), sequences);
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+
+        Path temp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                state.write(writer);
+            }
+            Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Could not save {}", stateFile, e);
+        }
+    }
+
+    /**
+     * Forgets stamps older than replication.tombstoneDays. A proxy that was offline for
+     * longer than that may bring removed entries back.
+     */
+    private void pruneTombstones() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(Math.max(1, config.tombstoneDays));
+        changes.values().removeIf(change -> change.time() < cutoff);
+    }
+
+    // --- Stats ---
+
+    /**
+     * @return a one line summary for the stats command.
+     */
+    public String describe() {
+        long current;
+        synchronized (sequenceLock) {
+            current = sequence;
+        }
+        return "Replication: node " + nodeId + " seq " + current
+                + " | published " + publishedCount.sum()
+                + ", applied " + appliedCount.sum()
+                + ", outdated " + staleCount.sum()
+                + ", resyncs " + mergeCount.sum()
+                + " | " + transport.describePeers();
+    }
+
+    public long getPublishedCount() {
+        return publishedCount.sum();
+    }
+
+    public long getAppliedCount() {
+        return appliedCount.sum();
+    }
+
+    public long getStaleCount() {
+        return staleCount.sum();
+    }
+
+    public long getMergeCount() {
+        return mergeCount.sum();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        transport.close();
+        saveState();
+        delegate.close();
+    }
+}
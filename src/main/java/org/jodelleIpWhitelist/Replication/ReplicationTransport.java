@@ -0,0 +1,83 @@
+package org.jodelleIpWhitelist.Replication;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Carries whitelist changes between the proxies of a fleet.
+ *
+ * A transport only moves data; ordering, conflicts and applying changes are handled by
+ * {@link ReplicatedWhitelistStore} through the {@link Receiver}. Picked with
+ * replication.transport in config.json: {@link TcpReplicationTransport} talks to the other
+ * proxies directly, {@link SqliteReplicationTransport} goes through a database file that
+ * all proxies can open.
+ */
+public interface ReplicationTransport {
+
+    /**
+     * What a transport hands incoming data to. Implemented by the replicated store.
+     */
+    interface Receiver {
+
+        String nodeId();
+
+        /**
+         * Applies changes from other proxies. Changes of this proxy and changes that were
+         * already applied are skipped.
+         *
+         * @return how many of the changes were handled before the first gap, so all of them
+         * if there was none. After a gap, the rest of that origin's changes are skipped; the
+         * transport should then get the missing changes or a full state from the other proxies.
+         */
+        int onDeltas(List<WhitelistDelta> deltas);
+
+        /**
+         * @return this proxy's own changes after the given sequence number, or null if they
+         * are no longer all kept and the peer needs a full state instead.
+         */
+        List<WhitelistDelta> deltasSince(long sequence);
+
+        /**
+         * @return the last applied change number of the origin, or 0.
+         */
+        long appliedSequence(String origin);
+
+        /**
+         * @return a hash of the current whitelist; two proxies with the same entries have the same digest.
+         */
+        long digest();
+
+        /**
+         * @return the full state of this proxy.
+         */
+        ReplicaState snapshot();
+
+        /**
+         * Merges another proxy's full state into this one.
+         */
+        void onState(ReplicaState state);
+    }
+
+    /**
+     * Connects to the other proxies and starts delivering their changes to the receiver.
+     */
+    void start(Receiver receiver) throws IOException;
+
+    /**
+     * Sends this proxy's own changes to the others. Called in sequence order, and must not block for long.
+     */
+    void publish(List<WhitelistDelta> deltas);
+
+    /**
+     * Compares digests with the other proxies and exchanges full states with those that
+     * differ. Called periodically by the store.
+     */
+    void antiEntropy();
+
+    /**
+     * @return a short description of the connected peers, for the stats command.
+     */
+    String describePeers();
+
+    void close();
+}
@@ -0,0 +1,424 @@
+package org.jodelleIpWhitelist.Replication;
+
+import org.jodelleIpWhitelist.Config.PluginConfig;
+import org.slf4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Replicates through one SQLite file that every proxy opens (replication.sharedDatabase).
+ *
+ * Proxies append their changes to the deltas table and poll it for rows they have not seen;
+ * the row id gives one order for the whole fleet. Changes are only queued by {@link #publish},
+ * which runs while the store holds its locks; the poll thread writes them, so a command
+ * never waits for another proxy's lock on the file. The nodes table holds each proxy's digest
+ * for anti-entropy, and its full state (gzipped ReplicaState text) whenever a proxy's digest
+ * differs from the others or a proxy asked for states after finding a gap.
+ *
+ * Deltas older than replication.logRetentionHours are deleted; a proxy that was offline for
+ * longer finds a gap in the numbers and catches up from the states instead.
+ *
+ * The file is opened in rollback journal mode rather than WAL, because WAL needs shared
+ * memory and would break with proxies on different machines. The file system must
+ * support locking (a local disk, or a network file system with working locks).
+ */
+public final class SqliteReplicationTransport implements ReplicationTransport {
+
+    private static final int POLL_BATCH = 1000;
+
+    // Changes waiting for the poll thread; more than this and the rest reach the others through anti-entropy
+    private static final int OUTBOX_CAPACITY = 65536;
+
+    private final PluginConfig.Replication config;
+    private final Logger logger;
+    private final Path databaseFile;
+
+    // Used by the poll thread and the maintenance thread; guarded by this
+    private Connection connection;
+
+    private Receiver receiver;
+
+    // Only touched by the poll thread
+    private long lastId;
+
+    // When this proxy found a gap and asked the others for their states; 0 when it did not
+    private volatile long resyncRequestedAt;
+
+    // When this proxy last wrote its own state; only touched by the maintenance thread
+    private long stateWrittenAt;
+
+    private volatile int livePeers;
+
+    private final BlockingQueue<WhitelistDelta> outbox = new LinkedBlockingQueue<>(OUTBOX_CAPACITY);
+
+    // Taken from the outbox but not written yet, retried on the next round; only touched by the poll thread
+    private final List<WhitelistDelta> unsent = new ArrayList<>();
+
+    // Set while a write of the outbox is queued on the poll thread, so publishes in between share it
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "JodelleIpWhitelist-Replication-Poll");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SqliteReplicationTransport(PluginConfig.Replication config, Logger logger) {
+        this.config = config;
+        this.logger = logger;
+        this.databaseFile = config.sharedDatabase == null || config.sharedDatabase.isBlank()
+                ? null : Path.of(config.sharedDatabase);
+    }
+
+    @Override
+    public void start(Receiver receiver) throws IOException {
+        if (databaseFile == null) {
+            throw new IOException("replication.sharedDatabase must point to a file that every proxy can open");
+        }
+        this.receiver = receiver;
+
+        try {
+            Class.forName("org.sqlite.JDBC");
+            if (databaseFile.getParent() != null) {
+                Files.createDirectories(databaseFile.getParent());
+            }
+            open();
+        } catch (ClassNotFoundException | SQLException e) {
+            throw new IOException("Could not open " + databaseFile, e);
+        }
+
+        poller.scheduleWithFixedDelay(this::poll, 0, Math.max(50, config.pollIntervalMillis), TimeUnit.MILLISECONDS);
+        logger.info("Replication through {}", databaseFile);
+    }
+
+    private synchronized void open() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile);
+        try (Statement stmt = connection.createStatement()) {
+            // Other proxies hold the lock now and then; wait for them instead of failing
+            stmt.execute("PRAGMA busy_timeout=10000");
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS deltas (
+                    id INTEGER PRIMARY KEY AUTOINCREMENT,
+                    origin TEXT NOT NULL,
+                    sequence INTEGER NOT NULL,
+                    time INTEGER NOT NULL,
+                    op TEXT NOT NULL,
+                    username TEXT NOT NULL,
+                    value TEXT NOT NULL,
+                    UNIQUE (origin, sequence)
+                )
+                """);
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_deltas_time ON deltas(time)");
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS nodes (
+                    node TEXT PRIMARY KEY,
+                    digest INTEGER NOT NULL,
+                    updated INTEGER NOT NULL,
+                    state BLOB,
+                    state_time INTEGER NOT NULL DEFAULT 0,
+                    wants_state_since INTEGER NOT NULL DEFAULT 0
+                )
+                """);
+        }
+    }
+
+    /**
+     * Queues the changes for the poll thread and returns right away.
+     */
+    @Override
+    public void publish(List<WhitelistDelta> deltas) {
+        for (int i = 0; i < deltas.size(); i++) {
+            if (!outbox.offer(deltas.get(i))) {
+                // The changes are stored locally; the others find the gap and catch up from the states
+                logger.warn("Replication outbox for {} is full, dropping {} changes", databaseFile, deltas.size() - i);
+                break;
+            }
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            try {
+                poller.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                flushScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Writes the queued changes in one transaction. Runs on the poll thread, and once more on close.
+     */
+    private void flush() {
+        flushScheduled.set(false);
+        outbox.drainTo(unsent);
+        if (unsent.isEmpty()) {
+            return;
+        }
+
+        synchronized (this) {
+            if (connection == null) {
+                return;
+            }
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT OR IGNORE INTO deltas(origin, sequence, time, op, username, value) VALUES(?, ?, ?, ?, ?, ?)")) {
+                connection.setAutoCommit(false);
+                for (WhitelistDelta delta : unsent) {
+                    insert.setString(1, delta.origin());
+                    insert.setLong(2, delta.sequence());
+                    insert.setLong(3, delta.time());
+                    insert.setString(4, delta.op().name());
+                    insert.setString(5, delta.username());
+                    insert.setString(6, delta.value());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+                connection.commit();
+                unsent.clear();
+            } catch (SQLException e) {
+                rollback();
+                // Kept in unsent and retried on the next poll
+                logger.warn("Could not publish {} whitelist changes to {}: {}", unsent.size(), databaseFile, e.getMessage());
+            } finally {
+                restoreAutoCommit();
+            }
+        }
+    }
+
+    /**
+     * Writes the queued changes, then reads the deltas added since the last poll and hands
+     * them to the store.
+     */
+    private void poll() {
+        flush();
+
+        List<WhitelistDelta> deltas = new ArrayList<>();
+        long maxId = lastId;
+
+        synchronized (this) {
+            if (connection == null) {
+                return;
+            }
+            try (PreparedStatement select = connection.prepareStatement(
+                    "SELECT id, origin, sequence, time, op, username, value FROM deltas WHERE id > ? ORDER BY id LIMIT ?")) {
+                select.setLong(1, lastId);
+                select.setInt(2, POLL_BATCH);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        maxId = rs.getLong(1);
+                        String line = rs.getString(2) + '\t' + rs.getLong(3) + '\t' + rs.getLong(4) + '\t'
+                                + rs.getString(5) + '\t' + rs.getString(6) + '\t' + rs.getString(7);
+                        try {
+                            deltas.add(WhitelistDelta.decode(line));
+                        } catch (IllegalArgumentException e) {
+                            logger.warn("Skipping invalid replicated change #{} in {}", maxId, databaseFile);
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                logger.warn("Could not read replicated changes from {}: {}", databaseFile, e.getMessage());
+                return;
+            }
+        }
+
+        lastId = maxId;
+        if (!deltas.isEmpty() && receiver.onDeltas(deltas) < deltas.size() && resyncRequestedAt == 0) {
+            // The changes that would fill the gap were pruned; ask for full states instead
+            resyncRequestedAt = System.currentTimeMillis();
+            logger.info("Gap in replicated whitelist changes, requesting full states from the other proxies");
+        }
+    }
+
+    @Override
+    public void antiEntropy() {
+        long now = System.currentTimeMillis();
+        long interval = TimeUnit.SECONDS.toMillis(Math.max(5, config.antiEntropySeconds));
+        long freshSince = now - 3 * interval;
+        long digest = receiver.digest();
+        long resyncSince = resyncRequestedAt;
+
+        try {
+            List<long[]> others = new ArrayList<>();
+            List<String> otherIds = new ArrayList<>();
+            synchronized (this) {
+                if (connection == null) {
+                    return;
+                }
+                try (PreparedStatement upsert = connection.prepareStatement("""
+                        INSERT INTO nodes(node, digest, updated, wants_state_since) VALUES(?, ?, ?, ?)
+                        ON CONFLICT(node) DO UPDATE SET digest = excluded.digest, updated = excluded.updated,
+                            wants_state_since = excluded.wants_state_since
+                        """)) {
+                    upsert.setString(1, receiver.nodeId());
+                    upsert.setLong(2, digest);
+                    upsert.setLong(3, now);
+                    upsert.setLong(4, resyncSince);
+                    upsert.executeUpdate();
+                }
+                try (PreparedStatement select = connection.prepareStatement(
+                        "SELECT node, digest, state_time, wants_state_since FROM nodes WHERE node <> ? AND updated >= ?")) {
+                    select.setString(1, receiver.nodeId());
+                    select.setLong(2, freshSince);
+                    try (ResultSet rs = select.executeQuery()) {
+                        while (rs.next()) {
+                            otherIds.add(rs.getString(1));
+                            others.add(new long[]{rs.getLong(2), rs.getLong(3), rs.getLong(4)});
+                        }
+                    }
+                }
+            }
+            livePeers = others.size();
+
+            boolean differs = false;
+            boolean wanted = false;
+            for (long[] other : others) {
+                differs |= other[0] != digest;
+                wanted |= other[2] > stateWrittenAt;
+            }
+
+            if (differs || wanted) {
+                writeState(now);
+            }
+            if (differs || resyncSince > 0) {
+                int merged = 0;
+                for (int i = 0; i < others.size(); i++) {
+                    long[] other = others.get(i);
+                    boolean candidate = resyncSince > 0 ? other[1] >= resyncSince : other[0] != digest && other[1] >= freshSince;
+                    if (candidate && mergeState(otherIds.get(i))) {
+                        merged++;
+                    }
+                }
+                if (resyncSince > 0 && merged > 0) {
+                    resyncRequestedAt = 0;
+                }
+            }
+
+            prune(now);
+        } catch (SQLException | IOException e) {
+            logger.warn("Replication anti-entropy through {} failed: {}", databaseFile, e.getMessage());
+        }
+    }
+
+    private void writeState(long now) throws IOException, SQLException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(bytes), StandardCharsets.UTF_8)) {
+            receiver.snapshot().write(writer);
+        }
+
+        synchronized (this) {
+            try (PreparedStatement update = connection.prepareStatement(
+                    "UPDATE nodes SET state = ?, state_time = ? WHERE node = ?")) {
+                update.setBytes(1, bytes.toByteArray());
+                update.setLong(2, now);
+                update.setString(3, receiver.nodeId());
+                update.executeUpdate();
+            }
+        }
+        stateWrittenAt = now;
+    }
+
+    private boolean mergeState(String node) throws IOException, SQLException {
+        byte[] state;
+        synchronized (this) {
+            try (PreparedStatement select = connection.prepareStatement("SELECT state FROM nodes WHERE node = ?")) {
+                select.setString(1, node);
+                try (ResultSet rs = select.executeQuery()) {
+                    state = rs.next() ? rs.getBytes(1) : null;
+                }
+            }
+        }
+        if (state == null) {
+            return false;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(state)), StandardCharsets.UTF_8))) {
+            receiver.onState(ReplicaState.read(reader::readLine));
+            return true;
+        } catch (IllegalArgumentException e) {
+            logger.warn("Ignoring the invalid replication state of node {}: {}", node, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Deletes deltas past their retention, and the rows of proxies that have been gone as long.
+     */
+    private synchronized void prune(long now) throws SQLException {
+        long cutoff = now - TimeUnit.HOURS.toMillis(Math.max(1, config.logRetentionHours));
+        try (PreparedStatement deleteDeltas = connection.prepareStatement("DELETE FROM deltas WHERE time < ?");
+             PreparedStatement deleteNodes = connection.prepareStatement("DELETE FROM nodes WHERE updated < ?")) {
+            deleteDeltas.setLong(1, cutoff);
+            deleteDeltas.executeUpdate();
+            deleteNodes.setLong(1, cutoff);
+            deleteNodes.executeUpdate();
+        }
+    }
+
+    private void rollback() {
+        try {
+            connection.rollback();
+        } catch (SQLException ignored) {
+            // The connection is unusable anyway
+        }
+    }
+
+    private void restoreAutoCommit() {
+        try {
+            connection.setAutoCommit(true);
+        } catch (SQLException ignored) {
+            // The next statement reports the problem
+        }
+    }
+
+    @Override
+    public String describePeers() {
+        return "shared database, " + livePeers + " other proxies active";
+    }
+
+    @Override
+    public void close() {
+        poller.shutdownNow();
+        try {
+            poller.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // The poll thread is gone, so the last changes are written from here
+        flush();
+
+        synchronized (this) {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException ignored) {
+                    // Closing anyway
+                }
+                connection = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,599 @@
+package org.jodelleIpWhitelist.Replication;
+
+import org.jodelleIpWhitelist.Config.PluginConfig;
+import org.slf4j.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replicates over plain TCP connections between the proxies.
+ *
+ * Every proxy listens on replication.port and keeps a connection open to each address in
+ * replication.peers, reconnecting with a growing delay when one drops. The protocol is one
+ * UTF-8 line per message with tab separated fields, so it can be watched with netcat:
+ *
+ * <pre>
+ * HELLO   nodeId  nonce        sent first by both sides
+ * AUTH    hmac                 HMAC-SHA256(secret, "AUTH\tmyNonce\ttheirNonce\tmyId\ttheirId")
+ * SINCE   sequence             "send me your changes after this number"
+ * DELTA   origin ...           one change, see WhitelistDelta#encode
+ * DIGEST  digest               periodic; a different digest is answered with STATE
+ * STATE                        followed by a full ReplicaState
+ * </pre>
+ *
+ * Nothing but HELLO and AUTH is accepted before the other side has proven that it knows
+ * replication.secret. The AUTH proof covers both nonces and both node ids in the sender's
+ * order, so a proof made on one connection is worthless on any other, and a proxy cannot
+ * be used to sign a challenge for somebody else. After the handshake every line (including
+ * the lines of a STATE) ends with a tab and a tag: a truncated HMAC under a key derived the
+ * same way for that direction, over a running line number and the line. A man in the middle
+ * can therefore only pass lines on unchanged, never add, alter, drop or replay one.
+ *
+ * The connection itself is not encrypted, so it belongs on a private
+ * network. A proxy only sends its own changes, so every proxy has to be connected to every
+ * other one (it is enough that one of each pair lists the other); anti-entropy still
+ * repairs a fleet that is not fully meshed, only more slowly.
+ */
+public final class TcpReplicationTransport implements ReplicationTransport {
+
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int MAX_CONNECTIONS = 64;
+    private static final int QUEUE_CAPACITY = 65536;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 10_000;
+    private static final long MIN_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final int MIN_SECRET_LENGTH = 16;
+    private static final int NONCE_LENGTH = 32;
+
+    // Hex characters of the tag after each authenticated line (128 bits)
+    private static final int TAG_LENGTH = 32;
+
+    // Tells a connection's sending thread to write a full state; compared by identity
+    private static final String SEND_STATE = new String("STATE");
+
+    private final PluginConfig.Replication config;
+    private final Logger logger;
+    private final SecureRandom random = new SecureRandom();
+
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger openSockets = new AtomicInteger();
+    private final List<Thread> threads = new ArrayList<>();
+
+    private volatile boolean closed;
+    private ServerSocket serverSocket;
+    private Receiver receiver;
+
+    // The local digest is a full scan, so answering several peers reuses it for a moment
+    private long cachedDigest;
+    private long cachedDigestAt = Long.MIN_VALUE;
+
+    public TcpReplicationTransport(PluginConfig.Replication config, Logger logger) {
+        this.config = config;
+        this.logger = logger;
+    }
+
+    @Override
+    public void start(Receiver receiver) throws IOException {
+        if (config.secret == null || config.secret.length() < MIN_SECRET_LENGTH) {
+            throw new IOException("replication.secret must be at least " + MIN_SECRET_LENGTH
+                    + " characters long and the same on every proxy");
+        }
+        this.receiver = receiver;
+
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(config.bindAddress, config.port));
+        startThread("JodelleIpWhitelist-Replication-Accept", this::acceptLoop);
+
+        for (String peer : config.peers) {
+            int colon = peer.lastIndexOf(':');
+            int port;
+            try {
+                port = colon < 0 ? -1 : Integer.parseInt(peer.substring(colon + 1));
+            } catch (NumberFormatException e) {
+                port = -1;
+            }
+            if (port < 1 || port > 65535) {
+                logger.error("Ignoring replication peer '{}', expected host:port", peer);
+                continue;
+            }
+
+            // [::1]:8766 for IPv6 literals
+            String host = peer.substring(0, colon);
+            if (host.startsWith("[") && host.endsWith("]")) {
+                host = host.substring(1, host.length() - 1);
+            }
+            String peerHost = host;
+            int peerPort = port;
+            startThread("JodelleIpWhitelist-Replication-Peer-" + peer, () -> connectLoop(peerHost, peerPort));
+        }
+        logger.info("Replication listening on {}", serverSocket.getLocalSocketAddress());
+    }
+
+    private void startThread(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    logger.error("Replication listener failed", e);
+                }
+                return;
+            }
+
+            if (openSockets.incrementAndGet() > MAX_CONNECTIONS) {
+                openSockets.decrementAndGet();
+                closeQuietly(socket);
+                continue;
+            }
+            Thread thread = new Thread(() -> {
+                try {
+                    new Connection(socket, socket.getRemoteSocketAddress().toString()).run();
+                } finally {
+                    openSockets.decrementAndGet();
+                }
+            }, "JodelleIpWhitelist-Replication-In");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Keeps one outgoing connection alive until the transport is closed.
+     */
+    private void connectLoop(String host, int port) {
+        long backoff = MIN_BACKOFF_MILLIS;
+        boolean failureLogged = false;
+
+        while (!closed) {
+            Connection connection = null;
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                connection = new Connection(socket, host + ":" + port);
+                connection.run();
+            } catch (IOException e) {
+                if (!failureLogged && !closed) {
+                    logger.warn("Cannot reach replication peer {}:{} ({}), retrying in the background", host, port, e.getMessage());
+                    failureLogged = true;
+                }
+            }
+
+            if (connection != null && connection.self) {
+                return;
+            }
+            if (connection != null && connection.authenticated) {
+                backoff = MIN_BACKOFF_MILLIS;
+                failureLogged = false;
+            }
+
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    @Override
+    public void publish(List<WhitelistDelta> deltas) {
+        for (Connection connection : connections) {
+            for (WhitelistDelta delta : deltas) {
+                if (!connection.send("DELTA\t" + delta.encode())) {
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void antiEntropy() {
+        String message = "DIGEST\t" + localDigest();
+        for (Connection connection : connections) {
+            connection.send(message);
+        }
+    }
+
+    private synchronized long localDigest() {
+        long now = System.nanoTime();
+        if (now - cachedDigestAt > 1_000_000_000L) {
+            cachedDigest = receiver.digest();
+            cachedDigestAt = now;
+        }
+        return cachedDigest;
+    }
+
+    @Override
+    public String describePeers() {
+        List<String> names = new ArrayList<>();
+        for (Connection connection : connections) {
+            names.add(connection.peerId);
+        }
+        return "TCP peers connected: " + (names.isEmpty() ? "none" : String.join(", ", names));
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException ignored) {
+                // Closing anyway
+            }
+        }
+        for (Connection connection : connections) {
+            connection.shutdown();
+        }
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * HMAC-SHA256 under replication.secret over the tab separated parts.
+     */
+    private byte[] sign(String... parts) {
+        return newMac(config.secret.getBytes(StandardCharsets.UTF_8)).doFinal(String.join("\t", parts).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Mac newMac(byte[] key) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            // HmacSHA256 is required on every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The tag of one line: the line number keeps lines from being dropped, reordered or replayed.
+     */
+    private static String tag(Mac mac, long lineNumber, String line) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            mac.update((byte) (lineNumber >>> shift));
+        }
+        byte[] full = mac.doFinal(line.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(full, 0, TAG_LENGTH / 2);
+    }
+
+    private static boolean isNonce(String text) {
+        if (text.length() != NONCE_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.digit(text.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Nothing left to do with a socket that fails to close
+        }
+    }
+
+    /**
+     * One connection to a peer, incoming or outgoing; both sides behave the same once connected.
+     * The reading side runs on the caller's thread, writing has a thread of its own so a slow
+     * peer never holds up a command.
+     */
+    private final class Connection {
+        private final Socket socket;
+        private final String label;
+        private final BlockingQueue<String> outbox = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final String nonce;
+
+        private volatile String peerId;
+        private volatile boolean authenticated;
+        private boolean self;
+
+        // Set once the HELLO is in; sendMac is only used by the sending thread, receiveMac by the reader
+        private String peerNonce;
+        private Mac sendMac;
+        private Mac receiveMac;
+        private long linesSent;
+        private long linesReceived;
+
+        // Set while a SINCE after a gap is unanswered, so every following change does not ask again
+        private boolean awaitingResend;
+
+        private BufferedReader in;
+        private Writer out;
+        private Thread sender;
+
+        Connection(Socket socket, String label) {
+            this.socket = socket;
+            this.label = label;
+            byte[] bytes = new byte[16];
+            random.nextBytes(bytes);
+            this.nonce = HexFormat.of().formatHex(bytes);
+        }
+
+        void run() {
+            try {
+                socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+
+                sender = new Thread(this::sendLoop, "JodelleIpWhitelist-Replication-Send");
+                sender.setDaemon(true);
+                sender.start();
+
+                send("HELLO\t" + receiver.nodeId() + '\t' + nonce);
+                String line;
+                while (!closed && (line = readMessage()) != null) {
+                    handle(line);
+                }
+            } catch (SocketException e) {
+                // Closed by us or by the peer
+            } catch (IOException | RuntimeException e) {
+                if (!closed) {
+                    logger.warn("Replication connection {} failed: {}", label, e.toString());
+                }
+            } finally {
+                if (authenticated && !closed) {
+                    logger.warn("Replication peer {} ({}) disconnected", peerId, label);
+                }
+                shutdown();
+            }
+        }
+
+        private void handle(String line) throws IOException {
+            int tab = line.indexOf('\t');
+            String type = tab < 0 ? line : line.substring(0, tab);
+            String rest = tab < 0 ? "" : line.substring(tab + 1);
+
+            if (!authenticated) {
+                handshake(type, rest);
+                return;
+            }
+
+            switch (type) {
+                case "SINCE" -> {
+                    List<WhitelistDelta> deltas = receiver.deltasSince(Long.parseLong(rest));
+                    if (deltas == null) {
+                        send(SEND_STATE);
+                    } else {
+                        for (WhitelistDelta delta : deltas) {
+                            send("DELTA\t" + delta.encode());
+                        }
+                    }
+                }
+                case "DELTA" -> {
+                    WhitelistDelta delta = WhitelistDelta.decode(rest);
+                    if (!delta.origin().equals(peerId)) {
+                        // Peers only send their own changes
+                        return;
+                    }
+                    if (receiver.onDeltas(List.of(delta)) == 0) {
+                        if (!awaitingResend) {
+                            awaitingResend = true;
+                            send("SINCE\t" + receiver.appliedSequence(peerId));
+                        }
+                    } else {
+                        awaitingResend = false;
+                    }
+                }
+                case "DIGEST" -> {
+                    if (Long.parseLong(rest) != localDigest()) {
+                        send(SEND_STATE);
+                    }
+                }
+                case "STATE" -> {
+                    receiver.onState(ReplicaState.read(this::readMessage));
+                    awaitingResend = false;
+                }
+                default -> throw new IOException("Unexpected message " + type);
+            }
+        }
+
+        private void handshake(String type, String rest) throws IOException {
+            if (type.equals("HELLO") && peerId == null) {
+                String[] fields = rest.split("\t", -1);
+                if (fields.length != 2 || !WhitelistDelta.isValidNodeId(fields[0]) || !isNonce(fields[1])) {
+                    throw new IOException("Malformed HELLO");
+                }
+                if (fields[1].equalsIgnoreCase(nonce)) {
+                    // Our own challenge sent back to us
+                    throw new IOException("Reflected HELLO");
+                }
+                if (fields[0].equals(receiver.nodeId())) {
+                    self = true;
+                    logger.warn("Replication peer {} has this proxy's own node id {}; not connecting to it", label, fields[0]);
+                    throw new SocketException("Connected to self");
+                }
+                peerId = fields[0];
+                peerNonce = fields[1];
+                String nodeId = receiver.nodeId();
+                sendMac = newMac(sign("SESSION", nonce, peerNonce, nodeId, peerId));
+                receiveMac = newMac(sign("SESSION", peerNonce, nonce, peerId, nodeId));
+                send("AUTH\t" + HexFormat.of().formatHex(sign("AUTH", nonce, peerNonce, nodeId, peerId)));
+            } else if (type.equals("AUTH") && peerId != null) {
+                byte[] expected = HexFormat.of().formatHex(sign("AUTH", peerNonce, nonce, peerId, receiver.nodeId()))
+                        .getBytes(StandardCharsets.US_ASCII);
+                if (!MessageDigest.isEqual(expected, rest.getBytes(StandardCharsets.US_ASCII))) {
+                    logger.warn("Replication peer {} ({}) failed authentication; check replication.secret", peerId, label);
+                    throw new SocketException("Authentication failed");
+                }
+                authenticated = true;
+
+                // Peers send a digest every round, so a longer silence means the peer is gone
+                socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, Math.max(60_000L, config.antiEntropySeconds * 3000L)));
+                connections.add(this);
+                logger.info("Replication peer {} connected ({})", peerId, label);
+                send("SINCE\t" + receiver.appliedSequence(peerId));
+            } else {
+                throw new IOException("Unexpected message " + type + " before authentication");
+            }
+        }
+
+        /**
+         * Reads one message. After the handshake its tag is checked and removed.
+         *
+         * @return the line, or null at the end of the stream.
+         * @throws IOException if the tag is missing or wrong; the connection is then dropped.
+         */
+        private String readMessage() throws IOException {
+            String line = readLine();
+            if (line == null || !authenticated) {
+                return line;
+            }
+            int tab = line.lastIndexOf('\t');
+            if (tab < 0) {
+                throw new IOException("Message without a tag");
+            }
+            String message = line.substring(0, tab);
+            byte[] expected = tag(receiveMac, linesReceived++, message).getBytes(StandardCharsets.US_ASCII);
+            if (!MessageDigest.isEqual(expected, line.substring(tab + 1).getBytes(StandardCharsets.US_ASCII))) {
+                logger.warn("Replication peer {} ({}) sent a message with a wrong tag", peerId, label);
+                throw new SocketException("Message failed authentication");
+            }
+            return message;
+        }
+
+        /**
+         * Reads one line, refusing lines longer than any valid message.
+         *
+         * @return the line, or null at the end of the stream.
+         */
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder(64);
+            int c;
+            while ((c = in.read()) != -1) {
+                if (c == '\n') {
+                    return line.toString();
+                }
+                if (line.length() >= MAX_LINE_LENGTH + 1 + TAG_LENGTH) {
+                    throw new IOException("Line too long");
+                }
+                line.append((char) c);
+            }
+            return null;
+        }
+
+        /**
+         * Queues a line for the peer. A peer that cannot keep up is disconnected; it catches
+         * up through SINCE or a full state when it reconnects.
+         *
+         * @return false if the connection was dropped.
+         */
+        boolean send(String line) {
+            if (outbox.offer(line)) {
+                return true;
+            }
+            logger.warn("Replication peer {} is not keeping up, reconnecting", peerId);
+            shutdown();
+            return false;
+        }
+
+        private void sendLoop() {
+            Writer tagged = new TaggingWriter();
+            try {
+                while (!closed && !socket.isClosed()) {
+                    String line = outbox.take();
+                    if (line == SEND_STATE) {
+                        tagged.write("STATE\n");
+                        receiver.snapshot().write(tagged);
+                    } else if (line.startsWith("HELLO\t") || line.startsWith("AUTH\t")) {
+                        // Queued before the handshake finished, so nothing to tag them with yet
+                        out.write(line);
+                        out.write('\n');
+                    } else {
+                        tagged.write(line);
+                        tagged.write('\n');
+                    }
+                    if (outbox.isEmpty()) {
+                        out.flush();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Shutting down
+            } catch (IOException e) {
+                shutdown();
+            }
+        }
+
+        /**
+         * Collects whole lines and writes each one to the socket with its tag. Only the
+         * sending thread uses it.
+         */
+        private final class TaggingWriter extends Writer {
+            private final StringBuilder line = new StringBuilder(128);
+
+            @Override
+            public void write(char[] chars, int offset, int length) throws IOException {
+                for (int i = offset; i < offset + length; i++) {
+                    char c = chars[i];
+                    if (c != '\n') {
+                        line.append(c);
+                        continue;
+                    }
+                    String message = line.toString();
+                    line.setLength(0);
+                    out.write(message);
+                    out.write('\t');
+                    out.write(tag(sendMac, linesSent++, message));
+                    out.write('\n');
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+
+            @Override
+            public void close() {
+                // The socket is closed by shutdown()
+            }
+        }
+
+        void shutdown() {
+            connections.remove(this);
+            closeQuietly(socket);
+            if (sender != null) {
+                sender.interrupt();
+            }
+        }
+    }
+}
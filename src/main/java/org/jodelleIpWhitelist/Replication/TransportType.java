@@ -0,0 +1,16 @@
+package org.jodelleIpWhitelist.Replication;
+
+/**
+ * How replicated whitelist changes travel between proxies, see replication.transport in config.json.
+ */
+public enum TransportType {
+    /**
+     * Proxies connect to each other directly (replication.peers).
+     */
+    TCP,
+
+    /**
+     * Proxies share one SQLite file (replication.sharedDatabase).
+     */
+    SQLITE
+}
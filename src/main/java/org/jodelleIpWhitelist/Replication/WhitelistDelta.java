@@ -0,0 +1,109 @@
+package org.jodelleIpWhitelist.Replication;
+
+import org.jodelleIpWhitelist.Util.AddressCodec;
+import org.jodelleIpWhitelist.Util.Cidr;
+import org.jodelleIpWhitelist.Util.Usernames;
+
+/**
+ * One change to the whitelist as it travels between proxies.
+ *
+ * Every proxy numbers its own changes 1, 2, 3, ... in the order it applied them. A peer
+ * applies each origin's changes in exactly that order, skips numbers it has already seen and
+ * notices a gap when a number is missing, which then triggers a full resync.
+ *
+ * The time is the origin's clock when the change was made. Together with the origin it
+ * decides conflicts between proxies: of two changes to the same entry, the later one wins.
+ *
+ * @param origin   node id of the proxy that made the change.
+ * @param sequence the origin's change number.
+ * @param time     when the change was made, in milliseconds since the epoch.
+ * @param op       what was changed.
+ * @param username the user; empty for global ranges.
+ * @param value    the IP entry or the global range.
+ */
+public record WhitelistDelta(String origin, long sequence, long time, Op op, String username, String value) {
+
+    public enum Op {
+        ADD_IP, REMOVE_IP, ADD_RANGE, REMOVE_RANGE;
+
+        boolean adds() {
+            return this == ADD_IP || this == ADD_RANGE;
+        }
+
+        boolean range() {
+            return this == ADD_RANGE || this == REMOVE_RANGE;
+        }
+    }
+
+    private static final int MAX_NODE_ID_LENGTH = 64;
+
+    /**
+     * @return the key of the entry this change is about, as used by {@link ReplicaState}.
+     */
+    String key() {
+        return ReplicaState.key(username, value);
+    }
+
+    /**
+     * @return the change as one tab separated line (without the line break).
+     */
+    String encode() {
+        return origin + '\t' + sequence + '\t' + time + '\t' + op + '\t' + username + '\t' + value;
+    }
+
+    /**
+     * Parses a line written by {@link #encode()}. Everything is validated, since the line
+     * comes from another machine.
+     *
+     * @throws IllegalArgumentException if the line is malformed.
+     */
+    static WhitelistDelta decode(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 6) {
+            throw new IllegalArgumentException("Expected 6 fields, got " + fields.length);
+        }
+
+        Op op = Op.valueOf(fields[3]);
+        WhitelistDelta delta = new WhitelistDelta(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                op, fields[4], fields[5]);
+        if (!isValidNodeId(delta.origin) || delta.sequence <= 0 || delta.time < 0
+                || !isValidEntry(op.range(), delta.username, delta.value)) {
+            throw new IllegalArgumentException("Invalid change: " + line);
+        }
+        return delta;
+    }
+
+    /**
+     * Node ids are 1 to 64 characters of letters, digits, '_', '-' and '.'.
+     */
+    public static boolean isValidNodeId(String nodeId) {
+        if (nodeId == null || nodeId.isEmpty() || nodeId.length() > MAX_NODE_ID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < nodeId.length(); i++) {
+            char c = nodeId.charAt(i);
+            if (!(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z') && !(c >= '0' && c <= '9')
+                    && c != '_' && c != '-' && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks a replicated entry: a user with an IP or CIDR entry, or a global range
+     * (with an empty username).
+     */
+    static boolean isValidEntry(boolean range, String username, String value) {
+        if (range) {
+            return username.isEmpty() && Cidr.parse(value) != null;
+        }
+        if (!Usernames.isValid(username)) {
+            return false;
+        }
+        if (Cidr.isCidr(value)) {
+            return Cidr.parse(value) != null;
+        }
+        return AddressCodec.isValidAddress(value);
+    }
+}
@@ -0,0 +1,241 @@
+package org.jodelleIpWhitelist.Util;
+
+import java.net.Inet4Address;
+
+/**
+ * Converts IP addresses between their text form and the primitive form used by the lookup index.
+ *
+ * IPv4 addresses become a single int. IPv6 addresses become two longs (high and low 64 bits).
+ *
+ * All parsing is hand written: no regular expressions, no substrings and no InetAddress
+ * objects, so validating a bulk import or a command costs a single pass over the characters.
+ * IPv4-mapped IPv6 addresses (::ffff:1.2.3.4) can be folded back into plain IPv4 with
+ * {@link #isIPv4Mapped}, because Java hands such connections to us as Inet4Address.
+ */
+public final class AddressCodec {
+
+    // Longest valid literal: ffff:ffff:ffff:ffff:ffff:ffff:255.255.255.255
+    private static final int MAX_IPV6_LENGTH = 45;
+
+    private AddressCodec() {
+    }
+
+    /**
+     * Parses a dotted IPv4 address such as 192.168.1.23.
+     *
+     * @param text the address text.
+     * @return the address as an unsigned 32 bit value, or -1 if the text is not a valid IPv4 address.
+     */
+    public static long parseIPv4(CharSequence text) {
+        return text == null ? -1 : parseIPv4(text, 0, text.length());
+    }
+
+    /**
+     * Parses the IPv4 address in text[from, to).
+     */
+    private static long parseIPv4(CharSequence text, int from, int to) {
+        long result = 0;
+        int octets = 0;
+        int i = from;
+
+        if (from >= to) {
+            return -1;
+        }
+
+        while (i < to) {
+            int value = 0;
+            int digits = 0;
+            while (i < to && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+                value = value * 10 + (text.charAt(i) - '0');
+                digits++;
+                i++;
+                if (digits > 3) {
+                    return -1;
+                }
+            }
+            if (digits == 0 || value > 255) {
+                return -1;
+            }
+            result = (result << 8) | value;
+            octets++;
+
+            if (i < to) {
+                if (text.charAt(i) != '.' || octets == 4 || i == to - 1) {
+                    return -1;
+                }
+                i++;
+            }
+        }
+
+        return octets == 4 ? result : -1;
+    }
+
+    /**
+     * Parses an IPv6 literal such as 2001:db8::1, including the :: shorthand and a
+     * dotted IPv4 tail (::ffff:192.168.1.23). Zone ids (fe80::1%eth0) are rejected.
+     *
+     * @param text the address text.
+     * @param out  receives the high and low 64 bits in out[0] and out[1]; may be null
+     *             when only validating.
+     * @return true if the text is a valid IPv6 literal.
+     */
+    public static boolean parseIPv6(CharSequence text, long[] out) {
+        if (text == null) {
+            return false;
+        }
+        int length = text.length();
+        if (length < 2 || length > MAX_IPV6_LENGTH) {
+            return false;
+        }
+
+        // Groups before a "::" and after it, each accumulated as a 128 bit value
+        long headHigh = 0;
+        long headLow = 0;
+        long tailHigh = 0;
+        long tailLow = 0;
+        int headGroups = 0;
+        int tailGroups = 0;
+        boolean compressed = false;
+
+        int i = 0;
+        if (text.charAt(0) == ':') {
+            if (text.charAt(1) != ':') {
+                return false;
+            }
+            compressed = true;
+            i = 2;
+        }
+
+        while (i < length) {
+            int start = i;
+            int value = 0;
+            int digits = 0;
+            int hex;
+            while (i < length && (hex = hexValue(text.charAt(i))) >= 0) {
+                if (++digits > 4) {
+                    return false;
+                }
+                value = (value << 4) | hex;
+                i++;
+            }
+
+            if (i < length && text.charAt(i) == '.') {
+                // A dotted IPv4 tail fills the last two groups and must end the literal
+                long v4 = parseIPv4(text, start, length);
+                if (v4 < 0) {
+                    return false;
+                }
+                if (compressed) {
+                    tailHigh = (tailHigh << 32) | (tailLow >>> 32);
+                    tailLow = (tailLow << 32) | v4;
+                    tailGroups += 2;
+                } else {
+                    headHigh = (headHigh << 32) | (headLow >>> 32);
+                    headLow = (headLow << 32) | v4;
+                    headGroups += 2;
+                }
+                break;
+            }
+            if (digits == 0) {
+                return false;
+            }
+
+            if (compressed) {
+                tailHigh = (tailHigh << 16) | (tailLow >>> 48);
+                tailLow = (tailLow << 16) | value;
+                tailGroups++;
+            } else {
+                headHigh = (headHigh << 16) | (headLow >>> 48);
+                headLow = (headLow << 16) | value;
+                headGroups++;
+            }
+            if (headGroups + tailGroups > 8) {
+                return false;
+            }
+
+            if (i == length) {
+                break;
+            }
+            if (text.charAt(i) != ':' || ++i == length) {
+                return false;
+            }
+            if (text.charAt(i) == ':') {
+                if (compressed) {
+                    return false;
+                }
+                compressed = true;
+                i++;
+            }
+        }
+
+        int groups = headGroups + tailGroups;
+        if (compressed ? groups > 7 : groups != 8) {
+            return false;
+        }
+
+        if (out != null) {
+            // Move the head groups to the top; the "::" fills the gap with zeros
+            for (int shift = 8 - headGroups; shift > 0; shift--) {
+                headHigh = (headHigh << 16) | (headLow >>> 48);
+                headLow <<= 16;
+            }
+            out[0] = headHigh | tailHigh;
+            out[1] = headLow | tailLow;
+        }
+        return true;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the address is an IPv4-mapped IPv6 address (::ffff:a.b.c.d);
+     * its IPv4 address is then the low 32 bits.
+     */
+    public static boolean isIPv4Mapped(long high, long low) {
+        return high == 0 && (low >>> 32) == 0xFFFFL;
+    }
+
+    /**
+     * @return true if the text is a valid IPv4 or IPv6 address.
+     */
+    public static boolean isValidAddress(CharSequence text) {
+        return parseIPv4(text) >= 0 || parseIPv6(text, null);
+    }
+
+    /**
+     * Formats an IPv4 address held in an int as dotted decimal, the inverse of {@link #parseIPv4}.
+     */
+    public static String formatIPv4(int address) {
+        return ((address >>> 24) & 0xFF) + "." + ((address >>> 16) & 0xFF) + "." + ((address >>> 8) & 0xFF) + "." + (address & 0xFF);
+    }
+
+    /**
+     * Reads the IPv4 address of a connection as an int.
+     */
+    public static int toInt(Inet4Address address) {
+        byte[] bytes = address.getAddress();
+        return ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+    }
+
+    /**
+     * Reads 8 bytes starting at offset as a big endian long.
+     */
+    public static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFFL);
+        }
+        return value;
+    }
+}
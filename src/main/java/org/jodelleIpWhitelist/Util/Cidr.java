@@ -0,0 +1,80 @@
+package org.jodelleIpWhitelist.Util;
+
+/**
+ * A parsed CIDR range such as 10.0.0.0/8 or 2001:db8::/32.
+ *
+ * The address is kept in the same primitive form as the lookup index: IPv4 in the top
+ * 32 bits of {@code high}, IPv6 across {@code high} and {@code low}.
+ *
+ * @param high         the first 64 address bits.
+ * @param low          the last 64 address bits (0 for IPv4).
+ * @param prefixLength the number of significant bits.
+ * @param ipv6         whether this is an IPv6 range.
+ */
+public record Cidr(long high, long low, int prefixLength, boolean ipv6) {
+
+    /**
+     * Parses "address/length". Host bits after the prefix are allowed and ignored.
+     *
+     * @param text the range text.
+     * @return the parsed range, or null if the text is not valid CIDR notation.
+     */
+    public static Cidr parse(String text) {
+        if (text == null) {
+            return null;
+        }
+        int slash = text.indexOf('/');
+        if (slash <= 0 || slash == text.length() - 1 || text.length() - slash > 4) {
+            return null;
+        }
+
+        int prefixLength = 0;
+        for (int i = slash + 1; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+            prefixLength = prefixLength * 10 + (c - '0');
+        }
+
+        String address = text.substring(0, slash);
+        long v4 = AddressCodec.parseIPv4(address);
+        if (v4 >= 0) {
+            return prefixLength <= 32 ? new Cidr(v4 << 32, 0, prefixLength, false) : null;
+        }
+        long[] v6 = new long[2];
+        if (!AddressCodec.parseIPv6(address, v6) || prefixLength > 128) {
+            return null;
+        }
+        // ::ffff:10.0.0.0/104 is really 10.0.0.0/8, and IPv4 clients are matched as IPv4
+        if (prefixLength >= 96 && AddressCodec.isIPv4Mapped(v6[0], v6[1])) {
+            return new Cidr((v6[1] & 0xFFFFFFFFL) << 32, 0, prefixLength - 96, false);
+        }
+        return new Cidr(v6[0], v6[1], prefixLength, true);
+    }
+
+    /**
+     * Checks an address in the same primitive form (IPv4 in the top 32 bits of high).
+     * This compares bit by bit; the lookup index uses the prefix tries instead.
+     */
+    public boolean contains(long addressHigh, long addressLow, boolean addressIpv6) {
+        if (addressIpv6 != ipv6) {
+            return false;
+        }
+        if (prefixLength == 0) {
+            return true;
+        }
+        if (prefixLength <= 64) {
+            return ((addressHigh ^ high) >>> (64 - prefixLength)) == 0;
+        }
+        // A shift by 0 leaves the value as is, so /128 compares the whole low half
+        return addressHigh == high && ((addressLow ^ low) >>> (128 - prefixLength)) == 0;
+    }
+
+    /**
+     * @return true if the text looks like a range rather than a single address.
+     */
+    public static boolean isCidr(String text) {
+        return text != null && text.indexOf('/') >= 0;
+    }
+}
@@ -0,0 +1,101 @@
+package org.jodelleIpWhitelist.Util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded least-recently-used cache that is safe to use from many threads.
+ *
+ * Entries are spread over a fixed number of segments, each an access-ordered
+ * LinkedHashMap behind its own lock. Threads looking up different keys therefore
+ * rarely wait for each other, and each segment evicts its own least recently used
+ * entry once it is full. The bound is per segment, so the total can be slightly
+ * below the requested capacity when keys are unevenly spread.
+ */
+public final class LruCache<K, V> {
+
+    private static final class Segment<K, V> extends LinkedHashMap<K, V> {
+        // Never serialized, but LinkedHashMap is Serializable
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    private final Segment<K, V>[] segments;
+    private final int mask;
+
+    /**
+     * @param capacity maximum number of entries kept; must be positive.
+     */
+    public LruCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        // Small caches get a single segment so the bound stays exact
+        int count = capacity >= 1024 ? 16 : 1;
+        @SuppressWarnings("unchecked")
+        Segment<K, V>[] created = (Segment<K, V>[]) new Segment<?, ?>[count];
+        for (int i = 0; i < count; i++) {
+            created[i] = new Segment<>(Math.max(1, capacity / count));
+        }
+        segments = created;
+        mask = count - 1;
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & mask];
+    }
+
+    /**
+     * @return the cached value, or null. A hit marks the entry as recently used.
+     */
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    public void put(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    public void remove(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+}
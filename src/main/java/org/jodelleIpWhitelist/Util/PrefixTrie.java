@@ -0,0 +1,174 @@
+package org.jodelleIpWhitelist.Util;
+
+/**
+ * A compressed binary radix trie (Patricia tree) over address prefixes.
+ *
+ * Keys are up to 128 bits wide and stored as two longs, so the same structure serves
+ * IPv4 (32 bit keys in the top of the high long) and IPv6. Chains of single-child nodes
+ * are collapsed, so a lookup visits at most one node per distinguishing bit and its cost
+ * depends on the key width, never on how many prefixes are stored.
+ *
+ * Tries are filled once and then only read; a changed range list builds a new trie.
+ */
+public final class PrefixTrie {
+
+    private static final class Node {
+        final long high;
+        final long low;
+        final int length;
+        boolean terminal;
+        Node zero;
+        Node one;
+
+        Node(long high, long low, int length) {
+            this.high = high;
+            this.low = low;
+            this.length = length;
+        }
+    }
+
+    private final int width;
+    private final Node root = new Node(0, 0, 0);
+    private int size;
+
+    /**
+     * @param width key width in bits: 32 for IPv4, 128 for IPv6.
+     */
+    public PrefixTrie(int width) {
+        if (width != 32 && width != 128) {
+            throw new IllegalArgumentException("Unsupported key width: " + width);
+        }
+        this.width = width;
+    }
+
+    /**
+     * Adds a prefix. Bits past the prefix length are ignored.
+     *
+     * @param high   the first 64 key bits.
+     * @param low    the last 64 key bits (always 0 for IPv4).
+     * @param length the prefix length in bits.
+     */
+    public void insert(long high, long low, int length) {
+        if (length < 0 || length > width) {
+            throw new IllegalArgumentException("Prefix length out of range: " + length);
+        }
+        long maskedHigh = maskHigh(high, length);
+        long maskedLow = maskLow(low, length);
+
+        Node node = root;
+        while (true) {
+            if (node.length == length) {
+                if (!node.terminal) {
+                    node.terminal = true;
+                    size++;
+                }
+                return;
+            }
+
+            boolean bit = bitAt(maskedHigh, maskedLow, node.length);
+            Node child = bit ? node.one : node.zero;
+            if (child == null) {
+                Node leaf = new Node(maskedHigh, maskedLow, length);
+                leaf.terminal = true;
+                setChild(node, bit, leaf);
+                size++;
+                return;
+            }
+
+            int common = Math.min(commonPrefix(child.high, child.low, maskedHigh, maskedLow), Math.min(child.length, length));
+            if (common == child.length) {
+                node = child;
+                continue;
+            }
+
+            // The new prefix diverges inside the child's compressed edge: split it
+            Node split = new Node(maskHigh(maskedHigh, common), maskLow(maskedLow, common), common);
+            setChild(split, bitAt(child.high, child.low, common), child);
+            if (common == length) {
+                split.terminal = true;
+            } else {
+                Node leaf = new Node(maskedHigh, maskedLow, length);
+                leaf.terminal = true;
+                setChild(split, bitAt(maskedHigh, maskedLow, common), leaf);
+            }
+            setChild(node, bit, split);
+            size++;
+            return;
+        }
+    }
+
+    /**
+     * Checks whether any stored prefix covers the address.
+     *
+     * @param high the first 64 address bits.
+     * @param low  the last 64 address bits (0 for IPv4).
+     * @return true if the address falls inside at least one stored prefix.
+     */
+    public boolean contains(long high, long low) {
+        Node node = root;
+        while (node != null) {
+            if (maskHigh(high, node.length) != node.high || maskLow(low, node.length) != node.low) {
+                return false;
+            }
+            if (node.terminal) {
+                return true;
+            }
+            if (node.length >= width) {
+                return false;
+            }
+            node = bitAt(high, low, node.length) ? node.one : node.zero;
+        }
+        return false;
+    }
+
+    /**
+     * Convenience lookup for IPv4 tries.
+     */
+    public boolean containsV4(int address) {
+        return contains((address & 0xFFFFFFFFL) << 32, 0);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private static void setChild(Node parent, boolean bit, Node child) {
+        if (bit) {
+            parent.one = child;
+        } else {
+            parent.zero = child;
+        }
+    }
+
+    private static boolean bitAt(long high, long low, int index) {
+        return index < 64
+                ? ((high >>> (63 - index)) & 1L) != 0
+                : ((low >>> (127 - index)) & 1L) != 0;
+    }
+
+    private static int commonPrefix(long aHigh, long aLow, long bHigh, long bLow) {
+        long diff = aHigh ^ bHigh;
+        if (diff != 0) {
+            return Long.numberOfLeadingZeros(diff);
+        }
+        return 64 + Long.numberOfLeadingZeros(aLow ^ bLow);
+    }
+
+    private static long maskHigh(long high, int length) {
+        if (length >= 64) {
+            return high;
+        }
+        return length == 0 ? 0 : high & (-1L << (64 - length));
+    }
+
+    private static long maskLow(long low, int length) {
+        if (length <= 64) {
+            return 0;
+        }
+        return length == 128 ? low : low & (-1L << (128 - length));
+    }
+}
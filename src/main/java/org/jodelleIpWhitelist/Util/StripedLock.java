@@ -0,0 +1,63 @@
+package org.jodelleIpWhitelist.Util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks that keys are spread over by hash, so changes to the same key run one
+ * at a time while changes to different keys rarely wait for each other.
+ *
+ * Several keys can be locked at once with {@link #lockAll}; the stripes are always taken in
+ * index order, so two threads locking overlapping sets cannot deadlock.
+ */
+public final class StripedLock {
+
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    /**
+     * @param stripes number of locks; rounded up to a power of two.
+     */
+    public StripedLock(int stripes) {
+        int count = Integer.highestOneBit(Math.max(2, stripes - 1)) << 1;
+        locks = new ReentrantLock[count];
+        for (int i = 0; i < count; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        mask = count - 1;
+    }
+
+    public void lock(String key) {
+        locks[indexFor(key)].lock();
+    }
+
+    public void unlock(String key) {
+        locks[indexFor(key)].unlock();
+    }
+
+    /**
+     * Locks the stripes of all keys.
+     *
+     * @return the stripes that were locked; pass them to {@link #unlockAll}.
+     */
+    public int[] lockAll(Collection<String> keys) {
+        int[] stripes = keys.stream().mapToInt(this::indexFor).distinct().toArray();
+        Arrays.sort(stripes);
+        for (int stripe : stripes) {
+            locks[stripe].lock();
+        }
+        return stripes;
+    }
+
+    public void unlockAll(int[] stripes) {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            locks[stripes[i]].unlock();
+        }
+    }
+
+    private int indexFor(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
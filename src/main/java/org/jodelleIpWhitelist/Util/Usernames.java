@@ -0,0 +1,32 @@
+package org.jodelleIpWhitelist.Util;
+
+/**
+ * Checks Minecraft usernames without regular expressions.
+ */
+public final class Usernames {
+
+    private Usernames() {
+    }
+
+    /**
+     * @return true if the name is 3 to 16 characters of letters, digits and underscores,
+     * the same rule Mojang applies to Java Edition names.
+     */
+    public static boolean isValid(CharSequence name) {
+        if (name == null) {
+            return false;
+        }
+        int length = name.length();
+        if (length < 3 || length > 16) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = name.charAt(i);
+            boolean allowed = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+            if (!allowed) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
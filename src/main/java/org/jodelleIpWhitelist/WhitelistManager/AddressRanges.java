@@ -0,0 +1,75 @@
+package org.jodelleIpWhitelist.WhitelistManager;
+
+import org.jodelleIpWhitelist.Util.AddressCodec;
+import org.jodelleIpWhitelist.Util.Cidr;
+import org.jodelleIpWhitelist.Util.PrefixTrie;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.Collection;
+
+/**
+ * A set of CIDR ranges backed by one prefix trie per address family.
+ * Used both for a user's own ranges and for the global range list.
+ */
+public final class AddressRanges {
+
+    static final AddressRanges EMPTY = new AddressRanges(new PrefixTrie(32), new PrefixTrie(128));
+
+    private final PrefixTrie v4;
+    private final PrefixTrie v6;
+
+    private AddressRanges(PrefixTrie v4, PrefixTrie v6) {
+        this.v4 = v4;
+        this.v6 = v6;
+    }
+
+    /**
+     * Builds the tries from CIDR strings. Entries that do not parse are skipped;
+     * callers validate them beforehand when they want to report problems.
+     */
+    static AddressRanges compile(Collection<String> ranges) {
+        PrefixTrie v4 = new PrefixTrie(32);
+        PrefixTrie v6 = new PrefixTrie(128);
+        for (String range : ranges) {
+            Cidr cidr = Cidr.parse(range);
+            if (cidr == null) {
+                continue;
+            }
+            if (cidr.ipv6()) {
+                v6.insert(cidr.high(), cidr.low(), cidr.prefixLength());
+            } else {
+                v4.insert(cidr.high(), 0, cidr.prefixLength());
+            }
+        }
+        return v4.isEmpty() && v6.isEmpty() ? EMPTY : new AddressRanges(v4, v6);
+    }
+
+    public boolean contains(InetAddress address) {
+        if (address instanceof Inet4Address) {
+            return containsV4(AddressCodec.toInt((Inet4Address) address));
+        }
+        if (address instanceof Inet6Address) {
+            byte[] bytes = address.getAddress();
+            return containsV6(AddressCodec.readLong(bytes, 0), AddressCodec.readLong(bytes, 8));
+        }
+        return false;
+    }
+
+    public boolean containsV4(int address) {
+        return !v4.isEmpty() && v4.containsV4(address);
+    }
+
+    public boolean containsV6(long high, long low) {
+        return !v6.isEmpty() && v6.contains(high, low);
+    }
+
+    public boolean isEmpty() {
+        return v4.isEmpty() && v6.isEmpty();
+    }
+
+    public int size() {
+        return v4.size() + v6.size();
+    }
+}
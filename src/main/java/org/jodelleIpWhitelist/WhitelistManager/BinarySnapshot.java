@@ -0,0 +1,288 @@
+package org.jodelleIpWhitelist.WhitelistManager;
+
+import org.jodelleIpWhitelist.Util.AddressCodec;
+import org.jodelleIpWhitelist.Util.Cidr;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * whitelist.bin: the compiled whitelist in a form that loads without parsing.
+ *
+ * whitelist.json stays the file people edit; this is a cache of it for fast startups. Every
+ * string (usernames, IPv6 and CIDR entries) is stored once in a string table, and each
+ * user points into it. IPv4 entries are stored as plain ints, and the sorted lookup arrays
+ * of {@link UserAddresses} are stored as they are in memory. Loading maps the file and
+ * copies those arrays straight out of the mapping; only CIDR entries are parsed again.
+ *
+ * The header records the modification time and size of the whitelist.json it was written
+ * from. A file that no longer matches (because whitelist.json was edited by hand) is
+ * ignored, as is one with a bad checksum or an unknown format version.
+ *
+ * <pre>
+ * header  int magic "JWLB", int format version, long json modified, long json size,
+ *         int users, int strings, int body length, int CRC32 of the body
+ * body    int[strings + 1] string offsets, UTF-8 string bytes,
+ *         then per user: int name, int entries, entries as (byte kind, int value),
+ *         int v4 count, int[] sorted v4, int v6 count, long[] sorted (high, low) pairs
+ * </pre>
+ *
+ * Entry kinds: an IPv4 address (the value is the address), or an IPv6 address, a range or an
+ * invalid entry (the value is a string index). Entries are kept in their original order.
+ */
+final class BinarySnapshot {
+
+    private static final int MAGIC = 0x4A574C42; // "JWLB"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 44;
+
+    private static final byte KIND_V4 = 4;
+    private static final byte KIND_ADDRESS = 6;
+    private static final byte KIND_RANGE = 'R';
+    private static final byte KIND_INVALID = 'X';
+
+    /**
+     * Identifies the whitelist.json a snapshot was written from.
+     */
+    record Source(long modified, long size) {
+
+        /**
+         * @return the stamp of the file, or null if it does not exist.
+         */
+        static Source of(Path json) throws IOException {
+            if (!Files.exists(json)) {
+                return null;
+            }
+            return new Source(Files.getLastModifiedTime(json).toMillis(), Files.size(json));
+        }
+    }
+
+    private BinarySnapshot() {
+    }
+
+    /**
+     * Reads a snapshot if it was written from the given whitelist.json.
+     *
+     * @param expected the stamp of the current whitelist.json, or null to accept any snapshot.
+     * @return the users, or null if the snapshot is missing or belongs to another version of whitelist.json.
+     * @throws IOException if the file is damaged or of an unknown format.
+     */
+    static ConcurrentHashMap<String, UserAddresses> read(Path file, Source expected) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+                throw new IOException(file.getFileName() + " has an impossible size");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(file.getFileName() + " is not a whitelist snapshot");
+            }
+            int version = buffer.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException(file.getFileName() + " has format version " + version + ", expected " + FORMAT_VERSION);
+            }
+            Source source = new Source(buffer.getLong(), buffer.getLong());
+            if (expected != null && !expected.equals(source)) {
+                return null;
+            }
+            int users = buffer.getInt();
+            int strings = buffer.getInt();
+            int bodyLength = buffer.getInt();
+            int checksum = buffer.getInt();
+            buffer.getInt(); // reserved
+
+            if (bodyLength != length - HEADER_SIZE) {
+                throw new IOException(file.getFileName() + " is truncated");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice());
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException(file.getFileName() + " failed its checksum");
+            }
+
+            return readBody(buffer, users, strings);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            // Only possible for a file that passed the checksum but was written wrongly
+            throw new IOException(file.getFileName() + " is malformed", e);
+        }
+    }
+
+    private static ConcurrentHashMap<String, UserAddresses> readBody(ByteBuffer buffer, int userCount, int stringCount) {
+        int[] offsets = new int[stringCount + 1];
+        for (int i = 0; i <= stringCount; i++) {
+            offsets[i] = buffer.getInt();
+        }
+        int base = buffer.position();
+        String[] strings = new String[stringCount];
+        byte[] scratch = new byte[64];
+        for (int i = 0; i < stringCount; i++) {
+            int size = offsets[i + 1] - offsets[i];
+            if (scratch.length < size) {
+                scratch = new byte[size];
+            }
+            buffer.get(base + offsets[i], scratch, 0, size);
+            strings[i] = new String(scratch, 0, size, StandardCharsets.UTF_8);
+        }
+        buffer.position(base + offsets[stringCount]);
+
+        ConcurrentHashMap<String, UserAddresses> users = new ConcurrentHashMap<>(Math.max(16, userCount));
+        for (int u = 0; u < userCount; u++) {
+            String username = strings[buffer.getInt()];
+
+            int entryCount = buffer.getInt();
+            List<String> ips = new ArrayList<>(entryCount);
+            List<String> ranges = new ArrayList<>(0);
+            List<String> invalid = new ArrayList<>(0);
+            for (int e = 0; e < entryCount; e++) {
+                byte kind = buffer.get();
+                int value = buffer.getInt();
+                switch (kind) {
+                    case KIND_V4 -> ips.add(AddressCodec.formatIPv4(value));
+                    case KIND_ADDRESS -> ips.add(strings[value]);
+                    case KIND_RANGE -> {
+                        ips.add(strings[value]);
+                        ranges.add(strings[value]);
+                    }
+                    case KIND_INVALID -> {
+                        ips.add(strings[value]);
+                        invalid.add(strings[value]);
+                    }
+                    default -> throw new IllegalArgumentException("Unknown entry kind " + kind);
+                }
+            }
+
+            int[] v4 = new int[buffer.getInt()];
+            for (int i = 0; i < v4.length; i++) {
+                v4[i] = buffer.getInt();
+            }
+            long[] v6 = new long[buffer.getInt() * 2];
+            for (int i = 0; i < v6.length; i++) {
+                v6[i] = buffer.getLong();
+            }
+
+            users.put(username, UserAddresses.restore(ips, v4, v6, ranges, invalid));
+        }
+        return users;
+    }
+
+    /**
+     * Writes the users to a temporary file and moves it over the snapshot atomically.
+     *
+     * @param source the stamp of the whitelist.json holding the same users.
+     */
+    static void write(Path file, Map<String, UserAddresses> users, Source source) throws IOException {
+        // Number the strings first, so each one is written once however often it is used
+        Map<String, Integer> index = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        List<Map.Entry<String, UserAddresses>> entries = new ArrayList<>(users.entrySet());
+        for (Map.Entry<String, UserAddresses> entry : entries) {
+            intern(entry.getKey(), index, strings);
+            for (String ip : entry.getValue().ips()) {
+                if (!isPackedV4(ip)) {
+                    intern(ip, index, strings);
+                }
+            }
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(HEADER_SIZE);
+            CRC32 crc = new CRC32();
+            // Not closed here: closing the stream would close the channel before the header is written
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(Channels.newOutputStream(channel), crc), 1 << 16));
+
+            int offset = 0;
+            out.writeInt(0);
+            for (byte[] string : strings) {
+                offset += string.length;
+                out.writeInt(offset);
+            }
+            for (byte[] string : strings) {
+                out.write(string);
+            }
+
+            for (Map.Entry<String, UserAddresses> entry : entries) {
+                UserAddresses addresses = entry.getValue();
+                out.writeInt(index.get(entry.getKey()));
+                out.writeInt(addresses.ips().size());
+                for (String ip : addresses.ips()) {
+                    if (isPackedV4(ip)) {
+                        out.writeByte(KIND_V4);
+                        out.writeInt((int) AddressCodec.parseIPv4(ip));
+                    } else {
+                        out.writeByte(addresses.invalidEntries().contains(ip) ? KIND_INVALID
+                                : Cidr.isCidr(ip) ? KIND_RANGE : KIND_ADDRESS);
+                        out.writeInt(index.get(ip));
+                    }
+                }
+
+                int[] v4 = addresses.sortedV4();
+                out.writeInt(v4.length);
+                for (int address : v4) {
+                    out.writeInt(address);
+                }
+                long[] v6 = addresses.sortedV6();
+                out.writeInt(v6.length / 2);
+                for (long half : v6) {
+                    out.writeLong(half);
+                }
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(source.modified()).putLong(source.size())
+                    .putInt(entries.size()).putInt(strings.size())
+                    .putInt((int) (channel.position() - HEADER_SIZE)).putInt((int) crc.getValue()).putInt(0);
+            header.flip();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+
+        try {
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void intern(String value, Map<String, Integer> index, List<byte[]> strings) {
+        if (!index.containsKey(value)) {
+            index.put(value, strings.size());
+            strings.add(value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * @return true if the entry is an IPv4 address that reads back as exactly the same text from an int.
+     */
+    private static boolean isPackedV4(String ip) {
+        long parsed = AddressCodec.parseIPv4(ip);
+        return parsed >= 0 && AddressCodec.formatIPv4((int) parsed).equals(ip);
+    }
+}
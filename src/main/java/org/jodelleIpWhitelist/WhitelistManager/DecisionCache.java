@@ -0,0 +1,105 @@
+package org.jodelleIpWhitelist.WhitelistManager;
+
+import org.jodelleIpWhitelist.Util.AddressCodec;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers recent login decisions per (username, address), so a player who reconnects
+ * (server crash, AFK kick, client restart) is answered without asking the store again.
+ * That matters most for the SQLITE store, where a user outside its cache costs a query.
+ *
+ * The cache is a fixed array of slots, each holding one immutable entry; a new decision
+ * simply replaces whatever shared its slot. The address is kept as two longs (IPv4 in
+ * its IPv4-mapped IPv6 form), so a hit compares primitives and allocates nothing.
+ *
+ * Every entry is tagged with the store's {@link WhitelistStore#version()} from before the
+ * lookup. Any change to the whitelist, including a reload or a change to the global
+ * ranges, moves the version on, so older entries stop matching without the cache ever
+ * being cleared. A change made while a lookup runs leaves that entry outdated as well.
+ */
+public final class DecisionCache {
+
+    private record Entry(String username, long high, long low, long version, LoginDecision decision) {
+    }
+
+    private final WhitelistStore store;
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param size number of slots; rounded up to a power of two.
+     */
+    public DecisionCache(WhitelistStore store, int size) {
+        int slotCount = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+        this.store = store;
+        this.slots = new AtomicReferenceArray<>(slotCount);
+        this.mask = slotCount - 1;
+    }
+
+    /**
+     * Same answer as {@link WhitelistStore#decide}, from the cache when the whitelist has not changed since.
+     */
+    public LoginDecision decide(String username, InetAddress address) {
+        return decide(username, address, true);
+    }
+
+    /**
+     * Same answer as {@link WhitelistStore#decideIfCached}: null when neither this cache nor
+     * the store can answer without I/O.
+     */
+    public LoginDecision decideIfCached(String username, InetAddress address) {
+        return decide(username, address, false);
+    }
+
+    private LoginDecision decide(String username, InetAddress address, boolean mayBlock) {
+        long high;
+        long low;
+        if (address instanceof Inet4Address v4) {
+            high = 0;
+            low = 0xFFFF_0000_0000L | (AddressCodec.toInt(v4) & 0xFFFF_FFFFL);
+        } else {
+            byte[] bytes = address.getAddress();
+            high = AddressCodec.readLong(bytes, 0);
+            low = AddressCodec.readLong(bytes, 8);
+        }
+
+        long version = store.version();
+        int slot = slotFor(username, high, low);
+        Entry entry = slots.get(slot);
+        if (entry != null && entry.version() == version && entry.low() == low && entry.high() == high
+                && entry.username().equals(username)) {
+            hits.increment();
+            return entry.decision();
+        }
+
+        LoginDecision decision = mayBlock ? store.decide(username, address) : store.decideIfCached(username, address);
+        if (decision == null) {
+            // Counted as a miss by the blocking lookup that follows
+            return null;
+        }
+        misses.increment();
+        slots.set(slot, new Entry(username, high, low, version, decision));
+        return decision;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private int slotFor(String username, long high, long low) {
+        long hash = username.hashCode() * 0x9E3779B97F4A7C15L ^ high * 0xC2B2AE3D27D4EB4FL ^ low;
+        hash *= 0xff51afd7ed558ccdL;
+        return (int) (hash >>> 32) & mask;
+    }
+}
@@ -0,0 +1,16 @@
+package org.jodelleIpWhitelist.WhitelistManager;
+
+/**
+ * The outcome of checking a login against the whitelist.
+ * The names double as the reason codes written to the audit log.
+ */
+public enum LoginDecision {
+    ALLOWED,
+    USER_NOT_FOUND,
+    NO_IP_ASSIGNED,
+    IP_MISMATCH;
+
+    public boolean isAllowed() {
+        return this == ALLOWED;
+    }
+}
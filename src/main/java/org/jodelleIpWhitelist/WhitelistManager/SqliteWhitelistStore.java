@@ -0,0 +1,895 @@
+package org.jodelleIpWhitelist.WhitelistManager;
+
+import org.jodelleIpWhitelist.Config.PluginConfig;
+import org.jodelleIpWhitelist.Metrics.LatencyHistogram;
+import org.jodelleIpWhitelist.Util.Cidr;
+import org.jodelleIpWhitelist.Util.LruCache;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps the whitelist in whitelist.db instead of whitelist.json.
+ *
+ * Every (username, ip) pair is one row of a table whose primary key is exactly that pair,
+ * so looking up a user is a single index range scan and adding or removing an IP touches
+ * one row; nothing is ever rewritten as a whole. Only users that were looked up recently
+ * are kept in memory, in a bounded LRU cache in front of the database. Names that are not
+ * whitelisted go into a second, smaller cache of their own, so repeated attempts with an
+ * unknown name do not reach SQLite and a flood of made-up names cannot push real players
+ * out of the user cache.
+ *
+ * A lookup that misses both caches blocks on the database, so the login listener first
+ * asks {@link #decideIfCached} on the connection thread and only falls back to
+ * {@link #decide} on the async executor.
+ *
+ * Reads go through a small pool of read-only connections that each keep their prepared
+ * statements; WAL mode lets them run while the single writer connection commits.
+ * Global ranges are few, so they are kept in their own table and fully in memory.
+ *
+ * /jodellewhitelist showips pages through the table with keyset queries ("the next n
+ * usernames after the last one shown"), so a page costs an index seek and never reads the
+ * whole table. An index on the IP column lets IP filters seek the same way.
+ *
+ * On the first start with an empty database, whitelist.json (including its journal) and
+ * global_ranges.txt are imported, so switching stores keeps the existing whitelist.
+ */
+public final class SqliteWhitelistStore implements WhitelistStore {
+
+    // Returned for names that are not whitelisted; compared by identity
+    private static final UserAddresses NOT_WHITELISTED = UserAddresses.compile(List.of());
+
+    // How long a login waits for a free read connection before giving up (and being denied)
+    private static final long ACQUIRE_TIMEOUT_MILLIS = 5000;
+
+    private static final String SELECT_IPS = "SELECT ip FROM whitelist WHERE username = ?";
+
+    // Keyset pages: the users after the last one shown, optionally starting with a prefix or owning an IP that does
+    private static final String PAGE_USERS =
+            "SELECT DISTINCT username FROM whitelist WHERE username > ? ORDER BY username LIMIT ?";
+    private static final String PAGE_MATCHING_USERS = """
+            SELECT username FROM whitelist WHERE username > ? AND username LIKE ? ESCAPE '\\'
+            UNION
+            SELECT username FROM whitelist WHERE username > ? AND ip COLLATE NOCASE >= ? AND ip COLLATE NOCASE < ?
+            ORDER BY username LIMIT ?
+            """;
+    private static final String COUNT_MATCHING_USERS = """
+            SELECT COUNT(*) FROM (
+                SELECT username FROM whitelist WHERE username LIKE ? ESCAPE '\\'
+                UNION
+                SELECT username FROM whitelist WHERE ip COLLATE NOCASE >= ? AND ip COLLATE NOCASE < ?)
+            """;
+
+    /**
+     * One connection with its prepared statements. Only one thread uses a handle at a time.
+     */
+    private static final class Handle {
+        final Connection connection;
+        final PreparedStatement selectIps;
+
+        Handle(Connection connection) throws SQLException {
+            this.connection = connection;
+            this.selectIps = connection.prepareStatement(SELECT_IPS);
+        }
+
+        void close() {
+            try {
+                connection.close();
+            } catch (SQLException ignored) {
+                // Nothing left to do with a connection that fails to close
+            }
+        }
+    }
+
+    private final Logger logger;
+    private final PluginConfig.Whitelist config;
+    private final Path directory;
+    private final Path databaseFile;
+
+    // Idle read connections; a reader takes one and puts it back when done
+    private final BlockingQueue<Handle> readers;
+    private final List<Handle> allReaders = new ArrayList<>();
+
+    // The only connection that writes; guarded by writeLock
+    private Handle writer;
+    private PreparedStatement insertIp;
+    private PreparedStatement deleteIp;
+    private PreparedStatement insertRange;
+    private PreparedStatement deleteRange;
+    private final Object writeLock = new Object();
+
+    // Username -> compiled IPs, for whitelisted users only
+    private final LruCache<String, UserAddresses> cache;
+
+    // Names the database did not know when they were last looked up
+    private final LruCache<String, Boolean> unknownNames;
+
+    // Bumped by every write, so a lookup racing with a write never caches stale rows
+    private final AtomicLong version = new AtomicLong();
+
+    // Counted once on load and then kept up to date by addIP/removeIP
+    private final AtomicInteger userCount = new AtomicInteger();
+
+    private volatile List<String> globalRangeList = List.of();
+    private volatile AddressRanges globalRanges = AddressRanges.EMPTY;
+
+    // Told about users joining or leaving the whitelist; null when nobody asked
+    private volatile UserListener userListener;
+
+    // Runs reloads requested by commands
+    private final ExecutorService backgroundExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "JodelleIpWhitelist-Whitelist-IO");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LatencyHistogram reloadLatency = new LatencyHistogram();
+
+    public SqliteWhitelistStore(Logger logger, PluginConfig.Whitelist config, Path directory) {
+        this.logger = logger;
+        this.config = config;
+        this.directory = directory;
+        this.databaseFile = directory.resolve("whitelist.db");
+        this.cache = new LruCache<>(Math.max(1, config.sqliteCacheSize));
+        this.unknownNames = new LruCache<>(Math.max(1, config.sqliteUnknownCacheSize));
+        this.readers = new ArrayBlockingQueue<>(Math.max(1, config.sqlitePoolSize));
+
+        try {
+            Class.forName("org.sqlite.JDBC");
+            Files.createDirectories(directory);
+            open();
+        } catch (Exception e) {
+            // Without a database every login is denied, so this has to be loud
+            logger.error("Could not open {}, all logins will be denied", databaseFile, e);
+            close();
+        }
+    }
+
+    private void open() throws SQLException {
+        String url = "jdbc:sqlite:" + databaseFile;
+
+        Connection connection = DriverManager.getConnection(url);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA journal_mode=WAL");
+            stmt.execute("PRAGMA synchronous=NORMAL");
+            stmt.execute("PRAGMA busy_timeout=5000");
+            // The primary key is the lookup index; WITHOUT ROWID stores the rows in it directly
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS whitelist (
+                    username TEXT NOT NULL,
+                    ip TEXT NOT NULL,
+                    PRIMARY KEY (username, ip)
+                ) WITHOUT ROWID
+                """);
+            // Only for IP filters when paging; logins never search by IP
+            stmt.execute("CREATE INDEX IF NOT EXISTS whitelist_by_ip ON whitelist(ip COLLATE NOCASE)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS global_ranges (range TEXT PRIMARY KEY) WITHOUT ROWID");
+        }
+        writer = new Handle(connection);
+        insertIp = connection.prepareStatement("INSERT OR IGNORE INTO whitelist(username, ip) VALUES(?, ?)");
+        deleteIp = connection.prepareStatement("DELETE FROM whitelist WHERE username = ? AND ip = ?");
+        insertRange = connection.prepareStatement("INSERT OR IGNORE INTO global_ranges(range) VALUES(?)");
+        deleteRange = connection.prepareStatement("DELETE FROM global_ranges WHERE range = ?");
+
+        for (int i = 0; i < readers.remainingCapacity(); i++) {
+            Connection readConnection = DriverManager.getConnection(url);
+            try (Statement stmt = readConnection.createStatement()) {
+                stmt.execute("PRAGMA busy_timeout=5000");
+                stmt.execute("PRAGMA query_only=1");
+            }
+            Handle handle = new Handle(readConnection);
+            allReaders.add(handle);
+        }
+        readers.addAll(allReaders);
+    }
+
+    /**
+     * Imports whitelist.json and global_ranges.txt if the database is still empty,
+     * then counts the users and loads the global ranges. Both caches are emptied.
+     */
+    @Override
+    public void loadWhitelistedIPs() {
+        if (writer == null) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        synchronized (writeLock) {
+            try {
+                importJsonIfEmpty();
+
+                List<String> ranges = new ArrayList<>();
+                try (Statement stmt = writer.connection.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT range FROM global_ranges")) {
+                    while (rs.next()) {
+                        ranges.add(rs.getString(1));
+                    }
+                }
+                try (Statement stmt = writer.connection.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM (SELECT DISTINCT username FROM whitelist)")) {
+                    userCount.set(rs.next() ? rs.getInt(1) : 0);
+                }
+
+                version.incrementAndGet();
+                cache.clear();
+                unknownNames.clear();
+                globalRanges = AddressRanges.compile(ranges);
+                globalRangeList = List.copyOf(ranges);
+            } catch (SQLException e) {
+                logger.error("Error reading {}, keeping the current whitelist", databaseFile, e);
+                return;
+            }
+        }
+
+        usersReplaced();
+
+        long elapsed = System.nanoTime() - start;
+        reloadLatency.record(elapsed);
+        logger.info("Whitelist database has {} usernames and {} global ranges ({} ms).", userCount.get(),
+                globalRangeList.size(), TimeUnit.NANOSECONDS.toMillis(elapsed));
+    }
+
+    /**
+     * Copies the JSON whitelist into the database in one transaction. The JSON store
+     * itself is used to read it, so unsaved journal entries are included.
+     */
+    private void importJsonIfEmpty() throws SQLException {
+        try (Statement stmt = writer.connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT EXISTS(SELECT 1 FROM whitelist) OR EXISTS(SELECT 1 FROM global_ranges)")) {
+            if (rs.next() && rs.getBoolean(1)) {
+                return;
+            }
+        }
+        if (!Files.exists(directory.resolve("whitelist.json"))) {
+            return;
+        }
+
+        WhiteListManager json = new WhiteListManager(logger, config, directory);
+        WhitelistSnapshot data;
+        try {
+            json.loadWhitelistedIPs();
+            data = json.getSnapshot();
+        } finally {
+            json.close();
+        }
+
+        writer.connection.setAutoCommit(false);
+        try {
+            int rows = 0;
+            for (Map.Entry<String, UserAddresses> entry : data.users().entrySet()) {
+                for (String ip : entry.getValue().ips()) {
+                    insertIp.setString(1, entry.getKey());
+                    insertIp.setString(2, ip);
+                    insertIp.addBatch();
+                    if (++rows % 1000 == 0) {
+                        insertIp.executeBatch();
+                    }
+                }
+            }
+            insertIp.executeBatch();
+            for (String range : data.globalRangeList()) {
+                insertRange.setString(1, range);
+                insertRange.addBatch();
+            }
+            insertRange.executeBatch();
+            writer.connection.commit();
+            logger.info("Imported {} users ({} IP entries) from whitelist.json into {}", data.size(), rows, databaseFile);
+        } catch (SQLException e) {
+            writer.connection.rollback();
+            throw e;
+        } finally {
+            writer.connection.setAutoCommit(true);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Integer> reloadAsync() {
+        return CompletableFuture.supplyAsync(() -> {
+            loadWhitelistedIPs();
+            return size();
+        }, backgroundExecutor);
+    }
+
+    /**
+     * Checks a login. Cached users are decided without touching the database; a cache miss
+     * costs one indexed query on a pooled connection. If the database cannot be read the
+     * login is denied.
+     */
+    @Override
+    public LoginDecision decide(String username, InetAddress address) {
+        UserAddresses entry = lookup(username);
+        return WhitelistSnapshot.decide(entry == NOT_WHITELISTED ? null : entry, globalRanges, address);
+    }
+
+    /**
+     * Decides from the caches only.
+     *
+     * @return null if the name is in neither cache, so deciding would need a query.
+     */
+    @Override
+    public LoginDecision decideIfCached(String username, InetAddress address) {
+        UserAddresses entry = cached(username);
+        if (entry == null) {
+            return null;
+        }
+        return WhitelistSnapshot.decide(entry == NOT_WHITELISTED ? null : entry, globalRanges, address);
+    }
+
+    /**
+     * @return the cached entry, NOT_WHITELISTED for a cached unknown name, or null.
+     */
+    private UserAddresses cached(String username) {
+        UserAddresses entry = cache.get(username);
+        if (entry != null) {
+            return entry;
+        }
+        return unknownNames.get(username) != null ? NOT_WHITELISTED : null;
+    }
+
+    private UserAddresses lookup(String username) {
+        UserAddresses cached = cached(username);
+        if (cached != null) {
+            return cached;
+        }
+
+        long seen = version.get();
+        UserAddresses loaded;
+        try {
+            loaded = query(username);
+        } catch (SQLException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            logger.error("Could not look up {} in the whitelist database", username, e);
+            return NOT_WHITELISTED;
+        }
+
+        remember(username, loaded);
+        // A write slipped in while we were reading, so what we cached may already be stale
+        if (version.get() != seen) {
+            cache.remove(username);
+            unknownNames.remove(username);
+        }
+        return loaded;
+    }
+
+    private void remember(String username, UserAddresses entry) {
+        if (entry == NOT_WHITELISTED) {
+            cache.remove(username);
+            unknownNames.put(username, Boolean.TRUE);
+        } else {
+            unknownNames.remove(username);
+            cache.put(username, entry);
+        }
+    }
+
+    private UserAddresses query(String username) throws SQLException, InterruptedException {
+        Handle handle = readers.poll(ACQUIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        if (handle == null) {
+            throw new SQLException("No whitelist database connection became free within " + ACQUIRE_TIMEOUT_MILLIS + " ms");
+        }
+        try {
+            List<String> ips = selectIps(handle, username);
+            return ips.isEmpty() ? NOT_WHITELISTED : UserAddresses.compile(ips);
+        } finally {
+            readers.offer(handle);
+        }
+    }
+
+    private static List<String> selectIps(Handle handle, String username) throws SQLException {
+        handle.selectIps.setString(1, username);
+        List<String> ips = new ArrayList<>();
+        try (ResultSet rs = handle.selectIps.executeQuery()) {
+            while (rs.next()) {
+                ips.add(rs.getString(1));
+            }
+        }
+        return ips;
+    }
+
+    @Override
+    public List<String> getIpsForUsername(String username) {
+        UserAddresses entry = lookup(username);
+        return entry.ips();
+    }
+
+    @Override
+    public String findMatchingEntry(String username, InetAddress address) {
+        UserAddresses entry = lookup(username);
+        return entry == NOT_WHITELISTED ? null : entry.matchingEntry(address);
+    }
+
+    @Override
+    public boolean containsUser(String username) {
+        return lookup(username) != NOT_WHITELISTED;
+    }
+
+    @Override
+    public void setUserListener(UserListener listener) {
+        this.userListener = listener;
+    }
+
+    private void usersReplaced() {
+        UserListener listener = userListener;
+        if (listener != null) {
+            listener.onUsersReplaced();
+        }
+    }
+
+    /**
+     * @return null if the name is in neither cache.
+     */
+    @Override
+    public Boolean containsUserIfCached(String username) {
+        UserAddresses entry = cached(username);
+        return entry == null ? null : entry != NOT_WHITELISTED;
+    }
+
+    @Override
+    public boolean addIP(String username, String ip) {
+        synchronized (writeLock) {
+            if (writer == null) {
+                return false;
+            }
+            try {
+                insertIp.setString(1, username);
+                insertIp.setString(2, ip);
+                if (insertIp.executeUpdate() == 0) {
+                    return false; // IP already exists for this user
+                }
+                refresh(username, 1);
+                return true;
+            } catch (SQLException e) {
+                logger.error("Failed to add IP to the whitelist database", e);
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public boolean removeIP(String username, String ip) {
+        synchronized (writeLock) {
+            if (writer == null) {
+                return false;
+            }
+            try {
+                deleteIp.setString(1, username);
+                deleteIp.setString(2, ip);
+                if (deleteIp.executeUpdate() == 0) {
+                    return false; // IP not found for this user
+                }
+                refresh(username, 0);
+                return true;
+            } catch (SQLException e) {
+                logger.error("Failed to remove IP from the whitelist database", e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Re-reads one user after a write and puts the result in the cache.
+     *
+     * @param newUserSize the entry count at which the user was just created (1) or removed (0).
+     */
+    private void refresh(String username, int newUserSize) throws SQLException {
+        UserListener listener = userListener;
+        if (listener != null && newUserSize == 1) {
+            // Before the read, so the row is announced even if reading it back fails
+            listener.onUserAdded(username);
+        }
+
+        List<String> ips = selectIps(writer, username);
+        if (ips.size() == newUserSize) {
+            userCount.addAndGet(newUserSize == 0 ? -1 : 1);
+            if (listener != null && newUserSize == 0) {
+                listener.onUserRemoved(username);
+            }
+        }
+        version.incrementAndGet();
+        remember(username, ips.isEmpty() ? NOT_WHITELISTED : UserAddresses.compile(ips));
+    }
+
+    /**
+     * Inserts the batch in one transaction. Existing rows are skipped by the primary key.
+     */
+    @Override
+    public int addAll(Map<String, ? extends Collection<String>> entries) throws IOException {
+        synchronized (writeLock) {
+            if (writer == null) {
+                throw new IOException("The whitelist database is not open");
+            }
+            int added = 0;
+            try {
+                writer.connection.setAutoCommit(false);
+                int rows = 0;
+                for (Map.Entry<String, ? extends Collection<String>> entry : entries.entrySet()) {
+                    for (String ip : entry.getValue()) {
+                        insertIp.setString(1, entry.getKey());
+                        insertIp.setString(2, ip);
+                        insertIp.addBatch();
+                        if (++rows % 1000 == 0) {
+                            added += countInserted(insertIp.executeBatch());
+                        }
+                    }
+                }
+                added += countInserted(insertIp.executeBatch());
+                writer.connection.commit();
+            } catch (SQLException e) {
+                try {
+                    insertIp.clearBatch();
+                    writer.connection.rollback();
+                } catch (SQLException ignored) {
+                }
+                throw new IOException("Failed to store the batch in the whitelist database", e);
+            } finally {
+                try {
+                    writer.connection.setAutoCommit(true);
+                } catch (SQLException ignored) {
+                }
+            }
+
+            version.incrementAndGet();
+            cache.clear();
+            unknownNames.clear();
+            try (Statement stmt = writer.connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM (SELECT DISTINCT username FROM whitelist)")) {
+                userCount.set(rs.next() ? rs.getInt(1) : 0);
+            } catch (SQLException e) {
+                logger.warn("Could not recount whitelist users after an import", e);
+            }
+            usersReplaced();
+            return added;
+        }
+    }
+
+    /**
+     * Inserts a small batch in one transaction and then re-reads only the users it touched,
+     * so the caches of everyone else stay warm.
+     */
+    @Override
+    public int addBatch(Map<String, ? extends Collection<String>> entries) throws IOException {
+        synchronized (writeLock) {
+            if (writer == null) {
+                throw new IOException("The whitelist database is not open");
+            }
+            // Username to whether they were whitelisted before the batch
+            Map<String, Boolean> touched = new HashMap<>();
+            int added = 0;
+            try {
+                writer.connection.setAutoCommit(false);
+                for (Map.Entry<String, ? extends Collection<String>> entry : entries.entrySet()) {
+                    boolean known = !selectIps(writer, entry.getKey()).isEmpty();
+                    int inserted = 0;
+                    for (String ip : entry.getValue()) {
+                        insertIp.setString(1, entry.getKey());
+                        insertIp.setString(2, ip);
+                        inserted += insertIp.executeUpdate();
+                    }
+                    if (inserted > 0) {
+                        added += inserted;
+                        touched.put(entry.getKey(), known);
+                    }
+                }
+                writer.connection.commit();
+            } catch (SQLException e) {
+                try {
+                    writer.connection.rollback();
+                } catch (SQLException ignored) {
+                }
+                throw new IOException("Failed to store the batch in the whitelist database", e);
+            } finally {
+                try {
+                    writer.connection.setAutoCommit(true);
+                } catch (SQLException ignored) {
+                }
+            }
+
+            if (touched.isEmpty()) {
+                return 0;
+            }
+            version.incrementAndGet();
+            UserListener listener = userListener;
+            for (Map.Entry<String, Boolean> entry : touched.entrySet()) {
+                if (!entry.getValue()) {
+                    userCount.incrementAndGet();
+                    if (listener != null) {
+                        listener.onUserAdded(entry.getKey());
+                    }
+                }
+                try {
+                    remember(entry.getKey(), UserAddresses.compile(selectIps(writer, entry.getKey())));
+                } catch (SQLException e) {
+                    // Stored already; the next lookup reads the user again
+                    cache.remove(entry.getKey());
+                    unknownNames.remove(entry.getKey());
+                }
+            }
+            return added;
+        }
+    }
+
+    private static int countInserted(int[] results) {
+        int inserted = 0;
+        for (int result : results) {
+            // The driver may report SUCCESS_NO_INFO instead of a count
+            if (result > 0 || result == Statement.SUCCESS_NO_INFO) {
+                inserted += result > 0 ? result : 1;
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Streams the table in username order without caching anything.
+     */
+    @Override
+    public void forEachUser(BiConsumer<String, List<String>> action) {
+        Handle handle = null;
+        try {
+            handle = readers.poll(ACQUIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            if (handle == null) {
+                logger.error("No whitelist database connection became free within {} ms", ACQUIRE_TIMEOUT_MILLIS);
+                return;
+            }
+            try (Statement stmt = handle.connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT username, ip FROM whitelist ORDER BY username")) {
+                String current = null;
+                List<String> ips = new ArrayList<>();
+                while (rs.next()) {
+                    String username = rs.getString(1);
+                    if (!username.equals(current)) {
+                        if (current != null) {
+                            action.accept(current, ips);
+                        }
+                        current = username;
+                        ips = new ArrayList<>();
+                    }
+                    ips.add(rs.getString(2));
+                }
+                if (current != null) {
+                    action.accept(current, ips);
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Could not read the whitelist database", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (handle != null) {
+                readers.offer(handle);
+            }
+        }
+    }
+
+    @Override
+    public boolean keepsUsersInMemory() {
+        return false;
+    }
+
+    /**
+     * Reads one page with a keyset query, then the entries of just those users. Users are
+     * in the database's order, which is case-sensitive.
+     */
+    @Override
+    public Map<String, List<String>> readUsersAfter(String after, String filter, int limit) {
+        Map<String, List<String>> users = new LinkedHashMap<>();
+        Handle handle = null;
+        try {
+            handle = readers.poll(ACQUIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            if (handle == null) {
+                logger.error("No whitelist database connection became free within {} ms", ACQUIRE_TIMEOUT_MILLIS);
+                return users;
+            }
+
+            boolean filtered = filter != null && !filter.isEmpty();
+            try (PreparedStatement stmt = handle.connection.prepareStatement(filtered ? PAGE_MATCHING_USERS : PAGE_USERS)) {
+                String start = after == null ? "" : after;
+                if (filtered) {
+                    stmt.setString(1, start);
+                    stmt.setString(2, likePrefix(filter));
+                    stmt.setString(3, start);
+                    stmt.setString(4, filter.toLowerCase(Locale.ROOT));
+                    stmt.setString(5, prefixEnd(filter));
+                    stmt.setInt(6, limit);
+                } else {
+                    stmt.setString(1, start);
+                    stmt.setInt(2, limit);
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        users.put(rs.getString(1), null);
+                    }
+                }
+            }
+            // Read past the cache, like forEachUser, so paging does not push out players who log in
+            for (Map.Entry<String, List<String>> user : users.entrySet()) {
+                user.setValue(selectIps(handle, user.getKey()));
+            }
+            // Removed between the two reads
+            users.values().removeIf(List::isEmpty);
+        } catch (SQLException e) {
+            logger.error("Could not read the whitelist database", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (handle != null) {
+                readers.offer(handle);
+            }
+        }
+        return users;
+    }
+
+    @Override
+    public int countUsers(String filter) {
+        if (filter == null || filter.isEmpty()) {
+            return userCount.get();
+        }
+
+        Handle handle = null;
+        try {
+            handle = readers.poll(ACQUIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            if (handle == null) {
+                logger.error("No whitelist database connection became free within {} ms", ACQUIRE_TIMEOUT_MILLIS);
+                return 0;
+            }
+            try (PreparedStatement stmt = handle.connection.prepareStatement(COUNT_MATCHING_USERS)) {
+                stmt.setString(1, likePrefix(filter));
+                stmt.setString(2, filter.toLowerCase(Locale.ROOT));
+                stmt.setString(3, prefixEnd(filter));
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next() ? rs.getInt(1) : 0;
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Could not read the whitelist database", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (handle != null) {
+                readers.offer(handle);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return a LIKE pattern matching values that start with the prefix; LIKE ignores ASCII case.
+     */
+    private static String likePrefix(String prefix) {
+        return prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + '%';
+    }
+
+    /**
+     * @return the smallest value above every value that starts with the prefix, ignoring case.
+     * Entries are ASCII, so appending the highest character is enough.
+     */
+    private static String prefixEnd(String prefix) {
+        return prefix.toLowerCase(Locale.ROOT) + '\uffff';
+    }
+
+    @Override
+    public boolean addGlobalRange(String range) {
+        if (Cidr.parse(range) == null) {
+            return false;
+        }
+        synchronized (writeLock) {
+            if (writer == null) {
+                return false;
+            }
+            try {
+                insertRange.setString(1, range);
+                if (insertRange.executeUpdate() == 0) {
+                    return false;
+                }
+            } catch (SQLException e) {
+                logger.error("Failed to add a global range to the whitelist database", e);
+                return false;
+            }
+            List<String> ranges = new ArrayList<>(globalRangeList);
+            ranges.add(range);
+            setGlobalRanges(ranges);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean removeGlobalRange(String range) {
+        synchronized (writeLock) {
+            if (writer == null) {
+                return false;
+            }
+            try {
+                deleteRange.setString(1, range);
+                if (deleteRange.executeUpdate() == 0) {
+                    return false;
+                }
+            } catch (SQLException e) {
+                logger.error("Failed to remove a global range from the whitelist database", e);
+                return false;
+            }
+            List<String> ranges = new ArrayList<>(globalRangeList);
+            ranges.remove(range);
+            setGlobalRanges(ranges);
+            return true;
+        }
+    }
+
+    private void setGlobalRanges(List<String> ranges) {
+        globalRanges = AddressRanges.compile(ranges);
+        globalRangeList = List.copyOf(ranges);
+        version.incrementAndGet();
+    }
+
+    @Override
+    public List<String> getGlobalRanges() {
+        return globalRangeList;
+    }
+
+    /**
+     * Reads the whole table in username order. This bypasses the cache, since caching
+     * every user is exactly what this store avoids.
+     */
+    @Override
+    public List<String> getAllowedIPs() {
+        List<String> result = new ArrayList<>();
+        forEachUser((username, ips) -> result.add(username + ": " + ips));
+        return result;
+    }
+
+    @Override
+    public int size() {
+        return userCount.get();
+    }
+
+    @Override
+    public long version() {
+        return version.get();
+    }
+
+    @Override
+    public LatencyHistogram getReloadLatency() {
+        return reloadLatency;
+    }
+
+    @Override
+    public void close() {
+        backgroundExecutor.shutdown();
+        synchronized (writeLock) {
+            for (Handle handle : allReaders) {
+                handle.close();
+            }
+            allReaders.clear();
+            readers.clear();
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+        }
+    }
+}
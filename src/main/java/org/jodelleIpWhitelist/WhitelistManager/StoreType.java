@@ -0,0 +1,11 @@
+package org.jodelleIpWhitelist.WhitelistManager;
+
+/**
+ * Selects the {@link WhitelistStore} implementation.
+ */
+public enum StoreType {
+    /** whitelist.json plus its journal, fully loaded into memory. */
+    JSON,
+    /** whitelist.db, with only recently used users cached in memory. */
+    SQLITE
+}
@@ -0,0 +1,287 @@
+package org.jodelleIpWhitelist.WhitelistManager;
+
+import org.jodelleIpWhitelist.Config.PluginConfig;
+import org.jodelleIpWhitelist.Util.Cidr;
+import org.slf4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers when each whitelist entry was added and last used, and removes entries that
+ * have not been used for whitelist.entryTtlDays.
+ *
+ * The data lives next to the whitelist, keyed by username and entry, instead of inside the
+ * compiled user entries: those are replaced on every change and reload, and this survives all of
+ * them. A successful login only bumps two counters of an existing object (a striped
+ * {@link LongAdder} for the hits and a compare-and-set maximum for the time), so logins
+ * never contend on a lock here.
+ *
+ * Entries are discovered by the periodic sweep, so "added" is the time of the first sweep
+ * that saw an entry (or its first login, if that came sooner). That can make an entry
+ * look slightly younger than it is, never older, so nothing expires early.
+ *
+ * Everything is saved to ip_usage.tsv after each sweep and on shutdown.
+ *
+ * Expiry is only sound where this proxy sees every login. With replication each proxy
+ * knows only its own logins, and a removal made here reaches the whole fleet, so the
+ * plugin turns expiry off with {@link #disableExpiry()} and only the usage is tracked.
+ */
+public final class UsageTracker {
+
+    /**
+     * Usage of one entry of one user.
+     */
+    public static final class EntryUsage {
+        private final long addedAt;
+        private final AtomicLong lastSeen;
+        private final LongAdder hits = new LongAdder();
+
+        EntryUsage(long addedAt, long lastSeen, long hits) {
+            this.addedAt = addedAt;
+            this.lastSeen = new AtomicLong(lastSeen);
+            this.hits.add(hits);
+        }
+
+        void touch(long now) {
+            hits.increment();
+            // Plain read first; the CAS loop only runs when the time actually moves forward
+            if (lastSeen.get() < now) {
+                lastSeen.accumulateAndGet(now, Math::max);
+            }
+        }
+
+        public long addedAt() {
+            return addedAt;
+        }
+
+        /**
+         * @return when the entry last let a login in, or 0 if it never did.
+         */
+        public long lastSeen() {
+            return lastSeen.get();
+        }
+
+        public long hits() {
+            return hits.sum();
+        }
+
+        /**
+         * @return the last login, or when the entry was added if it was never used.
+         */
+        long lastActivity() {
+            return Math.max(addedAt, lastSeen.get());
+        }
+    }
+
+    private final Logger logger;
+    private final PluginConfig.Whitelist config;
+    private final Path file;
+
+    // Cleared when removals would reach other proxies whose logins this one never sees
+    private volatile boolean expiryEnabled = true;
+
+    // Username -> entry -> usage
+    private final Map<String, Map<String, EntryUsage>> users = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "JodelleIpWhitelist-UsageSweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public UsageTracker(Logger logger, PluginConfig.Whitelist config, Path directory) {
+        this.logger = logger;
+        this.config = config;
+        this.file = directory.resolve("ip_usage.tsv");
+        load();
+    }
+
+    /**
+     * Keeps tracking usage but stops removing unused entries.
+     */
+    public void disableExpiry() {
+        expiryEnabled = false;
+    }
+
+    /**
+     * Sweeps once right away (to learn the current entries) and then every
+     * whitelist.usageSweepIntervalMinutes.
+     */
+    public void start(WhitelistStore store) {
+        long interval = Math.max(1, config.usageSweepIntervalMinutes);
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                sweep(store);
+                save();
+            } catch (RuntimeException e) {
+                logger.error("Whitelist usage sweep failed", e);
+            }
+        }, 0, interval, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Records an allowed login. Called after the decision, off the login thread.
+     */
+    public void recordLogin(WhitelistStore store, String username, InetAddress address) {
+        String entry = store.findMatchingEntry(username, address);
+        if (entry == null) {
+            // Let in by a global range; those are not tracked per user
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Map<String, EntryUsage> entries = users.computeIfAbsent(username, name -> new ConcurrentHashMap<>());
+        EntryUsage usage = entries.get(entry);
+        if (usage == null) {
+            usage = entries.computeIfAbsent(entry, ip -> new EntryUsage(now, 0, 0));
+        }
+        usage.touch(now);
+    }
+
+    /**
+     * @return the usage of an entry, or null if it has not been seen yet.
+     */
+    public EntryUsage get(String username, String entry) {
+        Map<String, EntryUsage> entries = users.get(username);
+        return entries == null ? null : entries.get(entry);
+    }
+
+    /**
+     * @return the entries ordered by their last activity, most recent first. An entry that
+     * never let anyone in counts from when it was added, so a fresh entry is not buried.
+     */
+    public List<String> mostRecentFirst(String username, List<String> ips) {
+        Map<String, EntryUsage> entries = users.getOrDefault(username, Map.of());
+        List<String> ordered = new ArrayList<>(ips);
+        ordered.sort(Comparator.comparingLong((String ip) -> {
+            EntryUsage usage = entries.get(ip);
+            return usage == null ? 0 : usage.lastActivity();
+        }).reversed());
+        return ordered;
+    }
+
+    /**
+     * Registers entries seen for the first time, forgets entries that are gone, and removes
+     * single addresses unused for longer than the TTL. CIDR entries never expire; they are
+     * deliberate choices rather than leftovers of an old connection.
+     *
+     * @return the number of entries removed.
+     */
+    int sweep(WhitelistStore store) {
+        long now = System.currentTimeMillis();
+        long ttl = expiryEnabled ? TimeUnit.DAYS.toMillis(Math.max(0, config.entryTtlDays)) : 0;
+        Set<String> present = new HashSet<>();
+        List<String[]> expired = new ArrayList<>();
+
+        store.forEachUser((username, ips) -> {
+            present.add(username);
+            Map<String, EntryUsage> entries = users.computeIfAbsent(username, name -> new ConcurrentHashMap<>());
+            entries.keySet().retainAll(ips);
+
+            String keep = null;
+            if (config.expiryKeepsLastEntry) {
+                List<String> ordered = mostRecentFirst(username, ips);
+                keep = ordered.isEmpty() ? null : ordered.get(0);
+            }
+
+            for (String ip : ips) {
+                EntryUsage usage = entries.computeIfAbsent(ip, entry -> new EntryUsage(now, 0, 0));
+                if (ttl > 0 && !ip.equals(keep) && !Cidr.isCidr(ip) && now - usage.lastActivity() > ttl) {
+                    expired.add(new String[]{username, ip});
+                }
+            }
+        });
+        users.keySet().retainAll(present);
+
+        // Removed after the walk, so the store is not changed while it is being iterated
+        int removed = 0;
+        for (String[] entry : expired) {
+            if (store.removeIP(entry[0], entry[1])) {
+                Map<String, EntryUsage> entries = users.get(entry[0]);
+                if (entries != null) {
+                    entries.remove(entry[1]);
+                }
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            logger.info("Removed {} whitelist entries unused for more than {} days", removed, config.entryTtlDays);
+        }
+        return removed;
+    }
+
+    private void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length != 5) {
+                    continue;
+                }
+                try {
+                    users.computeIfAbsent(fields[0], name -> new ConcurrentHashMap<>()).put(fields[1],
+                            new EntryUsage(Long.parseLong(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4])));
+                } catch (NumberFormatException e) {
+                    // A damaged line only loses that entry's history
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Could not read {}, entry usage starts over", file, e);
+        }
+    }
+
+    /**
+     * Writes username, entry, added, last seen and hits, one entry per line, replacing the file atomically.
+     */
+    void save() {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Map<String, EntryUsage>> user : users.entrySet()) {
+                    for (Map.Entry<String, EntryUsage> entry : user.getValue().entrySet()) {
+                        EntryUsage usage = entry.getValue();
+                        writer.write(user.getKey() + '\t' + entry.getKey() + '\t' + usage.addedAt() + '\t'
+                                + usage.lastSeen() + '\t' + usage.hits());
+                        writer.newLine();
+                    }
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Could not save {}", file, e);
+        }
+    }
+
+    public void close() {
+        sweeper.shutdownNow();
+        try {
+            sweeper.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        save();
+    }
+}
@@ -0,0 +1,246 @@
+package org.jodelleIpWhitelist.WhitelistManager;
+
+import org.jodelleIpWhitelist.Util.AddressCodec;
+import org.jodelleIpWhitelist.Util.Cidr;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The compiled, read-only IP list of one whitelisted user.
+ *
+ * The original strings are kept for saving and display, while lookups use sorted
+ * primitive arrays: IPv4 addresses as ints and IPv6 addresses as (high, low) long pairs.
+ * CIDR entries (e.g. 10.0.0.0/8) go into a per-user prefix trie instead.
+ * Instances are never modified after construction, so they can be read without locking.
+ */
+public final class UserAddresses {
+
+    private static final int[] NO_V4 = new int[0];
+    private static final long[] NO_V6 = new long[0];
+
+    private final List<String> ips;
+    private final int[] v4;
+    private final long[] v6;
+    private final AddressRanges ranges;
+    private final List<String> invalid;
+
+    private UserAddresses(List<String> ips, int[] v4, long[] v6, AddressRanges ranges, List<String> invalid) {
+        this.ips = ips;
+        this.v4 = v4;
+        this.v6 = v6;
+        this.ranges = ranges;
+        this.invalid = invalid;
+    }
+
+    /**
+     * Compiles a list of IP strings. Entries that cannot be parsed are kept in the
+     * string list (so saving does not lose them) but never match a login.
+     *
+     * @param ips the IP strings as stored in the whitelist file.
+     * @return the compiled entry.
+     */
+    public static UserAddresses compile(List<String> ips) {
+        List<String> copy = ips == null ? List.of() : Collections.unmodifiableList(new ArrayList<>(ips));
+
+        int[] v4 = new int[copy.size()];
+        int v4Count = 0;
+        List<long[]> v6Pairs = new ArrayList<>();
+        List<String> ranges = new ArrayList<>();
+        List<String> invalid = new ArrayList<>();
+
+        long[] pair = new long[2];
+        for (String ip : copy) {
+            if (Cidr.isCidr(ip)) {
+                if (Cidr.parse(ip) != null) {
+                    ranges.add(ip);
+                } else {
+                    invalid.add(ip);
+                }
+                continue;
+            }
+            long parsed = AddressCodec.parseIPv4(ip);
+            if (parsed >= 0) {
+                v4[v4Count++] = (int) parsed;
+                continue;
+            }
+            if (AddressCodec.parseIPv6(ip, pair)) {
+                // ::ffff:1.2.3.4 connects as the IPv4 address 1.2.3.4, so store it as one
+                if (AddressCodec.isIPv4Mapped(pair[0], pair[1])) {
+                    v4[v4Count++] = (int) pair[1];
+                } else {
+                    v6Pairs.add(new long[]{pair[0], pair[1]});
+                }
+                continue;
+            }
+            invalid.add(ip);
+        }
+
+        v4 = v4Count == 0 ? NO_V4 : Arrays.copyOf(v4, v4Count);
+        Arrays.sort(v4);
+
+        long[] v6 = NO_V6;
+        if (!v6Pairs.isEmpty()) {
+            v6Pairs.sort(UserAddresses::comparePairs);
+            v6 = new long[v6Pairs.size() * 2];
+            for (int i = 0; i < v6Pairs.size(); i++) {
+                v6[i * 2] = v6Pairs.get(i)[0];
+                v6[i * 2 + 1] = v6Pairs.get(i)[1];
+            }
+        }
+
+        AddressRanges compiledRanges = ranges.isEmpty() ? AddressRanges.EMPTY : AddressRanges.compile(ranges);
+        return new UserAddresses(copy, v4, v6, compiledRanges, invalid.isEmpty() ? List.of() : List.copyOf(invalid));
+    }
+
+    /**
+     * Rebuilds an entry from already compiled parts, as stored in whitelist.bin. Nothing is
+     * parsed except the ranges; the arrays must be sorted the way {@link #compile} sorts them.
+     */
+    static UserAddresses restore(List<String> ips, int[] v4, long[] v6, List<String> ranges, List<String> invalid) {
+        return new UserAddresses(Collections.unmodifiableList(ips), v4.length == 0 ? NO_V4 : v4, v6.length == 0 ? NO_V6 : v6,
+                ranges.isEmpty() ? AddressRanges.EMPTY : AddressRanges.compile(ranges),
+                invalid.isEmpty() ? List.of() : List.copyOf(invalid));
+    }
+
+    /**
+     * Checks whether the address is one of this user's whitelisted IPs or inside one of their ranges.
+     */
+    public boolean contains(InetAddress address) {
+        if (address instanceof Inet4Address) {
+            return containsV4(AddressCodec.toInt((Inet4Address) address));
+        }
+        if (address instanceof Inet6Address) {
+            byte[] bytes = address.getAddress();
+            return containsV6(AddressCodec.readLong(bytes, 0), AddressCodec.readLong(bytes, 8));
+        }
+        return false;
+    }
+
+    public boolean containsV4(int address) {
+        return (v4.length != 0 && Arrays.binarySearch(v4, address) >= 0) || ranges.containsV4(address);
+    }
+
+    public boolean containsV6(long high, long low) {
+        return containsExactV6(high, low) || ranges.containsV6(high, low);
+    }
+
+    private boolean containsExactV6(long high, long low) {
+        int lo = 0;
+        int hi = v6.length / 2 - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = comparePairs(v6[mid * 2], v6[mid * 2 + 1], high, low);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the entry that lets the address in, preferring an exact address over a range.
+     * This scans the entries, so it is meant for bookkeeping after a login, not for deciding it.
+     *
+     * @return the entry as written in the whitelist, or null if none matches.
+     */
+    public String matchingEntry(InetAddress address) {
+        long high;
+        long low;
+        boolean ipv6 = address instanceof Inet6Address;
+        if (address instanceof Inet4Address) {
+            high = (AddressCodec.toInt((Inet4Address) address) & 0xFFFFFFFFL) << 32;
+            low = 0;
+        } else if (ipv6) {
+            byte[] bytes = address.getAddress();
+            high = AddressCodec.readLong(bytes, 0);
+            low = AddressCodec.readLong(bytes, 8);
+        } else {
+            return null;
+        }
+
+        String rangeMatch = null;
+        long[] pair = new long[2];
+        for (String ip : ips) {
+            if (Cidr.isCidr(ip)) {
+                Cidr cidr = rangeMatch == null ? Cidr.parse(ip) : null;
+                if (cidr != null && cidr.contains(high, low, ipv6)) {
+                    rangeMatch = ip;
+                }
+                continue;
+            }
+            long v4 = AddressCodec.parseIPv4(ip);
+            if (v4 >= 0) {
+                if (!ipv6 && (v4 << 32) == high) {
+                    return ip;
+                }
+            } else if (AddressCodec.parseIPv6(ip, pair)) {
+                boolean mapped = AddressCodec.isIPv4Mapped(pair[0], pair[1]);
+                if (mapped ? !ipv6 && ((pair[1] & 0xFFFFFFFFL) << 32) == high : ipv6 && pair[0] == high && pair[1] == low) {
+                    return ip;
+                }
+            }
+        }
+        return rangeMatch;
+    }
+
+    /**
+     * @return true if the user has no IPs at all (valid or not).
+     */
+    public boolean isEmpty() {
+        return ips.isEmpty();
+    }
+
+    /**
+     * @return the IPs as written in the whitelist file, in their original order.
+     */
+    public List<String> ips() {
+        return ips;
+    }
+
+    /**
+     * @return the user's CIDR ranges.
+     */
+    public AddressRanges ranges() {
+        return ranges;
+    }
+
+    /**
+     * @return entries that could not be parsed as an IP address or range.
+     */
+    public List<String> invalidEntries() {
+        return invalid;
+    }
+
+    /**
+     * The sorted IPv4 lookup array, for writing whitelist.bin. Must not be modified.
+     */
+    int[] sortedV4() {
+        return v4;
+    }
+
+    /**
+     * The sorted IPv6 (high, low) pairs, for writing whitelist.bin. Must not be modified.
+     */
+    long[] sortedV6() {
+        return v6;
+    }
+
+    private static int comparePairs(long[] a, long[] b) {
+        return comparePairs(a[0], a[1], b[0], b[1]);
+    }
+
+    private static int comparePairs(long aHigh, long aLow, long bHigh, long bLow) {
+        int cmp = Long.compare(aHigh, bHigh);
+        return cmp != 0 ? cmp : Long.compare(aLow, bLow);
+    }
+}
@@ -2,108 +2,649 @@ package org.jodelleIpWhitelist.WhitelistManager;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
+import org.jodelleIpWhitelist.Config.PluginConfig;
+import org.jodelleIpWhitelist.Metrics.LatencyHistogram;
+import org.jodelleIpWhitelist.Util.Cidr;
+import org.jodelleIpWhitelist.Util.StripedLock;
 import org.slf4j.Logger;
 
 import java.io.IOException;
-import java.lang.reflect.Type;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
 
-public class WhiteListManager {
+/**
+ * The JSON whitelist store: whitelist.json plus an append-only journal, fully loaded
+ * into a concurrent in-memory index that logins read without locking.
+ *
+ * Locking, from finest to coarsest:
+ * - A change to one user holds that user's stripe of {@code userLocks}, so changes to the
+ *   same user are journaled and applied one after another, in the same order, while changes
+ *   to different users run in parallel. The new entry is built and the journal record
+ *   written before the index is touched, so no map lock is ever held across disk I/O.
+ * - Those changes hold the read side of {@code structureLock}. Anything that replaces or
+ *   copies the whole index (reload, outside edits, batch imports, journal compaction) takes
+ *   the write side, so it never misses a change that is halfway through.
+ * - {@code fileLock} keeps whitelist.json and the journal consistent as a pair on disk.
+ */
+public class WhiteListManager implements WhitelistStore {
     private final Logger logger;
 
     // Gson instance for JSON serialization and deserialization, with pretty printing
     private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
 
     // Path to the whitelist JSON file
-    private final Path whiteListFile = Paths.get("plugins/jodelleipwhitelist/whitelist.json");
+    private final Path whiteListFile;
 
-    // Hashtable to store usernames and associated list of IPs
-    private Hashtable<String, List<String>> usernameToIps;
+    // CIDR ranges that are allowed for every whitelisted user, one per line
+    private final Path globalRangesFile;
+
+    // Compiled copy of whitelist.json for fast loads; only used when whitelist.binarySnapshot is on
+    private final Path binaryFile;
+    private final boolean binarySnapshot;
+
+    // Which of the two files the last load read; only used for the log line
+    private Path loadedFrom;
+
+    // The published whitelist. Logins read it without locking; per-user changes update its
+    // map in place, reloads and global range changes publish a new instance.
+    private volatile WhitelistSnapshot snapshot = WhitelistSnapshot.of(new ConcurrentHashMap<>(), List.of());
+
+    // Read side: per-user changes and global range changes. Write side: whole-index work.
+    private final ReentrantReadWriteLock structureLock = new ReentrantReadWriteLock();
+
+    // Serializes changes to the same user, from the journal record to the index update
+    private final StripedLock userLocks = new StripedLock(64);
+
+    // Serializes global range changes, which read-modify-write the range list and its file
+    private final Object rangeLock = new Object();
+
+    // Bumped after every change that is visible to logins
+    private final AtomicLong version = new AtomicLong();
+
+    // Every add/remove is appended here instead of rewriting whitelist.json
+    private final WhitelistJournal journal;
+
+    // Once the journal grows past this many bytes it is folded back into whitelist.json
+    private final long compactThresholdBytes;
+
+    // Runs reloads and compactions off the command thread; only one at a time
+    private final ExecutorService backgroundExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "JodelleIpWhitelist-Whitelist-IO");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+
+    // Applies outside edits of the whitelist files; null until startWatching is called
+    private WhitelistFileWatcher fileWatcher;
+
+    // Told which entries a reload or an outside edit changed; null when nobody asked
+    private volatile ReloadListener reloadListener;
+
+    // Told about users joining or leaving the whitelist; null when nobody asked
+    private volatile UserListener userListener;
+
+    // Modification times of files we wrote ourselves, so the watcher can ignore them
+    private final Map<Path, FileTime> ownWrites = new ConcurrentHashMap<>();
+
+    // How long full loads of whitelist.json take
+    private final LatencyHistogram reloadLatency = new LatencyHistogram();
+
+    // Held while whitelist.json and the journal are read or rewritten as a pair,
+    // so a load can never see a new journal together with an old whitelist.json
+    private final Object fileLock = new Object();
+
+    /**
+     * Constructor to initialize the whitelist manager with the default plugin folder.
+     *
+     * @param logger Logger instance for logging messages.
+     * @param config Whitelist storage settings.
+     */
+    public WhiteListManager(Logger logger, PluginConfig.Whitelist config) {
+        this(logger, config, Paths.get("plugins/jodelleipwhitelist"));
+    }
 
     /**
-     * Constructor to initialize the whitelist manager with a specific file and logger.
+     * Constructor to initialize the whitelist manager with a specific folder and logger.
      *
      * @param logger Logger instance for logging messages.
+     * @param config Whitelist storage settings.
+     * @param directory Folder that holds whitelist.json and its companion files.
      */
-    public WhiteListManager(Logger logger) {
+    public WhiteListManager(Logger logger, PluginConfig.Whitelist config, Path directory) {
         this.logger = logger;
-        usernameToIps = new Hashtable<>();
+        this.whiteListFile = directory.resolve("whitelist.json");
+        this.globalRangesFile = directory.resolve("global_ranges.txt");
+        this.binaryFile = directory.resolve("whitelist.bin");
+        this.binarySnapshot = config.binarySnapshot;
+        this.journal = new WhitelistJournal(whiteListFile, config.journalFsync, logger);
+        this.compactThresholdBytes = config.journalCompactThresholdBytes;
     }
 
     /**
      * Loads the whitelist data from the JSON file.
      *
      * If the whitelist file does not exist, it creates the file with default data.
-     * It then deserializes the JSON data into a Hashtable where each key is a username,
-     * and the value is a list of IP addresses associated with that username.
+     * It then streams the JSON data, replays any journaled mutations on top of it,
+     * and compiles the result into a new snapshot, which replaces the current one in a single step.
+     * If the file cannot be parsed, the current snapshot stays in place.
      */
+    @Override
     public void loadWhitelistedIPs() {
+        ReloadDiff diff;
+        synchronized (fileLock) {
+            diff = loadFromDisk();
+        }
+        // Outside fileLock, so the listener may call back into this store
+        notifyReload(diff);
+    }
+
+    @Override
+    public void setReloadListener(ReloadListener listener) {
+        this.reloadListener = listener;
+    }
+
+    @Override
+    public void setUserListener(UserListener listener) {
+        this.userListener = listener;
+    }
+
+    /**
+     * @return what the load changed, or null if nothing did or nobody listens.
+     */
+    private ReloadDiff loadFromDisk() {
+        long start = System.nanoTime();
+        ConcurrentHashMap<String, UserAddresses> users = readUsers();
+        if (users == null) {
+            return null;
+        }
+
+        List<String> globalRanges = loadGlobalRanges();
+        ReloadDiff diff = reloadListener == null ? null : new ReloadDiff();
+
+        structureLock.writeLock().lock();
         try {
+            applyJournal(users);
+
+            // Only a complete index is ever published
+            WhitelistSnapshot loaded = WhitelistSnapshot.of(users, globalRanges);
+            warnAboutInvalidEntries(loaded.users());
+            if (diff != null) {
+                WhitelistSnapshot previous = snapshot;
+                diff.compare(previous.liveUsers(), loaded.users());
+                diff.compareRanges(previous.globalRangeList(), globalRanges);
+            }
+            snapshot = loaded;
+            version.incrementAndGet();
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+
+        UserListener listener = userListener;
+        if (listener != null) {
+            listener.onUsersReplaced();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        reloadLatency.record(elapsed);
+        logger.info("Loaded {} usernames from {} in {} ms.", users.size(), loadedFrom.getFileName(),
+                TimeUnit.NANOSECONDS.toMillis(elapsed));
+        if (!globalRanges.isEmpty()) {
+            logger.info("Loaded {} global IP ranges.", globalRanges.size());
+        }
+        return diff;
+    }
+
+    /**
+     * Reads the users from whitelist.bin when it matches whitelist.json, and otherwise streams
+     * whitelist.json into compiled entries, creating the file with default data if it is missing.
+     *
+     * With binary snapshots on, whichever file is missing or out of date is rewritten from
+     * the other: a stale whitelist.bin in the background, a missing whitelist.json right away.
+     *
+     * @return the users, or null if the file could not be read (the error is already logged).
+     */
+    private ConcurrentHashMap<String, UserAddresses> readUsers() {
+        try {
+            BinarySnapshot.Source source = BinarySnapshot.Source.of(whiteListFile);
+            if (binarySnapshot) {
+                ConcurrentHashMap<String, UserAddresses> users = readBinarySnapshot(source);
+                if (users != null) {
+                    loadedFrom = binaryFile;
+                    if (source == null) {
+                        // whitelist.json was removed; recreate it so it can still be edited by hand
+                        Map<String, UserAddresses> copy = new HashMap<>(users);
+                        writeAtomically(whiteListFile, gson.toJson(WhitelistSnapshot.toData(copy)));
+                        recordOwnWrite(whiteListFile);
+                        logger.info("Whitelist JSON recreated from {}", binaryFile.getFileName());
+                        scheduleBinarySnapshot(copy, BinarySnapshot.Source.of(whiteListFile));
+                    }
+                    return users;
+                }
+            }
+
             // Check if the file exists; if not, create it with default data
-            if (!Files.exists(whiteListFile)) {
+            if (source == null) {
                 Files.createDirectories(whiteListFile.getParent());
 
                 // Default data with a single user "user1" and a default IP
-                Hashtable<String, List<String>> defaultData = new Hashtable<>();
+                Map<String, List<String>> defaultData = new LinkedHashMap<>();
                 defaultData.put("user1", new ArrayList<>(List.of("127.0.0.1")));
 
                 // Write the default data to the JSON file
                 Files.writeString(whiteListFile, gson.toJson(defaultData), StandardOpenOption.CREATE);
+                recordOwnWrite(whiteListFile);
                 logger.info("Whitelist JSON created: {}", whiteListFile);
+                source = BinarySnapshot.Source.of(whiteListFile);
             }
 
-            // Read and parse the JSON file into the usernameToIps map
-            String json = Files.readString(whiteListFile);
-            Type type = new TypeToken<Hashtable<String, List<String>>>() {}.getType();
-            usernameToIps = gson.fromJson(json, type);
+            // Stream the file and compile users in parallel chunks
+            ConcurrentHashMap<String, UserAddresses> users = WhitelistLoader.load(whiteListFile, ForkJoinPool.commonPool());
+            loadedFrom = whiteListFile;
+            if (binarySnapshot) {
+                // The stamp was taken before reading, so an edit made meanwhile leaves the copy stale, never wrong
+                scheduleBinarySnapshot(new HashMap<>(users), source);
+            }
+            return users;
+        } catch (IOException e) {
+            // Never swap in a partial or empty whitelist because of a bad file
+            logger.error("Error reading whitelist.json, keeping the current whitelist", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the users from whitelist.bin, or null if it is missing, out of date or damaged.
+     */
+    private ConcurrentHashMap<String, UserAddresses> readBinarySnapshot(BinarySnapshot.Source source) {
+        try {
+            return BinarySnapshot.read(binaryFile, source);
+        } catch (IOException e) {
+            logger.warn("Ignoring {}: {}; loading whitelist.json instead", binaryFile.getFileName(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes whitelist.bin for the given users in the background. The map must not change afterwards.
+     */
+    private void scheduleBinarySnapshot(Map<String, UserAddresses> users, BinarySnapshot.Source source) {
+        try {
+            backgroundExecutor.execute(() -> writeBinarySnapshot(users, source));
+        } catch (RejectedExecutionException e) {
+            // Shutting down; the next start converts again
+        }
+    }
 
-            // Ensure that the map is initialized even if the file is empty or malformed
-            if (usernameToIps == null) {
-                usernameToIps = new Hashtable<>();
+    /**
+     * Writes whitelist.bin. A failure only costs the next startup some time, so it is logged and ignored.
+     */
+    private void writeBinarySnapshot(Map<String, UserAddresses> users, BinarySnapshot.Source source) {
+        if (source == null) {
+            return;
+        }
+        try {
+            BinarySnapshot.write(binaryFile, users, source);
+        } catch (IOException e) {
+            logger.warn("Could not write {}", binaryFile.getFileName(), e);
+        }
+    }
+
+    /**
+     * Replays the journal on top of freshly read users. Mutations made since the last
+     * compaction only exist in the journal. Must be called while holding the write side of structureLock.
+     */
+    private void applyJournal(Map<String, UserAddresses> users) {
+        Map<String, List<String>> overlay = new HashMap<>();
+        int replayed = journal.replay(overlay, username -> {
+            UserAddresses entry = users.get(username);
+            return entry == null ? null : entry.ips();
+        });
+        overlay.forEach((username, ips) -> {
+            if (ips.isEmpty()) {
+                users.remove(username);
+            } else {
+                users.put(username, UserAddresses.compile(ips));
+            }
+        });
+        if (replayed > 0) {
+            logger.info("Replayed {} journaled whitelist changes.", replayed);
+        }
+    }
+
+    /**
+     * Picks up outside edits of whitelist.json or global_ranges.txt.
+     *
+     * The files are read in full, but only users whose IP lists actually changed get a new
+     * entry in the live index; everyone else keeps their existing one. A summary of the
+     * change is logged, and the changed entries go to the reload listener.
+     */
+    private void syncFromDisk() {
+        notifyReload(applyOutsideEdit());
+    }
+
+    private ReloadDiff applyOutsideEdit() {
+        synchronized (fileLock) {
+            long start = System.nanoTime();
+            ConcurrentHashMap<String, UserAddresses> users = readUsers();
+            if (users == null) {
+                return null;
+            }
+            List<String> globalRanges = loadGlobalRanges();
+
+            int changed = 0;
+            boolean rangesChanged;
+            Map<String, UserAddresses> updates = new HashMap<>();
+            List<String> appeared = new ArrayList<>();
+            List<String> gone = new ArrayList<>();
+            ReloadDiff diff = reloadListener == null ? null : new ReloadDiff();
+
+            structureLock.writeLock().lock();
+            try {
+                applyJournal(users);
+                WhitelistSnapshot current = snapshot;
+                ConcurrentHashMap<String, UserAddresses> live = current.liveUsers();
+
+                for (Map.Entry<String, UserAddresses> entry : users.entrySet()) {
+                    UserAddresses existing = live.get(entry.getKey());
+                    if (existing == null) {
+                        appeared.add(entry.getKey());
+                    } else if (!existing.ips().equals(entry.getValue().ips())) {
+                        changed++;
+                    } else {
+                        continue;
+                    }
+                    updates.put(entry.getKey(), entry.getValue());
+                }
+                for (String username : live.keySet()) {
+                    if (!users.containsKey(username)) {
+                        gone.add(username);
+                    }
+                }
+                rangesChanged = !current.globalRangeList().equals(globalRanges);
+
+                if (updates.isEmpty() && gone.isEmpty() && !rangesChanged) {
+                    return null;
+                }
+
+                if (diff != null) {
+                    for (Map.Entry<String, UserAddresses> update : updates.entrySet()) {
+                        UserAddresses existing = live.get(update.getKey());
+                        diff.compareUser(update.getKey(), existing == null ? List.of() : existing.ips(), update.getValue().ips());
+                    }
+                    for (String username : gone) {
+                        diff.compareUser(username, live.get(username).ips(), List.of());
+                    }
+                    diff.compareRanges(current.globalRangeList(), globalRanges);
+                }
+
+                // Only the users that differ are touched; everyone else keeps their entry
+                live.putAll(updates);
+                gone.forEach(live::remove);
+                if (rangesChanged) {
+                    snapshot = current.withGlobalRanges(globalRanges);
+                }
+                version.incrementAndGet();
+            } finally {
+                structureLock.writeLock().unlock();
+            }
+
+            appeared.forEach(this::userAdded);
+            gone.forEach(this::userRemoved);
+
+            warnAboutInvalidEntries(updates);
+            logger.info("Whitelist files changed on disk: {} users added, {} removed, {} changed{} ({} ms)",
+                    appeared.size(), gone.size(), changed, rangesChanged ? ", global ranges updated" : "",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return diff;
+        }
+    }
+
+    private void userAdded(String username) {
+        UserListener listener = userListener;
+        if (listener != null) {
+            listener.onUserAdded(username);
+        }
+    }
+
+    private void userRemoved(String username) {
+        UserListener listener = userListener;
+        if (listener != null) {
+            listener.onUserRemoved(username);
+        }
+    }
+
+    private void notifyReload(ReloadDiff diff) {
+        ReloadListener listener = reloadListener;
+        if (listener == null || diff == null || diff.isEmpty()) {
+            return;
+        }
+        try {
+            listener.onReload(diff.added, diff.removed);
+        } catch (RuntimeException e) {
+            logger.error("Reload listener failed", e);
+        }
+    }
+
+    /**
+     * The entries a reload added and removed, per user; global ranges are kept under "".
+     */
+    private static final class ReloadDiff {
+        final Map<String, List<String>> added = new HashMap<>();
+        final Map<String, List<String>> removed = new HashMap<>();
+
+        void compare(Map<String, UserAddresses> before, Map<String, UserAddresses> after) {
+            for (Map.Entry<String, UserAddresses> entry : after.entrySet()) {
+                UserAddresses old = before.get(entry.getKey());
+                if (old == null || !old.ips().equals(entry.getValue().ips())) {
+                    compareUser(entry.getKey(), old == null ? List.of() : old.ips(), entry.getValue().ips());
+                }
             }
+            for (Map.Entry<String, UserAddresses> entry : before.entrySet()) {
+                if (!after.containsKey(entry.getKey())) {
+                    compareUser(entry.getKey(), entry.getValue().ips(), List.of());
+                }
+            }
+        }
+
+        void compareUser(String username, List<String> before, List<String> after) {
+            collect(added, username, after, before);
+            collect(removed, username, before, after);
+        }
+
+        void compareRanges(List<String> before, List<String> after) {
+            compareUser("", before, after);
+        }
+
+        boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty();
+        }
+
+        /**
+         * Puts the entries of {@code from} that are missing in {@code other} under the user.
+         */
+        private static void collect(Map<String, List<String>> into, String username, List<String> from, List<String> other) {
+            Set<String> others = other.isEmpty() ? Set.of() : new HashSet<>(other);
+            for (String ip : from) {
+                if (!others.contains(ip)) {
+                    into.computeIfAbsent(username, name -> new ArrayList<>()).add(ip);
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts watching the plugin folder, so outside edits of the whitelist files are applied
+     * automatically after a short quiet period.
+     */
+    public void startWatching(long debounceMillis) {
+        fileWatcher = new WhitelistFileWatcher(whiteListFile.getParent(),
+                Set.of(whiteListFile.getFileName().toString(), globalRangesFile.getFileName().toString()),
+                debounceMillis, this::isOwnWrite, this::syncFromDisk, logger);
+        try {
+            fileWatcher.start();
+        } catch (IOException e) {
+            logger.error("Could not watch {} for changes; use /jodellewhitelist reload instead", whiteListFile.getParent(), e);
+            fileWatcher = null;
+        }
+    }
+
+    /**
+     * Remembers the modification time of a file this plugin just wrote, so the watcher
+     * does not mistake it for an outside edit.
+     */
+    private void recordOwnWrite(Path file) {
+        try {
+            ownWrites.put(file, Files.getLastModifiedTime(file));
+        } catch (IOException e) {
+            ownWrites.remove(file);
+        }
+    }
+
+    private boolean isOwnWrite(Path file) {
+        try {
+            FileTime recorded = ownWrites.get(file);
+            return recorded != null && recorded.equals(Files.getLastModifiedTime(file));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reloads the whitelist on the background thread.
+     * Logins keep using the current snapshot until the new one is complete.
+     *
+     * @return completes with the number of loaded usernames.
+     */
+    @Override
+    public CompletableFuture<Integer> reloadAsync() {
+        return CompletableFuture.supplyAsync(() -> {
+            loadWhitelistedIPs();
+            return snapshot.size();
+        }, backgroundExecutor);
+    }
 
-            logger.info("Loaded {} usernames from the whitelist JSON.", usernameToIps.size());
+    /**
+     * Reads global_ranges.txt. Blank lines and lines starting with '#' are ignored,
+     * so the file can hold commented lists such as ASN or country blocks.
+     *
+     * @return the valid ranges, in file order.
+     */
+    private List<String> loadGlobalRanges() {
+        List<String> ranges = new ArrayList<>();
+        if (!Files.exists(globalRangesFile)) {
+            return ranges;
+        }
+
+        try {
+            for (String line : Files.readAllLines(globalRangesFile, StandardCharsets.UTF_8)) {
+                String range = line.trim();
+                if (range.isEmpty() || range.startsWith("#")) {
+                    continue;
+                }
+                if (Cidr.parse(range) == null) {
+                    logger.warn("Ignoring invalid range '{}' in global_ranges.txt", range);
+                    continue;
+                }
+                ranges.add(range);
+            }
         } catch (IOException e) {
-            logger.error("Error reading whitelist.json", e);
-            usernameToIps = new Hashtable<>();
+            logger.error("Error reading global_ranges.txt", e);
         }
+        return ranges;
     }
 
+    private void warnAboutInvalidEntries(Map<String, UserAddresses> users) {
+        users.forEach((username, entry) -> {
+            for (String ip : entry.invalidEntries()) {
+                logger.warn("Ignoring invalid IP '{}' for user {}", ip, username);
+            }
+        });
+    }
+
+
     /**
-     * Helper method to validate if a string is a valid IPv4 address.
+     * Checks a login against the whitelist.
      *
-     * @param ip IP address to validate.
-     * @return true if the IP is a valid IPv4 address, false otherwise.
+     * This is the hot path: it reads the current snapshot once and never locks or allocates strings.
+     *
+     * @param username the player's username.
+     * @param address  the address the player connected from.
+     * @return the decision, including the reason for a denial.
      */
-    private boolean isValidIPv4(String ip) {
-        // Regular expression for matching valid IPv4 addresses
-        String ipv4Pattern = "^((25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)$";
-        Pattern pattern = Pattern.compile(ipv4Pattern);
-        return pattern.matcher(ip).matches();
+    @Override
+    public LoginDecision decide(String username, InetAddress address) {
+        return snapshot.decide(username, address);
+    }
+
+    /**
+     * @return how long whitelist loads have taken.
+     */
+    @Override
+    public LatencyHistogram getReloadLatency() {
+        return reloadLatency;
+    }
+
+    @Override
+    public int size() {
+        return snapshot.size();
+    }
+
+    /**
+     * @return the currently published snapshot.
+     */
+    public WhitelistSnapshot getSnapshot() {
+        return snapshot;
     }
 
     /**
      * Retrieves the list of IP addresses associated with a specific username.
      *
      * @param username the username to look up.
-     * @return a list of IP addresses associated with the given username.
+     * @return an unmodifiable list of IP addresses associated with the given username.
      */
+    @Override
     public List<String> getIpsForUsername(String username) {
-        return usernameToIps.getOrDefault(username, new ArrayList<>());
+        UserAddresses entry = snapshot.get(username);
+        return entry == null ? List.of() : entry.ips();
+    }
+
+    @Override
+    public String findMatchingEntry(String username, InetAddress address) {
+        UserAddresses entry = snapshot.get(username);
+        return entry == null ? null : entry.matchingEntry(address);
+    }
+
+    @Override
+    public long version() {
+        return version.get();
     }
 
     /**
      * Prints all entries in the whitelist (for debugging or testing purposes).
      */
     public void printEntries() {
-        usernameToIps.forEach((username, ips) ->
-                System.out.println("Username: " + username + " -> IPs: " + ips)
+        snapshot.users().forEach((username, entry) ->
+                System.out.println("Username: " + username + " -> IPs: " + entry.ips())
         );
     }
 
@@ -113,8 +654,9 @@ public class WhiteListManager {
      * @param username the username to check.
      * @return true if the username exists, false otherwise.
      */
+    @Override
     public boolean containsUser(String username) {
-        return usernameToIps.containsKey(username);
+        return snapshot.get(username) != null;
     }
 
     /**
@@ -128,84 +670,386 @@ public class WhiteListManager {
     /**
      * Adds an IP address to the list of IPs for a given username.
      *
+     * The change is appended to the journal rather than rewriting whitelist.json.
+     *
      * @param username the username to add the IP for.
      * @param ip the IP address to add.
      * @return true if the IP was successfully added, false if the IP already exists for this username.
      */
+    @Override
     public boolean addIP(String username, String ip) {
+        structureLock.readLock().lock();
+        userLocks.lock(username);
         try {
+            ConcurrentHashMap<String, UserAddresses> live = snapshot.liveUsers();
+            UserAddresses existing = live.get(username);
+
             // Check if the IP is already associated with the username
-            List<String> existingIps = usernameToIps.getOrDefault(username, new ArrayList<>());
-            if (existingIps.contains(ip)) {
+            if (existing != null && existing.ips().contains(ip)) {
                 return false; // IP already exists for this user
             }
 
             // Add the new IP to the username's list
-            existingIps.add(ip);
-            usernameToIps.put(username, existingIps);
-
-            // Write the updated data back to the JSON file
-            Files.writeString(
-                    whiteListFile,
-                    gson.toJson(usernameToIps),
-                    StandardOpenOption.CREATE,
-                    StandardOpenOption.TRUNCATE_EXISTING
-            );
-
-            return true;
-        } catch (IOException e) {
-            logger.error("Failed to add IP to JSON whitelist", e);
-            return false;
+            List<String> ips = existing == null ? new ArrayList<>(1) : new ArrayList<>(existing.ips());
+            ips.add(ip);
+            UserAddresses updated = UserAddresses.compile(ips);
+
+            // Record the change first, so a published change is never lost
+            try {
+                journal.appendAdd(username, ip);
+            } catch (IOException e) {
+                logger.error("Failed to add IP to the whitelist journal", e);
+                return false;
+            }
+
+            live.put(username, updated);
+            version.incrementAndGet();
+            if (existing == null) {
+                userAdded(username);
+            }
+        } finally {
+            userLocks.unlock(username);
+            structureLock.readLock().unlock();
         }
+
+        maybeCompact();
+        return true;
     }
 
     /**
      * Removes an IP address from the list of IPs associated with a username.
      *
      * If the username does not exist or the IP is not associated with the username,
-     * this method returns false. If the IP is removed successfully, the method will
-     * update the JSON file and return true.
+     * this method returns false. If the IP is removed successfully, the removal is
+     * appended to the journal and the method returns true.
      *
      * @param username the username to remove the IP for.
      * @param ip the IP address to remove.
      * @return true if the IP was successfully removed, false if the IP or username doesn't exist.
      */
+    @Override
     public boolean removeIP(String username, String ip) {
-        // Retrieve the list of IPs for the specified username
-        List<String> ips = usernameToIps.get(username);
-        if (ips == null || !ips.contains(ip)) {
-            return false; // IP not found for this user
+        structureLock.readLock().lock();
+        userLocks.lock(username);
+        try {
+            ConcurrentHashMap<String, UserAddresses> live = snapshot.liveUsers();
+            UserAddresses existing = live.get(username);
+            if (existing == null || !existing.ips().contains(ip)) {
+                return false; // IP not found for this user
+            }
+
+            // Remove the IP from the list
+            List<String> ips = new ArrayList<>(existing.ips());
+            ips.remove(ip);
+            UserAddresses updated = ips.isEmpty() ? null : UserAddresses.compile(ips);
+
+            try {
+                journal.appendRemove(username, ip);
+            } catch (IOException e) {
+                logger.error("Failed to record IP removal in the whitelist journal", e);
+                return false;
+            }
+
+            // The username goes along with their last IP
+            if (updated == null) {
+                live.remove(username);
+            } else {
+                live.put(username, updated);
+            }
+            version.incrementAndGet();
+            if (updated == null) {
+                userRemoved(username);
+            }
+        } finally {
+            userLocks.unlock(username);
+            structureLock.readLock().unlock();
         }
 
-        // Remove the IP from the list
-        ips.remove(ip);
+        maybeCompact();
+        return true; // IP removed successfully
+    }
+
+    /**
+     * Merges a batch into the whitelist and writes whitelist.json once.
+     *
+     * The file is written before the new snapshot is published, so a failed write leaves
+     * both the file and the live whitelist as they were. Mutations wait for the duration.
+     */
+    @Override
+    public int addAll(Map<String, ? extends Collection<String>> entries) throws IOException {
+        synchronized (fileLock) {
+            structureLock.writeLock().lock();
+            try {
+                WhitelistSnapshot current = snapshot;
+                Map<String, UserAddresses> updates = new HashMap<>();
+                int added = 0;
+
+                for (Map.Entry<String, ? extends Collection<String>> entry : entries.entrySet()) {
+                    UserAddresses existing = current.get(entry.getKey());
+                    Set<String> ips = existing == null ? new LinkedHashSet<>() : new LinkedHashSet<>(existing.ips());
+                    int before = ips.size();
+                    ips.addAll(entry.getValue());
+                    if (ips.size() != before) {
+                        added += ips.size() - before;
+                        updates.put(entry.getKey(), UserAddresses.compile(new ArrayList<>(ips)));
+                    }
+                }
+                if (added == 0) {
+                    return 0;
+                }
 
-        // If the list is empty after removal, remove the username from the map
-        if (ips.isEmpty()) {
-            usernameToIps.remove(username);
-        } else {
-            usernameToIps.put(username, ips);
+                Map<String, UserAddresses> merged = new HashMap<>(current.users());
+                merged.putAll(updates);
+
+                // Same protocol as compact(): if the write fails, the rotated journal is
+                // replayed on the next load and nothing is lost
+                journal.rotate();
+                writeAtomically(whiteListFile, gson.toJson(WhitelistSnapshot.toData(merged)));
+                recordOwnWrite(whiteListFile);
+                journal.discardRotated();
+                if (binarySnapshot) {
+                    scheduleBinarySnapshot(merged, BinarySnapshot.Source.of(whiteListFile));
+                }
+
+                current.liveUsers().putAll(updates);
+                version.incrementAndGet();
+                UserListener listener = userListener;
+                if (listener != null) {
+                    listener.onUsersReplaced();
+                }
+                return added;
+            } finally {
+                structureLock.writeLock().unlock();
+            }
         }
+    }
 
-        // Save the updated list to the JSON file
-        saveWhitelistedIPs();
+    /**
+     * Appends a batch to the journal with one write, like a run of {@link #addIP} calls
+     * that share a single sync. Only the users in the batch wait for it.
+     */
+    @Override
+    public int addBatch(Map<String, ? extends Collection<String>> entries) throws IOException {
+        int added = 0;
+        structureLock.readLock().lock();
+        int[] stripes = userLocks.lockAll(entries.keySet());
+        try {
+            ConcurrentHashMap<String, UserAddresses> live = snapshot.liveUsers();
+            Map<String, List<String>> additions = new HashMap<>();
+            Map<String, UserAddresses> updates = new HashMap<>();
+            List<String> newUsers = new ArrayList<>();
 
-        return true; // IP removed successfully
+            for (Map.Entry<String, ? extends Collection<String>> entry : entries.entrySet()) {
+                UserAddresses existing = live.get(entry.getKey());
+                Set<String> ips = existing == null ? new LinkedHashSet<>() : new LinkedHashSet<>(existing.ips());
+                List<String> fresh = new ArrayList<>();
+                for (String ip : entry.getValue()) {
+                    if (ips.add(ip)) {
+                        fresh.add(ip);
+                    }
+                }
+                if (!fresh.isEmpty()) {
+                    added += fresh.size();
+                    additions.put(entry.getKey(), fresh);
+                    updates.put(entry.getKey(), UserAddresses.compile(new ArrayList<>(ips)));
+                    if (existing == null) {
+                        newUsers.add(entry.getKey());
+                    }
+                }
+            }
+            if (added == 0) {
+                return 0;
+            }
+
+            // Nothing is published unless the whole batch is in the journal
+            journal.appendAdds(additions);
+            live.putAll(updates);
+            version.incrementAndGet();
+            newUsers.forEach(this::userAdded);
+        } finally {
+            userLocks.unlockAll(stripes);
+            structureLock.readLock().unlock();
+        }
+
+        maybeCompact();
+        return added;
+    }
+
+    @Override
+    public void forEachUser(BiConsumer<String, List<String>> action) {
+        snapshot.users().forEach((username, entry) -> action.accept(username, entry.ips()));
     }
 
     /**
-     * Saves the current whitelist (usernameToIps) back to the JSON file.
+     * Saves the current whitelist back to the JSON file.
      *
-     * This method serializes the in-memory whitelist data to JSON and overwrites the existing file.
+     * The snapshot is written to a temporary file and moved over whitelist.json atomically,
+     * so a crash mid-write never leaves a truncated whitelist. The journal is emptied afterwards.
      */
     public void saveWhitelistedIPs() {
+        synchronized (fileLock) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        Map<String, UserAddresses> state;
+        // Mutations pause only for the rotation and the copy; the file is written afterwards
+        structureLock.writeLock().lock();
+        try {
+            try {
+                journal.rotate();
+            } catch (IOException e) {
+                logger.error("Failed to rotate the whitelist journal", e);
+                return;
+            }
+            state = new HashMap<>(snapshot.users());
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+
         try {
-            Files.writeString(whiteListFile, gson.toJson(usernameToIps), StandardOpenOption.TRUNCATE_EXISTING);
+            writeAtomically(whiteListFile, gson.toJson(WhitelistSnapshot.toData(state)));
+            recordOwnWrite(whiteListFile);
+            journal.discardRotated();
+            if (binarySnapshot) {
+                writeBinarySnapshot(state, BinarySnapshot.Source.of(whiteListFile));
+            }
         } catch (IOException e) {
+            // The rotated journal is kept and replayed on the next load
             logger.error("Failed to save whitelist.json", e);
         }
     }
 
+    /**
+     * Schedules a background compaction once the journal has grown past the threshold.
+     */
+    private void maybeCompact() {
+        if (journal.size() < compactThresholdBytes || !compactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        backgroundExecutor.execute(() -> {
+            try {
+                long before = journal.size();
+                saveWhitelistedIPs();
+                logger.info("Compacted the whitelist journal ({} bytes) into whitelist.json", before);
+            } finally {
+                compactionScheduled.set(false);
+            }
+        });
+    }
+
+    private void writeAtomically(Path target, String content) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.writeString(temp, content, StandardCharsets.UTF_8);
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Stops the background reload/compaction thread and closes the journal.
+     * Everything already written stays in the journal and is replayed on the next start.
+     */
+    @Override
+    public void close() {
+        if (fileWatcher != null) {
+            fileWatcher.close();
+        }
+        backgroundExecutor.shutdown();
+        journal.close();
+    }
+
+    /**
+     * Adds a CIDR range that is allowed for every whitelisted user.
+     *
+     * @param range the range in CIDR notation, e.g. 10.0.0.0/8.
+     * @return true if the range was added, false if it is invalid, already present or could not be saved.
+     */
+    @Override
+    public boolean addGlobalRange(String range) {
+        if (Cidr.parse(range) == null) {
+            return false;
+        }
+
+        structureLock.readLock().lock();
+        try {
+            synchronized (rangeLock) {
+                WhitelistSnapshot current = snapshot;
+                if (current.globalRangeList().contains(range)) {
+                    return false;
+                }
+
+                try {
+                    Files.createDirectories(globalRangesFile.getParent());
+                    Files.writeString(globalRangesFile, range + System.lineSeparator(), StandardCharsets.UTF_8,
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                    recordOwnWrite(globalRangesFile);
+                } catch (IOException e) {
+                    logger.error("Failed to save global_ranges.txt", e);
+                    return false;
+                }
+
+                List<String> ranges = new ArrayList<>(current.globalRangeList());
+                ranges.add(range);
+                snapshot = current.withGlobalRanges(ranges);
+                version.incrementAndGet();
+                return true;
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a global CIDR range. Other lines of global_ranges.txt, including comments, are kept.
+     *
+     * @param range the range exactly as it was added.
+     * @return true if the range was removed, false if it was not present or could not be saved.
+     */
+    @Override
+    public boolean removeGlobalRange(String range) {
+        structureLock.readLock().lock();
+        try {
+            synchronized (rangeLock) {
+                WhitelistSnapshot current = snapshot;
+                if (!current.globalRangeList().contains(range)) {
+                    return false;
+                }
+
+                try {
+                    List<String> lines = new ArrayList<>(Files.readAllLines(globalRangesFile, StandardCharsets.UTF_8));
+                    lines.removeIf(line -> line.trim().equals(range));
+                    Files.write(globalRangesFile, lines, StandardCharsets.UTF_8);
+                    recordOwnWrite(globalRangesFile);
+                } catch (IOException e) {
+                    logger.error("Failed to save global_ranges.txt", e);
+                    return false;
+                }
+
+                List<String> ranges = new ArrayList<>(current.globalRangeList());
+                ranges.remove(range);
+                snapshot = current.withGlobalRanges(ranges);
+                version.incrementAndGet();
+                return true;
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the global CIDR ranges currently in effect.
+     */
+    @Override
+    public List<String> getGlobalRanges() {
+        return snapshot.globalRangeList();
+    }
+
     /**
      * Retrieves a list of all usernames and their associated IP addresses in a formatted manner.
      *
@@ -215,13 +1059,14 @@ public class WhiteListManager {
      *
      * @return a list of formatted strings representing the whitelist.
      */
+    @Override
     public List<String> getAllowedIPs() {
         List<String> result = new ArrayList<>();
 
-        // Iterate over each entry in the usernameToIps map and format it
-        for (Map.Entry<String, List<String>> entry : usernameToIps.entrySet()) {
+        // The map iterator is weakly consistent: concurrent changes never make it throw
+        for (Map.Entry<String, UserAddresses> entry : snapshot.users().entrySet()) {
             String username = entry.getKey();
-            List<String> ips = entry.getValue();
+            List<String> ips = entry.getValue().ips();
             result.add(username + ": " + ips);
         }
 
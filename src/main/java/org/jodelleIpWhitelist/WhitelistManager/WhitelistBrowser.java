@@ -0,0 +1,228 @@
+package org.jodelleIpWhitelist.WhitelistManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Pages through the whitelist for /jodellewhitelist showips.
+ *
+ * The store is read once into two sorted arrays: usernames (case-insensitively) and every
+ * IP entry with the user it belongs to. A filter is a prefix, so both lookups are a binary
+ * search for the first match followed by a walk over the matches only. An unfiltered page
+ * is a plain slice of the username array. Nothing is formatted except the rows of the
+ * requested page, however large the whitelist is.
+ *
+ * The arrays are rebuilt the first time they are used after the store's version moved,
+ * so a burst of page requests between changes costs one read of the store.
+ *
+ * That copy is only made for stores that keep the whitelist in memory anyway. Stores that
+ * read it from disk on demand page themselves through {@link WhitelistStore#readUsersAfter}:
+ * each page starts after the last username of the page before, and the browser remembers
+ * where the pages it has seen start, so paging forward costs one small query per page.
+ */
+public final class WhitelistBrowser {
+
+    /**
+     * One page of results.
+     *
+     * @param rows    "username: ip1, ip2" lines of this page, in username order.
+     * @param page    the page number, starting at 1; clamped to the last page.
+     * @param pages   the number of pages (at least 1).
+     * @param matches the number of users matching the filter.
+     */
+    public record Page(List<String> rows, int page, int pages, int matches) {
+    }
+
+    /**
+     * The sorted arrays for one version of the store.
+     */
+    private record Index(long version, String[] keys, String[] usernames, List<String>[] ips,
+                         String[] ipKeys, int[] ipOwners) {
+    }
+
+    private record UserRow(String key, String username, List<String> ips) {
+    }
+
+    private record IpRef(String key, int owner) {
+    }
+
+    /**
+     * Where the pages of one filter start, for stores that page themselves.
+     *
+     * @param starts the last username before each page; null before the first one.
+     */
+    private record PageStarts(long version, String filter, List<String> starts) {
+    }
+
+    private final WhitelistStore store;
+    private final int pageSize;
+
+    private volatile Index index;
+
+    // Guarded by this
+    private PageStarts pageStarts;
+
+    public WhitelistBrowser(WhitelistStore store, int pageSize) {
+        this.store = store;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Returns one page of the users whose name, or one of whose IP entries, starts with the filter.
+     *
+     * @param page   the page number, starting at 1.
+     * @param filter a username or IP prefix (case-insensitive), or null for everyone.
+     */
+    public Page page(int page, String filter) {
+        if (!store.keepsUsersInMemory()) {
+            return pageFromStore(page, filter == null || filter.isEmpty() ? null : filter);
+        }
+
+        Index current = currentIndex();
+        int users = current.usernames().length;
+
+        if (filter == null || filter.isEmpty()) {
+            int pages = Math.max(1, (users + pageSize - 1) / pageSize);
+            int number = Math.min(Math.max(1, page), pages);
+            List<String> rows = new ArrayList<>(pageSize);
+            for (int i = (number - 1) * pageSize; i < Math.min(users, number * pageSize); i++) {
+                rows.add(row(current, i));
+            }
+            return new Page(rows, number, pages, users);
+        }
+
+        // Mark every matching user once; walking the bits then yields them in username order
+        String prefix = filter.toLowerCase(Locale.ROOT);
+        BitSet matches = new BitSet(users);
+        for (int i = lowerBound(current.keys(), prefix); i < users && current.keys()[i].startsWith(prefix); i++) {
+            matches.set(i);
+        }
+        String[] ipKeys = current.ipKeys();
+        for (int i = lowerBound(ipKeys, prefix); i < ipKeys.length && ipKeys[i].startsWith(prefix); i++) {
+            matches.set(current.ipOwners()[i]);
+        }
+
+        int count = matches.cardinality();
+        int pages = Math.max(1, (count + pageSize - 1) / pageSize);
+        int number = Math.min(Math.max(1, page), pages);
+        List<String> rows = new ArrayList<>(pageSize);
+        int skip = (number - 1) * pageSize;
+        for (int i = matches.nextSetBit(0); i >= 0 && rows.size() < pageSize; i = matches.nextSetBit(i + 1)) {
+            if (skip > 0) {
+                skip--;
+            } else {
+                rows.add(row(current, i));
+            }
+        }
+        return new Page(rows, number, pages, count);
+    }
+
+    private synchronized Page pageFromStore(int page, String filter) {
+        // Read before the store, so a change made meanwhile forgets these page starts next time
+        long version = store.version();
+        if (pageStarts == null || pageStarts.version() != version || !Objects.equals(pageStarts.filter(), filter)) {
+            List<String> starts = new ArrayList<>();
+            starts.add(null);
+            pageStarts = new PageStarts(version, filter, starts);
+        }
+
+        int count = store.countUsers(filter);
+        int pages = Math.max(1, (count + pageSize - 1) / pageSize);
+        int number = Math.min(Math.max(1, page), pages);
+
+        // Walk forward from the furthest page start known so far
+        List<String> starts = pageStarts.starts();
+        Map<String, List<String>> users = Map.of();
+        int shown = number;
+        for (int at = Math.min(number, starts.size()); at <= number; at++) {
+            Map<String, List<String>> read = store.readUsersAfter(starts.get(at - 1), filter, pageSize);
+            if (read.isEmpty()) {
+                // Fewer users than counted, some were removed meanwhile; show the last page found
+                break;
+            }
+            users = read;
+            shown = at;
+            if (starts.size() == at) {
+                starts.add(lastKey(read));
+            }
+        }
+
+        List<String> rows = new ArrayList<>(users.size());
+        users.forEach((username, ips) -> rows.add(username + ": " + String.join(", ", ips)));
+        return new Page(rows, shown, pages, count);
+    }
+
+    private static String lastKey(Map<String, List<String>> users) {
+        String last = null;
+        for (String username : users.keySet()) {
+            last = username;
+        }
+        return last;
+    }
+
+    private static String row(Index index, int user) {
+        return index.usernames()[user] + ": " + String.join(", ", index.ips()[user]);
+    }
+
+    /**
+     * @return the first position whose key is not smaller than the prefix.
+     */
+    private static int lowerBound(String[] keys, String prefix) {
+        int found = Arrays.binarySearch(keys, prefix);
+        return found >= 0 ? found : -found - 1;
+    }
+
+    private Index currentIndex() {
+        Index current = index;
+        if (current != null && current.version() == store.version()) {
+            return current;
+        }
+
+        synchronized (this) {
+            current = index;
+            // Read before the store, so a change made during the build forces another rebuild
+            long version = store.version();
+            if (current == null || current.version() != version) {
+                current = build(version);
+                index = current;
+            }
+            return current;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Index build(long version) {
+        List<UserRow> users = new ArrayList<>(store.size());
+        store.forEachUser((username, ips) -> users.add(new UserRow(username.toLowerCase(Locale.ROOT), username, ips)));
+        users.sort(Comparator.comparing(UserRow::key));
+
+        String[] keys = new String[users.size()];
+        String[] usernames = new String[users.size()];
+        List<String>[] ips = new List[users.size()];
+        List<IpRef> refs = new ArrayList<>();
+        for (int position = 0; position < keys.length; position++) {
+            UserRow user = users.get(position);
+            keys[position] = user.key();
+            usernames[position] = user.username();
+            ips[position] = user.ips();
+            for (String ip : user.ips()) {
+                refs.add(new IpRef(ip.toLowerCase(Locale.ROOT), position));
+            }
+        }
+
+        refs.sort(Comparator.comparing(IpRef::key));
+        String[] ipKeys = new String[refs.size()];
+        int[] ipOwners = new int[refs.size()];
+        for (int i = 0; i < ipKeys.length; i++) {
+            ipKeys[i] = refs.get(i).key();
+            ipOwners[i] = refs.get(i).owner();
+        }
+        return new Index(version, keys, usernames, ips, ipKeys, ipOwners);
+    }
+}
@@ -0,0 +1,109 @@
+package org.jodelleIpWhitelist.WhitelistManager;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Watches the plugin folder for outside edits to the whitelist files.
+ *
+ * Tools like the Discord bot tend to write a file in several steps, so events are debounced:
+ * the callback only runs once no further change has been seen for the debounce period.
+ * Writes the plugin made itself are filtered out by the given predicate.
+ */
+final class WhitelistFileWatcher {
+
+    private final Path directory;
+    private final Set<String> fileNames;
+    private final long debounceNanos;
+    private final Predicate<Path> isOwnWrite;
+    private final Runnable onChange;
+    private final Logger logger;
+
+    private WatchService watchService;
+    private Thread thread;
+
+    WhitelistFileWatcher(Path directory, Set<String> fileNames, long debounceMillis,
+                         Predicate<Path> isOwnWrite, Runnable onChange, Logger logger) {
+        this.directory = directory;
+        this.fileNames = fileNames;
+        this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, debounceMillis));
+        this.isOwnWrite = isOwnWrite;
+        this.onChange = onChange;
+        this.logger = logger;
+    }
+
+    void start() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        thread = new Thread(this::run, "JodelleIpWhitelist-FileWatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close the whitelist file watcher", e);
+            }
+        }
+    }
+
+    private void run() {
+        boolean pending = false;
+        long lastEvent = 0;
+
+        try {
+            while (true) {
+                WatchKey key;
+                if (pending) {
+                    long remaining = debounceNanos - (System.nanoTime() - lastEvent);
+                    key = remaining > 0 ? watchService.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                } else {
+                    key = watchService.take();
+                }
+
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            // Events were lost, so we cannot tell what changed; treat it as a change
+                            pending = true;
+                            lastEvent = System.nanoTime();
+                            continue;
+                        }
+                        Path name = (Path) event.context();
+                        if (fileNames.contains(name.toString()) && !isOwnWrite.test(directory.resolve(name))) {
+                            pending = true;
+                            lastEvent = System.nanoTime();
+                        }
+                    }
+                    key.reset();
+                    continue;
+                }
+
+                // Quiet for a full debounce period: apply the change
+                pending = false;
+                try {
+                    onChange.run();
+                } catch (RuntimeException e) {
+                    logger.error("Failed to apply whitelist file changes", e);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Shutting down
+        }
+    }
+}
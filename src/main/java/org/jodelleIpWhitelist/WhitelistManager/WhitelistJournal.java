@@ -0,0 +1,255 @@
+package org.jodelleIpWhitelist.WhitelistManager;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Append-only write-ahead log of whitelist mutations.
+ *
+ * Every add or remove is appended as one compact JSON line (["+","user","ip"]), so the
+ * cost of a mutation depends on the change, not on the size of the whitelist.
+ * On load the records are replayed on top of whitelist.json.
+ *
+ * Compaction rotates the active journal aside, writes a fresh whitelist.json and then
+ * deletes the rotated file. Replaying is idempotent (the last record for a user/IP pair
+ * wins), so a crash at any point during compaction loses nothing.
+ */
+public class WhitelistJournal {
+
+    private static final Gson GSON = new Gson();
+    private static final String ADD = "+";
+    private static final String REMOVE = "-";
+
+    private final Path journalFile;
+    private final Path rotatedFile;
+    private final boolean fsync;
+    private final Logger logger;
+
+    private FileChannel channel;
+    private long size;
+
+    public WhitelistJournal(Path whiteListFile, boolean fsync, Logger logger) {
+        this.journalFile = whiteListFile.resolveSibling(whiteListFile.getFileName() + ".journal");
+        this.rotatedFile = whiteListFile.resolveSibling(whiteListFile.getFileName() + ".journal.old");
+        this.fsync = fsync;
+        this.logger = logger;
+    }
+
+    public synchronized void appendAdd(String username, String ip) throws IOException {
+        append(record(ADD, username, ip));
+    }
+
+    public synchronized void appendRemove(String username, String ip) throws IOException {
+        append(record(REMOVE, username, ip));
+    }
+
+    /**
+     * Appends several additions with one write and, if enabled, one sync. Either all of them
+     * end up in the journal or, if the write fails, none.
+     *
+     * @param additions username to the IPs to record as added.
+     */
+    public synchronized void appendAdds(Map<String, ? extends Collection<String>> additions) throws IOException {
+        StringBuilder records = new StringBuilder();
+        for (Map.Entry<String, ? extends Collection<String>> entry : additions.entrySet()) {
+            for (String ip : entry.getValue()) {
+                records.append(record(ADD, entry.getKey(), ip));
+            }
+        }
+        if (!records.isEmpty()) {
+            append(records.toString());
+        }
+    }
+
+    private static String record(String op, String username, String ip) {
+        return GSON.toJson(new String[]{op, username, ip}) + "\n";
+    }
+
+    private void append(String records) throws IOException {
+        if (channel == null) {
+            open();
+        }
+        byte[] bytes = records.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (fsync) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            // Cut off whatever part made it, so a failed change never shows up on replay
+            try {
+                channel.truncate(size);
+            } catch (IOException ignored) {
+                // A torn last line is skipped on replay anyway
+            }
+            throw e;
+        }
+        size += bytes.length;
+    }
+
+    /**
+     * @return the number of bytes written to the active journal since the last compaction.
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Replays the rotated and the active journal (in that order).
+     *
+     * Only users that appear in the journal are touched: their IP lists are copied from
+     * {@code base} into {@code overlay} on first use and then modified there. A user whose
+     * list ends up empty has been removed.
+     *
+     * @param overlay receives the final IP list of every user touched by the journal.
+     * @param base    looks up a user's IPs as loaded from whitelist.json (null if unknown).
+     * @return the number of records replayed.
+     */
+    public synchronized int replay(Map<String, List<String>> overlay, Function<String, List<String>> base) {
+        Function<String, List<String>> seed = username -> {
+            List<String> ips = base.apply(username);
+            return ips == null ? new ArrayList<>() : new ArrayList<>(ips);
+        };
+        int replayed = replayFile(rotatedFile, overlay, seed) + replayFile(journalFile, overlay, seed);
+        dropTornTail(rotatedFile);
+        dropTornTail(journalFile);
+        try {
+            size = Files.exists(journalFile) ? Files.size(journalFile) : 0;
+        } catch (IOException e) {
+            size = 0;
+        }
+        return replayed;
+    }
+
+    private int replayFile(Path file, Map<String, List<String>> overlay, Function<String, List<String>> seed) {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+
+        int replayed = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] record;
+                try {
+                    record = GSON.fromJson(line, String[].class);
+                } catch (JsonParseException e) {
+                    record = null;
+                }
+                // A torn last line from a crash is expected; anything else is worth a warning
+                if (record == null || record.length != 3) {
+                    logger.warn("Skipping damaged record in {}: {}", file.getFileName(), line);
+                    continue;
+                }
+
+                String ip = record[2];
+                List<String> ips = overlay.computeIfAbsent(record[1], seed);
+                if (ADD.equals(record[0])) {
+                    if (!ips.contains(ip)) {
+                        ips.add(ip);
+                    }
+                } else if (REMOVE.equals(record[0])) {
+                    ips.remove(ip);
+                }
+                replayed++;
+            }
+        } catch (IOException e) {
+            logger.error("Failed to replay {}", file.getFileName(), e);
+        }
+        return replayed;
+    }
+
+    /**
+     * Cuts off a last line that a crash left unfinished. Otherwise the next record would be
+     * appended to it, and replay would skip both as one damaged line.
+     */
+    private void dropTornTail(Path file) {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (FileChannel tail = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long end = tail.size();
+            long keep = end;
+            ByteBuffer last = ByteBuffer.allocate(1);
+            while (keep > 0) {
+                last.clear();
+                tail.read(last, keep - 1);
+                if (last.get(0) == '\n') {
+                    break;
+                }
+                keep--;
+            }
+            if (keep < end) {
+                tail.truncate(keep);
+                logger.warn("Dropped an unfinished record at the end of {}", file.getFileName());
+            }
+        } catch (IOException e) {
+            logger.error("Could not check the end of {}", file.getFileName(), e);
+        }
+    }
+
+    /**
+     * Moves the active journal aside so a snapshot can be written while new
+     * mutations go to a fresh journal. Must be called while mutations are blocked,
+     * so the snapshot taken right after matches the rotated records exactly.
+     */
+    public synchronized void rotate() throws IOException {
+        closeChannel();
+        if (Files.exists(journalFile)) {
+            if (Files.exists(rotatedFile)) {
+                // An earlier compaction failed before finishing; keep both sets of records
+                Files.write(rotatedFile, Files.readAllBytes(journalFile), StandardOpenOption.APPEND);
+                Files.delete(journalFile);
+            } else {
+                Files.move(journalFile, rotatedFile, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        size = 0;
+    }
+
+    /**
+     * Deletes the rotated journal once its records are safely part of whitelist.json.
+     */
+    public synchronized void discardRotated() throws IOException {
+        Files.deleteIfExists(rotatedFile);
+    }
+
+    public synchronized void close() {
+        closeChannel();
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        size = channel.size();
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close the whitelist journal", e);
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.jodelleIpWhitelist.WhitelistManager;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Streams whitelist.json into compiled user entries.
+ *
+ * The file is read token by token with a {@link JsonReader}, so neither the whole text nor
+ * a parse tree is ever held in memory. Users are handed out in chunks to an executor that
+ * compiles them into {@link UserAddresses} in parallel while the reader keeps going.
+ */
+final class WhitelistLoader {
+
+    // Users per compile task; small files end up as a single task
+    private static final int CHUNK_SIZE = 4096;
+
+    private WhitelistLoader() {
+    }
+
+    /**
+     * Reads and compiles the whole file.
+     *
+     * @param file     the whitelist JSON file.
+     * @param executor where compile chunks run.
+     * @return username to compiled entry, ready to be published; empty if the file is empty.
+     * @throws IOException if the file cannot be read or is not a valid whitelist.
+     */
+    static ConcurrentHashMap<String, UserAddresses> load(Path file, Executor executor) throws IOException {
+        List<CompletableFuture<Map<String, UserAddresses>>> chunks = new ArrayList<>();
+
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+            JsonToken first;
+            try {
+                first = reader.peek();
+            } catch (EOFException e) {
+                return new ConcurrentHashMap<>(); // an empty file is an empty whitelist
+            }
+            if (first == JsonToken.NULL) {
+                return new ConcurrentHashMap<>();
+            }
+
+            String[] names = new String[CHUNK_SIZE];
+            List<List<String>> ips = new ArrayList<>(CHUNK_SIZE);
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                names[ips.size()] = reader.nextName();
+                ips.add(readIps(reader));
+
+                if (ips.size() == CHUNK_SIZE) {
+                    chunks.add(compileAsync(names, ips, executor));
+                    names = new String[CHUNK_SIZE];
+                    ips = new ArrayList<>(CHUNK_SIZE);
+                }
+            }
+            reader.endObject();
+
+            if (!ips.isEmpty()) {
+                chunks.add(compileAsync(names, ips, executor));
+            }
+        } catch (IllegalStateException e) {
+            // JsonReader reports structural problems (e.g. a number where an object belongs) this way
+            throw new IOException("whitelist.json is not a username to IP list object: " + e.getMessage(), e);
+        }
+
+        // Sized up front, so filling it never resizes; it becomes the live user map as is
+        ConcurrentHashMap<String, UserAddresses> users = new ConcurrentHashMap<>(Math.max(16, chunks.size() * CHUNK_SIZE));
+        try {
+            for (CompletableFuture<Map<String, UserAddresses>> chunk : chunks) {
+                users.putAll(chunk.join());
+            }
+        } catch (CompletionException e) {
+            throw new IOException("Failed to compile whitelist entries", e.getCause());
+        }
+        return users;
+    }
+
+    private static List<String> readIps(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return List.of();
+        }
+
+        List<String> ips = new ArrayList<>(2);
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else {
+                ips.add(reader.nextString());
+            }
+        }
+        reader.endArray();
+        return ips;
+    }
+
+    private static CompletableFuture<Map<String, UserAddresses>> compileAsync(String[] names, List<List<String>> ips, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            Map<String, UserAddresses> compiled = new HashMap<>(ips.size() * 4 / 3 + 1);
+            for (int i = 0; i < ips.size(); i++) {
+                compiled.put(names[i], UserAddresses.compile(ips.get(i)));
+            }
+            return compiled;
+        }, executor);
+    }
+}
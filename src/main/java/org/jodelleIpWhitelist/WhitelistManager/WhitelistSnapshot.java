@@ -0,0 +1,129 @@
+package org.jodelleIpWhitelist.WhitelistManager;
+
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The whole whitelist as logins see it: a concurrent user map plus the global ranges.
+ *
+ * The map's values are immutable {@link UserAddresses}. A mutation never changes one in
+ * place: {@link WhiteListManager} takes the user's stripe of its StripedLock, compiles a
+ * replacement, appends the change to the journal and then swaps the replacement in with
+ * a plain put on {@link #liveUsers}. Changes to the same user are serialized by the
+ * stripe, changes to users on other stripes run in parallel. A login check is one
+ * lock-free map read.
+ *
+ * The global ranges change rarely, so they are fixed per instance; changing them (or
+ * reloading everything) publishes a new instance with a single volatile write.
+ */
+public final class WhitelistSnapshot {
+
+    private final ConcurrentHashMap<String, UserAddresses> users;
+    private final List<String> globalRangeList;
+    private final AddressRanges globalRanges;
+
+    private WhitelistSnapshot(ConcurrentHashMap<String, UserAddresses> users, List<String> globalRangeList, AddressRanges globalRanges) {
+        this.users = users;
+        this.globalRangeList = globalRangeList;
+        this.globalRanges = globalRanges;
+    }
+
+    /**
+     * Wraps already compiled user entries and the global range list. The map becomes the
+     * live user map and must only be changed through the manager from then on.
+     */
+    static WhitelistSnapshot of(ConcurrentHashMap<String, UserAddresses> users, List<String> globalRangeList) {
+        List<String> ranges = List.copyOf(globalRangeList);
+        return new WhitelistSnapshot(users, ranges, AddressRanges.compile(ranges));
+    }
+
+    /**
+     * Returns an instance with a different global range list that shares this user map.
+     */
+    WhitelistSnapshot withGlobalRanges(List<String> rangeList) {
+        List<String> ranges = List.copyOf(rangeList);
+        return new WhitelistSnapshot(users, ranges, AddressRanges.compile(ranges));
+    }
+
+    /**
+     * Decides whether a login is allowed.
+     *
+     * The user must be whitelisted. Their address must then match one of their own
+     * IPs or ranges, or fall inside a global range.
+     *
+     * @param username the player's username.
+     * @param address  the address the player connected from.
+     * @return the decision, including the reason for a denial.
+     */
+    public LoginDecision decide(String username, InetAddress address) {
+        return decide(users.get(username), globalRanges, address);
+    }
+
+    /**
+     * The decision rules on their own, for stores that look users up elsewhere.
+     *
+     * @param entry the user's entry, or null if the user is not whitelisted.
+     */
+    static LoginDecision decide(UserAddresses entry, AddressRanges globalRanges, InetAddress address) {
+        if (entry == null) {
+            return LoginDecision.USER_NOT_FOUND;
+        }
+        if (entry.contains(address) || globalRanges.contains(address)) {
+            return LoginDecision.ALLOWED;
+        }
+        return entry.isEmpty() ? LoginDecision.NO_IP_ASSIGNED : LoginDecision.IP_MISMATCH;
+    }
+
+    public UserAddresses get(String username) {
+        return users.get(username);
+    }
+
+    /**
+     * @return the live user map; iterating it never throws, but may or may not see changes made meanwhile.
+     */
+    public Map<String, UserAddresses> users() {
+        return users;
+    }
+
+    /**
+     * The live map, for the manager's mutations.
+     */
+    ConcurrentHashMap<String, UserAddresses> liveUsers() {
+        return users;
+    }
+
+    /**
+     * @return the global CIDR ranges as written in global_ranges.txt.
+     */
+    public List<String> globalRangeList() {
+        return globalRangeList;
+    }
+
+    public AddressRanges globalRanges() {
+        return globalRanges;
+    }
+
+    public int size() {
+        return users.size();
+    }
+
+    /**
+     * Copies the users in the username to IP strings shape used by whitelist.json. The IP
+     * lists themselves are immutable and shared, so this only costs one map entry per user.
+     */
+    Map<String, List<String>> toData() {
+        return toData(users);
+    }
+
+    /**
+     * The same for a copy of the user map.
+     */
+    static Map<String, List<String>> toData(Map<String, UserAddresses> users) {
+        Map<String, List<String>> data = new LinkedHashMap<>();
+        users.forEach((username, entry) -> data.put(username, entry.ips()));
+        return data;
+    }
+}
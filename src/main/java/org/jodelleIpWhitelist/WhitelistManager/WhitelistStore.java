@@ -0,0 +1,237 @@
+package org.jodelleIpWhitelist.WhitelistManager;
+
+import org.jodelleIpWhitelist.Metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Where the whitelist lives and how logins are checked against it.
+ *
+ * There are two implementations, picked with whitelist.store in config.json:
+ * {@link WhiteListManager} keeps everything in whitelist.json and fully in memory, which
+ * is the fastest option for normal servers. {@link SqliteWhitelistStore} keeps the
+ * whitelist in whitelist.db and only caches the users that are actually logging in,
+ * so memory stays flat for very large communities.
+ *
+ * Implementations must be safe to call from the event threads and from commands at once.
+ */
+public interface WhitelistStore {
+
+    /**
+     * Told about entries that changed because the files were reloaded or edited by hand,
+     * as opposed to changes made through this interface.
+     */
+    interface ReloadListener {
+
+        /**
+         * @param added   username to the entries that appeared; global ranges are under "".
+         * @param removed username to the entries that disappeared; global ranges are under "".
+         */
+        void onReload(Map<String, List<String>> added, Map<String, List<String>> removed);
+    }
+
+    /**
+     * Told when a username joins or leaves the whitelist, so views over the usernames can
+     * follow single changes instead of re-reading the whole whitelist after each of them.
+     * Called on the thread that made the change, so implementations must be quick.
+     */
+    interface UserListener {
+
+        /**
+         * The user got their first entry. Called once lookups already see the user, and
+         * possibly also for a user who already had entries.
+         */
+        void onUserAdded(String username);
+
+        /**
+         * The user's last entry was removed.
+         */
+        void onUserRemoved(String username);
+
+        /**
+         * Any number of users may have changed at once: the whitelist was loaded, reloaded
+         * or bulk imported.
+         */
+        void onUsersReplaced();
+    }
+
+    /**
+     * Loads (or reloads) the whitelist. Errors are logged and keep the current state.
+     */
+    void loadWhitelistedIPs();
+
+    /**
+     * Reloads the whitelist on a background thread.
+     *
+     * @return a future completing with the number of whitelisted users.
+     */
+    CompletableFuture<Integer> reloadAsync();
+
+    /**
+     * Sets who is told about entries that later reloads and outside edits change. Stores
+     * whose entries only change through this interface ignore it.
+     */
+    default void setReloadListener(ReloadListener listener) {
+    }
+
+    /**
+     * Sets who is told about users joining or leaving the whitelist, whatever the cause.
+     * Stores that do not report single users call {@link UserListener#onUsersReplaced} only.
+     */
+    default void setUserListener(UserListener listener) {
+    }
+
+    /**
+     * Checks a login against the whitelist. This is called for every login.
+     *
+     * @param username the player's username.
+     * @param address  the address the player connected from.
+     * @return the decision, including the reason for a denial.
+     */
+    LoginDecision decide(String username, InetAddress address);
+
+    /**
+     * Checks a login only if that can be done from memory. The login listener calls this on
+     * the connection thread and hands the login to {@link #decide} on the async executor
+     * when it returns null.
+     *
+     * @return the decision, or null if making it would need a disk or database read.
+     */
+    default LoginDecision decideIfCached(String username, InetAddress address) {
+        return decide(username, address);
+    }
+
+    /**
+     * Finds which of a user's entries let an allowed login in, for usage tracking.
+     *
+     * @return the entry as stored, or null if the user is unknown or only a global range matches.
+     */
+    String findMatchingEntry(String username, InetAddress address);
+
+    /**
+     * @return the IP entries of a user, or an empty list if the user is not whitelisted.
+     */
+    List<String> getIpsForUsername(String username);
+
+    boolean containsUser(String username);
+
+    /**
+     * Same as {@link #containsUser}, but only if that can be answered from memory. For checks
+     * on the connection thread, which must never wait for a disk or database read.
+     *
+     * @return whether the user is whitelisted, or null if finding out would need a read.
+     */
+    default Boolean containsUserIfCached(String username) {
+        return containsUser(username);
+    }
+
+    /**
+     * Adds an IP address or CIDR range to a user, creating the user if needed.
+     *
+     * @return true if the entry was added and stored, false if it already existed or could not be saved.
+     */
+    boolean addIP(String username, String ip);
+
+    /**
+     * Removes an IP entry from a user. The user is removed with their last entry.
+     *
+     * @return true if the entry was removed, false if it did not exist or could not be saved.
+     */
+    boolean removeIP(String username, String ip);
+
+    /**
+     * Adds many entries as one batch that is stored with a single write. Entries that
+     * already exist are skipped. Either the whole batch is stored or none of it.
+     *
+     * @param entries username to the IP entries to add; must already be validated.
+     * @return the number of entries that were new.
+     * @throws IOException if the batch could not be stored; the whitelist is then unchanged.
+     */
+    int addAll(Map<String, ? extends Collection<String>> entries) throws IOException;
+
+    /**
+     * Adds a handful of entries as one batch, without rewriting the whole whitelist the way
+     * {@link #addAll} may. Meant for small batches that arrive often, like the admin API's;
+     * bulk imports should keep using {@link #addAll}. Same all-or-nothing guarantee.
+     *
+     * @param entries username to the IP entries to add; must already be validated.
+     * @return the number of entries that were new.
+     * @throws IOException if the batch could not be stored; the whitelist is then unchanged.
+     */
+    default int addBatch(Map<String, ? extends Collection<String>> entries) throws IOException {
+        return addAll(entries);
+    }
+
+    /**
+     * Calls the action for every user and their IP entries, without building a full copy first.
+     */
+    void forEachUser(BiConsumer<String, List<String>> action);
+
+    /**
+     * @return false if the whitelist is read from storage on demand, so views over it should
+     * page with {@link #readUsersAfter} instead of copying it all into memory.
+     */
+    default boolean keepsUsersInMemory() {
+        return true;
+    }
+
+    /**
+     * Reads the next users in username order, for stores that do not keep them in memory.
+     *
+     * @param after  the last username of the previous page, or null to start at the first user.
+     * @param filter a username or IP prefix (case-insensitive), or null for everyone.
+     * @param limit  the most users to return.
+     * @return username to IP entries, in username order.
+     */
+    default Map<String, List<String>> readUsersAfter(String after, String filter, int limit) {
+        throw new UnsupportedOperationException("This store keeps its users in memory");
+    }
+
+    /**
+     * @return the number of users {@link #readUsersAfter} returns for the filter in total.
+     */
+    default int countUsers(String filter) {
+        throw new UnsupportedOperationException("This store keeps its users in memory");
+    }
+
+    /**
+     * Adds a CIDR range that is allowed for every whitelisted user.
+     */
+    boolean addGlobalRange(String range);
+
+    boolean removeGlobalRange(String range);
+
+    List<String> getGlobalRanges();
+
+    /**
+     * @return every user formatted as "username: [ip1, ip2, ...]".
+     */
+    List<String> getAllowedIPs();
+
+    /**
+     * @return the number of whitelisted users.
+     */
+    int size();
+
+    /**
+     * @return a number that changes after every change to the whitelist (including reloads),
+     * so views built from it know when to rebuild.
+     */
+    long version();
+
+    /**
+     * @return how long whitelist loads have taken.
+     */
+    LatencyHistogram getReloadLatency();
+
+    /**
+     * Releases files, connections and threads. Everything already stored is kept.
+     */
+    void close();
+}
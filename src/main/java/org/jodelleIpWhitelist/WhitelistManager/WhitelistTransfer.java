@@ -0,0 +1,392 @@
+package org.jodelleIpWhitelist.WhitelistManager;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import org.jodelleIpWhitelist.Util.AddressCodec;
+import org.jodelleIpWhitelist.Util.Cidr;
+import org.jodelleIpWhitelist.Util.Usernames;
+import org.slf4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Bulk import and export of the whitelist, for onboarding a community or migrating
+ * from another plugin without thousands of addip calls.
+ *
+ * Two formats are understood, picked by file extension:
+ * - .csv: one row per line, "username,ip[,ip...]". A header row and lines starting with # are skipped.
+ * - .jsonl: one JSON object per line, {"username": "...", "ip": "..."} or {"username": "...", "ips": [...]}.
+ *
+ * Files are streamed through buffered channels, so a file with millions of rows never has to
+ * fit in memory as text. Every row is validated and deduplicated while reading, and the result
+ * is handed to the store as one batch, which stores it with a single write. Files must lie
+ * inside the plugin folder, so a command can never read or overwrite anything else.
+ *
+ * Only one transfer runs at a time, on its own thread.
+ */
+public final class WhitelistTransfer {
+
+    // Big buffers: these files are read and written front to back exactly once
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    // How often a running transfer reports its progress
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    // Invalid rows are logged with their line number, up to this many per import
+    private static final int MAX_LOGGED_INVALID = 20;
+
+    /**
+     * What an import did.
+     */
+    public record ImportResult(long rows, int users, int added, long duplicates, long invalid, long millis) {
+    }
+
+    /**
+     * What an export wrote.
+     */
+    public record ExportResult(int users, long entries, long millis) {
+    }
+
+    private final WhitelistStore store;
+    private final Path directory;
+    private final Logger logger;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "JodelleIpWhitelist-Transfer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public WhitelistTransfer(WhitelistStore store, Path directory, Logger logger) {
+        this.store = store;
+        this.directory = directory.toAbsolutePath().normalize();
+        this.logger = logger;
+    }
+
+    /**
+     * Resolves a file name given in a command against the plugin folder.
+     *
+     * @return the path, or null if it would point outside the plugin folder or has an unknown extension.
+     */
+    public Path resolve(String name) {
+        Path file = directory.resolve(name).normalize();
+        if (!file.startsWith(directory) || file.equals(directory) || formatOf(file) == null) {
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Reads, validates and deduplicates a file, then adds it to the whitelist as one batch.
+     *
+     * @param progress receives a line of progress every few seconds.
+     * @return the result, or a failed future if another transfer is running or the file cannot be read.
+     */
+    public CompletableFuture<ImportResult> importFile(Path file, Consumer<String> progress) {
+        return run(() -> {
+            long start = System.nanoTime();
+            ImportBatch batch = read(file, progress);
+            progress.accept("Read " + batch.rows + " rows, storing " + batch.entries.size() + " users...");
+            int added = store.addAll(batch.entries);
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            logger.info("Imported {} new whitelist entries from {} ({} rows, {} duplicates, {} invalid) in {} ms",
+                    added, file.getFileName(), batch.rows, batch.duplicates, batch.invalid, millis);
+            return new ImportResult(batch.rows, batch.entries.size(), added, batch.duplicates, batch.invalid, millis);
+        });
+    }
+
+    /**
+     * Writes the whole whitelist to a file. The file is written next to its target and
+     * moved into place at the end, so a half-written export never replaces a good one.
+     */
+    public CompletableFuture<ExportResult> exportFile(Path file, Consumer<String> progress) {
+        return run(() -> {
+            long start = System.nanoTime();
+            boolean csv = "csv".equals(formatOf(file));
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            int[] users = new int[1];
+            long[] entries = new long[1];
+            long[] lastReport = {start};
+
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                 BufferedWriter writer = new BufferedWriter(
+                         Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1), BUFFER_SIZE)) {
+                if (csv) {
+                    writer.write("username,ip");
+                    writer.newLine();
+                }
+                store.forEachUser((username, ips) -> {
+                    try {
+                        if (csv) {
+                            for (String ip : ips) {
+                                writer.write(username);
+                                writer.write(',');
+                                writer.write(ip);
+                                writer.newLine();
+                            }
+                        } else {
+                            writer.write(toJsonLine(username, ips));
+                            writer.newLine();
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    users[0]++;
+                    entries[0] += ips.size();
+                    long now = System.nanoTime();
+                    if (now - lastReport[0] >= PROGRESS_INTERVAL_NANOS) {
+                        lastReport[0] = now;
+                        progress.accept("Exported " + users[0] + " users so far...");
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                Files.deleteIfExists(temp);
+                throw e.getCause();
+            } catch (IOException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return new ExportResult(users[0], entries[0], TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        });
+    }
+
+    private interface Transfer<T> {
+        T run() throws IOException;
+    }
+
+    private <T> CompletableFuture<T> run(Transfer<T> transfer) {
+        if (!running.compareAndSet(false, true)) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Another import or export is still running"));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return transfer.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                running.set(false);
+            }
+        }, executor);
+    }
+
+    /**
+     * The validated content of an import file.
+     */
+    private static final class ImportBatch {
+        final Map<String, Set<String>> entries = new HashMap<>();
+        long rows;
+        long duplicates;
+        long invalid;
+    }
+
+    private ImportBatch read(Path file, Consumer<String> progress) throws IOException {
+        boolean csv = "csv".equals(formatOf(file));
+        ImportBatch batch = new ImportBatch();
+        long size = Files.size(file);
+        long consumed = 0;
+        long lineNumber = 0;
+        long lastReport = System.nanoTime();
+        List<String> ips = new ArrayList<>();
+        boolean seenRow = false;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             BufferedReader reader = new BufferedReader(
+                     Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1), BUFFER_SIZE)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                // Close enough for progress; exact byte counts would mean encoding every line again
+                consumed += line.length() + 1;
+
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+
+                ips.clear();
+                String username = csv ? parseCsv(trimmed, ips) : parseJsonLine(trimmed, ips);
+                boolean firstRow = !seenRow;
+                seenRow = true;
+                if (username == null) {
+                    reportInvalid(batch, file, lineNumber, "not a valid row");
+                    continue;
+                }
+                // A header row such as "username,ip" is not an error
+                if (csv && firstRow && !isValidEntry(ips.get(0))) {
+                    continue;
+                }
+                if (!Usernames.isValid(username)) {
+                    reportInvalid(batch, file, lineNumber, "invalid username " + username);
+                    continue;
+                }
+
+                for (String ip : ips) {
+                    batch.rows++;
+                    if (!isValidEntry(ip)) {
+                        reportInvalid(batch, file, lineNumber, "invalid IP " + ip);
+                        continue;
+                    }
+                    if (!batch.entries.computeIfAbsent(username, key -> new LinkedHashSet<>()).add(ip)) {
+                        batch.duplicates++;
+                    }
+                }
+
+                long now = System.nanoTime();
+                if (now - lastReport >= PROGRESS_INTERVAL_NANOS) {
+                    lastReport = now;
+                    int percent = size == 0 ? 100 : (int) Math.min(100, consumed * 100 / size);
+                    progress.accept("Import: " + batch.rows + " rows read (" + percent + "%)");
+                }
+            }
+        }
+        return batch;
+    }
+
+    private void reportInvalid(ImportBatch batch, Path file, long lineNumber, String problem) {
+        if (++batch.invalid <= MAX_LOGGED_INVALID) {
+            logger.warn("{} line {}: {}, skipped", file.getFileName(), lineNumber, problem);
+        }
+    }
+
+    /**
+     * Splits "username,ip[,ip...]". Surrounding quotes and blanks are ignored.
+     *
+     * @return the username, or null if the row has no IP column.
+     */
+    private static String parseCsv(String line, List<String> ips) {
+        int comma = line.indexOf(',');
+        if (comma < 0) {
+            return null;
+        }
+        String username = unquote(line.substring(0, comma));
+        int start = comma + 1;
+        while (start <= line.length()) {
+            int end = line.indexOf(',', start);
+            if (end < 0) {
+                end = line.length();
+            }
+            String ip = unquote(line.substring(start, end));
+            if (!ip.isEmpty()) {
+                ips.add(ip);
+            }
+            start = end + 1;
+        }
+        return ips.isEmpty() ? null : username;
+    }
+
+    private static String unquote(String value) {
+        String trimmed = value.trim();
+        if (trimmed.length() >= 2 && trimmed.charAt(0) == '"' && trimmed.charAt(trimmed.length() - 1) == '"') {
+            return trimmed.substring(1, trimmed.length() - 1).trim();
+        }
+        return trimmed;
+    }
+
+    /**
+     * @return the username, or null if the line is not an object with a username and at least one IP.
+     */
+    private static String parseJsonLine(String line, List<String> ips) {
+        try {
+            JsonElement parsed = JsonParser.parseString(line);
+            if (!parsed.isJsonObject()) {
+                return null;
+            }
+            JsonObject object = parsed.getAsJsonObject();
+            JsonElement username = object.get("username");
+            if (username == null || !username.isJsonPrimitive()) {
+                return null;
+            }
+
+            JsonElement ip = object.get("ip");
+            if (ip != null && ip.isJsonPrimitive()) {
+                ips.add(ip.getAsString().trim());
+            }
+            JsonElement list = object.get("ips");
+            if (list != null && list.isJsonArray()) {
+                for (JsonElement element : list.getAsJsonArray()) {
+                    if (element.isJsonPrimitive()) {
+                        ips.add(element.getAsString().trim());
+                    }
+                }
+            }
+            return ips.isEmpty() ? null : username.getAsString().trim();
+        } catch (JsonParseException | IllegalStateException e) {
+            return null;
+        }
+    }
+
+    private static String toJsonLine(String username, List<String> ips) throws IOException {
+        StringWriter out = new StringWriter(32 + ips.size() * 20);
+        try (JsonWriter json = new JsonWriter(out)) {
+            json.beginObject().name("username").value(username).name("ips").beginArray();
+            for (String ip : ips) {
+                json.value(ip);
+            }
+            json.endArray().endObject();
+        }
+        return out.toString();
+    }
+
+    private static boolean isValidEntry(String entry) {
+        if (Cidr.isCidr(entry)) {
+            return Cidr.parse(entry) != null;
+        }
+        return AddressCodec.isValidAddress(entry);
+    }
+
+    /**
+     * @return "csv", "jsonl" or null for anything else.
+     */
+    private static String formatOf(Path file) {
+        String name = file.getFileName() == null ? "" : file.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".csv")) {
+            return "csv";
+        }
+        if (name.endsWith(".jsonl")) {
+            return "jsonl";
+        }
+        return null;
+    }
+
+    /**
+     * Stops the transfer thread. A transfer still running is allowed to finish.
+     */
+    public void close() {
+        executor.shutdown();
+    }
+}
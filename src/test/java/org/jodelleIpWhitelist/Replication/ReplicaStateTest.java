@@ -0,0 +1,77 @@
+package org.jodelleIpWhitelist.Replication;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplicaStateTest {
+
+    @Test
+    void laterChangesWin() {
+        ReplicaState.Change older = new ReplicaState.Change(100, "node-b", true);
+        ReplicaState.Change newer = new ReplicaState.Change(200, "node-a", false);
+        assertTrue(newer.newerThan(older));
+        assertFalse(older.newerThan(newer));
+        assertTrue(older.newerThan(null));
+    }
+
+    @Test
+    void equalTimesAreDecidedByOrigin() {
+        ReplicaState.Change fromA = new ReplicaState.Change(100, "node-a", true);
+        ReplicaState.Change fromB = new ReplicaState.Change(100, "node-b", false);
+        assertTrue(fromB.newerThan(fromA));
+        assertFalse(fromA.newerThan(fromB));
+        // A change is never newer than itself, so replaying it is a no-op
+        assertFalse(fromA.newerThan(new ReplicaState.Change(100, "node-a", true)));
+    }
+
+    @Test
+    void roundTripsEntriesTombstonesAndSequences() throws IOException {
+        ReplicaState state = new ReplicaState(Map.of(
+                ReplicaState.key("Steve", "1.1.1.1"), new ReplicaState.Change(100, "node-a", true),
+                ReplicaState.key("Alex", "10.0.0.0/8"), new ReplicaState.Change(200, "node-b", false),
+                ReplicaState.key("", "192.168.0.0/16"), new ReplicaState.Change(0, "", true)),
+                Map.of("node-a", 7L, "node-b", 3L));
+
+        StringWriter out = new StringWriter();
+        state.write(out);
+        BufferedReader in = new BufferedReader(new StringReader(out + "trailing data\n"));
+        ReplicaState read = ReplicaState.read(in::readLine);
+
+        assertEquals(state.entries(), read.entries());
+        assertEquals(state.sequences(), read.sequences());
+        // Reading stops at the closing dot
+        assertEquals("trailing data", in.readLine());
+    }
+
+    @Test
+    void rejectsDamagedStates() {
+        assertThrows(IOException.class, () -> read("S\tnode-a\t1\n"));
+        assertThrows(IllegalArgumentException.class, () -> read("+\t100\tnode-a\tSteve\n.\n"));
+        assertThrows(IllegalArgumentException.class, () -> read("+\t100\t\tSteve\t1.1.1.1\n.\n"));
+        assertThrows(IllegalArgumentException.class, () -> read("+\t100\tnode-a\tSteve\tnot-an-ip\n.\n"));
+        assertThrows(IllegalArgumentException.class, () -> read("?\n.\n"));
+    }
+
+    @Test
+    void keysSplitBackIntoUsernameAndValue() {
+        String key = ReplicaState.key("Steve", "2001:db8::/32");
+        assertEquals("Steve", ReplicaState.username(key));
+        assertEquals("2001:db8::/32", ReplicaState.value(key));
+        assertEquals("", ReplicaState.username(ReplicaState.key("", "10.0.0.0/8")));
+    }
+
+    private static ReplicaState read(String text) throws IOException {
+        BufferedReader in = new BufferedReader(new StringReader(text));
+        return ReplicaState.read(in::readLine);
+    }
+}
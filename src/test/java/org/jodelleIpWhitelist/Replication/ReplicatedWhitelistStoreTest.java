@@ -0,0 +1,194 @@
+package org.jodelleIpWhitelist.Replication;
+
+import org.jodelleIpWhitelist.Config.PluginConfig;
+import org.jodelleIpWhitelist.WhitelistManager.WhiteListManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.helpers.NOPLogger;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Last-writer-wins merging of changes and full states from other proxies, including
+ * removed entries (tombstones). The transport is replaced by one that only records what
+ * the store publishes and hands out the store's receiver.
+ */
+class ReplicatedWhitelistStoreTest {
+
+    private static final Logger LOGGER = NOPLogger.NOP_LOGGER;
+    private static final long MINUTE = 60_000;
+
+    @TempDir
+    Path directory;
+
+    private RecordingTransport transport;
+    private ReplicatedWhitelistStore store;
+    private ReplicationTransport.Receiver receiver;
+    private long now;
+
+    @BeforeEach
+    void startStore() {
+        PluginConfig.Whitelist whitelistConfig = new PluginConfig.Whitelist();
+        whitelistConfig.journalFsync = false;
+        WhiteListManager local = new WhiteListManager(LOGGER, whitelistConfig, directory);
+        local.loadWhitelistedIPs();
+
+        PluginConfig.Replication config = new PluginConfig.Replication();
+        config.enabled = true;
+        config.nodeId = "node-a";
+        transport = new RecordingTransport();
+        store = new ReplicatedWhitelistStore(local, transport, config, directory, LOGGER);
+        store.start();
+        receiver = transport.receiver;
+        now = System.currentTimeMillis();
+    }
+
+    @AfterEach
+    void closeStore() {
+        store.close();
+    }
+
+    @Test
+    void publishesLocalChanges() {
+        assertTrue(store.addIP("Steve", "1.1.1.1"));
+        assertEquals(1, transport.published.size());
+        WhitelistDelta delta = transport.published.get(0);
+        assertEquals("node-a", delta.origin());
+        assertEquals(WhitelistDelta.Op.ADD_IP, delta.op());
+        assertEquals(receiver.appliedSequence("node-a"), delta.sequence());
+    }
+
+    @Test
+    void newerRemoteRemovalWins() {
+        store.addIP("Steve", "1.1.1.1");
+        receiver.onDeltas(List.of(delta("node-b", 1, now + MINUTE, WhitelistDelta.Op.REMOVE_IP, "Steve", "1.1.1.1")));
+
+        assertFalse(store.containsUser("Steve"));
+        ReplicaState.Change tombstone = receiver.snapshot().entries().get(ReplicaState.key("Steve", "1.1.1.1"));
+        assertFalse(tombstone.present());
+        assertEquals("node-b", tombstone.origin());
+    }
+
+    @Test
+    void olderRemoteRemovalIsStale() {
+        store.addIP("Steve", "1.1.1.1");
+        receiver.onDeltas(List.of(delta("node-b", 1, now - MINUTE, WhitelistDelta.Op.REMOVE_IP, "Steve", "1.1.1.1")));
+
+        assertEquals(List.of("1.1.1.1"), store.getIpsForUsername("Steve"));
+        assertEquals(1, receiver.appliedSequence("node-b"));
+    }
+
+    @Test
+    void tombstoneKeepsAnOlderAddOut() {
+        receiver.onDeltas(List.of(delta("node-b", 1, now + MINUTE, WhitelistDelta.Op.REMOVE_IP, "Steve", "1.1.1.1")));
+        receiver.onDeltas(List.of(delta("node-c", 1, now, WhitelistDelta.Op.ADD_IP, "Steve", "1.1.1.1")));
+        assertFalse(store.containsUser("Steve"));
+
+        receiver.onDeltas(List.of(delta("node-c", 2, now + 2 * MINUTE, WhitelistDelta.Op.ADD_IP, "Steve", "1.1.1.1")));
+        assertEquals(List.of("1.1.1.1"), store.getIpsForUsername("Steve"));
+    }
+
+    @Test
+    void equalTimesPickTheSameWinnerInAnyOrder() {
+        long time = now + MINUTE;
+        receiver.onDeltas(List.of(
+                delta("node-c", 1, time, WhitelistDelta.Op.REMOVE_IP, "Steve", "1.1.1.1"),
+                delta("node-b", 1, time, WhitelistDelta.Op.ADD_IP, "Steve", "1.1.1.1"),
+                delta("node-b", 2, time, WhitelistDelta.Op.ADD_IP, "Alex", "2.2.2.2"),
+                delta("node-c", 2, time, WhitelistDelta.Op.REMOVE_IP, "Alex", "2.2.2.2")));
+
+        assertFalse(store.containsUser("Steve"));
+        assertFalse(store.containsUser("Alex"));
+    }
+
+    @Test
+    void waitsForMissingChanges() {
+        int handled = receiver.onDeltas(List.of(
+                delta("node-b", 2, now, WhitelistDelta.Op.ADD_IP, "Steve", "1.1.1.1"),
+                delta("node-c", 1, now, WhitelistDelta.Op.ADD_IP, "Alex", "2.2.2.2")));
+
+        assertEquals(0, handled);
+        assertFalse(store.containsUser("Steve"));
+        assertTrue(store.containsUser("Alex"));
+        assertEquals(0, receiver.appliedSequence("node-b"));
+    }
+
+    @Test
+    void mergesFullStates() {
+        store.addIP("Steve", "1.1.1.1");
+
+        Map<String, ReplicaState.Change> entries = new HashMap<>();
+        // New on the other proxy
+        entries.put(ReplicaState.key("Alex", "2.2.2.2"), new ReplicaState.Change(now + MINUTE, "node-b", true));
+        // Removed there after it was added here
+        entries.put(ReplicaState.key("user1", "127.0.0.1"), new ReplicaState.Change(now + MINUTE, "node-b", false));
+        // Removed there, but added here later
+        entries.put(ReplicaState.key("Steve", "1.1.1.1"), new ReplicaState.Change(now - MINUTE, "node-b", false));
+        // Removed there and unknown here
+        entries.put(ReplicaState.key("Herobrine", "3.3.3.3"), new ReplicaState.Change(now, "node-b", false));
+        receiver.onState(new ReplicaState(entries, Map.of("node-b", 5L)));
+
+        assertEquals(List.of("2.2.2.2"), store.getIpsForUsername("Alex"));
+        assertFalse(store.containsUser("user1"));
+        assertEquals(List.of("1.1.1.1"), store.getIpsForUsername("Steve"));
+        assertFalse(store.containsUser("Herobrine"));
+        assertEquals(5, receiver.appliedSequence("node-b"));
+
+        Map<String, ReplicaState.Change> merged = receiver.snapshot().entries();
+        assertFalse(merged.get(ReplicaState.key("Herobrine", "3.3.3.3")).present());
+        assertTrue(merged.get(ReplicaState.key("Steve", "1.1.1.1")).present());
+    }
+
+    @Test
+    void equalDigestsForEqualEntries() {
+        long before = receiver.digest();
+        store.addIP("Steve", "1.1.1.1");
+        assertFalse(before == receiver.digest());
+        store.removeIP("Steve", "1.1.1.1");
+        assertEquals(before, receiver.digest());
+    }
+
+    private static WhitelistDelta delta(String origin, long sequence, long time, WhitelistDelta.Op op,
+                                        String username, String value) {
+        return new WhitelistDelta(origin, sequence, time, op, username, value);
+    }
+
+    private static final class RecordingTransport implements ReplicationTransport {
+        private final List<WhitelistDelta> published = new ArrayList<>();
+        private Receiver receiver;
+
+        @Override
+        public void start(Receiver receiver) {
+            this.receiver = receiver;
+        }
+
+        @Override
+        public void publish(List<WhitelistDelta> deltas) {
+            published.addAll(deltas);
+        }
+
+        @Override
+        public void antiEntropy() {
+        }
+
+        @Override
+        public String describePeers() {
+            return "";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
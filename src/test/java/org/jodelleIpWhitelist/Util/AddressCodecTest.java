@@ -0,0 +1,106 @@
+package org.jodelleIpWhitelist.Util;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AddressCodecTest {
+
+    @Test
+    void parsesIPv4Bounds() {
+        assertEquals(0L, AddressCodec.parseIPv4("0.0.0.0"));
+        assertEquals(0xFFFFFFFFL, AddressCodec.parseIPv4("255.255.255.255"));
+        assertEquals(0xC0A80117L, AddressCodec.parseIPv4("192.168.1.23"));
+    }
+
+    @Test
+    void rejectsMalformedIPv4() {
+        String[] invalid = {"", "1.2.3", "1.2.3.4.5", "256.0.0.1", "1.2.3.4.", ".1.2.3.4", "1..2.3",
+                "1.2.3.1000", "0001.2.3.4", "1.2.3.-4", "1.2.3.4 ", " 1.2.3.4", "a.b.c.d", "1.2.3.4/8"};
+        for (String text : invalid) {
+            assertEquals(-1L, AddressCodec.parseIPv4(text), text);
+        }
+        assertEquals(-1L, AddressCodec.parseIPv4(null));
+    }
+
+    @Test
+    void parsesIPv6Forms() {
+        long[] out = new long[2];
+
+        assertTrue(AddressCodec.parseIPv6("2001:db8::1", out));
+        assertEquals(0x20010DB800000000L, out[0]);
+        assertEquals(1L, out[1]);
+
+        assertTrue(AddressCodec.parseIPv6("::", out));
+        assertEquals(0L, out[0]);
+        assertEquals(0L, out[1]);
+
+        assertTrue(AddressCodec.parseIPv6("1:2:3:4:5:6:7:8", out));
+        assertEquals(0x0001000200030004L, out[0]);
+        assertEquals(0x0005000600070008L, out[1]);
+
+        assertTrue(AddressCodec.parseIPv6("1:2:3:4:5:6:7::", out));
+        assertEquals(0x0005000600070000L, out[1]);
+
+        assertTrue(AddressCodec.parseIPv6("FE80::ABCD", out));
+        assertEquals(0xFE80000000000000L, out[0]);
+        assertEquals(0xABCDL, out[1]);
+    }
+
+    @Test
+    void parsesDottedIPv4Tail() {
+        long[] out = new long[2];
+        assertTrue(AddressCodec.parseIPv6("::ffff:192.168.1.23", out));
+        assertTrue(AddressCodec.isIPv4Mapped(out[0], out[1]));
+        assertEquals(0xC0A80117L, out[1] & 0xFFFFFFFFL);
+
+        assertTrue(AddressCodec.parseIPv6("::1.2.3.4", out));
+        assertFalse(AddressCodec.isIPv4Mapped(out[0], out[1]));
+        assertEquals(0x01020304L, out[1]);
+
+        assertFalse(AddressCodec.parseIPv6("::ffff:1.2.3", null));
+        assertFalse(AddressCodec.parseIPv6("::1.2.3.4:5", null));
+    }
+
+    @Test
+    void rejectsMalformedIPv6() {
+        String[] invalid = {"", ":", ":1", "1:", "1::2::3", "12345::", "1:2:3:4:5:6:7:8:9", "1:2:3:4:5:6:7:8::",
+                "::1:2:3:4:5:6:7:8", "fe80::1%eth0", "g::1", "1:2:3:4:5:6:7", ":::1", "[::1]",
+                "1:2:3:4:5:6:7:1.2.3.4"};
+        for (String text : invalid) {
+            assertFalse(AddressCodec.parseIPv6(text, null), text);
+        }
+        assertFalse(AddressCodec.parseIPv6(null, null));
+    }
+
+    @Test
+    void validatesEitherFamily() {
+        assertTrue(AddressCodec.isValidAddress("10.0.0.1"));
+        assertTrue(AddressCodec.isValidAddress("::1"));
+        assertFalse(AddressCodec.isValidAddress("10.0.0.0/8"));
+        assertFalse(AddressCodec.isValidAddress("localhost"));
+    }
+
+    @Test
+    void convertsConnectionAddresses() throws Exception {
+        // Addresses with the top bit set must come out as the same negative int as the text form
+        for (String text : new String[]{"0.0.0.0", "127.0.0.1", "200.1.2.3", "255.255.255.255"}) {
+            Inet4Address address = (Inet4Address) InetAddress.getByName(text);
+            int value = AddressCodec.toInt(address);
+            assertEquals((int) AddressCodec.parseIPv4(text), value, text);
+            assertEquals(text, AddressCodec.formatIPv4(value));
+        }
+    }
+
+    @Test
+    void readsBigEndianLongs() {
+        byte[] bytes = {0, 1, 2, 3, 4, 5, 6, 7, 8, (byte) 0xFF};
+        assertEquals(0x0102030405060708L, AddressCodec.readLong(bytes, 1));
+        assertEquals(0x02030405060708FFL, AddressCodec.readLong(bytes, 2));
+    }
+}
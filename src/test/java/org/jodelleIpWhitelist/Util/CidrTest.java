@@ -0,0 +1,140 @@
+package org.jodelleIpWhitelist.Util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CidrTest {
+
+    @Test
+    void parsesIPv4Ranges() {
+        Cidr range = Cidr.parse("10.0.0.0/8");
+        assertNotNull(range);
+        assertFalse(range.ipv6());
+        assertEquals(8, range.prefixLength());
+        assertEquals(10L << 56, range.high());
+        assertEquals(0L, range.low());
+    }
+
+    @Test
+    void keepsHostBits() {
+        // Host bits are allowed; matching only looks at the prefix
+        Cidr range = Cidr.parse("10.1.2.3/8");
+        assertNotNull(range);
+        assertEquals(0x0A010203L << 32, range.high());
+    }
+
+    @Test
+    void checksPrefixBounds() {
+        assertNotNull(Cidr.parse("0.0.0.0/0"));
+        assertNotNull(Cidr.parse("1.2.3.4/32"));
+        assertNull(Cidr.parse("1.2.3.4/33"));
+        assertNotNull(Cidr.parse("::/0"));
+        assertNotNull(Cidr.parse("::/128"));
+        assertNull(Cidr.parse("::/129"));
+    }
+
+    @Test
+    void parsesIPv6Ranges() {
+        Cidr range = Cidr.parse("2001:db8::/32");
+        assertNotNull(range);
+        assertTrue(range.ipv6());
+        assertEquals(32, range.prefixLength());
+        assertEquals(0x20010DB800000000L, range.high());
+        assertEquals(0L, range.low());
+
+        Cidr host = Cidr.parse("2001:db8::1/128");
+        assertNotNull(host);
+        assertEquals(1L, host.low());
+    }
+
+    @Test
+    void foldsMappedRangesToIPv4() {
+        Cidr range = Cidr.parse("::ffff:10.0.0.0/104");
+        assertNotNull(range);
+        assertFalse(range.ipv6());
+        assertEquals(8, range.prefixLength());
+        assertEquals(10L << 56, range.high());
+
+        // Too short to cover the mapped prefix, so it stays an IPv6 range
+        Cidr wide = Cidr.parse("::ffff:10.0.0.0/95");
+        assertNotNull(wide);
+        assertTrue(wide.ipv6());
+    }
+
+    @Test
+    void rejectsMalformedRanges() {
+        String[] invalid = {"", "/8", "10.0.0.0", "10.0.0.0/", "10.0.0.0/a", "10.0.0.0/-1", "10.0.0.0/1234",
+                "10.0.0/8", "10.0.0.0/8/8", "2001:db8::/x", "host/8"};
+        for (String text : invalid) {
+            assertNull(Cidr.parse(text), text);
+        }
+        assertNull(Cidr.parse(null));
+    }
+
+    @Test
+    void tellsRangesFromAddresses() {
+        assertTrue(Cidr.isCidr("10.0.0.0/8"));
+        assertFalse(Cidr.isCidr("10.0.0.1"));
+        assertFalse(Cidr.isCidr(null));
+    }
+
+    @Test
+    void matchesIPv4Ranges() {
+        Cidr range = Cidr.parse("10.0.0.0/8");
+        assertTrue(contains(range, "10.255.1.1"));
+        assertFalse(contains(range, "11.0.0.0"));
+        assertFalse(contains(range, "9.255.255.255"));
+        assertFalse(contains(range, "::ffff:a00:1"));
+
+        assertTrue(contains(Cidr.parse("10.1.2.3/8"), "10.9.9.9"));
+    }
+
+    @Test
+    void matchesAtPrefixBounds() {
+        Cidr all = Cidr.parse("0.0.0.0/0");
+        assertTrue(contains(all, "255.255.255.255"));
+        assertFalse(contains(all, "::1"));
+
+        Cidr host = Cidr.parse("1.2.3.4/32");
+        assertTrue(contains(host, "1.2.3.4"));
+        assertFalse(contains(host, "1.2.3.5"));
+    }
+
+    @Test
+    void matchesIPv6Ranges() {
+        Cidr range = Cidr.parse("2001:db8::/32");
+        assertTrue(contains(range, "2001:db8:1::5"));
+        assertFalse(contains(range, "2001:db9::"));
+        assertFalse(contains(range, "10.0.0.1"));
+
+        // Prefixes past 64 bits compare the low half as well
+        Cidr narrow = Cidr.parse("2001:db8::1:0/112");
+        assertTrue(contains(narrow, "2001:db8::1:ffff"));
+        assertFalse(contains(narrow, "2001:db8::2:0"));
+
+        Cidr host = Cidr.parse("2001:db8::1/128");
+        assertTrue(contains(host, "2001:db8::1"));
+        assertFalse(contains(host, "2001:db8::2"));
+    }
+
+    @Test
+    void matchesMappedRangesAsIPv4() {
+        assertTrue(contains(Cidr.parse("::ffff:10.0.0.0/104"), "10.20.30.40"));
+    }
+
+    private static boolean contains(Cidr range, String address) {
+        assertNotNull(range);
+        long v4 = AddressCodec.parseIPv4(address);
+        if (v4 >= 0) {
+            return range.contains(v4 << 32, 0, false);
+        }
+        long[] v6 = new long[2];
+        assertTrue(AddressCodec.parseIPv6(address, v6), address);
+        return range.contains(v6[0], v6[1], true);
+    }
+}
@@ -0,0 +1,68 @@
+package org.jodelleIpWhitelist.WhitelistManager;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Matching addresses against ranges through the prefix tries.
+ */
+class AddressRangesTest {
+
+    @Test
+    void matchesIPv4Prefixes() throws UnknownHostException {
+        AddressRanges ranges = AddressRanges.compile(List.of("10.0.0.0/8", "192.168.1.0/24", "1.2.3.4/32"));
+        assertTrue(ranges.contains(address("10.255.1.1")));
+        assertTrue(ranges.contains(address("192.168.1.200")));
+        assertTrue(ranges.contains(address("1.2.3.4")));
+        assertFalse(ranges.contains(address("11.0.0.0")));
+        assertFalse(ranges.contains(address("192.168.2.1")));
+        assertFalse(ranges.contains(address("1.2.3.5")));
+        assertFalse(ranges.contains(address("::1")));
+    }
+
+    @Test
+    void matchesIPv6Prefixes() throws UnknownHostException {
+        AddressRanges ranges = AddressRanges.compile(List.of("2001:db8::/32", "fe80::1:0/112", "2a00::1/128"));
+        assertTrue(ranges.contains(address("2001:db8:1::5")));
+        assertTrue(ranges.contains(address("fe80::1:ffff")));
+        assertTrue(ranges.contains(address("2a00::1")));
+        assertFalse(ranges.contains(address("2001:db9::")));
+        assertFalse(ranges.contains(address("fe80::2:0")));
+        assertFalse(ranges.contains(address("2a00::2")));
+        assertFalse(ranges.contains(address("10.0.0.1")));
+    }
+
+    @Test
+    void matchesEverythingWithAZeroPrefix() throws UnknownHostException {
+        AddressRanges ranges = AddressRanges.compile(List.of("0.0.0.0/0"));
+        assertTrue(ranges.contains(address("255.255.255.255")));
+        assertTrue(ranges.contains(address("0.0.0.0")));
+        assertFalse(ranges.contains(address("::")));
+    }
+
+    @Test
+    void matchesMappedRangesAsIPv4() throws UnknownHostException {
+        // Java hands IPv4-mapped clients over as plain IPv4 addresses
+        AddressRanges ranges = AddressRanges.compile(List.of("::ffff:10.0.0.0/104"));
+        assertTrue(ranges.contains(address("10.20.30.40")));
+        assertTrue(ranges.contains(address("::ffff:10.20.30.40")));
+    }
+
+    @Test
+    void skipsInvalidEntries() {
+        assertSame(AddressRanges.EMPTY, AddressRanges.compile(List.of("10.0.0.0/33", "nonsense")));
+        assertEquals(1, AddressRanges.compile(List.of("10.0.0.0/8", "nonsense")).size());
+    }
+
+    private static InetAddress address(String literal) throws UnknownHostException {
+        return InetAddress.getByName(literal);
+    }
+}
@@ -0,0 +1,72 @@
+package org.jodelleIpWhitelist.WhitelistManager;
+
+import org.jodelleIpWhitelist.Config.PluginConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.helpers.NOPLogger;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Expiry of entries that have not been used for whitelist.entryTtlDays.
+ */
+class UsageTrackerTest {
+
+    private static final Logger LOGGER = NOPLogger.NOP_LOGGER;
+
+    @TempDir
+    Path directory;
+
+    private PluginConfig.Whitelist config;
+    private WhiteListManager store;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        config = new PluginConfig.Whitelist();
+        config.journalFsync = false;
+        config.entryTtlDays = 30;
+        config.expiryKeepsLastEntry = false;
+        store = new WhiteListManager(LOGGER, config, directory);
+        store.loadWhitelistedIPs();
+        store.addIP("Steve", "1.1.1.1");
+        store.addIP("Steve", "10.0.0.0/8");
+        store.addIP("Steve", "2.2.2.2");
+
+        // 1.1.1.1 was added long ago and never used, 2.2.2.2 let Steve in yesterday
+        long now = System.currentTimeMillis();
+        long old = now - TimeUnit.DAYS.toMillis(90);
+        Files.write(directory.resolve("ip_usage.tsv"), List.of(
+                "Steve\t1.1.1.1\t" + old + "\t0\t0",
+                "Steve\t10.0.0.0/8\t" + old + "\t0\t0",
+                "Steve\t2.2.2.2\t" + old + "\t" + (now - TimeUnit.DAYS.toMillis(1)) + "\t3"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    @Test
+    void removesUnusedAddresses() {
+        UsageTracker tracker = new UsageTracker(LOGGER, config, directory);
+        assertEquals(1, tracker.sweep(store));
+        assertEquals(List.of("10.0.0.0/8", "2.2.2.2"), store.getIpsForUsername("Steve"));
+    }
+
+    @Test
+    void keepsEverythingOnceExpiryIsDisabled() {
+        UsageTracker tracker = new UsageTracker(LOGGER, config, directory);
+        tracker.disableExpiry();
+        assertEquals(0, tracker.sweep(store));
+        assertEquals(3, store.getIpsForUsername("Steve").size());
+        assertEquals(3, tracker.get("Steve", "2.2.2.2").hits());
+    }
+}
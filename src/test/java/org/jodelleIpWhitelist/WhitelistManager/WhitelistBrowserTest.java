@@ -0,0 +1,142 @@
+package org.jodelleIpWhitelist.WhitelistManager;
+
+import org.jodelleIpWhitelist.Config.PluginConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.helpers.NOPLogger;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Paging over an in-memory store through the browser's own index, and over a store that
+ * pages itself one keyset read at a time.
+ */
+class WhitelistBrowserTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void pagesInMemoryStores() {
+        PluginConfig.Whitelist config = new PluginConfig.Whitelist();
+        config.journalFsync = false;
+        WhiteListManager store = new WhiteListManager(NOPLogger.NOP_LOGGER, config, directory);
+        store.loadWhitelistedIPs();
+        // The example entry a new whitelist.json starts with
+        store.removeIP("user1", "127.0.0.1");
+        store.addIP("carol", "3.3.3.3");
+        store.addIP("Alice", "1.1.1.1");
+        store.addIP("bob", "10.0.0.0/8");
+        try {
+            WhitelistBrowser browser = new WhitelistBrowser(store, 2);
+            WhitelistBrowser.Page first = browser.page(1, null);
+            assertEquals(List.of("Alice: 1.1.1.1", "bob: 10.0.0.0/8"), first.rows());
+            assertEquals(2, first.pages());
+            assertEquals(List.of("carol: 3.3.3.3"), browser.page(9, null).rows());
+            assertEquals(List.of("bob: 10.0.0.0/8"), browser.page(1, "10.").rows());
+            assertEquals(List.of("Alice: 1.1.1.1"), browser.page(1, "al").rows());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    void pagesStoresThatReadFromDisk() {
+        TreeMap<String, List<String>> users = new TreeMap<>();
+        for (int i = 0; i < 25; i++) {
+            users.put(String.format("user%02d", i), List.of("10.0.0." + i));
+        }
+        AtomicInteger reads = new AtomicInteger();
+        WhitelistBrowser browser = new WhitelistBrowser(pagedStore(users, new AtomicLong(), reads), 10);
+
+        WhitelistBrowser.Page first = browser.page(1, null);
+        assertEquals(3, first.pages());
+        assertEquals(25, first.matches());
+        assertEquals("user00: 10.0.0.0", first.rows().get(0));
+        assertEquals(1, reads.get());
+
+        // The next page continues after the last user shown instead of reading from the start
+        WhitelistBrowser.Page second = browser.page(2, null);
+        assertEquals("user10: 10.0.0.10", second.rows().get(0));
+        assertEquals(2, reads.get());
+
+        WhitelistBrowser.Page last = browser.page(7, null);
+        assertEquals(3, last.page());
+        assertEquals(List.of("user20: 10.0.0.20", "user21: 10.0.0.21", "user22: 10.0.0.22",
+                "user23: 10.0.0.23", "user24: 10.0.0.24"), last.rows());
+        assertEquals(3, reads.get());
+
+        WhitelistBrowser.Page filtered = browser.page(1, "10.0.0.2");
+        assertEquals(List.of("user02: 10.0.0.2", "user20: 10.0.0.20", "user21: 10.0.0.21", "user22: 10.0.0.22",
+                "user23: 10.0.0.23", "user24: 10.0.0.24"), filtered.rows());
+        assertEquals(1, filtered.pages());
+    }
+
+    @Test
+    void forgetsPageStartsAfterAChange() {
+        TreeMap<String, List<String>> users = new TreeMap<>();
+        for (int i = 0; i < 30; i++) {
+            users.put(String.format("user%02d", i), List.of("10.0.0." + i));
+        }
+        AtomicLong version = new AtomicLong();
+        WhitelistBrowser browser = new WhitelistBrowser(pagedStore(users, version, new AtomicInteger()), 10);
+        assertEquals("user10: 10.0.0.10", browser.page(2, null).rows().get(0));
+
+        users.remove("user00");
+        version.incrementAndGet();
+        assertEquals("user11: 10.0.0.11", browser.page(2, null).rows().get(0));
+        assertEquals(9, browser.page(3, null).rows().size());
+    }
+
+    /**
+     * A store that only answers the paging calls, over a sorted map.
+     */
+    private static WhitelistStore pagedStore(TreeMap<String, List<String>> users, AtomicLong version, AtomicInteger reads) {
+        return (WhitelistStore) Proxy.newProxyInstance(WhitelistStore.class.getClassLoader(),
+                new Class<?>[]{WhitelistStore.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "keepsUsersInMemory" -> false;
+                    case "version" -> version.get();
+                    case "countUsers" -> matching(users, (String) args[0]).size();
+                    case "readUsersAfter" -> {
+                        reads.incrementAndGet();
+                        Map<String, List<String>> page = new LinkedHashMap<>();
+                        Map<String, List<String>> from = args[0] == null ? users : users.tailMap((String) args[0], false);
+                        for (Map.Entry<String, List<String>> user : matching(from, (String) args[1]).entrySet()) {
+                            if (page.size() == (int) args[2]) {
+                                break;
+                            }
+                            page.put(user.getKey(), user.getValue());
+                        }
+                        yield page;
+                    }
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static Map<String, List<String>> matching(Map<String, List<String>> users, String filter) {
+        if (filter == null) {
+            return users;
+        }
+        String prefix = filter.toLowerCase(Locale.ROOT);
+        Map<String, List<String>> result = new LinkedHashMap<>();
+        users.forEach((username, ips) -> {
+            List<String> matches = new ArrayList<>(ips);
+            matches.removeIf(ip -> !ip.toLowerCase(Locale.ROOT).startsWith(prefix));
+            if (username.toLowerCase(Locale.ROOT).startsWith(prefix) || !matches.isEmpty()) {
+                result.put(username, ips);
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,142 @@
+package org.jodelleIpWhitelist.WhitelistManager;
+
+import org.jodelleIpWhitelist.Config.PluginConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.helpers.NOPLogger;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Replay after crashes at every step of a compaction: after the rotation, after a second
+ * rotation on top of a failed one, and in the middle of an append.
+ */
+class WhitelistJournalTest {
+
+    private static final Logger LOGGER = NOPLogger.NOP_LOGGER;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysRotatedRecordsBeforeActiveOnes() throws Exception {
+        Path whitelist = directory.resolve("whitelist.json");
+        WhitelistJournal journal = new WhitelistJournal(whitelist, false, LOGGER);
+        journal.appendAdd("Steve", "1.1.1.1");
+        journal.appendAdd("Steve", "2.2.2.2");
+        // Crash after the rotation, before whitelist.json was rewritten
+        journal.rotate();
+        journal.appendRemove("Steve", "1.1.1.1");
+        journal.close();
+
+        Map<String, List<String>> overlay = replay(whitelist, Map.of());
+        assertEquals(List.of("2.2.2.2"), overlay.get("Steve"));
+    }
+
+    @Test
+    void keepsBothRotationsAfterAFailedCompaction() throws Exception {
+        Path whitelist = directory.resolve("whitelist.json");
+        WhitelistJournal journal = new WhitelistJournal(whitelist, false, LOGGER);
+        journal.appendAdd("Steve", "1.1.1.1");
+        journal.rotate();
+        journal.appendAdd("Alex", "2.2.2.2");
+        // The first compaction never finished, so the rotated file is still there
+        journal.rotate();
+        journal.appendRemove("Steve", "1.1.1.1");
+        journal.close();
+
+        assertTrue(Files.exists(directory.resolve("whitelist.json.journal.old")));
+        Map<String, List<String>> overlay = replay(whitelist, Map.of());
+        assertEquals(List.of(), overlay.get("Steve"));
+        assertEquals(List.of("2.2.2.2"), overlay.get("Alex"));
+    }
+
+    @Test
+    void appliesRecordsOnTopOfTheBase() throws Exception {
+        Path whitelist = directory.resolve("whitelist.json");
+        WhitelistJournal journal = new WhitelistJournal(whitelist, false, LOGGER);
+        journal.appendAdds(Map.of("Steve", List.of("1.1.1.1", "3.3.3.3")));
+        journal.appendRemove("Alex", "2.2.2.2");
+        journal.close();
+
+        Map<String, List<String>> overlay = replay(whitelist, Map.of(
+                "Steve", List.of("1.1.1.1"),
+                "Alex", List.of("2.2.2.2"),
+                "Herobrine", List.of("4.4.4.4")));
+        assertEquals(List.of("1.1.1.1", "3.3.3.3"), overlay.get("Steve"));
+        assertEquals(List.of(), overlay.get("Alex"));
+        // Users the journal never mentions are left to the base
+        assertFalse(overlay.containsKey("Herobrine"));
+    }
+
+    @Test
+    void keepsAppendingAfterATornRecord() throws Exception {
+        Path whitelist = directory.resolve("whitelist.json");
+        WhitelistJournal journal = new WhitelistJournal(whitelist, false, LOGGER);
+        journal.appendAdd("Steve", "1.1.1.1");
+        journal.close();
+        // Crash in the middle of the next append
+        Files.writeString(directory.resolve("whitelist.json.journal"), "[\"+\",\"Steve\",\"2.2", StandardOpenOption.APPEND);
+
+        journal = new WhitelistJournal(whitelist, false, LOGGER);
+        assertEquals(1, journal.replay(new HashMap<>(), username -> null));
+        journal.appendAdd("Steve", "3.3.3.3");
+        journal.close();
+
+        assertEquals(List.of("1.1.1.1", "3.3.3.3"), replay(whitelist, Map.of()).get("Steve"));
+    }
+
+    @Test
+    void managerRecoversFromACrashDuringCompaction() throws Exception {
+        PluginConfig.Whitelist config = new PluginConfig.Whitelist();
+        config.binarySnapshot = false;
+        config.journalFsync = false;
+
+        WhiteListManager manager = new WhiteListManager(LOGGER, config, directory);
+        manager.loadWhitelistedIPs();
+        assertTrue(manager.addIP("Steve", "1.1.1.1"));
+        assertTrue(manager.addIP("Alex", "2.2.2.2"));
+        assertTrue(manager.removeIP("user1", "127.0.0.1"));
+        manager.close();
+
+        // Rotated, then the process died before whitelist.json was written
+        Files.move(directory.resolve("whitelist.json.journal"), directory.resolve("whitelist.json.journal.old"),
+                StandardCopyOption.ATOMIC_MOVE);
+
+        manager = new WhiteListManager(LOGGER, config, directory);
+        manager.loadWhitelistedIPs();
+        assertEquals(List.of("1.1.1.1"), manager.getIpsForUsername("Steve"));
+        assertEquals(List.of("2.2.2.2"), manager.getIpsForUsername("Alex"));
+        assertFalse(manager.containsUser("user1"));
+
+        // The next compaction folds the leftovers into whitelist.json
+        manager.saveWhitelistedIPs();
+        manager.close();
+        assertFalse(Files.exists(directory.resolve("whitelist.json.journal.old")));
+
+        manager = new WhiteListManager(LOGGER, config, directory);
+        manager.loadWhitelistedIPs();
+        assertEquals(2, manager.size());
+        assertEquals(List.of("1.1.1.1"), manager.getIpsForUsername("Steve"));
+        manager.close();
+    }
+
+    private Map<String, List<String>> replay(Path whitelist, Map<String, List<String>> base) {
+        WhitelistJournal journal = new WhitelistJournal(whitelist, false, LOGGER);
+        Map<String, List<String>> overlay = new HashMap<>();
+        journal.replay(overlay, base::get);
+        journal.close();
+        return overlay;
+    }
+}